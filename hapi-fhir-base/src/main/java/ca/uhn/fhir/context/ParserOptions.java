@@ -37,6 +37,7 @@ public class ParserOptions {
 	private boolean myStripVersionsFromReferences = true;
 	private Set<String> myDontStripVersionsFromReferencesAtPaths = Collections.emptySet();
 	private boolean myOverrideResourceIdWithBundleEntryFullUrl = true;
+	private boolean myStreamingJsonParsing = false;
 
 	/**
 	 * If supplied value(s), any resource references at the specified paths will have their
@@ -166,4 +167,45 @@ public class ParserOptions {
 		return this;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the JSON parser reads its input
+	 * as a stream of tokens instead of first loading the complete document into an in-memory
+	 * JSON tree. Complex elements (including contained and Bundle entry resources) are populated
+	 * as they are read, and only the simple values of the element currently being read are held
+	 * in memory. This substantially reduces the memory used to parse very large resources such
+	 * as transaction Bundles.
+	 * <p>
+	 * The parsed result is the same as with the default mode, with one exception: in the streaming
+	 * mode, a <code>_name</code> property attached to a complex (non-primitive) element is only
+	 * honoured if it appears before the element itself. This construct is not valid FHIR.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public boolean isStreamingJsonParsing() {
+		return myStreamingJsonParsing;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the JSON parser reads its input
+	 * as a stream of tokens instead of first loading the complete document into an in-memory
+	 * JSON tree. Complex elements (including contained and Bundle entry resources) are populated
+	 * as they are read, and only the simple values of the element currently being read are held
+	 * in memory. This substantially reduces the memory used to parse very large resources such
+	 * as transaction Bundles.
+	 * <p>
+	 * The parsed result is the same as with the default mode, with one exception: in the streaming
+	 * mode, a <code>_name</code> property attached to a complex (non-primitive) element is only
+	 * honoured if it appears before the element itself. This construct is not valid FHIR.
+	 * </p>
+	 *
+	 * @param theStreamingJsonParsing Set this to <code>true</code> to parse JSON content as a stream of tokens
+	 * @return Returns a reference to <code>this</code> parser so that method calls can be chained together
+	 * @since 4.1.0
+	 */
+	public ParserOptions setStreamingJsonParsing(boolean theStreamingJsonParsing) {
+		myStreamingJsonParsing = theStreamingJsonParsing;
+		return this;
+	}
+
 }
@@ -36,8 +36,10 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.AnnotatedElement;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -45,11 +47,19 @@ import java.util.stream.Collectors;
 
 public class InterceptorService implements IInterceptorService, IInterceptorBroadcaster {
 	private static final Logger ourLog = LoggerFactory.getLogger(InterceptorService.class);
+	private static final BaseInvoker[] EMPTY_INVOKER_ARRAY = new BaseInvoker[0];
 	private final List<Object> myInterceptors = new ArrayList<>();
 	private final ListMultimap<Pointcut, BaseInvoker> myGlobalInvokers = ArrayListMultimap.create();
 	private final ListMultimap<Pointcut, BaseInvoker> myAnonymousInvokers = ArrayListMultimap.create();
 	private final Object myRegistryMutex = new Object();
 	private final ThreadLocal<ListMultimap<Pointcut, BaseInvoker>> myThreadlocalInvokers = new ThreadLocal<>();
+	/**
+	 * Sorted global and anonymous invokers for each pointcut. This map is never modified
+	 * once it has been published, it is replaced (while holding {@link #myRegistryMutex})
+	 * every time an interceptor is registered or unregistered. This means that hook
+	 * calls can read it without any locking.
+	 */
+	private volatile Map<Pointcut, BaseInvoker[]> myInvokersSnapshot = Collections.emptyMap();
 	private String myName;
 	private boolean myThreadlocalInvokersEnabled = true;
 
@@ -109,6 +119,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			if (!isInterceptorAlreadyRegistered(theInterceptor)) {
 				myInterceptors.add(theInterceptor);
 			}
+			rebuildInvokersSnapshot();
 		}
 	}
 
@@ -128,6 +139,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			myAnonymousInvokers.clear();
 			myGlobalInvokers.clear();
 			myInterceptors.clear();
+			rebuildInvokersSnapshot();
 		}
 	}
 
@@ -193,6 +205,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			// Add to the global list
 			myInterceptors.add(theInterceptor);
 			sortByOrderAnnotation(myInterceptors);
+			rebuildInvokersSnapshot();
 
 			return true;
 		}
@@ -213,10 +226,40 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			boolean removed = myInterceptors.removeIf(t -> t == theInterceptor);
 			removed |= myGlobalInvokers.entries().removeIf(t -> t.getValue().getInterceptor() == theInterceptor);
 			removed |= myAnonymousInvokers.entries().removeIf(t -> t.getValue().getInterceptor() == theInterceptor);
+			if (removed) {
+				rebuildInvokersSnapshot();
+			}
 			return removed;
 		}
 	}
 
+	/**
+	 * Must be called while holding {@link #myRegistryMutex}
+	 */
+	private void rebuildInvokersSnapshot() {
+		Map<Pointcut, BaseInvoker[]> snapshot = new EnumMap<>(Pointcut.class);
+		for (Pointcut nextPointcut : Pointcut.values()) {
+			List<BaseInvoker> globalInvokers = myGlobalInvokers.get(nextPointcut);
+			List<BaseInvoker> anonymousInvokers = myAnonymousInvokers.get(nextPointcut);
+			if (globalInvokers.isEmpty() && anonymousInvokers.isEmpty()) {
+				continue;
+			}
+
+			// The sort is stable, so global invokers come before anonymous ones with the same order
+			BaseInvoker[] invokers = new BaseInvoker[globalInvokers.size() + anonymousInvokers.size()];
+			int index = 0;
+			for (BaseInvoker next : globalInvokers) {
+				invokers[index++] = next;
+			}
+			for (BaseInvoker next : anonymousInvokers) {
+				invokers[index++] = next;
+			}
+			Arrays.sort(invokers);
+			snapshot.put(nextPointcut, invokers);
+		}
+		myInvokersSnapshot = snapshot;
+	}
+
 	private void sortByOrderAnnotation(List<Object> theObjects) {
 		IdentityHashMap<Object, Integer> interceptorToOrder = new IdentityHashMap<>();
 		for (Object next : theObjects) {
@@ -242,8 +285,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 	@Override
 	public boolean hasHooks(Pointcut thePointcut) {
-		return myGlobalInvokers.containsKey(thePointcut)
-			|| myAnonymousInvokers.containsKey(thePointcut)
+		return myInvokersSnapshot.containsKey(thePointcut)
 			|| hasThreadLocalHooks(thePointcut);
 	}
 
@@ -262,7 +304,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 	}
 
 	private Object doCallHooks(Pointcut thePointcut, HookParams theParams, Object theRetVal) {
-		List<BaseInvoker> invokers = getInvokersForPointcut(thePointcut);
+		BaseInvoker[] invokers = getInvokersForPointcut(thePointcut);
 
 		/*
 		 * Call each hook in order
@@ -290,82 +332,46 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 	@VisibleForTesting
 	List<Object> getInterceptorsWithInvokersForPointcut(Pointcut thePointcut) {
-		return getInvokersForPointcut(thePointcut)
-			.stream()
+		return Arrays
+			.stream(getInvokersForPointcut(thePointcut))
 			.map(BaseInvoker::getInterceptor)
 			.collect(Collectors.toList());
 	}
 
 	/**
-	 * Returns an ordered list of invokers for the given pointcut. Note that
-	 * a new and stable list is returned to.. do whatever you want with it.
+	 * Returns an ordered array of invokers for the given pointcut. The returned
+	 * array must not be modified.
+	 * <p>
+	 * This method does not lock or allocate anything unless the current thread
+	 * has thread-local interceptors for the given pointcut.
+	 * </p>
 	 */
-	private List<BaseInvoker> getInvokersForPointcut(Pointcut thePointcut) {
-		List<BaseInvoker> invokers;
+	private BaseInvoker[] getInvokersForPointcut(Pointcut thePointcut) {
+		BaseInvoker[] invokers = myInvokersSnapshot.get(thePointcut);
+		if (invokers == null) {
+			invokers = EMPTY_INVOKER_ARRAY;
+		}
 
-		synchronized (myRegistryMutex) {
-			List<BaseInvoker> globalInvokers = myGlobalInvokers.get(thePointcut);
-			List<BaseInvoker> anonymousInvokers = myAnonymousInvokers.get(thePointcut);
-			List<BaseInvoker> threadLocalInvokers = null;
-			if (myThreadlocalInvokersEnabled) {
-				ListMultimap<Pointcut, BaseInvoker> pointcutToInvokers = myThreadlocalInvokers.get();
-				if (pointcutToInvokers != null) {
-					threadLocalInvokers = pointcutToInvokers.get(thePointcut);
+		if (myThreadlocalInvokersEnabled) {
+			ListMultimap<Pointcut, BaseInvoker> pointcutToInvokers = myThreadlocalInvokers.get();
+			if (pointcutToInvokers != null) {
+				BaseInvoker[] threadLocalInvokers = pointcutToInvokers.get(thePointcut).toArray(EMPTY_INVOKER_ARRAY);
+				if (threadLocalInvokers.length > 0) {
+					invokers = union(invokers, threadLocalInvokers);
 				}
 			}
-			invokers = union(globalInvokers, anonymousInvokers, threadLocalInvokers);
 		}
 
 		return invokers;
 	}
 
 	/**
-	 * First argument must be the global invoker list!!
+	 * First argument must be the (already sorted) shared invoker array
 	 */
-	@SafeVarargs
-	private final List<BaseInvoker> union(List<BaseInvoker>... theInvokersLists) {
-		List<BaseInvoker> haveOne = null;
-		boolean haveMultiple = false;
-		for (List<BaseInvoker> nextInvokerList : theInvokersLists) {
-			if (nextInvokerList == null || nextInvokerList.isEmpty()) {
-				continue;
-			}
-
-			if (haveOne == null) {
-				haveOne = nextInvokerList;
-			} else {
-				haveMultiple = true;
-			}
-		}
-
-		if (haveOne == null) {
-			return Collections.emptyList();
-		}
-
-		List<BaseInvoker> retVal;
-
-		if (haveMultiple == false) {
-
-			// The global list doesn't need to be sorted every time since it's sorted on
-			// insertion each time. Doing so is a waste of cycles..
-			if (haveOne == theInvokersLists[0]) {
-				retVal = haveOne;
-			} else {
-				retVal = new ArrayList<>(haveOne);
-				retVal.sort(Comparator.naturalOrder());
-			}
-
-		} else {
-
-			retVal = Arrays
-				.stream(theInvokersLists)
-				.filter(t -> t != null)
-				.flatMap(t -> t.stream())
-				.sorted()
-				.collect(Collectors.toList());
-
-		}
-
+	private static BaseInvoker[] union(BaseInvoker[] theSharedInvokers, BaseInvoker[] theThreadLocalInvokers) {
+		BaseInvoker[] retVal = Arrays.copyOf(theSharedInvokers, theSharedInvokers.length + theThreadLocalInvokers.length);
+		System.arraycopy(theThreadLocalInvokers, 0, retVal, theSharedInvokers.length, theThreadLocalInvokers.length);
+		Arrays.sort(retVal);
 		return retVal;
 	}
 
@@ -431,6 +437,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 	private static class HookInvoker extends BaseInvoker {
 
 		private final Method myMethod;
+		private final MethodHandle myMethodHandle;
 		private final Class<?>[] myParameterTypes;
 		private final int[] myParameterIndexes;
 		private final Pointcut myPointcut;
@@ -461,6 +468,22 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			}
 
 			myMethod.setAccessible(true);
+
+			/*
+			 * Bind the hook method to the interceptor and adapt it to take an array of arguments and
+			 * return Object, so that it can be called using invokeExact. This avoids the
+			 * argument checking and wrapping that Method#invoke does on every call.
+			 */
+			try {
+				myMethodHandle = MethodHandles
+					.lookup()
+					.unreflect(theHookMethod)
+					.bindTo(theInterceptor)
+					.asSpreader(Object[].class, myParameterTypes.length)
+					.asType(MethodType.methodType(Object.class, Object[].class));
+			} catch (IllegalAccessException e) {
+				throw new InternalErrorException("Unable to access hook method: " + theHookMethod, e);
+			}
 		}
 
 		@Override
@@ -494,9 +517,8 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 			// Invoke the method
 			try {
-				return myMethod.invoke(getInterceptor(), args);
-			} catch (InvocationTargetException e) {
-				Throwable targetException = e.getTargetException();
+				return (Object) myMethodHandle.invokeExact(args);
+			} catch (Throwable targetException) {
 				if (myPointcut.isShouldLogAndSwallowException(targetException)) {
 					ourLog.error("Exception thrown by interceptor: " + targetException.toString(), targetException);
 					return null;
@@ -507,8 +529,6 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 				} else {
 					throw new InternalErrorException("Failure invoking interceptor for pointcut(s) " + getPointcut(), targetException);
 				}
-			} catch (Exception e) {
-				throw new InternalErrorException(e);
 			}
 
 		}
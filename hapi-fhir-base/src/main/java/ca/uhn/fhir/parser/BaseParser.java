@@ -26,6 +26,7 @@ import ca.uhn.fhir.model.api.*;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.FhirTerser;
 import ca.uhn.fhir.util.UrlUtil;
 import com.google.common.base.Charsets;
 import org.apache.commons.lang3.StringUtils;
@@ -38,6 +39,7 @@ import javax.annotation.Nullable;
 import java.io.*;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -365,6 +367,27 @@ public abstract class BaseParser implements IParser {
 
 	protected abstract <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) throws DataFormatException;
 
+	/**
+	 * Parses a Bundle, passing each <code>Bundle.entry</code> of the root Bundle to the given
+	 * consumer (and removing it from the Bundle) as soon as it has been parsed. Subclasses which
+	 * can't parse incrementally do not need to override this method, in which case the whole
+	 * Bundle is parsed first and its entries are then passed to the consumer one by one.
+	 */
+	protected <T extends IBaseBundle> T doParseBundle(Class<T> theBundleType, Reader theReader, Consumer<IBase> theEntryConsumer) throws DataFormatException {
+		T retVal = doParseResource(theBundleType, theReader);
+		if (retVal == null) {
+			return null;
+		}
+
+		List<IBase> entries = myContext.getResourceDefinition(retVal).getChildByName("entry").getAccessor().getValues(retVal);
+		List<IBase> remaining = new LinkedList<>(entries);
+		entries.clear();
+		while (!remaining.isEmpty()) {
+			theEntryConsumer.accept(remaining.remove(0));
+		}
+		return retVal;
+	}
+
 	@Override
 	public String encodeResourceToString(IBaseResource theResource) throws DataFormatException {
 		Writer stringWriter = new StringWriter();
@@ -376,6 +399,14 @@ public abstract class BaseParser implements IParser {
 		return stringWriter.toString();
 	}
 
+	@Override
+	public void encodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Validate.notNull(theOutputStream, "theOutputStream can not be null");
+		Writer writer = new OutputStreamWriter(theOutputStream, Constants.CHARSET_UTF8);
+		encodeResourceToWriter(theResource, writer);
+		writer.flush();
+	}
+
 	@Override
 	public final void encodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException {
 		EncodeContext encodeContext = new EncodeContext();
@@ -710,39 +741,76 @@ public abstract class BaseParser implements IParser {
 			List<IBase> entries = entryChild.getAccessor().getValues(retVal);
 			if (entries != null) {
 				for (IBase nextEntry : entries) {
+					overrideResourceIdWithBundleEntryFullUrl(entryDef, nextEntry);
+				}
+			}
 
-					/**
-					 * If Bundle.entry.fullUrl is populated, set the resource ID to that
-					 */
-					// TODO: should emit a warning and maybe notify the error handler if the resource ID doesn't match the
-					// fullUrl idPart
-					BaseRuntimeChildDefinition fullUrlChild = entryDef.getChildByName("fullUrl");
-					if (fullUrlChild == null) {
-						continue; // TODO: remove this once the data model in tinder plugin catches up to 1.2
-					}
-					if (isOverrideResourceIdWithBundleEntryFullUrl()) {
-						List<IBase> fullUrl = fullUrlChild.getAccessor().getValues(nextEntry);
-						if (fullUrl != null && !fullUrl.isEmpty()) {
-							IPrimitiveType<?> value = (IPrimitiveType<?>) fullUrl.get(0);
-							if (value.isEmpty() == false) {
-								List<IBase> entryResources = entryDef.getChildByName("resource").getAccessor().getValues(nextEntry);
-								if (entryResources != null && entryResources.size() > 0) {
-									IBaseResource res = (IBaseResource) entryResources.get(0);
-									String versionId = res.getIdElement().getVersionIdPart();
-									res.setId(value.getValueAsString());
-									if (isNotBlank(versionId) && res.getIdElement().hasVersionIdPart() == false) {
-										res.setId(res.getIdElement().withVersion(versionId));
-									}
-								}
-							}
+		}
+
+		return retVal;
+	}
+
+	private void overrideResourceIdWithBundleEntryFullUrl(BaseRuntimeElementCompositeDefinition<?> theEntryDef, IBase theEntry) {
+		/*
+		 * If Bundle.entry.fullUrl is populated, set the resource ID to that
+		 */
+		// TODO: should emit a warning and maybe notify the error handler if the resource ID doesn't match the
+		// fullUrl idPart
+		BaseRuntimeChildDefinition fullUrlChild = theEntryDef.getChildByName("fullUrl");
+		if (fullUrlChild == null) {
+			return; // TODO: remove this once the data model in tinder plugin catches up to 1.2
+		}
+		if (isOverrideResourceIdWithBundleEntryFullUrl()) {
+			List<IBase> fullUrl = fullUrlChild.getAccessor().getValues(theEntry);
+			if (fullUrl != null && !fullUrl.isEmpty()) {
+				IPrimitiveType<?> value = (IPrimitiveType<?>) fullUrl.get(0);
+				if (value.isEmpty() == false) {
+					List<IBase> entryResources = theEntryDef.getChildByName("resource").getAccessor().getValues(theEntry);
+					if (entryResources != null && entryResources.size() > 0) {
+						IBaseResource res = (IBaseResource) entryResources.get(0);
+						String versionId = res.getIdElement().getVersionIdPart();
+						res.setId(value.getValueAsString());
+						if (isNotBlank(versionId) && res.getIdElement().hasVersionIdPart() == false) {
+							res.setId(res.getIdElement().withVersion(versionId));
 						}
 					}
 				}
 			}
-
 		}
+	}
 
-		return retVal;
+	@Override
+	public <T extends IBaseBundle> T parseBundle(Class<T> theBundleType, InputStream theInputStream, Consumer<IBase> theEntryConsumer) throws DataFormatException {
+		return parseBundle(theBundleType, new InputStreamReader(theInputStream, Constants.CHARSET_UTF8), theEntryConsumer);
+	}
+
+	@Override
+	public <T extends IBaseBundle> T parseBundle(Class<T> theBundleType, Reader theReader, Consumer<IBase> theEntryConsumer) throws DataFormatException {
+		Validate.notNull(theBundleType, "theBundleType must not be null");
+		Validate.notNull(theEntryConsumer, "theEntryConsumer must not be null");
+
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theBundleType);
+		Validate.isTrue("Bundle".equals(def.getName()), "theBundleType must be a Bundle type, found: %s", def.getName());
+		BaseRuntimeElementCompositeDefinition<?> entryDef = (BaseRuntimeElementCompositeDefinition<?>) def.getChildByName("entry").getChildByName("entry");
+		FhirTerser terser = myContext.newTerser();
+
+		return doParseBundle(theBundleType, theReader, theEntry -> {
+
+			/*
+			 * The same per-entry processing that a full parse applies once the whole
+			 * Bundle has been read
+			 */
+			IBaseResource resource = terser.getSingleValueOrNull(theEntry, "resource", IBaseResource.class);
+			if (resource != null && resource.getIdElement().isEmpty()) {
+				IPrimitiveType<?> requestUrl = terser.getSingleValueOrNull(theEntry, "request.url", IPrimitiveType.class);
+				if (requestUrl != null && isNotBlank(requestUrl.getValueAsString()) && requestUrl.getValueAsString().startsWith("urn:")) {
+					resource.setId(requestUrl.getValueAsString());
+				}
+			}
+			overrideResourceIdWithBundleEntryFullUrl(entryDef, theEntry);
+
+			theEntryConsumer.accept(theEntry);
+		});
 	}
 
 	@SuppressWarnings("cast")
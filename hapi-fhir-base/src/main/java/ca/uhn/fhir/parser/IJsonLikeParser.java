@@ -21,11 +21,13 @@ package ca.uhn.fhir.parser;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
 import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.parser.json.BinaryJsonWriter;
 import ca.uhn.fhir.parser.json.JsonLikeStructure;
 import ca.uhn.fhir.parser.json.JsonLikeWriter;
 
@@ -41,6 +43,34 @@ public interface IJsonLikeParser extends IParser {
 
 	void encodeResourceToJsonLikeWriter(IBaseResource theResource, JsonLikeWriter theJsonLikeWriter) throws IOException, DataFormatException;
 
+	/**
+	 * Encodes a resource in the compact binary form written by {@link BinaryJsonWriter}. This form is
+	 * not intended for exchange with other systems, but is smaller than JSON text and much faster to
+	 * parse using {@link #parseResourceFromBinary(Class, byte[])}.
+	 *
+	 * @param theResource
+	 *           The resource to encode
+	 * @param theOutputStream
+	 *           The stream to write to. Note that the stream will not be closed by the parser upon completion.
+	 * @since 4.1.0
+	 */
+	void encodeResourceToBinary(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException;
+
+	/**
+	 * Parses a resource from the compact binary form written by {@link #encodeResourceToBinary(IBaseResource, OutputStream)}
+	 *
+	 * @param theResourceType
+	 *           The resource type to use. This can be used to explicitly specify a class which extends a built-in type
+	 *           (e.g. a custom type extending the default Patient class)
+	 * @param theBytes
+	 *           The binary content to parse
+	 * @return A parsed resource
+	 * @throws DataFormatException
+	 *            If the resource can not be parsed because the data is not recognized or invalid for any reason
+	 * @since 4.1.0
+	 */
+	<T extends IBaseResource> T parseResourceFromBinary(Class<T> theResourceType, byte[] theBytes) throws DataFormatException;
+
 	/**
 	 * Parses a resource from a JSON-like data structure
 	 * 
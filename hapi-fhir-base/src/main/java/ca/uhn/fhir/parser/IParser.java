@@ -26,16 +26,20 @@ import ca.uhn.fhir.context.ParserOptions;
 import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.rest.api.EncodingEnum;
 import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * A parser, which can be used to convert between HAPI FHIR model/structure objects, and their respective String wire
@@ -51,6 +55,14 @@ public interface IParser {
 
 	void encodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException;
 
+	/**
+	 * Encodes a resource as UTF-8 directly into the given stream, without building an intermediate
+	 * String. The stream is flushed but not closed by the parser upon completion.
+	 *
+	 * @since 4.1.0
+	 */
+	void encodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException;
+
 	/**
 	 * If not set to null (as is the default) this ID will be used as the ID in any
 	 * resources encoded by this parser
@@ -140,6 +152,52 @@ public interface IParser {
 	 */
 	<T extends IBaseResource> T parseResource(Class<T> theResourceType, InputStream theInputStream) throws DataFormatException;
 
+	/**
+	 * Parses a Bundle incrementally, handing each <code>Bundle.entry</code> to the given consumer as
+	 * soon as it has been parsed instead of accumulating all entries in memory. This allows very large
+	 * transaction, batch and collection Bundles to be processed in roughly constant memory.
+	 * <p>
+	 * Each entry is fully populated (including the <code>resource</code> and any contained resources)
+	 * when it is passed to the consumer, and the resource ID is set from <code>Bundle.entry.fullUrl</code>
+	 * according to {@link #setOverrideResourceIdWithBundleEntryFullUrl(Boolean)}. Because entries are
+	 * released as they are parsed, references between resources in different entries are <b>not</b>
+	 * resolved (i.e. {@link org.hl7.fhir.instance.model.api.IBaseReference#getResource()} is not
+	 * populated across entries as it is by {@link #parseResource(Class, Reader)}).
+	 * </p>
+	 * <p>
+	 * With the JSON parser the document is read in streaming mode (see
+	 * {@link ParserOptions#setStreamingJsonParsing(boolean)}) regardless of the context setting.
+	 * </p>
+	 *
+	 * @param theBundleType
+	 *           The Bundle type to use (e.g. <code>org.hl7.fhir.r4.model.Bundle.class</code>)
+	 * @param theReader
+	 *           The reader to parse input from. Note that the Reader will not be closed by the parser upon completion.
+	 * @param theEntryConsumer
+	 *           Receives each <code>Bundle.entry</code> in document order
+	 * @return The Bundle, containing every element except for the entries
+	 * @throws DataFormatException
+	 *            If the Bundle can not be parsed because the data is not recognized or invalid for any reason
+	 * @since 4.1.0
+	 */
+	<T extends IBaseBundle> T parseBundle(Class<T> theBundleType, Reader theReader, Consumer<IBase> theEntryConsumer) throws DataFormatException;
+
+	/**
+	 * Parses a Bundle incrementally. See {@link #parseBundle(Class, Reader, Consumer)} for details.
+	 *
+	 * @param theBundleType
+	 *           The Bundle type to use (e.g. <code>org.hl7.fhir.r4.model.Bundle.class</code>)
+	 * @param theInputStream
+	 *           The InputStream to parse input from, <b>with an implied charset of UTF-8</b>. Note that the InputStream will not be closed by the parser upon completion.
+	 * @param theEntryConsumer
+	 *           Receives each <code>Bundle.entry</code> in document order
+	 * @return The Bundle, containing every element except for the entries
+	 * @throws DataFormatException
+	 *            If the Bundle can not be parsed because the data is not recognized or invalid for any reason
+	 * @since 4.1.0
+	 */
+	<T extends IBaseBundle> T parseBundle(Class<T> theBundleType, InputStream theInputStream, Consumer<IBase> theEntryConsumer) throws DataFormatException;
+
 	/**
 	 * Parses a resource
 	 * 
@@ -36,16 +36,26 @@ import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.util.ElementUtil;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonToken;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.text.WordUtils;
 import org.hl7.fhir.instance.model.api.*;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static ca.uhn.fhir.context.BaseRuntimeElementDefinition.ChildTypeEnum.ID_DATATYPE;
 import static ca.uhn.fhir.context.BaseRuntimeElementDefinition.ChildTypeEnum.PRIMITIVE_DATATYPE;
@@ -58,6 +68,7 @@ import static org.apache.commons.lang3.StringUtils.*;
 public class JsonParser extends BaseParser implements IJsonLikeParser {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(JsonParser.HeldExtension.class);
+	private static final com.google.gson.JsonParser GSON_ELEMENT_PARSER = new com.google.gson.JsonParser();
 
 	private FhirContext myContext;
 	private boolean myPrettyPrint;
@@ -172,6 +183,10 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 
 	@Override
 	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
+		if (myContext.getParserOptions().isStreamingJsonParsing()) {
+			return doParseResourceStreaming(theResourceType, theReader, null);
+		}
+
 		JsonLikeStructure jsonStructure = new GsonStructure();
 		jsonStructure.load(theReader);
 
@@ -204,6 +219,260 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		return retVal;
 	}
 
+	@Override
+	protected <T extends IBaseBundle> T doParseBundle(Class<T> theBundleType, Reader theReader, Consumer<IBase> theEntryConsumer) {
+		return doParseResourceStreaming(theBundleType, theReader, theEntryConsumer);
+	}
+
+	/**
+	 * Parses a resource without first loading the whole document into a JSON tree. See
+	 * {@link ParserOptions#setStreamingJsonParsing(boolean)} for details.
+	 */
+	private <T extends IBaseResource> T doParseResourceStreaming(Class<T> theResourceType, Reader theReader, Consumer<IBase> theBundleEntryConsumer) {
+		return doParseResourceStreaming(theResourceType, new GsonReader(theReader), theBundleEntryConsumer);
+	}
+
+	private <T extends IBaseResource> T doParseResourceStreaming(Class<T> theResourceType, JsonLikeReader theJsonReader, Consumer<IBase> theBundleEntryConsumer) {
+		ParserState<? extends IBaseResource> state = ParserState.getPreResourceInstance(this, theResourceType, myContext, true, getErrorHandler());
+		state.setBundleEntryConsumer(theBundleEntryConsumer);
+
+		try {
+			JsonToken firstToken;
+			try {
+				firstToken = theJsonReader.peek();
+			} catch (EOFException e) {
+				throw new DataFormatException("Did not find any content to parse", e);
+			}
+			if (firstToken != JsonToken.BEGIN_OBJECT) {
+				throw new DataFormatException("Content does not appear to be FHIR JSON, first token was: " + firstToken + " (must be '{')");
+			}
+			theJsonReader.beginObject();
+			streamResource(theJsonReader, state, true);
+		} catch (IOException | IllegalStateException | JsonParseException e) {
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		}
+
+		state.endingElement();
+
+		@SuppressWarnings("unchecked")
+		T retVal = (T) state.getObject();
+
+		return retVal;
+	}
+
+	/**
+	 * Parses the contents of a resource, starting just after its opening brace. If <code>resourceType</code>
+	 * is the first property (as it is in anything HAPI or most other tools produce) the resource is streamed,
+	 * otherwise its content is loaded as a tree since the type is needed before anything else can be parsed.
+	 */
+	private void streamResource(JsonLikeReader theReader, ParserState<?> theState, boolean theRootResource) throws IOException {
+		JsonObject object = new JsonObject();
+		if (theReader.hasNext()) {
+			String firstName = theReader.nextName();
+			if ("resourceType".equals(firstName) && theReader.peek() == JsonToken.STRING) {
+				String resourceType = theReader.nextString();
+				if (theRootResource && isBlank(resourceType)) {
+					throw new DataFormatException("Invalid JSON content detected, missing required element: 'resourceType'");
+				}
+				theState.enteringNewElement(null, resourceType);
+				streamChildren(theReader, theState);
+				theState.endingElement();
+				return;
+			}
+			object.add(firstName, readJsonElement(theReader));
+		}
+		readRemainingMembers(theReader, object);
+
+		JsonLikeObject jsonLikeObject = toJsonLikeObject(object);
+		JsonLikeValue resourceTypeObj = jsonLikeObject.get("resourceType");
+		if (resourceTypeObj == null || !resourceTypeObj.isString() || (theRootResource && isBlank(resourceTypeObj.getAsString()))) {
+			if (theRootResource) {
+				throw new DataFormatException("Invalid JSON content detected, missing required element: 'resourceType'");
+			}
+			throw new DataFormatException("Missing required element 'resourceType' from JSON resource object, unable to parse");
+		}
+		theState.enteringNewElement(null, resourceTypeObj.getAsString());
+		parseChildren(jsonLikeObject, theState);
+		theState.endingElement();
+	}
+
+	/**
+	 * Parses the properties of an object, starting just after its opening brace and ending after its
+	 * closing brace. Complex elements and arrays of complex elements are streamed into the parser state
+	 * as they are read. Everything else (primitives, extensions and <code>_name</code> properties, which
+	 * may come before or after the primitive they belong to) is collected and handed to the
+	 * tree based {@link #parseChildren(JsonLikeObject, ParserState)} once the object is complete.
+	 */
+	private void streamChildren(JsonLikeReader theReader, ParserState<?> theState) throws IOException {
+		JsonObject buffered = new JsonObject();
+		Set<String> streamedNames = null;
+
+		while (theReader.hasNext()) {
+			String name = theReader.nextName();
+			JsonToken token = theReader.peek();
+			if (!isStreamableChildName(name) || (token != JsonToken.BEGIN_OBJECT && token != JsonToken.BEGIN_ARRAY)) {
+				buffered.add(name, readJsonElement(theReader));
+				continue;
+			}
+
+			String alternateName = '_' + name;
+			JsonElement alternate = buffered.remove(alternateName);
+
+			if (token == JsonToken.BEGIN_OBJECT) {
+				theReader.beginObject();
+				streamElement(theReader, theState, name, alternate, false);
+			} else {
+				theReader.beginArray();
+				if (theReader.hasNext() && theReader.peek() != JsonToken.BEGIN_OBJECT) {
+					// Not an array of complex elements, so it is handled along with the primitives
+					JsonArray array = new JsonArray();
+					readRemainingElements(theReader, array);
+					buffered.add(name, array);
+					if (alternate != null) {
+						buffered.add(alternateName, alternate);
+					}
+					continue;
+				}
+
+				JsonArray alternateArray = null;
+				if (alternate != null) {
+					if (alternate.isJsonArray()) {
+						alternateArray = alternate.getAsJsonArray();
+					} else {
+						getErrorHandler().incorrectJsonType(null, alternateName, ValueType.ARRAY, null, toJsonLikeValue(alternate).getJsonType(), null);
+					}
+				}
+
+				for (int i = 0; theReader.hasNext(); i++) {
+					JsonElement nextAlternate = null;
+					if (alternateArray != null && alternateArray.size() > i) {
+						nextAlternate = alternateArray.get(i);
+					}
+					if (theReader.peek() == JsonToken.BEGIN_OBJECT) {
+						theReader.beginObject();
+						streamElement(theReader, theState, name, nextAlternate, true);
+					} else {
+						parseChildren(theState, name, toJsonLikeValue(readJsonElement(theReader)), toJsonLikeValue(nextAlternate), alternateName, true);
+					}
+				}
+				theReader.endArray();
+			}
+
+			if (streamedNames == null) {
+				streamedNames = new HashSet<>();
+			}
+			streamedNames.add(name);
+		}
+		theReader.endObject();
+
+		if (streamedNames != null) {
+			for (String next : streamedNames) {
+				buffered.remove('_' + next);
+			}
+		}
+		if (buffered.size() > 0) {
+			parseChildren(toJsonLikeObject(buffered), theState);
+		}
+	}
+
+	/**
+	 * Parses a complex element, starting just after its opening brace
+	 */
+	private void streamElement(JsonLikeReader theReader, ParserState<?> theState, String theName, JsonElement theAlternate, boolean theInArray) throws IOException {
+		if (!theInArray && theState.elementIsRepeating(theName)) {
+			getErrorHandler().incorrectJsonType(null, theName, ValueType.ARRAY, null, ValueType.OBJECT, null);
+		}
+
+		theState.enteringNewElement(null, theName);
+		String alternateName = '_' + theName;
+		parseAlternates(toJsonLikeValue(theAlternate), theState, alternateName, alternateName);
+		if (theState.isPreResource()) {
+			streamResource(theReader, theState, false);
+		} else {
+			streamChildren(theReader, theState);
+		}
+		theState.endingElement();
+	}
+
+	private static boolean isStreamableChildName(String theName) {
+		if (theName.isEmpty() || theName.charAt(0) == '_') {
+			return false;
+		}
+		switch (theName) {
+			case "resourceType":
+			case "id":
+			case "extension":
+			case "modifierExtension":
+			case "fhir_comments":
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Reads the next value into a Gson tree, the same way Gson itself would
+	 */
+	private static JsonElement readJsonElement(JsonLikeReader theReader) throws IOException {
+		JsonToken token = theReader.peek();
+		switch (token) {
+			case BEGIN_OBJECT:
+				JsonObject object = new JsonObject();
+				theReader.beginObject();
+				readRemainingMembers(theReader, object);
+				return object;
+			case BEGIN_ARRAY:
+				JsonArray array = new JsonArray();
+				theReader.beginArray();
+				readRemainingElements(theReader, array);
+				return array;
+			case STRING:
+				return new JsonPrimitive(theReader.nextString());
+			case NUMBER:
+				// Gson keeps the number's text as it was written
+				return GSON_ELEMENT_PARSER.parse(theReader.nextString());
+			case BOOLEAN:
+				return new JsonPrimitive(theReader.nextBoolean());
+			case NULL:
+				theReader.nextNull();
+				return JsonNull.INSTANCE;
+			default:
+				throw new IllegalStateException("Expected a value but was " + token);
+		}
+	}
+
+	private static void readRemainingMembers(JsonLikeReader theReader, JsonObject theObject) throws IOException {
+		while (theReader.hasNext()) {
+			String name = theReader.nextName();
+			theObject.add(name, readJsonElement(theReader));
+		}
+		theReader.endObject();
+	}
+
+	private static void readRemainingElements(JsonLikeReader theReader, JsonArray theArray) throws IOException {
+		while (theReader.hasNext()) {
+			theArray.add(readJsonElement(theReader));
+		}
+		theReader.endArray();
+	}
+
+	private static JsonLikeObject toJsonLikeObject(JsonObject theObject) {
+		GsonStructure structure = new GsonStructure();
+		structure.setNativeObject(theObject);
+		return structure.getRootObject();
+	}
+
+	private static JsonLikeValue toJsonLikeValue(JsonElement theElement) {
+		if (theElement == null) {
+			return null;
+		}
+		JsonArray wrapper = new JsonArray(1);
+		wrapper.add(theElement);
+		GsonStructure structure = new GsonStructure();
+		structure.setNativeArray(wrapper);
+		return structure.getRootArray().get(0);
+	}
+
 	private void encodeChildElementToStreamWriter(RuntimeResourceDefinition theResDef, IBaseResource theResource, JsonLikeWriter theEventWriter, IBase theNextValue,
 																 BaseRuntimeElementDefinition<?> theChildDef, String theChildName, boolean theContainedResource, CompositeChildElement theChildElem,
 																 boolean theForceEmpty, EncodeContext theEncodeContext) throws IOException {
@@ -603,6 +872,28 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		doEncodeResourceToJsonLikeWriter(theResource, theJsonLikeWriter, encodeContext);
 	}
 
+	@Override
+	public void encodeResourceToBinary(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Validate.notNull(theOutputStream, "theOutputStream can not be null");
+		encodeResourceToJsonLikeWriter(theResource, new BinaryJsonWriter(theOutputStream));
+	}
+
+	@Override
+	public <T extends IBaseResource> T parseResourceFromBinary(Class<T> theResourceType, byte[] theBytes) throws DataFormatException {
+		Validate.notNull(theBytes, "theBytes can not be null");
+		if (theResourceType != null) {
+			myContext.getResourceDefinition(theResourceType);
+		}
+
+		BinaryJsonReader reader;
+		try {
+			reader = new BinaryJsonReader(theBytes);
+		} catch (IllegalStateException e) {
+			throw new DataFormatException(e.getMessage(), e);
+		}
+		return doParseResourceStreaming(theResourceType, reader, null);
+	}
+
 	private void encodeResourceToJsonStreamWriter(RuntimeResourceDefinition theResDef, IBaseResource theResource, JsonLikeWriter theEventWriter, String theObjectNameOrNull,
 																 boolean theContainedResource, EncodeContext theEncodeContext) throws IOException {
 		IIdType resourceId = null;
@@ -40,12 +40,14 @@ import org.hl7.fhir.instance.model.api.*;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.apache.commons.lang3.StringUtils.*;
 
 class ParserState<T> {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ParserState.class);
+	private Consumer<IBase> myBundleEntryConsumer;
 	private final FhirContext myContext;
 	private final IParserErrorHandler myErrorHandler;
 	private final boolean myJsonMode;
@@ -131,6 +133,15 @@ class ParserState<T> {
 	}
 
 
+	/**
+	 * If set, each <code>Bundle.entry</code> of the root resource (which must be a Bundle) is handed
+	 * to this consumer as soon as it has been completely parsed, and is then removed from the Bundle
+	 * so that it can be garbage collected.
+	 */
+	void setBundleEntryConsumer(Consumer<IBase> theBundleEntryConsumer) {
+		myBundleEntryConsumer = theBundleEntryConsumer;
+	}
+
 	public void string(String theData) {
 		myState.string(theData);
 	}
@@ -229,6 +240,10 @@ class ParserState<T> {
 			push(new SwallowChildrenWholeState(getPreResourceState()));
 		}
 
+		BaseState getStack() {
+			return myStack;
+		}
+
 		public void setStack(BaseState theState) {
 			myStack = theState;
 		}
@@ -463,9 +478,29 @@ class ParserState<T> {
 
 		@Override
 		public void endingElement() {
+			if (myBundleEntryConsumer != null && isRootBundleEntry()) {
+				ElementCompositeState bundleState = (ElementCompositeState) getStack();
+				List<IBase> entries = bundleState.myDefinition.getChildByName("entry").getAccessor().getValues(bundleState.myInstance);
+				if (!entries.isEmpty() && entries.get(entries.size() - 1) == myInstance) {
+					entries.remove(entries.size() - 1);
+				}
+				myBundleEntryConsumer.accept(myInstance);
+			}
 			pop();
 		}
 
+		private boolean isRootBundleEntry() {
+			if (!"entry".equals(myElementName) || getStack() == null) {
+				return false;
+			}
+			BaseState bundleState = getStack();
+			if (bundleState.getStack() == null || !bundleState.getStack().isPreResource() || bundleState.getStack().getStack() != null) {
+				return false;
+			}
+			IBase bundle = bundleState.getCurrentElement();
+			return bundle instanceof IBaseResource && "Bundle".equals(myContext.getResourceDefinition((IBaseResource) bundle).getName());
+		}
+
 		@Override
 		public void enteringNewElement(String theNamespace, String theChildName) throws DataFormatException {
 			BaseRuntimeChildDefinition child = myDefinition.getChildByName(theChildName);
@@ -44,6 +44,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -746,6 +747,14 @@ public class XmlParser extends BaseParser {
 		return EncodingEnum.XML;
 	}
 
+	@Override
+	protected <T extends IBaseBundle> T doParseBundle(Class<T> theBundleType, Reader theReader, Consumer<IBase> theEntryConsumer) {
+		XMLEventReader streamReader = createStreamReader(theReader);
+		ParserState<T> parserState = ParserState.getPreResourceInstance(this, theBundleType, myContext, false, getErrorHandler());
+		parserState.setBundleEntryConsumer(theEntryConsumer);
+		return doXmlLoop(streamReader, parserState);
+	}
+
 	private <T extends IBaseResource> T parseResource(Class<T> theResourceType, XMLEventReader theStreamReader) {
 		ParserState<T> parserState = ParserState.getPreResourceInstance(this, theResourceType, myContext, false, getErrorHandler());
 		return doXmlLoop(theStreamReader, parserState);
@@ -0,0 +1,275 @@
+package ca.uhn.fhir.parser.json;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.parser.DataFormatException;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ca.uhn.fhir.parser.json.BinaryJsonWriter.*;
+
+/**
+ * Reads content written by {@link BinaryJsonWriter}
+ */
+public class BinaryJsonReader implements JsonLikeReader {
+
+	private final byte[] myBytes;
+	private final List<String> myNames = new ArrayList<>();
+	private final List<String> myStrings = new ArrayList<>();
+	private int myPosition;
+
+	public BinaryJsonReader(byte[] theBytes) {
+		myBytes = theBytes;
+		if (theBytes.length < HEADER.length) {
+			throw new IllegalStateException("Content is not binary JSON: too short");
+		}
+		for (int i = 0; i < HEADER.length; i++) {
+			if (theBytes[i] != HEADER[i]) {
+				throw new IllegalStateException("Content is not binary JSON (or was written by an unsupported version)");
+			}
+		}
+		myPosition = HEADER.length;
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		expect(JsonToken.BEGIN_ARRAY);
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		expect(JsonToken.END_ARRAY);
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		expect(JsonToken.BEGIN_OBJECT);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		expect(JsonToken.END_OBJECT);
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		JsonToken token = peek();
+		return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+		if (myPosition >= myBytes.length) {
+			return JsonToken.END_DOCUMENT;
+		}
+		switch (myBytes[myPosition]) {
+			case BEGIN_OBJECT:
+				return JsonToken.BEGIN_OBJECT;
+			case END_OBJECT:
+				return JsonToken.END_OBJECT;
+			case BEGIN_ARRAY:
+				return JsonToken.BEGIN_ARRAY;
+			case END_ARRAY:
+				return JsonToken.END_ARRAY;
+			case NAME:
+			case NAME_REF:
+				return JsonToken.NAME;
+			case STRING:
+			case STRING_REF:
+				return JsonToken.STRING;
+			case NUMBER:
+				return JsonToken.NUMBER;
+			case TRUE:
+			case FALSE:
+				return JsonToken.BOOLEAN;
+			case NULL:
+				return JsonToken.NULL;
+			default:
+				throw new IllegalStateException("Unknown binary JSON token type " + myBytes[myPosition] + " at offset " + myPosition);
+		}
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.NAME) {
+			throw unexpected(JsonToken.NAME, token);
+		}
+		if (myBytes[myPosition++] == NAME_REF) {
+			return lookUp(myNames, readVarInt(), "name");
+		}
+		String retVal = readUtf8(readVarInt());
+		if (myNames.size() < MAX_SHARED_ENTRIES) {
+			myNames.add(retVal);
+		}
+		return retVal;
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		JsonToken token = peek();
+		switch (token) {
+			case NUMBER:
+				myPosition++;
+				return readUtf8(readVarInt());
+			case STRING:
+				break;
+			default:
+				throw unexpected(JsonToken.STRING, token);
+		}
+		if (myBytes[myPosition++] == STRING_REF) {
+			return lookUp(myStrings, readVarInt(), "string");
+		}
+		int length = readVarInt();
+		String retVal = readUtf8(length);
+		if (length <= MAX_SHARED_STRING_BYTES && myStrings.size() < MAX_SHARED_ENTRIES) {
+			myStrings.add(retVal);
+		}
+		return retVal;
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.BOOLEAN) {
+			throw unexpected(JsonToken.BOOLEAN, token);
+		}
+		return myBytes[myPosition++] == TRUE;
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		expect(JsonToken.NULL);
+	}
+
+	private String getPath() {
+		return "offset " + myPosition;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " at " + getPath();
+	}
+
+	private void expect(JsonToken theToken) throws IOException {
+		JsonToken token = peek();
+		if (token != theToken) {
+			throw unexpected(theToken, token);
+		}
+		myPosition++;
+	}
+
+	private IllegalStateException unexpected(JsonToken theExpected, JsonToken theActual) {
+		return new IllegalStateException("Expected " + theExpected + " but was " + theActual + " at " + getPath());
+	}
+
+	/**
+	 * Returns a name or string that was shared by an earlier occurrence
+	 */
+	private String lookUp(List<String> theShared, int theIndex, String theDescription) {
+		if (theIndex < 0 || theIndex >= theShared.size()) {
+			throw new DataFormatException("Invalid binary JSON content at " + getPath() + ": reference to " + theDescription + " " + theIndex + " but only " + theShared.size() + " have been read");
+		}
+		return theShared.get(theIndex);
+	}
+
+	private String readUtf8(int theLength) {
+		if (theLength < 0 || myPosition + theLength > myBytes.length) {
+			throw new IllegalStateException("Truncated binary JSON content at " + getPath());
+		}
+		String retVal = new String(myBytes, myPosition, theLength, StandardCharsets.UTF_8);
+		myPosition += theLength;
+		return retVal;
+	}
+
+	private int readVarInt() {
+		int retVal = 0;
+		int shift = 0;
+		while (true) {
+			if (myPosition >= myBytes.length || shift > 28) {
+				throw new IllegalStateException("Truncated binary JSON content at " + getPath());
+			}
+			byte next = myBytes[myPosition++];
+			retVal |= (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) {
+				return retVal;
+			}
+			shift += 7;
+		}
+	}
+
+	/**
+	 * Converts binary JSON content back into JSON text, without parsing it into a resource
+	 */
+	public static String toJson(byte[] theBytes) throws IOException {
+		StringWriter retVal = new StringWriter();
+		JsonWriter writer = new JsonWriter(retVal);
+		writer.setSerializeNulls(true);
+		BinaryJsonReader reader = new BinaryJsonReader(theBytes);
+		while (true) {
+			switch (reader.peek()) {
+				case BEGIN_OBJECT:
+					reader.beginObject();
+					writer.beginObject();
+					break;
+				case END_OBJECT:
+					reader.endObject();
+					writer.endObject();
+					break;
+				case BEGIN_ARRAY:
+					reader.beginArray();
+					writer.beginArray();
+					break;
+				case END_ARRAY:
+					reader.endArray();
+					writer.endArray();
+					break;
+				case NAME:
+					writer.name(reader.nextName());
+					break;
+				case STRING:
+					writer.value(reader.nextString());
+					break;
+				case NUMBER:
+					writer.jsonValue(reader.nextString());
+					break;
+				case BOOLEAN:
+					writer.value(reader.nextBoolean());
+					break;
+				case NULL:
+					reader.nextNull();
+					writer.nullValue();
+					break;
+				case END_DOCUMENT:
+				default:
+					writer.flush();
+					return retVal.toString();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,361 @@
+package ca.uhn.fhir.parser.json;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes JSON content in a compact binary form which can be read back using {@link BinaryJsonReader}.
+ * <p>
+ * The binary form holds exactly the same tokens as the equivalent JSON text, but every token is
+ * introduced by a single type byte and lengths are written up front, so reading it needs no
+ * character scanning, escaping or number parsing. Property names (and short string values) are
+ * written out once per document and referred to by index after that, which removes most of the
+ * repetition in FHIR content (<code>"system"</code>, <code>"code"</code>, <code>"url"</code>,
+ * common code system URLs, etc.).
+ * </p>
+ * <p>
+ * Numbers are kept in their original textual form so that the precision of FHIR decimals is
+ * preserved.
+ * </p>
+ */
+public class BinaryJsonWriter extends JsonLikeWriter {
+
+	static final byte[] HEADER = {'H', 'B', 'J', 1};
+	static final byte BEGIN_OBJECT = 1;
+	static final byte END_OBJECT = 2;
+	static final byte BEGIN_ARRAY = 3;
+	static final byte END_ARRAY = 4;
+	static final byte NAME = 5;
+	static final byte NAME_REF = 6;
+	static final byte STRING = 7;
+	static final byte STRING_REF = 8;
+	static final byte NUMBER = 9;
+	static final byte TRUE = 10;
+	static final byte FALSE = 11;
+	static final byte NULL = 12;
+
+	/**
+	 * String values up to this many bytes are added to the shared value table
+	 */
+	static final int MAX_SHARED_STRING_BYTES = 64;
+	/**
+	 * Maximum number of entries in each of the shared name and value tables
+	 */
+	static final int MAX_SHARED_ENTRIES = 1024;
+
+	private final OutputStream myOutputStream;
+	private final Deque<Boolean> myBlockIsArrayStack = new ArrayDeque<>();
+	private final Map<String, Integer> myNames = new HashMap<>();
+	private final Map<String, Integer> myStrings = new HashMap<>();
+
+	public BinaryJsonWriter(OutputStream theOutputStream) {
+		myOutputStream = theOutputStream;
+	}
+
+	@Override
+	public JsonLikeWriter init() throws IOException {
+		myBlockIsArrayStack.clear();
+		myNames.clear();
+		myStrings.clear();
+		myOutputStream.write(HEADER);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter flush() throws IOException {
+		myOutputStream.flush();
+		return this;
+	}
+
+	@Override
+	public void close() throws IOException {
+		myOutputStream.close();
+	}
+
+	@Override
+	public JsonLikeWriter beginObject() throws IOException {
+		myBlockIsArrayStack.push(false);
+		myOutputStream.write(BEGIN_OBJECT);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter beginArray() throws IOException {
+		myBlockIsArrayStack.push(true);
+		myOutputStream.write(BEGIN_ARRAY);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter beginObject(String name) throws IOException {
+		writeName(name);
+		return beginObject();
+	}
+
+	@Override
+	public JsonLikeWriter beginArray(String name) throws IOException {
+		writeName(name);
+		return beginArray();
+	}
+
+	@Override
+	public JsonLikeWriter write(String value) throws IOException {
+		if (value == null) {
+			return writeNull();
+		}
+		writeString(value);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter write(BigInteger value) throws IOException {
+		return writeNumber(value);
+	}
+
+	@Override
+	public JsonLikeWriter write(BigDecimal value) throws IOException {
+		return writeNumber(value);
+	}
+
+	@Override
+	public JsonLikeWriter write(long value) throws IOException {
+		writeNumber(Long.toString(value));
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter write(double value) throws IOException {
+		writeNumber(Double.toString(value));
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter write(Boolean value) throws IOException {
+		if (value == null) {
+			return writeNull();
+		}
+		return write(value.booleanValue());
+	}
+
+	@Override
+	public JsonLikeWriter write(boolean value) throws IOException {
+		myOutputStream.write(value ? TRUE : FALSE);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter writeNull() throws IOException {
+		myOutputStream.write(NULL);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, String value) throws IOException {
+		writeName(name);
+		return write(value);
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, BigInteger value) throws IOException {
+		writeName(name);
+		return write(value);
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, BigDecimal value) throws IOException {
+		writeName(name);
+		return write(value);
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, long value) throws IOException {
+		writeName(name);
+		return write(value);
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, double value) throws IOException {
+		writeName(name);
+		return write(value);
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, Boolean value) throws IOException {
+		writeName(name);
+		return write(value);
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, boolean value) throws IOException {
+		writeName(name);
+		return write(value);
+	}
+
+	@Override
+	public JsonLikeWriter writeNull(String name) throws IOException {
+		writeName(name);
+		return writeNull();
+	}
+
+	@Override
+	public JsonLikeWriter endObject() throws IOException {
+		myBlockIsArrayStack.pop();
+		myOutputStream.write(END_OBJECT);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter endArray() throws IOException {
+		myBlockIsArrayStack.pop();
+		myOutputStream.write(END_ARRAY);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter endBlock() throws IOException {
+		if (myBlockIsArrayStack.peek()) {
+			return endArray();
+		}
+		return endObject();
+	}
+
+	private JsonLikeWriter writeNumber(Number theValue) throws IOException {
+		if (theValue == null) {
+			return writeNull();
+		}
+		writeNumber(theValue.toString());
+		return this;
+	}
+
+	private void writeNumber(String theValue) throws IOException {
+		myOutputStream.write(NUMBER);
+		writeBytes(theValue.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private void writeName(String theName) throws IOException {
+		Integer index = myNames.get(theName);
+		if (index != null) {
+			myOutputStream.write(NAME_REF);
+			writeVarInt(index);
+			return;
+		}
+		if (myNames.size() < MAX_SHARED_ENTRIES) {
+			myNames.put(theName, myNames.size());
+		}
+		myOutputStream.write(NAME);
+		writeBytes(theName.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void writeString(String theValue) throws IOException {
+		Integer index = myStrings.get(theValue);
+		if (index != null) {
+			myOutputStream.write(STRING_REF);
+			writeVarInt(index);
+			return;
+		}
+		byte[] bytes = theValue.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= MAX_SHARED_STRING_BYTES && myStrings.size() < MAX_SHARED_ENTRIES) {
+			myStrings.put(theValue, myStrings.size());
+		}
+		myOutputStream.write(STRING);
+		writeBytes(bytes);
+	}
+
+	private void writeBytes(byte[] theBytes) throws IOException {
+		writeVarInt(theBytes.length);
+		myOutputStream.write(theBytes);
+	}
+
+	private void writeVarInt(int theValue) throws IOException {
+		int value = theValue;
+		while ((value & ~0x7F) != 0) {
+			myOutputStream.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		myOutputStream.write(value);
+	}
+
+	/**
+	 * Converts JSON text into the binary form, without parsing it into a resource
+	 */
+	public static byte[] fromJson(String theJson) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		BinaryJsonWriter writer = new BinaryJsonWriter(os);
+		writer.init();
+		JsonReader reader = new JsonReader(new StringReader(theJson));
+		reader.setLenient(true);
+		while (true) {
+			JsonToken token = reader.peek();
+			switch (token) {
+				case BEGIN_OBJECT:
+					reader.beginObject();
+					writer.beginObject();
+					break;
+				case END_OBJECT:
+					reader.endObject();
+					writer.endObject();
+					break;
+				case BEGIN_ARRAY:
+					reader.beginArray();
+					writer.beginArray();
+					break;
+				case END_ARRAY:
+					reader.endArray();
+					writer.endArray();
+					break;
+				case NAME:
+					writer.writeName(reader.nextName());
+					break;
+				case STRING:
+					writer.writeString(reader.nextString());
+					break;
+				case NUMBER:
+					writer.writeNumber(reader.nextString());
+					break;
+				case BOOLEAN:
+					writer.write(reader.nextBoolean());
+					break;
+				case NULL:
+					reader.nextNull();
+					writer.writeNull();
+					break;
+				case END_DOCUMENT:
+				default:
+					return os.toByteArray();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package ca.uhn.fhir.parser.json;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads JSON text using a (lenient) Gson {@link JsonReader}
+ */
+public class GsonReader implements JsonLikeReader {
+
+	private final JsonReader myReader;
+
+	public GsonReader(Reader theReader) {
+		myReader = new JsonReader(theReader);
+		myReader.setLenient(true);
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+		return myReader.peek();
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		myReader.beginObject();
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		myReader.endObject();
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		myReader.beginArray();
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		myReader.endArray();
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		return myReader.hasNext();
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		return myReader.nextName();
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		return myReader.nextString();
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		return myReader.nextBoolean();
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		myReader.nextNull();
+	}
+
+}
@@ -0,0 +1,63 @@
+package ca.uhn.fhir.parser.json;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Pulls JSON tokens one at a time from either JSON text (see {@link GsonReader}) or
+ * binary JSON (see {@link BinaryJsonReader}), so that the streaming mode of the JSON
+ * parser can read both.
+ */
+public interface JsonLikeReader {
+
+	/**
+	 * Returns the type of the next token without consuming it
+	 */
+	JsonToken peek() throws IOException;
+
+	void beginObject() throws IOException;
+
+	void endObject() throws IOException;
+
+	void beginArray() throws IOException;
+
+	void endArray() throws IOException;
+
+	/**
+	 * Returns <code>true</code> if the current object or array has another member
+	 */
+	boolean hasNext() throws IOException;
+
+	String nextName() throws IOException;
+
+	/**
+	 * Returns the next string, or the text of the next number
+	 */
+	String nextString() throws IOException;
+
+	boolean nextBoolean() throws IOException;
+
+	void nextNull() throws IOException;
+
+}
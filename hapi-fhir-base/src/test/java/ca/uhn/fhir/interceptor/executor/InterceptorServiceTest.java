@@ -435,6 +435,34 @@ public class InterceptorServiceTest {
 
 	}
 
+	@Test
+	public void testThreadLocalHookInterceptorOrderedWithGlobalInterceptors() {
+		InterceptorService svc = new InterceptorService();
+		MyTestInterceptorOne interceptor1 = new MyTestInterceptorOne();
+		MyTestInterceptorTwo interceptor2 = new MyTestInterceptorTwo();
+		svc.registerInterceptor(interceptor1);
+		svc.registerInterceptor(interceptor2);
+		svc.registerAnonymousInterceptor(Pointcut.TEST_RB, 250, (thePointcut, theArgs) -> myInvocations.add("Anonymous"));
+
+		MyTestInterceptorManual threadLocalInterceptor = new MyTestInterceptorManual();
+		svc.registerThreadLocalInterceptor(threadLocalInterceptor);
+		try {
+			assertTrue(svc.callHooks(Pointcut.TEST_RB, new HookParams("A", "B")));
+			assertThat(myInvocations, contains("MyTestInterceptorOne.testRb", "MyTestInterceptorManual.testRb", "Anonymous", "MyTestInterceptorTwo.testRb"));
+		} finally {
+			svc.unregisterThreadLocalInterceptor(threadLocalInterceptor);
+		}
+
+		// Unregistering replaces the shared invokers
+		myInvocations.clear();
+		svc.unregisterInterceptor(interceptor1);
+		assertTrue(svc.callHooks(Pointcut.TEST_RB, new HookParams("A", "B")));
+		assertThat(myInvocations, contains("Anonymous", "MyTestInterceptorTwo.testRb"));
+
+		svc.unregisterAllInterceptors();
+		assertFalse(svc.hasHooks(Pointcut.TEST_RB));
+	}
+
 	/**
 	 * <pre>
 	 * JA 20190321 On my MBP 2018
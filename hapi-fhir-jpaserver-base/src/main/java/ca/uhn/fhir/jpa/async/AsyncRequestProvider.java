@@ -0,0 +1,95 @@
+package ca.uhn.fhir.jpa.async;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.model.util.JpaConstants;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.google.common.annotations.VisibleForTesting;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+public class AsyncRequestProvider {
+
+	@Autowired
+	private IAsyncRequestSvc myAsyncRequestSvc;
+
+	@VisibleForTesting
+	public void setAsyncRequestSvcForUnitTests(IAsyncRequestSvc theAsyncRequestSvc) {
+		myAsyncRequestSvc = theAsyncRequestSvc;
+	}
+
+	/**
+	 * $async-poll-status
+	 */
+	@Operation(name = JpaConstants.OPERATION_ASYNC_POLL_STATUS, manualResponse = true, idempotent = true)
+	public void asyncPollStatus(
+		@OperationParam(name = JpaConstants.PARAM_ASYNC_POLL_STATUS_JOB_ID, typeName = "string", min = 0, max = 1) IPrimitiveType<String> theJobId,
+		ServletRequestDetails theRequestDetails
+	) throws IOException {
+
+		if (theJobId == null || isBlank(theJobId.getValueAsString())) {
+			throw new InvalidRequestException("Missing " + JpaConstants.PARAM_ASYNC_POLL_STATUS_JOB_ID + " parameter");
+		}
+
+		HttpServletResponse response = theRequestDetails.getServletResponse();
+		theRequestDetails.getServer().addHeadersToResponse(response);
+
+		IAsyncRequestSvc.JobInfo status = myAsyncRequestSvc.getJobStatusOrThrowResourceNotFound(theJobId.getValueAsString(), theRequestDetails);
+
+		switch (status.getStatus()) {
+			case SUBMITTED:
+			case RUNNING:
+
+				response.setStatus(Constants.STATUS_HTTP_202_ACCEPTED);
+				response.addHeader(Constants.HEADER_X_PROGRESS, "Request in progress - Status set to " + status.getStatus() + " at " + new InstantType(status.getStatusTime()).getValueAsString());
+				response.addHeader(Constants.HEADER_RETRY_AFTER, "10");
+				break;
+
+			case COMPLETE:
+			case ERROR:
+
+				// Respond with whatever the request would have returned had it been processed synchronously
+				response.setStatus(status.getResponseStatus());
+				if (status.getResponseBody() != null) {
+					response.setContentType(defaultIfBlank(status.getResponseContentType(), Constants.CT_FHIR_JSON_NEW + Constants.CHARSET_UTF8_CTSUFFIX));
+					try (OutputStream outputStream = response.getOutputStream()) {
+						outputStream.write(status.getResponseBody());
+					}
+				}
+				break;
+
+		}
+
+	}
+
+}
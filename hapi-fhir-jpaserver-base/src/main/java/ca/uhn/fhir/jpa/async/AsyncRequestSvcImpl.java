@@ -0,0 +1,380 @@
+package ca.uhn.fhir.jpa.async;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.data.IAsyncRequestJobDao;
+import ca.uhn.fhir.jpa.entity.AsyncRequestJobEntity;
+import ca.uhn.fhir.jpa.model.sched.FireAtIntervalJob;
+import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
+import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
+import ca.uhn.fhir.jpa.model.util.JpaConstants;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.servlet.BufferedHttpServletResponse;
+import ca.uhn.fhir.util.OperationOutcomeUtil;
+import ca.uhn.fhir.util.StopWatch;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.time.DateUtils;
+import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.PersistJobDataAfterExecution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.transaction.Transactional;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+public class AsyncRequestSvcImpl implements IAsyncRequestSvc {
+
+	private static final long REFRESH_INTERVAL = DateUtils.MILLIS_PER_MINUTE;
+	/**
+	 * Jobs which are still active but whose status time has not been updated for this
+	 * long are assumed to have been abandoned by a server which has stopped
+	 */
+	private static final long ABANDONED_JOB_CUTOFF = 10 * REFRESH_INTERVAL;
+	/**
+	 * Requests submitted while this many requests are already waiting for a thread
+	 * are processed synchronously instead
+	 */
+	private static final int MAX_QUEUED_REQUESTS = 1000;
+	private static final int PURGE_BATCH_SIZE = 100;
+	private static final Set<AsyncRequestStatusEnum> ACTIVE_STATUSES = EnumSet.of(AsyncRequestStatusEnum.SUBMITTED, AsyncRequestStatusEnum.RUNNING);
+	/**
+	 * Only read-only requests are accepted, since replaying a write in the background
+	 * after the client has gone away would make its outcome hard to reason about
+	 */
+	private static final Set<RestOperationTypeEnum> SUPPORTED_OPERATIONS = EnumSet.of(
+		RestOperationTypeEnum.SEARCH_TYPE,
+		RestOperationTypeEnum.SEARCH_SYSTEM,
+		RestOperationTypeEnum.EXTENDED_OPERATION_SERVER,
+		RestOperationTypeEnum.EXTENDED_OPERATION_TYPE,
+		RestOperationTypeEnum.EXTENDED_OPERATION_INSTANCE
+	);
+	private static final Logger ourLog = LoggerFactory.getLogger(AsyncRequestSvcImpl.class);
+
+	@Autowired
+	private IAsyncRequestJobDao myAsyncRequestJobDao;
+	@Autowired
+	private ISchedulerService mySchedulerService;
+	@Autowired
+	private FhirContext myContext;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	private TransactionTemplate myTxTemplate;
+	private ThreadFactory myThreadFactory = new BasicThreadFactory.Builder().namingPattern("AsyncRequest-%d").build();
+	private ThreadPoolExecutor myTaskExecutor;
+	/**
+	 * The jobs which have been submitted to this server and have not yet finished
+	 */
+	private final Set<String> myActiveJobIds = ConcurrentHashMap.newKeySet();
+
+	private int myRetentionPeriod = (int) (2 * DateUtils.MILLIS_PER_HOUR);
+
+	@PostConstruct
+	public void start() {
+		myTxTemplate = new TransactionTemplate(myTxManager);
+
+		int threadCount = myDaoConfig.getAsyncRequestThreadCount();
+		myTaskExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+			0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(MAX_QUEUED_REQUESTS),
+			myThreadFactory
+		);
+
+		ScheduledJobDefinition jobDetail = new ScheduledJobDefinition();
+		jobDetail.setId(AsyncRequestSvcImpl.class.getName());
+		jobDetail.setJobClass(AsyncRequestSvcImpl.PurgeJob.class);
+		mySchedulerService.scheduleFixedDelay(REFRESH_INTERVAL, true, jobDetail);
+
+		// Every server keeps the status time of the jobs it is processing up to date
+		ScheduledJobDefinition heartbeatJobDetail = new ScheduledJobDefinition();
+		heartbeatJobDetail.setId(AsyncRequestSvcImpl.class.getName() + "_heartbeat");
+		heartbeatJobDetail.setJobClass(AsyncRequestSvcImpl.HeartbeatJob.class);
+		mySchedulerService.scheduleFixedDelay(REFRESH_INTERVAL, false, heartbeatJobDetail);
+	}
+
+	@PreDestroy
+	public void stop() {
+		myTaskExecutor.shutdown();
+	}
+
+	@Override
+	public String submitAsyncRequest(RequestDetails theRequestDetails, Callable<BufferedHttpServletResponse> theTask) {
+		if (theRequestDetails.getRequestType() != RequestTypeEnum.GET) {
+			return null;
+		}
+		if (!SUPPORTED_OPERATIONS.contains(theRequestDetails.getRestOperationType())) {
+			return null;
+		}
+
+		AsyncRequestJobEntity job = new AsyncRequestJobEntity();
+		job.setJobId(UUID.randomUUID().toString());
+		job.setStatus(AsyncRequestStatusEnum.SUBMITTED);
+		job.setCreated(new Date());
+		job.setRequest(StringUtils.left(theRequestDetails.getCompleteUrl(), AsyncRequestJobEntity.REQUEST_LENGTH));
+		job.setRequesterHash(hashRequester(theRequestDetails));
+		Long pid = myTxTemplate.execute(t -> myAsyncRequestJobDao.save(job).getId());
+
+		String jobId = job.getJobId();
+		myActiveJobIds.add(jobId);
+		try {
+			myTaskExecutor.submit(() -> processJob(jobId, theTask));
+		} catch (RejectedExecutionException e) {
+			ourLog.warn("Too many async requests are already queued, processing request synchronously: {}", job.getRequest());
+			myActiveJobIds.remove(jobId);
+			myTxTemplate.execute(t -> {
+				myAsyncRequestJobDao.deleteByPid(pid);
+				return null;
+			});
+			return null;
+		}
+
+		ourLog.info("Accepted async request as job {}: {}", jobId, job.getRequest());
+
+		String serverBase = StringUtils.removeEnd(theRequestDetails.getServerBaseForRequest(), "/");
+		return serverBase + "/" + JpaConstants.OPERATION_ASYNC_POLL_STATUS + "?" + JpaConstants.PARAM_ASYNC_POLL_STATUS_JOB_ID + "=" + jobId;
+	}
+
+	private void processJob(String theJobId, Callable<BufferedHttpServletResponse> theTask) {
+		try {
+			updateJob(theJobId, job -> job.setStatus(AsyncRequestStatusEnum.RUNNING));
+			StopWatch sw = new StopWatch();
+
+			int responseStatus;
+			String contentType;
+			byte[] responseBody;
+			String message = null;
+			try {
+				// The task handles any failure the same way a synchronous request would
+				BufferedHttpServletResponse response = theTask.call();
+				responseStatus = response.getStatus();
+				contentType = response.getContentType();
+				responseBody = response.getBody();
+				if (responseStatus >= Constants.STATUS_HTTP_400_BAD_REQUEST) {
+					message = "Request failed with HTTP status " + responseStatus;
+				}
+			} catch (Exception e) {
+				ourLog.error("Failure while processing async request job " + theJobId, e);
+				responseStatus = Constants.STATUS_HTTP_500_INTERNAL_ERROR;
+				contentType = Constants.CT_FHIR_JSON_NEW + Constants.CHARSET_UTF8_CTSUFFIX;
+				message = e.toString();
+				responseBody = encodeOperationOutcome(message);
+			}
+
+			finishJob(theJobId, responseStatus, contentType, responseBody, message);
+			ourLog.info("Async request job {} finished with status {} in {}", theJobId, responseStatus, sw);
+		} finally {
+			myActiveJobIds.remove(theJobId);
+		}
+	}
+
+	private byte[] encodeOperationOutcome(String theMessage) {
+		IBaseOperationOutcome oo = OperationOutcomeUtil.newInstance(myContext);
+		OperationOutcomeUtil.addIssue(myContext, oo, "error", theMessage, null, "processing");
+		return myContext.newJsonParser().encodeResourceToString(oo).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void finishJob(String theJobId, int theResponseStatus, String theContentType, byte[] theResponseBody, String theMessage) {
+		String message = StringUtils.left(theMessage, AsyncRequestJobEntity.STATUS_MESSAGE_LEN);
+		String contentType = StringUtils.left(theContentType, AsyncRequestJobEntity.CONTENT_TYPE_LEN);
+		byte[] responseBody = theResponseBody != null && theResponseBody.length > 0 ? theResponseBody : null;
+		updateJob(theJobId, job -> {
+			if (!ACTIVE_STATUSES.contains(job.getStatus())) {
+				ourLog.warn("Async request job {} has already been marked as {}, discarding its response", theJobId, job.getStatus());
+				return;
+			}
+			job.setStatus(message == null ? AsyncRequestStatusEnum.COMPLETE : AsyncRequestStatusEnum.ERROR);
+			job.setStatusMessage(message);
+			job.setResponseStatus(theResponseStatus);
+			job.setResponseContentType(responseBody != null ? contentType : null);
+			job.setResponseBody(responseBody);
+			// The retention period only starts once the outcome is available
+			job.setExpiry(DateUtils.addMilliseconds(new Date(), myRetentionPeriod));
+		});
+	}
+
+	private void updateJob(String theJobId, Consumer<AsyncRequestJobEntity> theUpdater) {
+		myTxTemplate.execute(t -> {
+			myAsyncRequestJobDao.findByJobId(theJobId).ifPresent(job -> {
+				theUpdater.accept(job);
+				myAsyncRequestJobDao.save(job);
+			});
+			return null;
+		});
+	}
+
+	/**
+	 * Returns a hash of the credentials that identify the client making a request, or
+	 * <code>null</code> if the request carries none. By default this is the
+	 * <code>Authorization</code> header. Subclasses may override this to identify
+	 * clients some other way (e.g. by a principal established by an interceptor).
+	 */
+	protected String hashRequester(RequestDetails theRequestDetails) {
+		String authorization = theRequestDetails.getHeader(Constants.HEADER_AUTHORIZATION);
+		if (isBlank(authorization)) {
+			return null;
+		}
+		return Hashing.sha256().hashString(authorization, StandardCharsets.UTF_8).toString();
+	}
+
+	@Transactional
+	@Override
+	public JobInfo getJobStatusOrThrowResourceNotFound(String theJobId, RequestDetails theRequestDetails) {
+		AsyncRequestJobEntity job = myAsyncRequestJobDao
+			.findByJobId(theJobId)
+			.orElseThrow(() -> new ResourceNotFoundException(theJobId));
+
+		/*
+		 * A client which doesn't present the credentials the job was submitted with
+		 * gets the same response as for an unknown job, so that knowing (or guessing)
+		 * a job ID is not enough to read somebody else's results
+		 */
+		String requesterHash = job.getRequesterHash();
+		if (requesterHash != null) {
+			String pollerHash = hashRequester(theRequestDetails);
+			if (pollerHash == null || !MessageDigest.isEqual(requesterHash.getBytes(StandardCharsets.UTF_8), pollerHash.getBytes(StandardCharsets.UTF_8))) {
+				ourLog.warn("Rejecting poll for async request job {} from a client that did not submit it", theJobId);
+				throw new ResourceNotFoundException(theJobId);
+			}
+		}
+
+		return new JobInfo()
+			.setJobId(theJobId)
+			.setStatus(job.getStatus())
+			.setStatusTime(job.getStatusTime())
+			.setStatusMessage(job.getStatusMessage())
+			.setRequest(job.getRequest())
+			.setResponseStatus(job.getResponseStatus())
+			.setResponseContentType(job.getResponseContentType())
+			.setResponseBody(job.getResponseBody());
+	}
+
+	/**
+	 * This method is called by the scheduler on every server to show that
+	 * the jobs it is processing have not been abandoned
+	 */
+	@Transactional(value = Transactional.TxType.NEVER)
+	@Override
+	public void updateActiveJobStatusTimes() {
+		if (myActiveJobIds.isEmpty()) {
+			return;
+		}
+		List<String> jobIds = new ArrayList<>(myActiveJobIds);
+		Date now = new Date();
+		for (int i = 0; i < jobIds.size(); i += PURGE_BATCH_SIZE) {
+			List<String> batch = jobIds.subList(i, Math.min(jobIds.size(), i + PURGE_BATCH_SIZE));
+			myTxTemplate.execute(t -> myAsyncRequestJobDao.updateStatusTimeForJobIds(batch, ACTIVE_STATUSES, now));
+		}
+	}
+
+	/**
+	 * This method is called by the scheduler to fail jobs which are still
+	 * active but whose server has stopped updating them
+	 */
+	@Transactional(value = Transactional.TxType.NEVER)
+	@Override
+	public void failAbandonedJobs() {
+		Date cutoff = DateUtils.addMilliseconds(new Date(), (int) -ABANDONED_JOB_CUTOFF);
+		Slice<String> abandoned = myTxTemplate.execute(t -> myAsyncRequestJobDao.findJobIdsByStatusAndStatusTimeBefore(PageRequest.of(0, PURGE_BATCH_SIZE), ACTIVE_STATUSES, cutoff));
+		for (String nextJobId : abandoned) {
+			if (myActiveJobIds.contains(nextJobId)) {
+				continue;
+			}
+			ourLog.warn("Async request job {} has not been updated since {}, marking it as failed", nextJobId, cutoff);
+			String message = "Processing of the request was interrupted";
+			finishJob(nextJobId, Constants.STATUS_HTTP_500_INTERNAL_ERROR, Constants.CT_FHIR_JSON_NEW + Constants.CHARSET_UTF8_CTSUFFIX, encodeOperationOutcome(message), message);
+		}
+	}
+
+	/**
+	 * This method is called by the scheduler to remove jobs whose
+	 * outcome has been retained for long enough
+	 */
+	@Transactional(value = Transactional.TxType.NEVER)
+	@Override
+	public void purgeExpiredJobs() {
+		while (true) {
+			int deleted = myTxTemplate.execute(t -> {
+				Slice<Long> expired = myAsyncRequestJobDao.findIdsByExpiry(PageRequest.of(0, PURGE_BATCH_SIZE), new Date());
+				expired.forEach(myAsyncRequestJobDao::deleteByPid);
+				return expired.getNumberOfElements();
+			});
+			if (deleted > 0) {
+				ourLog.info("Purged {} expired async request jobs", deleted);
+			}
+			if (deleted < PURGE_BATCH_SIZE) {
+				break;
+			}
+		}
+	}
+
+	@DisallowConcurrentExecution
+	@PersistJobDataAfterExecution
+	public static class PurgeJob extends FireAtIntervalJob {
+		@Autowired
+		private IAsyncRequestSvc myTarget;
+
+		public PurgeJob() {
+			super(REFRESH_INTERVAL);
+		}
+
+		@Override
+		protected void doExecute(JobExecutionContext theContext) {
+			myTarget.failAbandonedJobs();
+			myTarget.purgeExpiredJobs();
+		}
+	}
+
+	public static class HeartbeatJob implements Job {
+		@Autowired
+		private IAsyncRequestSvc myTarget;
+
+		@Override
+		public void execute(JobExecutionContext theContext) {
+			myTarget.updateActiveJobStatusTimes();
+		}
+	}
+
+}
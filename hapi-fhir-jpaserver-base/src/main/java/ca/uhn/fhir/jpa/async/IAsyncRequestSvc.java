@@ -0,0 +1,160 @@
+package ca.uhn.fhir.jpa.async;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.IAsyncRequestHandler;
+
+import javax.transaction.Transactional;
+import java.util.Date;
+
+/**
+ * Processes requests carrying a <code>Prefer: respond-async</code> header in the
+ * background, recording their progress and outcome in the database so that they
+ * can be polled using the <code>$async-poll-status</code> operation.
+ * <p>
+ * This service is not active unless it is registered against the server using
+ * {@link ca.uhn.fhir.rest.server.RestfulServer#setAsyncRequestHandler(IAsyncRequestHandler)},
+ * along with an {@link AsyncRequestProvider} to serve the poll operation.
+ * </p>
+ */
+public interface IAsyncRequestSvc extends IAsyncRequestHandler {
+
+	@Transactional(value = Transactional.TxType.NEVER)
+	void purgeExpiredJobs();
+
+	/**
+	 * Marks the jobs being processed by this server as still alive
+	 */
+	@Transactional(value = Transactional.TxType.NEVER)
+	void updateActiveJobStatusTimes();
+
+	/**
+	 * Fails any jobs which have not been marked as alive recently, because the
+	 * server processing them has stopped
+	 */
+	@Transactional(value = Transactional.TxType.NEVER)
+	void failAbandonedJobs();
+
+	/**
+	 * Fetches the status of a job on behalf of a client which is polling for it
+	 *
+	 * @param theJobId          The job ID
+	 * @param theRequestDetails The polling request. A job submitted with credentials is only
+	 *                          returned to a request carrying the same credentials, and is
+	 *                          otherwise treated as not found.
+	 */
+	JobInfo getJobStatusOrThrowResourceNotFound(String theJobId, RequestDetails theRequestDetails);
+
+	class JobInfo {
+		private String myJobId;
+		private AsyncRequestStatusEnum myStatus;
+		private String myRequest;
+		private Date myStatusTime;
+		private String myStatusMessage;
+		private Integer myResponseStatus;
+		private String myResponseContentType;
+		private byte[] myResponseBody;
+
+		public String getJobId() {
+			return myJobId;
+		}
+
+		public JobInfo setJobId(String theJobId) {
+			myJobId = theJobId;
+			return this;
+		}
+
+		public AsyncRequestStatusEnum getStatus() {
+			return myStatus;
+		}
+
+		public JobInfo setStatus(AsyncRequestStatusEnum theStatus) {
+			myStatus = theStatus;
+			return this;
+		}
+
+		public String getRequest() {
+			return myRequest;
+		}
+
+		public JobInfo setRequest(String theRequest) {
+			myRequest = theRequest;
+			return this;
+		}
+
+		public Date getStatusTime() {
+			return myStatusTime;
+		}
+
+		public JobInfo setStatusTime(Date theStatusTime) {
+			myStatusTime = theStatusTime;
+			return this;
+		}
+
+		public String getStatusMessage() {
+			return myStatusMessage;
+		}
+
+		public JobInfo setStatusMessage(String theStatusMessage) {
+			myStatusMessage = theStatusMessage;
+			return this;
+		}
+
+		/**
+		 * The HTTP status code of the response, once the job is complete
+		 */
+		public Integer getResponseStatus() {
+			return myResponseStatus;
+		}
+
+		public JobInfo setResponseStatus(Integer theResponseStatus) {
+			myResponseStatus = theResponseStatus;
+			return this;
+		}
+
+		/**
+		 * The content type of the response body, including the character set
+		 */
+		public String getResponseContentType() {
+			return myResponseContentType;
+		}
+
+		public JobInfo setResponseContentType(String theResponseContentType) {
+			myResponseContentType = theResponseContentType;
+			return this;
+		}
+
+		/**
+		 * The encoded response body, or <code>null</code> if the job is not
+		 * complete or the request did not produce a response body
+		 */
+		public byte[] getResponseBody() {
+			return myResponseBody;
+		}
+
+		public JobInfo setResponseBody(byte[] theResponseBody) {
+			myResponseBody = theResponseBody;
+			return this;
+		}
+	}
+
+}
@@ -198,6 +198,18 @@ public class BinaryAccessProvider {
 		return outcome.getResource();
 	}
 
+	/**
+	 * Replaces any inline data in the given Binary resource or Attachment datatype with
+	 * an extension referring to the blob with the given ID in the binary storage service
+	 *
+	 * @throws IllegalArgumentException If the element is not a Binary or an Attachment
+	 */
+	public void replaceDataWithExtension(IBase theBinaryOrAttachment, String theBlobId) {
+		IBinaryTarget target = toBinaryTarget(theBinaryOrAttachment)
+			.orElseThrow(() -> new IllegalArgumentException("Element is not a Binary or Attachment: " + theBinaryOrAttachment));
+		replaceDataWithExtension(target, theBlobId);
+	}
+
 	public void replaceDataWithExtension(IBinaryTarget theTarget, String theBlobId) {
 		theTarget
 			.getTarget()
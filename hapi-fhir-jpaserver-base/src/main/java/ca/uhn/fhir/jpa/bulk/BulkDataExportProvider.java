@@ -23,6 +23,7 @@ package ca.uhn.fhir.jpa.bulk;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.model.util.JpaConstants;
 import ca.uhn.fhir.jpa.util.JsonUtil;
+import ca.uhn.fhir.rest.annotation.IdParam;
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.api.Constants;
@@ -35,6 +36,7 @@ import ca.uhn.fhir.util.OperationOutcomeUtil;
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.hl7.fhir.r4.model.InstantType;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -72,6 +74,39 @@ public class BulkDataExportProvider {
 		@OperationParam(name = JpaConstants.PARAM_EXPORT_TYPE_FILTER, min = 0, max = 1, typeName = "string") IPrimitiveType<String> theTypeFilter,
 		ServletRequestDetails theRequestDetails
 	) {
+		submitJob(theOutputFormat, theType, theSince, theTypeFilter, BulkExportStyleEnum.SYSTEM, null, theRequestDetails);
+	}
+
+	/**
+	 * Patient/$export
+	 */
+	@Operation(name = JpaConstants.OPERATION_EXPORT, typeName = "Patient", manualResponse = true, idempotent = true)
+	public void patientExport(
+		@OperationParam(name = JpaConstants.PARAM_EXPORT_OUTPUT_FORMAT, min = 0, max = 1, typeName = "string") IPrimitiveType<String> theOutputFormat,
+		@OperationParam(name = JpaConstants.PARAM_EXPORT_TYPE, min = 0, max = 1, typeName = "string") IPrimitiveType<String> theType,
+		@OperationParam(name = JpaConstants.PARAM_EXPORT_SINCE, min = 0, max = 1, typeName = "instant") IPrimitiveType<Date> theSince,
+		@OperationParam(name = JpaConstants.PARAM_EXPORT_TYPE_FILTER, min = 0, max = 1, typeName = "string") IPrimitiveType<String> theTypeFilter,
+		ServletRequestDetails theRequestDetails
+	) {
+		submitJob(theOutputFormat, theType, theSince, theTypeFilter, BulkExportStyleEnum.PATIENT, null, theRequestDetails);
+	}
+
+	/**
+	 * Group/[id]/$export
+	 */
+	@Operation(name = JpaConstants.OPERATION_EXPORT, typeName = "Group", manualResponse = true, idempotent = true)
+	public void groupExport(
+		@IdParam IIdType theId,
+		@OperationParam(name = JpaConstants.PARAM_EXPORT_OUTPUT_FORMAT, min = 0, max = 1, typeName = "string") IPrimitiveType<String> theOutputFormat,
+		@OperationParam(name = JpaConstants.PARAM_EXPORT_TYPE, min = 0, max = 1, typeName = "string") IPrimitiveType<String> theType,
+		@OperationParam(name = JpaConstants.PARAM_EXPORT_SINCE, min = 0, max = 1, typeName = "instant") IPrimitiveType<Date> theSince,
+		@OperationParam(name = JpaConstants.PARAM_EXPORT_TYPE_FILTER, min = 0, max = 1, typeName = "string") IPrimitiveType<String> theTypeFilter,
+		ServletRequestDetails theRequestDetails
+	) {
+		submitJob(theOutputFormat, theType, theSince, theTypeFilter, BulkExportStyleEnum.GROUP, theId, theRequestDetails);
+	}
+
+	private void submitJob(IPrimitiveType<String> theOutputFormat, IPrimitiveType<String> theType, IPrimitiveType<Date> theSince, IPrimitiveType<String> theTypeFilter, BulkExportStyleEnum theStyle, IIdType theGroupId, ServletRequestDetails theRequestDetails) {
 
 		String preferHeader = theRequestDetails.getHeader(Constants.HEADER_PREFER);
 		PreferHeader prefer = RestfulServerUtils.parsePreferHeader(null, preferHeader);
@@ -96,7 +131,12 @@ public class BulkDataExportProvider {
 			filters = ArrayUtil.commaSeparatedListToCleanSet(theTypeFilter.getValueAsString());
 		}
 
-		IBulkDataExportSvc.JobInfo outcome = myBulkDataExportSvc.submitJob(outputFormat, resourceTypes, since, filters);
+		IBulkDataExportSvc.JobInfo outcome;
+		if (theStyle == BulkExportStyleEnum.SYSTEM) {
+			outcome = myBulkDataExportSvc.submitJob(outputFormat, resourceTypes, since, filters);
+		} else {
+			outcome = myBulkDataExportSvc.submitJob(outputFormat, resourceTypes, since, filters, theStyle, theGroupId);
+		}
 
 		String serverBase = getServerBase(theRequestDetails);
 		String pollLocation = serverBase + "/" + JpaConstants.OPERATION_EXPORT_POLL_STATUS + "?" + JpaConstants.PARAM_EXPORT_POLL_STATUS_JOB_ID + "=" + outcome.getJobId();
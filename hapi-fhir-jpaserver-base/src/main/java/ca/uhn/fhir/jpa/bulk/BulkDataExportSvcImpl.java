@@ -21,6 +21,12 @@ package ca.uhn.fhir.jpa.bulk;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.binstore.BinaryAccessProvider;
+import ca.uhn.fhir.jpa.binstore.IBinaryStorageSvc;
+import ca.uhn.fhir.jpa.binstore.NullBinaryStorageSvcImpl;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.dao.IResultIterator;
@@ -28,6 +34,9 @@ import ca.uhn.fhir.jpa.dao.ISearchBuilder;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportCollectionDao;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportCollectionFileDao;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportJobDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceLinkDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
+import ca.uhn.fhir.jpa.dao.index.IdHelperService;
 import ca.uhn.fhir.jpa.entity.BulkExportCollectionEntity;
 import ca.uhn.fhir.jpa.entity.BulkExportCollectionFileEntity;
 import ca.uhn.fhir.jpa.entity.BulkExportJobEntity;
@@ -40,19 +49,24 @@ import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.util.ExpungeOptions;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.Constants;
-import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.util.BinaryUtil;
 import ca.uhn.fhir.util.StopWatch;
-import org.apache.commons.io.FileUtils;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.time.DateUtils;
+import org.hibernate.search.util.impl.Executors;
 import org.hl7.fhir.instance.model.api.IBaseBinary;
+import org.hl7.fhir.instance.model.api.IBaseHasExtensions;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.hl7.fhir.r4.model.InstantType;
 import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.quartz.PersistJobDataAfterExecution;
 import org.slf4j.Logger;
@@ -61,17 +75,20 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.transaction.Transactional;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.Writer;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static ca.uhn.fhir.util.UrlUtil.escapeUrlParam;
@@ -80,6 +97,17 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 
 	private static final long REFRESH_INTERVAL = 10 * DateUtils.MILLIS_PER_SECOND;
+	/**
+	 * A job that has been building for this long without its status time being updated
+	 * is assumed to have been abandoned (e.g. because the node building it crashed). Every
+	 * node updates the status time of the jobs it is building every {@link #REFRESH_INTERVAL}.
+	 */
+	private static final int STALLED_JOB_THRESHOLD_MILLIS = (int) (30 * DateUtils.MILLIS_PER_MINUTE);
+	/**
+	 * The number of compartment owners (i.e. patients) to look up compartment resources for in a single query
+	 */
+	private static final int COMPARTMENT_BATCH_SIZE = 500;
+	private static final String PATIENT = "Patient";
 	private static final Logger ourLog = LoggerFactory.getLogger(BulkDataExportSvcImpl.class);
 	private int myReuseBulkExportForMillis = (int) (60 * DateUtils.MILLIS_PER_MINUTE);
 
@@ -97,9 +125,28 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 	private FhirContext myContext;
 	@Autowired
 	private PlatformTransactionManager myTxManager;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private IResourceLinkDao myResourceLinkDao;
+	@Autowired
+	private IResourceTableDao myResourceTableDao;
+	@Autowired
+	private IdHelperService myIdHelperService;
+	@Autowired
+	private BinaryAccessProvider myBinaryAccessProvider;
+	@Autowired(required = false)
+	private IBinaryStorageSvc myBinaryStorageSvc;
 	private TransactionTemplate myTxTemplate;
+	private ThreadFactory myThreadFactory = new BasicThreadFactory.Builder().namingPattern("BulkExport-%d").build();
+	private ThreadFactory myJobThreadFactory = new BasicThreadFactory.Builder().namingPattern("BulkExportJob-%d").build();
+	private ThreadPoolExecutor myTaskExecutor;
+	private ThreadPoolExecutor myJobExecutor;
+	/**
+	 * The UUIDs of the jobs which this server is building
+	 */
+	private final Set<String> myBuildingJobIds = ConcurrentHashMap.newKeySet();
 
-	private long myFileMaxChars = 500 * FileUtils.ONE_KB;
 	private int myRetentionPeriod = (int) (2 * DateUtils.MILLIS_PER_HOUR);
 
 	/**
@@ -108,28 +155,24 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 	 */
 	@Transactional(value = Transactional.TxType.NEVER)
 	@Override
-	public synchronized void buildExportFiles() {
-
-		Optional<BulkExportJobEntity> jobToProcessOpt = myTxTemplate.execute(t -> {
-			Pageable page = PageRequest.of(0, 1);
-			Slice<BulkExportJobEntity> submittedJobs = myBulkExportJobDao.findByStatus(page, BulkJobStatusEnum.SUBMITTED);
-			if (submittedJobs.isEmpty()) {
-				return Optional.empty();
-			}
-			return Optional.of(submittedJobs.getContent().get(0));
-		});
+	public void buildExportFiles() {
 
+		Optional<String> jobToProcessOpt;
+		try {
+			jobToProcessOpt = myTxTemplate.execute(t -> claimNextJob());
+		} catch (ObjectOptimisticLockingFailureException e) {
+			ourLog.debug("Bulk export job was claimed by another thread or node: {}", e.toString());
+			return;
+		}
 		if (!jobToProcessOpt.isPresent()) {
 			return;
 		}
 
-		String jobUuid = jobToProcessOpt.get().getJobId();
+		String jobUuid = jobToProcessOpt.get();
 
+		myBuildingJobIds.add(jobUuid);
 		try {
-			myTxTemplate.execute(t -> {
-				processJob(jobUuid);
-				return null;
-			});
+			processJob(jobUuid);
 		} catch (Exception e) {
 			ourLog.error("Failure while preparing bulk export extract", e);
 			myTxTemplate.execute(t -> {
@@ -142,10 +185,68 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 				}
 				return null;
 			});
+		} finally {
+			myBuildingJobIds.remove(jobUuid);
 		}
 
 	}
 
+	/**
+	 * This method is called by the scheduler on every server to show that
+	 * the jobs it is building have not been abandoned
+	 */
+	@Transactional(value = Transactional.TxType.NEVER)
+	@Override
+	public void updateBuildingJobStatusTimes() {
+		if (myBuildingJobIds.isEmpty()) {
+			return;
+		}
+		List<String> jobIds = new ArrayList<>(myBuildingJobIds);
+		myTxTemplate.execute(t -> {
+			myBulkExportJobDao.updateStatusTimeForJobIds(jobIds, BulkJobStatusEnum.BUILDING, new Date());
+			return null;
+		});
+	}
+
+	/**
+	 * This method is called by the scheduler. Each idle job thread makes one attempt
+	 * to claim and build a job, so that a long running job doesn't hold up any others.
+	 */
+	@Transactional(value = Transactional.TxType.NEVER)
+	@Override
+	public void startBuildingExportFiles() {
+		int idleThreads = myJobExecutor.getMaximumPoolSize() - myJobExecutor.getActiveCount();
+		for (int i = 0; i < idleThreads; i++) {
+			myJobExecutor.execute(this::buildExportFiles);
+		}
+	}
+
+	/**
+	 * Claims the next job to process by moving it into the {@link BulkJobStatusEnum#BUILDING}
+	 * status. A job that is already building is also claimed if it has not reported any progress
+	 * for a while, since that means the node that was building it has most likely gone away.
+	 * In that case any collections that were already completed are not processed again.
+	 * If another thread claims the same job first, committing the claim fails with an
+	 * optimistic locking failure.
+	 */
+	private Optional<String> claimNextJob() {
+		Pageable page = PageRequest.of(0, 1);
+		Slice<BulkExportJobEntity> jobs = myBulkExportJobDao.findByStatus(page, BulkJobStatusEnum.SUBMITTED);
+		if (jobs.isEmpty()) {
+			Date cutoff = DateUtils.addMilliseconds(new Date(), -STALLED_JOB_THRESHOLD_MILLIS);
+			jobs = myBulkExportJobDao.findByStatusAndStatusTimeBefore(page, BulkJobStatusEnum.BUILDING, cutoff);
+			if (jobs.isEmpty()) {
+				return Optional.empty();
+			}
+			ourLog.info("Resuming stalled bulk export job: {}", jobs.getContent().get(0));
+		}
+
+		BulkExportJobEntity job = jobs.getContent().get(0);
+		job.setStatus(BulkJobStatusEnum.BUILDING);
+		job.setStatusTime(new Date());
+		myBulkExportJobDao.saveAndFlush(job);
+		return Optional.of(job.getJobId());
+	}
 
 	/**
 	 * This method is called by the scheduler to run a pass of the
@@ -171,15 +272,7 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 
 				BulkExportJobEntity job = myBulkExportJobDao.getOne(jobToDelete.get().getId());
 				for (BulkExportCollectionEntity nextCollection : job.getCollections()) {
-					for (BulkExportCollectionFileEntity nextFile : nextCollection.getFiles()) {
-
-						ourLog.info("Purging bulk data file: {}", nextFile.getResourceId());
-						getBinaryDao().delete(toId(nextFile.getResourceId()));
-						getBinaryDao().forceExpungeInExistingTransaction(toId(nextFile.getResourceId()), new ExpungeOptions().setExpungeDeletedResources(true).setExpungeOldVersions(true), null);
-						myBulkExportCollectionFileDao.deleteByPid(nextFile.getId());
-
-					}
-
+					deleteFiles(nextCollection);
 					myBulkExportCollectionDao.deleteByPid(nextCollection.getId());
 				}
 
@@ -194,115 +287,444 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 
 	}
 
+	private void deleteFiles(BulkExportCollectionEntity theCollection) {
+		for (BulkExportCollectionFileEntity nextFile : theCollection.getFiles()) {
+
+			ourLog.info("Purging bulk data file: {}", nextFile.getResourceId());
+			deleteBinary(toQualifiedBinaryId(nextFile.getResourceId()));
+			myBulkExportCollectionFileDao.deleteByPid(nextFile.getId());
+
+		}
+	}
+
 	private void processJob(String theJobUuid) {
 
-		Optional<BulkExportJobEntity> jobOpt = myBulkExportJobDao.findByJobId(theJobUuid);
-		if (!jobOpt.isPresent()) {
+		List<Long> collectionIds = myTxTemplate.execute(t -> {
+			Optional<BulkExportJobEntity> jobOpt = myBulkExportJobDao.findByJobId(theJobUuid);
+			if (!jobOpt.isPresent()) {
+				return null;
+			}
+
+			BulkExportJobEntity job = jobOpt.get();
+			ourLog.info("Bulk export starting generation for batch export job: {}", job);
+
+			return job
+				.getCollections()
+				.stream()
+				.filter(c -> c.getStatus() != BulkJobStatusEnum.COMPLETE)
+				.map(BulkExportCollectionEntity::getId)
+				.collect(Collectors.toList());
+		});
+		if (collectionIds == null) {
 			ourLog.info("Job appears to be deleted");
 			return;
 		}
 
+		/*
+		 * For a patient or group level export, the patients whose compartments are being
+		 * exported are resolved once up front, and are then used to find the resources
+		 * in each collection
+		 */
+		List<Long> compartmentOwnerPids = myTxTemplate.execute(t -> resolveCompartmentOwners(theJobUuid));
+
 		StopWatch jobStopwatch = new StopWatch();
 		AtomicInteger jobResourceCounter = new AtomicInteger();
 
-		BulkExportJobEntity job = jobOpt.get();
-		ourLog.info("Bulk export starting generation for batch export job: {}", job);
+		/*
+		 * Each collection is split into chunks of PIDs which are exported by the worker
+		 * pool. All collections are submitted before we wait for any of them, so that
+		 * different resource types are exported in parallel too.
+		 */
+		Map<Long, List<Future<?>>> collectionToFutures = new LinkedHashMap<>();
+		try {
+			for (Long nextCollectionId : collectionIds) {
+				resetCollection(nextCollectionId);
+				List<Future<?>> futures = new ArrayList<>();
+				collectionToFutures.put(nextCollectionId, futures);
+				submitCollection(theJobUuid, nextCollectionId, compartmentOwnerPids, futures, jobResourceCounter, jobStopwatch);
+			}
 
-		for (BulkExportCollectionEntity nextCollection : job.getCollections()) {
+			for (Map.Entry<Long, List<Future<?>>> nextEntry : collectionToFutures.entrySet()) {
+				for (Future<?> nextFuture : nextEntry.getValue()) {
+					nextFuture.get();
+				}
+				checkpointCollection(nextEntry.getKey());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelAll(collectionToFutures);
+			throw new InternalErrorException(e);
+		} catch (ExecutionException e) {
+			cancelAll(collectionToFutures);
+			throw new InternalErrorException(e.getCause());
+		} catch (RuntimeException e) {
+			cancelAll(collectionToFutures);
+			throw e;
+		}
 
-			String nextType = nextCollection.getResourceType();
-			IFhirResourceDao dao = myDaoRegistry.getResourceDao(nextType);
+		myTxTemplate.execute(t -> {
+			BulkExportJobEntity job = myBulkExportJobDao.findByJobId(theJobUuid).orElseThrow(() -> new ResourceNotFoundException(theJobUuid));
+			job.setStatus(BulkJobStatusEnum.COMPLETE);
+			updateExpiry(job);
+			myBulkExportJobDao.save(job);
+
+			ourLog.info("Bulk export completed job in {}: {}", jobStopwatch, job);
+			return null;
+		});
 
-			ourLog.info("Bulk export assembling export of type {} for job {}", nextType, theJobUuid);
+	}
 
-			ISearchBuilder sb = dao.newSearchBuilder();
-			Class<? extends IBaseResource> nextTypeClass = myContext.getResourceDefinition(nextType).getImplementingClass();
-			sb.setType(nextTypeClass, nextType);
+	private void cancelAll(Map<Long, List<Future<?>>> theCollectionToFutures) {
+		theCollectionToFutures
+			.values()
+			.stream()
+			.flatMap(Collection::stream)
+			.forEach(t -> t.cancel(false));
+	}
 
-			SearchParameterMap map = new SearchParameterMap();
-			map.setLoadSynchronous(true);
-			if (job.getSince() != null) {
-				map.setLastUpdated(new DateRangeParam(job.getSince(), null));
+	/**
+	 * Discards any files left behind by an earlier attempt at building the given
+	 * collection (e.g. by a node that crashed part way through) and marks it as building
+	 */
+	private void resetCollection(Long theCollectionId) {
+		myTxTemplate.execute(t -> {
+			BulkExportCollectionEntity collection = myBulkExportCollectionDao.findById(theCollectionId).orElseThrow(IllegalStateException::new);
+			deleteFiles(collection);
+			collection.getFiles().clear();
+			collection.setStatus(BulkJobStatusEnum.BUILDING);
+			myBulkExportCollectionDao.save(collection);
+			return null;
+		});
+	}
+
+	private void checkpointCollection(Long theCollectionId) {
+		myTxTemplate.execute(t -> {
+			BulkExportCollectionEntity collection = myBulkExportCollectionDao.findById(theCollectionId).orElseThrow(IllegalStateException::new);
+			collection.setStatus(BulkJobStatusEnum.COMPLETE);
+			myBulkExportCollectionDao.save(collection);
+			myBulkExportJobDao.updateStatusTime(collection.getJob().getId(), new Date());
+
+			ourLog.info("Bulk export completed collection of type {} for job {}", collection.getResourceType(), collection.getJob().getJobId());
+			return null;
+		});
+	}
+
+	/**
+	 * Submits the chunks of the given collection to the worker pool as the PIDs are found. Each
+	 * page of PIDs is read in its own transaction, since submitting blocks while the work queue
+	 * is full and we don't want to hold a connection while that happens.
+	 *
+	 * @param theCompartmentOwnerPids If not null, only resources in the compartments of these patients are exported
+	 */
+	private void submitCollection(String theJobUuid, Long theCollectionId, List<Long> theCompartmentOwnerPids, List<Future<?>> theFutures, AtomicInteger theJobResourceCounter, StopWatch theJobStopwatch) {
+		BulkExportJobEntity job = myTxTemplate.execute(t -> myBulkExportJobDao.findByJobId(theJobUuid).orElseThrow(() -> new ResourceNotFoundException(theJobUuid)));
+		String nextType = myTxTemplate.execute(t -> myBulkExportCollectionDao.findById(theCollectionId).orElseThrow(IllegalStateException::new).getResourceType());
+		Date since = job.getSince() != null ? job.getSince() : new Date(0);
+
+		ourLog.info("Bulk export assembling export of type {} for job {}", nextType, theJobUuid);
+
+		int chunkSize = myDaoConfig.getBulkExportChunkSize();
+		Consumer<List<Long>> chunkConsumer = chunk -> {
+			ExportChunkTask task = new ExportChunkTask(theCollectionId, nextType, chunk, theJobResourceCounter, theJobStopwatch);
+			theFutures.add(myTaskExecutor.submit(task));
+		};
+
+		if (theCompartmentOwnerPids != null) {
+			chunkCompartmentResources(nextType, since, theCompartmentOwnerPids, chunkSize, chunkConsumer);
+			return;
+		}
+
+		long lastPid = -1;
+		while (true) {
+			long afterPid = lastPid;
+			List<Long> chunk = myTxTemplate.execute(t -> new ArrayList<>(myResourceTableDao.findIdsOfNonDeletedResourcesOfTypeUpdatedSince(PageRequest.of(0, chunkSize), nextType, since, afterPid).getContent()));
+			if (chunk == null || chunk.isEmpty()) {
+				break;
+			}
+			chunkConsumer.accept(chunk);
+			if (chunk.size() < chunkSize) {
+				break;
 			}
+			lastPid = chunk.get(chunk.size() - 1);
+		}
+	}
 
-			IResultIterator resultIterator = sb.createQuery(map, new SearchRuntimeDetails(null, theJobUuid), null);
-			storeResultsToFiles(nextCollection, sb, resultIterator, jobResourceCounter, jobStopwatch);
+	/**
+	 * Finds the resources of the given type in the compartments of the given patients. Rather than
+	 * performing a search per patient, the resource link table is queried for batches of patients
+	 * at a time.
+	 */
+	private void chunkCompartmentResources(String theResourceType, Date theSince, List<Long> theCompartmentOwnerPids, int theChunkSize, Consumer<List<Long>> theChunkConsumer) {
+		List<String> paths = getPatientCompartmentPaths(theResourceType);
+		if (!PATIENT.equals(theResourceType) && paths.isEmpty()) {
+			return;
+		}
 
+		Set<Long> seenPids = new HashSet<>();
+		List<Long> chunk = new ArrayList<>();
+		for (List<Long> nextOwnerPids : Lists.partition(theCompartmentOwnerPids, COMPARTMENT_BATCH_SIZE)) {
+
+			List<Long> nextPids = myTxTemplate.execute(t -> {
+				if (PATIENT.equals(theResourceType)) {
+					return myResourceTableDao.findIdsOfNonDeletedResourcesUpdatedSince(nextOwnerPids, theSince);
+				}
+				return myResourceLinkDao.findSourcePidsByPathsAndTargetPids(theResourceType, paths, nextOwnerPids, theSince);
+			});
+
+			for (Long nextPid : nextPids) {
+				// A resource can be in the compartment of more than one patient
+				if (seenPids.add(nextPid)) {
+					chunk.add(nextPid);
+					if (chunk.size() >= theChunkSize) {
+						theChunkConsumer.accept(chunk);
+						chunk = new ArrayList<>();
+					}
+				}
+			}
 
 		}
 
-		job.setStatus(BulkJobStatusEnum.COMPLETE);
-		updateExpiry(job);
-		myBulkExportJobDao.save(job);
+		if (!chunk.isEmpty()) {
+			theChunkConsumer.accept(chunk);
+		}
+	}
 
-		ourLog.info("Bulk export completed job in {}: {}", jobStopwatch, job);
+	/**
+	 * Returns the PIDs of the patients whose compartments are being exported, or <code>null</code>
+	 * if the job is a system level export
+	 */
+	private List<Long> resolveCompartmentOwners(String theJobUuid) {
+		BulkExportJobEntity job = myBulkExportJobDao.findByJobId(theJobUuid).orElseThrow(() -> new ResourceNotFoundException(theJobUuid));
+
+		List<Long> retVal;
+		switch (job.getStyle()) {
+			case GROUP:
+				Long groupPid = myIdHelperService.translateForcedIdToPid(toId(job.getGroupId()), null);
+				List<String> memberPaths = myContext.getResourceDefinition("Group").getSearchParam("member").getPathsSplit();
+				retVal = myResourceLinkDao
+					.findTargetPidsBySourcePidAndPaths(groupPid, memberPaths, PATIENT)
+					.stream()
+					.filter(Objects::nonNull)
+					.distinct()
+					.collect(Collectors.toList());
+				break;
+			case PATIENT:
+				retVal = new ArrayList<>();
+				ISearchBuilder sb = newSearchBuilder(PATIENT);
+				SearchParameterMap map = new SearchParameterMap();
+				map.setLoadSynchronous(true);
+				try (IResultIterator query = sb.createQuery(map, new SearchRuntimeDetails(null, theJobUuid), null)) {
+					while (query.hasNext()) {
+						retVal.add(query.next());
+					}
+				} catch (IOException e) {
+					throw new InternalErrorException(e);
+				}
+				break;
+			case SYSTEM:
+			default:
+				return null;
+		}
 
+		ourLog.info("Bulk export job {} will export the compartments of {} patients", theJobUuid, retVal.size());
+		return retVal;
 	}
 
-	private void storeResultsToFiles(BulkExportCollectionEntity theExportCollection, ISearchBuilder theSearchBuilder, IResultIterator theResultIterator, AtomicInteger theJobResourceCounter, StopWatch theJobStopwatch) {
+	/**
+	 * Returns the reference paths that place a resource of the given type in the patient compartment
+	 */
+	private List<String> getPatientCompartmentPaths(String theResourceType) {
+		RuntimeResourceDefinition resourceDef = myContext.getResourceDefinition(theResourceType);
+		return resourceDef
+			.getSearchParamsForCompartmentName(PATIENT)
+			.stream()
+			.map(RuntimeSearchParam::getPathsSplit)
+			.flatMap(Collection::stream)
+			.map(String::trim)
+			.filter(t -> t.startsWith(theResourceType + "."))
+			.distinct()
+			.collect(Collectors.toList());
+	}
 
-		try (IResultIterator query = theResultIterator) {
-			if (!query.hasNext()) {
-				return;
-			}
+	private Set<String> getPatientCompartmentResourceTypes() {
+		return myContext
+			.getResourceNames()
+			.stream()
+			.filter(t -> PATIENT.equals(t) || !getPatientCompartmentPaths(t).isEmpty())
+			.filter(t -> myDaoRegistry.isResourceTypeSupported(t))
+			.collect(Collectors.toSet());
+	}
+
+	private ISearchBuilder newSearchBuilder(String theResourceType) {
+		IFhirResourceDao<?> dao = myDaoRegistry.getResourceDao(theResourceType);
+		ISearchBuilder sb = dao.newSearchBuilder();
+		Class<? extends IBaseResource> nextTypeClass = myContext.getResourceDefinition(theResourceType).getImplementingClass();
+		sb.setType(nextTypeClass, theResourceType);
+		return sb;
+	}
 
-			AtomicInteger fileCounter = new AtomicInteger(0);
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			OutputStreamWriter writer = new OutputStreamWriter(outputStream, Constants.CHARSET_UTF8);
+	/**
+	 * Loads the resources with the given PIDs and writes them as NDJSON to spool files on disk,
+	 * starting a new file whenever the current one reaches the maximum file size
+	 *
+	 * @return Returns the completed files (the caller must close them)
+	 */
+	private List<BulkExportFileSpool> writeResultsToSpools(ISearchBuilder theSearchBuilder, Iterator<Long> thePidIterator, AtomicInteger theJobResourceCounter) throws IOException {
+		List<BulkExportFileSpool> retVal = new ArrayList<>();
+		if (!thePidIterator.hasNext()) {
+			return retVal;
+		}
+
+		try {
+			BulkExportFileSpool spool = new BulkExportFileSpool();
+			retVal.add(spool);
 			IParser parser = myContext.newJsonParser().setPrettyPrint(false);
+			long fileMaxBytes = myDaoConfig.getBulkExportFileMaximumBytes();
 
 			List<Long> pidsSpool = new ArrayList<>();
 			List<IBaseResource> resourcesSpool = new ArrayList<>();
-			while (query.hasNext()) {
-				pidsSpool.add(query.next());
-				fileCounter.incrementAndGet();
-				theJobResourceCounter.incrementAndGet();
+			while (thePidIterator.hasNext()) {
+				pidsSpool.add(thePidIterator.next());
 
-				if (pidsSpool.size() >= 10 || !query.hasNext()) {
+				if (pidsSpool.size() >= 10 || !thePidIterator.hasNext()) {
 
 					theSearchBuilder.loadResourcesByPid(pidsSpool, Collections.emptyList(), resourcesSpool, false, null);
 
 					for (IBaseResource nextFileResource : resourcesSpool) {
+						if (spool.isFull(fileMaxBytes)) {
+							spool = new BulkExportFileSpool();
+							retVal.add(spool);
+						}
+						Writer writer = spool.getWriter();
 						parser.encodeResourceToWriter(nextFileResource, writer);
 						writer.append("\n");
+						spool.incrementResourceCount();
+						theJobResourceCounter.incrementAndGet();
 					}
 
 					pidsSpool.clear();
 					resourcesSpool.clear();
-
-					if (outputStream.size() >= myFileMaxChars || !query.hasNext()) {
-						Optional<IIdType> createdId = flushToFiles(theExportCollection, fileCounter, outputStream);
-						createdId.ifPresent(theIIdType -> ourLog.info("Created resource {} for bulk export file containing {} resources of type {} - Total {} resources ({}/sec)", theIIdType.toUnqualifiedVersionless().getValue(), fileCounter.get(), theExportCollection.getResourceType(), theJobResourceCounter.get(), theJobStopwatch.formatThroughput(theJobResourceCounter.get(), TimeUnit.SECONDS)));
-						fileCounter.set(0);
-					}
-
 				}
 			}
 
-		} catch (IOException e) {
-			throw new InternalErrorException(e);
+		} catch (IOException | RuntimeException e) {
+			retVal.forEach(BulkExportFileSpool::close);
+			throw e;
 		}
+
+		return retVal;
 	}
 
-	private Optional<IIdType> flushToFiles(BulkExportCollectionEntity theCollection, AtomicInteger theCounter, ByteArrayOutputStream theOutputStream) {
-		if (theOutputStream.size() > 0) {
-			IBaseBinary binary = BinaryUtil.newBinary(myContext);
-			binary.setContentType(Constants.CT_FHIR_NDJSON);
-			binary.setContent(theOutputStream.toByteArray());
+	/**
+	 * Stores a completed spool file as a Binary resource belonging to the given collection.
+	 * This must not be called within a transaction.
+	 * <p>
+	 * When the file is streamed into binary storage, the Binary resource and the collection file
+	 * are committed first, and the blob is stored afterwards. That way every blob that is stored
+	 * is reachable from its collection, and is removed along with the collection's files if the
+	 * job is resumed or purged. If storing the blob fails, the Binary resource and collection file
+	 * are removed again.
+	 * </p>
+	 * <p>
+	 * Without binary storage the file is stored inline in the body of the Binary resource, which
+	 * means that it is read into memory first. The size of the files is limited by
+	 * {@link DaoConfig#setBulkExportFileMaximumBytes(long)}, so this is also the most memory that
+	 * each export thread will use for this.
+	 * </p>
+	 */
+	private Optional<IIdType> storeFile(Long theCollectionId, BulkExportFileSpool theSpool) throws IOException {
+		long byteCount = theSpool.getByteCount();
+		if (byteCount == 0) {
+			return Optional.empty();
+		}
 
-			IIdType createdId = getBinaryDao().create(binary).getResource().getIdElement();
+		IBaseBinary binary = BinaryUtil.newBinary(myContext);
+		binary.setContentType(Constants.CT_FHIR_NDJSON);
 
-			BulkExportCollectionFileEntity file = new BulkExportCollectionFileEntity();
-			theCollection.getFiles().add(file);
-			file.setCollection(theCollection);
-			file.setResource(createdId.getIdPart());
-			myBulkExportCollectionFileDao.saveAndFlush(file);
-			theOutputStream.reset();
+		if (!isUseBinaryStorage()) {
+			binary.setContent(theSpool.finishAndReadBytes());
+			return Optional.of(myTxTemplate.execute(t -> createFile(theCollectionId, binary)));
+		}
 
-			return Optional.of(createdId);
+		/*
+		 * The Binary resource is created first (with no inline content) so that it has
+		 * an ID we can associate the blob with, and then the file is streamed from
+		 * the spool into binary storage
+		 */
+		String blobId = myBinaryStorageSvc.newBlobId();
+		myBinaryAccessProvider.replaceDataWithExtension(binary, blobId);
+		IIdType createdId = myTxTemplate.execute(t -> createFile(theCollectionId, binary));
+
+		boolean stored = false;
+		try (InputStream inputStream = theSpool.finishAndOpenInputStream()) {
+			myBinaryStorageSvc.storeBlob(createdId, blobId, Constants.CT_FHIR_NDJSON, inputStream);
+			stored = true;
+		} finally {
+			if (!stored) {
+				myTxTemplate.execute(t -> {
+					myBulkExportCollectionFileDao.deleteByCollectionPidAndResource(theCollectionId, createdId.getIdPart());
+					deleteBinary(createdId);
+					return null;
+				});
+			}
 		}
 
-		return Optional.empty();
+		return Optional.of(createdId);
+	}
+
+	private IIdType createFile(Long theCollectionId, IBaseBinary theBinary) {
+		IIdType retVal = getBinaryDao().create(theBinary).getResource().getIdElement().toUnqualifiedVersionless();
+
+		BulkExportCollectionFileEntity file = new BulkExportCollectionFileEntity();
+		file.setCollection(myBulkExportCollectionDao.getOne(theCollectionId));
+		file.setResource(retVal.getIdPart());
+		myBulkExportCollectionFileDao.saveAndFlush(file);
+
+		return retVal;
+	}
+
+	private boolean isUseBinaryStorage() {
+		return myDaoConfig.isBulkExportUseBinaryStorage() && isBinaryStorageAvailable();
+	}
+
+	private boolean isBinaryStorageAvailable() {
+		return myBinaryStorageSvc != null && !(myBinaryStorageSvc instanceof NullBinaryStorageSvcImpl);
+	}
+
+	/**
+	 * Deletes and expunges the given Binary resource. If it refers to a file that was streamed
+	 * into binary storage, it is removed from there too. A Binary that no longer exists is ignored.
+	 */
+	private void deleteBinary(IIdType theBinaryId) {
+		/*
+		 * We search instead of reading the resource, since a failed read would mark the
+		 * surrounding transaction for rollback
+		 */
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add("_id", new StringParam(theBinaryId.getIdPart()));
+		List<IBaseResource> binaries = getBinaryDao().search(map).getResources(0, 1);
+		if (binaries.isEmpty()) {
+			ourLog.info("Bulk export file {} no longer exists", theBinaryId.getValue());
+			return;
+		}
+
+		if (isBinaryStorageAvailable()) {
+			IPrimitiveType<byte[]> data = BinaryUtil.getOrCreateData(myContext, (IBaseBinary) binaries.get(0));
+			if (data instanceof IBaseHasExtensions) {
+				((IBaseHasExtensions) data)
+					.getExtension()
+					.stream()
+					.filter(t -> JpaConstants.EXT_EXTERNALIZED_BINARY_ID.equals(t.getUrl()))
+					.filter(t -> t.getValue() instanceof IPrimitiveType)
+					.map(t -> ((IPrimitiveType<?>) t.getValue()).getValueAsString())
+					.filter(t -> isNotBlank(t))
+					.forEach(t -> myBinaryStorageSvc.expungeBlob(theBinaryId, t));
+			}
+		}
+
+		getBinaryDao().delete(theBinaryId);
+		getBinaryDao().forceExpungeInExistingTransaction(theBinaryId, new ExpungeOptions().setExpungeDeletedResources(true).setExpungeOldVersions(true), null);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -315,15 +737,70 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 		ourLog.info("Bulk export service starting with refresh interval {}", StopWatch.formatMillis(REFRESH_INTERVAL));
 		myTxTemplate = new TransactionTemplate(myTxManager);
 
+		if (myDaoConfig.isBulkExportUseBinaryStorage() && !isBinaryStorageAvailable()) {
+			ourLog.warn("Bulk export is configured to use binary storage, but no binary storage service is available. Export files will be stored inline in Binary resources.");
+		}
+
+		int threadCount = myDaoConfig.getBulkExportThreadCount();
+		RejectedExecutionHandler rejectHandler = new Executors.BlockPolicy();
+		myTaskExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+			0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(threadCount),
+			myThreadFactory,
+			rejectHandler
+		);
+
+		/*
+		 * Jobs are built by a separate pool, since the thread building a job spends
+		 * most of its time waiting for its chunks to be exported by the pool above.
+		 * Attempts to start a job while all job threads are busy are simply discarded,
+		 * and the job is picked up by a later pass.
+		 */
+		myJobExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+			0L, TimeUnit.MILLISECONDS,
+			new SynchronousQueue<>(),
+			myJobThreadFactory,
+			new ThreadPoolExecutor.DiscardPolicy()
+		);
+
 		ScheduledJobDefinition jobDetail = new ScheduledJobDefinition();
 		jobDetail.setId(BulkDataExportSvcImpl.class.getName());
 		jobDetail.setJobClass(BulkDataExportSvcImpl.SubmitJob.class);
 		mySchedulerService.scheduleFixedDelay(REFRESH_INTERVAL, true, jobDetail);
+
+		// Every server keeps the status time of the jobs it is building up to date
+		ScheduledJobDefinition heartbeatJobDetail = new ScheduledJobDefinition();
+		heartbeatJobDetail.setId(BulkDataExportSvcImpl.class.getName() + "_heartbeat");
+		heartbeatJobDetail.setJobClass(BulkDataExportSvcImpl.HeartbeatJob.class);
+		mySchedulerService.scheduleFixedDelay(REFRESH_INTERVAL, false, heartbeatJobDetail);
+	}
+
+	@PreDestroy
+	public void stop() {
+		myJobExecutor.shutdown();
+		myTaskExecutor.shutdown();
 	}
 
 	@Transactional
 	@Override
 	public JobInfo submitJob(String theOutputFormat, Set<String> theResourceTypes, Date theSince, Set<String> theFilters) {
+		return submitJob(theOutputFormat, theResourceTypes, theSince, theFilters, BulkExportStyleEnum.SYSTEM, null);
+	}
+
+	@Transactional
+	@Override
+	public JobInfo submitJob(String theOutputFormat, Set<String> theResourceTypes, Date theSince, Set<String> theFilters, BulkExportStyleEnum theStyle, IIdType theGroupId) {
+		String groupId = null;
+		if (theStyle == BulkExportStyleEnum.GROUP) {
+			if (theGroupId == null || !"Group".equals(theGroupId.getResourceType()) || !theGroupId.hasIdPart()) {
+				throw new InvalidRequestException("Invalid group ID for group level export: " + (theGroupId != null ? theGroupId.getValue() : null));
+			}
+			groupId = theGroupId.toUnqualifiedVersionless().getValue();
+
+			// Make sure the group exists
+			myIdHelperService.translateForcedIdToPid(theGroupId, null);
+		}
+
 		String outputFormat = Constants.CT_FHIR_NDJSON;
 		if (isNotBlank(theOutputFormat)) {
 			outputFormat = theOutputFormat;
@@ -333,7 +810,13 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 		}
 
 		StringBuilder requestBuilder = new StringBuilder();
-		requestBuilder.append("/").append(JpaConstants.OPERATION_EXPORT);
+		requestBuilder.append("/");
+		if (theStyle == BulkExportStyleEnum.PATIENT) {
+			requestBuilder.append(PATIENT).append("/");
+		} else if (theStyle == BulkExportStyleEnum.GROUP) {
+			requestBuilder.append(groupId).append("/");
+		}
+		requestBuilder.append(JpaConstants.OPERATION_EXPORT);
 		requestBuilder.append("?").append(JpaConstants.PARAM_EXPORT_OUTPUT_FORMAT).append("=").append(escapeUrlParam(outputFormat));
 		Set<String> resourceTypes = theResourceTypes;
 		if (resourceTypes != null) {
@@ -360,7 +843,21 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 			throw new InvalidRequestException(msg);
 		}
 
-		if (resourceTypes == null || resourceTypes.isEmpty()) {
+		if (theStyle != BulkExportStyleEnum.SYSTEM) {
+			// Patient and group level exports are limited to the patient compartment, so we
+			// don't need to worry about exporting the whole server
+			Set<String> compartmentResourceTypes = getPatientCompartmentResourceTypes();
+			if (resourceTypes == null || resourceTypes.isEmpty()) {
+				resourceTypes = compartmentResourceTypes;
+			} else {
+				for (String nextType : resourceTypes) {
+					if (myDaoRegistry.isResourceTypeSupported(nextType) && !compartmentResourceTypes.contains(nextType)) {
+						String msg = myContext.getLocalizer().getMessage(BulkDataExportSvcImpl.class, "typeNotInPatientCompartment", nextType);
+						throw new InvalidRequestException(msg);
+					}
+				}
+			}
+		} else if (resourceTypes == null || resourceTypes.isEmpty()) {
 			// This is probably not a useful default, but having the default be "download the whole
 			// server" seems like a risky default too. We'll deal with that by having the default involve
 			// only returning a small time span
@@ -382,6 +879,8 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 		job.setSince(since);
 		job.setCreated(new Date());
 		job.setRequest(request);
+		job.setStyle(theStyle);
+		job.setGroupId(groupId);
 
 		updateExpiry(job);
 		myBulkExportJobDao.save(job);
@@ -395,6 +894,7 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 			BulkExportCollectionEntity collection = new BulkExportCollectionEntity();
 			collection.setJob(job);
 			collection.setResourceType(nextType);
+			collection.setStatus(BulkJobStatusEnum.SUBMITTED);
 			job.getCollections().add(collection);
 			myBulkExportCollectionDao.save(collection);
 		}
@@ -447,9 +947,9 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 		return retVal;
 	}
 
-	private IIdType toQualifiedBinaryId(String theIdPart) {
+	private IIdType toQualifiedBinaryId(String theResourceId) {
 		IIdType retVal = myContext.getVersion().newIdType();
-		retVal.setParts(null, "Binary", theIdPart, null);
+		retVal.setParts(null, "Binary", toId(theResourceId).getIdPart(), null);
 
 		return retVal;
 	}
@@ -468,6 +968,56 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 		});
 	}
 
+	private class ExportChunkTask implements Callable<Void> {
+		private final Long myCollectionId;
+		private final String myResourceType;
+		private final List<Long> myPids;
+		private final AtomicInteger myJobResourceCounter;
+		private final StopWatch myJobStopwatch;
+
+		ExportChunkTask(Long theCollectionId, String theResourceType, List<Long> thePids, AtomicInteger theJobResourceCounter, StopWatch theJobStopwatch) {
+			myCollectionId = theCollectionId;
+			myResourceType = theResourceType;
+			myPids = thePids;
+			myJobResourceCounter = theJobResourceCounter;
+			myJobStopwatch = theJobStopwatch;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			List<BulkExportFileSpool> files = new ArrayList<>();
+			try {
+				// Resources are read in one transaction, but files are stored outside of it
+				files.addAll(myTxTemplate.execute(t -> {
+					ISearchBuilder sb = newSearchBuilder(myResourceType);
+					try {
+						return writeResultsToSpools(sb, myPids.iterator(), myJobResourceCounter);
+					} catch (IOException e) {
+						throw new InternalErrorException(e);
+					}
+				}));
+
+				for (BulkExportFileSpool nextFile : files) {
+					Optional<IIdType> createdId = storeFile(myCollectionId, nextFile);
+					createdId.ifPresent(id -> ourLog.info("Created resource {} for bulk export file containing {} resources of type {} - Total {} resources ({}/sec)", id.getValue(), nextFile.getResourceCount(), myResourceType, myJobResourceCounter.get(), myJobStopwatch.formatThroughput(myJobResourceCounter.get(), TimeUnit.SECONDS)));
+				}
+			} finally {
+				files.forEach(BulkExportFileSpool::close);
+			}
+			return null;
+		}
+	}
+
+	public static class HeartbeatJob implements Job {
+		@Autowired
+		private IBulkDataExportSvc myTarget;
+
+		@Override
+		public void execute(JobExecutionContext theContext) {
+			myTarget.updateBuildingJobStatusTimes();
+		}
+	}
+
 	@DisallowConcurrentExecution
 	@PersistJobDataAfterExecution
 	public static class SubmitJob extends FireAtIntervalJob {
@@ -480,7 +1030,7 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 
 		@Override
 		protected void doExecute(JobExecutionContext theContext) {
-			myTarget.buildExportFiles();
+			myTarget.startBuildingExportFiles();
 		}
 	}
 
@@ -0,0 +1,158 @@
+package ca.uhn.fhir.jpa.bulk;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.Constants;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+
+/**
+ * Spools the NDJSON output for a single bulk export file to a temporary file on disk, so
+ * that the size of an export file has no effect on heap usage while it is being written.
+ */
+class BulkExportFileSpool implements Closeable {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(BulkExportFileSpool.class);
+	private final File myFile;
+	/**
+	 * The most bytes that one UTF-8 encoded char can take
+	 */
+	private static final int MAX_BYTES_PER_CHAR = 3;
+	private CountingOutputStream myCountingOutputStream;
+	private PendingCharCountingWriter myWriter;
+	private int myResourceCount;
+
+	/**
+	 * The file is removed by {@link #close()}, which callers must always call
+	 */
+	BulkExportFileSpool() throws IOException {
+		myFile = File.createTempFile("hapi-fhir-bulk-export-", ".ndjson");
+		myCountingOutputStream = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(myFile, false)));
+		myWriter = new PendingCharCountingWriter(new OutputStreamWriter(myCountingOutputStream, Constants.CHARSET_UTF8));
+	}
+
+	Writer getWriter() {
+		return myWriter;
+	}
+
+	/**
+	 * Returns the number of bytes written to the current file so far
+	 */
+	long getByteCount() throws IOException {
+		myWriter.flush();
+		return myCountingOutputStream.getByteCount();
+	}
+
+	/**
+	 * Returns whether the file has reached the given size. Flushing the writer on every
+	 * check would defeat its buffering, so characters which are still buffered are counted
+	 * at the most bytes they can take, and the writer is only flushed for an exact count
+	 * once that estimate reaches the limit.
+	 */
+	boolean isFull(long theMaximumBytes) throws IOException {
+		if (myCountingOutputStream.getByteCount() + myWriter.getPendingCharCount() * MAX_BYTES_PER_CHAR < theMaximumBytes) {
+			return false;
+		}
+		return getByteCount() >= theMaximumBytes;
+	}
+
+	/**
+	 * Completes the current file and returns a stream for reading it back. The
+	 * caller is responsible for closing the returned stream.
+	 */
+	InputStream finishAndOpenInputStream() throws IOException {
+		myWriter.close();
+		return new BufferedInputStream(new FileInputStream(myFile));
+	}
+
+	/**
+	 * Completes the current file and returns its contents
+	 */
+	byte[] finishAndReadBytes() throws IOException {
+		try (InputStream inputStream = finishAndOpenInputStream()) {
+			return IOUtils.toByteArray(inputStream);
+		}
+	}
+
+	/**
+	 * Returns the number of resources written to the file so far
+	 */
+	int getResourceCount() {
+		return myResourceCount;
+	}
+
+	void incrementResourceCount() {
+		myResourceCount++;
+	}
+
+	/**
+	 * Counts the characters written since the last flush
+	 */
+	private static class PendingCharCountingWriter extends FilterWriter {
+
+		private long myPendingCharCount;
+
+		PendingCharCountingWriter(Writer theWriter) {
+			super(theWriter);
+		}
+
+		long getPendingCharCount() {
+			return myPendingCharCount;
+		}
+
+		@Override
+		public void write(int theChar) throws IOException {
+			super.write(theChar);
+			myPendingCharCount++;
+		}
+
+		@Override
+		public void write(char[] theChars, int theOffset, int theLength) throws IOException {
+			super.write(theChars, theOffset, theLength);
+			myPendingCharCount += theLength;
+		}
+
+		@Override
+		public void write(String theString, int theOffset, int theLength) throws IOException {
+			super.write(theString, theOffset, theLength);
+			myPendingCharCount += theLength;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			super.flush();
+			myPendingCharCount = 0;
+		}
+	}
+
+	@Override
+	public void close() {
+		IOUtils.closeQuietly(myWriter);
+		if (!FileUtils.deleteQuietly(myFile)) {
+			ourLog.warn("Failed to delete temporary bulk export file: {}", myFile.getAbsolutePath());
+		}
+	}
+}
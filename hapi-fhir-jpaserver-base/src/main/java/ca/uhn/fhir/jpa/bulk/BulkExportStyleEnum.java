@@ -0,0 +1,41 @@
+package ca.uhn.fhir.jpa.bulk;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The level at which a bulk export was requested
+ */
+public enum BulkExportStyleEnum {
+
+	/**
+	 * System level export (<code>/$export</code>)
+	 */
+	SYSTEM,
+	/**
+	 * Patient level export (<code>/Patient/$export</code>) - All patient compartments on the server
+	 */
+	PATIENT,
+	/**
+	 * Group level export (<code>/Group/[id]/$export</code>) - The compartments of the patients in the group
+	 */
+	GROUP
+
+}
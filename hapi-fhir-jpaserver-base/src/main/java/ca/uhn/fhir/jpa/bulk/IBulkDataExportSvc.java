@@ -29,13 +29,37 @@ import java.util.List;
 import java.util.Set;
 
 public interface IBulkDataExportSvc {
+
+	/**
+	 * Claims the next submitted job (if any) and builds its export files
+	 * in the calling thread
+	 */
 	void buildExportFiles();
 
+	/**
+	 * Starts building submitted jobs in the background, up to the number of
+	 * jobs that this node will build at the same time. This method returns immediately.
+	 */
+	void startBuildingExportFiles();
+
+	/**
+	 * Marks the jobs being built by this server as still alive
+	 */
+	@Transactional(value = Transactional.TxType.NEVER)
+	void updateBuildingJobStatusTimes();
+
 	@Transactional(value = Transactional.TxType.NEVER)
 	void purgeExpiredFiles();
 
 	JobInfo submitJob(String theOutputFormat, Set<String> theResourceTypes, Date theSince, Set<String> theFilters);
 
+	/**
+	 * Submit a patient or group level export, restricted to the patient compartment
+	 *
+	 * @param theGroupId The group to export. Must be supplied for a {@link BulkExportStyleEnum#GROUP group level} export, and is ignored otherwise.
+	 */
+	JobInfo submitJob(String theOutputFormat, Set<String> theResourceTypes, Date theSince, Set<String> theFilters, BulkExportStyleEnum theStyle, IIdType theGroupId);
+
 	JobInfo getJobStatusOrThrowResourceNotFound(String theJobId);
 
 	void cancelAndPurgeAllJobs();
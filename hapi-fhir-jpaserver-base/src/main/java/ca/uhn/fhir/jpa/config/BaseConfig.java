@@ -6,10 +6,16 @@ import ca.uhn.fhir.interceptor.api.IInterceptorService;
 import ca.uhn.fhir.interceptor.executor.InterceptorService;
 import ca.uhn.fhir.jpa.binstore.BinaryAccessProvider;
 import ca.uhn.fhir.jpa.binstore.BinaryStorageInterceptor;
+import ca.uhn.fhir.jpa.async.AsyncRequestProvider;
+import ca.uhn.fhir.jpa.async.AsyncRequestSvcImpl;
+import ca.uhn.fhir.jpa.async.IAsyncRequestSvc;
 import ca.uhn.fhir.jpa.bulk.BulkDataExportProvider;
 import ca.uhn.fhir.jpa.bulk.BulkDataExportSvcImpl;
 import ca.uhn.fhir.jpa.bulk.IBulkDataExportSvc;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.dao.recompress.IResourceRecompressionSvc;
+import ca.uhn.fhir.jpa.dao.recompress.ResourceRecompressionSvcImpl;
 import ca.uhn.fhir.jpa.graphql.JpaStorageServices;
 import ca.uhn.fhir.jpa.interceptor.JpaConsentContextServices;
 import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
@@ -22,6 +28,7 @@ import ca.uhn.fhir.jpa.search.IStaleSearchDeletingSvc;
 import ca.uhn.fhir.jpa.search.StaleSearchDeletingSvcImpl;
 import ca.uhn.fhir.jpa.search.cache.DatabaseSearchCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.cache.DatabaseSearchResultCacheSvcImpl;
+import ca.uhn.fhir.jpa.search.cache.FileSearchResultCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.cache.ISearchCacheSvc;
 import ca.uhn.fhir.jpa.search.cache.ISearchResultCacheSvc;
 import ca.uhn.fhir.jpa.search.reindex.IResourceReindexingSvc;
@@ -55,6 +62,8 @@ import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
 import org.springframework.scheduling.concurrent.ScheduledExecutorFactoryBean;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
 /*
  * #%L
  * HAPI FHIR JPA Server
@@ -158,7 +167,11 @@ public abstract class BaseConfig {
 	}
 
 	@Bean
-	public ISearchResultCacheSvc searchResultCacheSvc() {
+	public ISearchResultCacheSvc searchResultCacheSvc(DaoConfig theDaoConfig) {
+		String directory = theDaoConfig.getSearchResultCacheDirectory();
+		if (isNotBlank(directory)) {
+			return new FileSearchResultCacheSvcImpl(directory);
+		}
 		return new DatabaseSearchResultCacheSvcImpl();
 	}
 
@@ -183,6 +196,11 @@ public abstract class BaseConfig {
 		return new ResourceReindexingSvcImpl();
 	}
 
+	@Bean
+	public IResourceRecompressionSvc resourceRecompressionSvc() {
+		return new ResourceRecompressionSvcImpl();
+	}
+
 	@Bean
 	public IStaleSearchDeletingSvc staleSearchDeletingSvc() {
 		return new StaleSearchDeletingSvcImpl();
@@ -268,6 +286,18 @@ public abstract class BaseConfig {
 		return new BulkDataExportProvider();
 	}
 
+	@Bean
+	@Lazy
+	public IAsyncRequestSvc asyncRequestSvc() {
+		return new AsyncRequestSvcImpl();
+	}
+
+	@Bean
+	@Lazy
+	public AsyncRequestProvider asyncRequestProvider() {
+		return new AsyncRequestProvider();
+	}
+
 
 	public static void configureEntityManagerFactory(LocalContainerEntityManagerFactoryBean theFactory, FhirContext theCtx) {
 		theFactory.setJpaDialect(hibernateJpaDialect(theCtx.getLocalizer()));
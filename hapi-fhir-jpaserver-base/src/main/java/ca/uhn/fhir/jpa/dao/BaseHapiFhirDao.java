@@ -38,8 +38,10 @@ import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.valueset.BundleEntryTransactionMethodEnum;
 import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IJsonLikeParser;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.parser.LenientErrorHandler;
+import ca.uhn.fhir.parser.json.BinaryJsonReader;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
@@ -80,8 +82,12 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.XMLEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.zip.GZIPOutputStream;
 
 import static org.apache.commons.lang3.StringUtils.*;
 
@@ -836,8 +842,11 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao,
 			return null;
 		}
 
-		// 2. get The text
-		String resourceText = decodeResource(resourceBytes, resourceEncoding);
+		// 2. get The text (binary JSON is parsed directly from the bytes)
+		String resourceText = null;
+		if (resourceEncoding != ResourceEncodingEnum.BJSON) {
+			resourceText = decodeResource(resourceBytes, resourceEncoding, theEntity.getResourceType());
+		}
 
 		// 3. Use the appropriate custom type if one is specified in the context
 		Class<R> resourceType = theResourceType;
@@ -864,7 +873,11 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao,
 			parser.setParserErrorHandler(new LenientErrorHandler(false).setErrorOnInvalidValue(false));
 
 			try {
-				retVal = parser.parseResource(resourceType, resourceText);
+				if (resourceEncoding == ResourceEncodingEnum.BJSON) {
+					retVal = ((IJsonLikeParser) parser).parseResourceFromBinary(resourceType, resourceBytes);
+				} else {
+					retVal = parser.parseResource(resourceType, resourceText);
+				}
 			} catch (Exception e) {
 				StringBuilder b = new StringBuilder();
 				b.append("Failed to parse database resource[");
@@ -933,6 +946,8 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao,
 
 		ourLog.debug("Starting entity update");
 
+		mySearchCoordinatorSvc.notifyResourceTypeModified(theEntity.getResourceType());
+
 		/*
 		 * This should be the very first thing..
 		 */
@@ -1431,7 +1446,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao,
 		}
 	}
 
-	public static String decodeResource(byte[] theResourceBytes, ResourceEncodingEnum theResourceEncoding) {
+	public static String decodeResource(byte[] theResourceBytes, ResourceEncodingEnum theResourceEncoding, String theResourceType) {
 		String resourceText = null;
 		switch (theResourceEncoding) {
 			case JSON:
@@ -1440,6 +1455,16 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao,
 			case JSONC:
 				resourceText = GZipUtil.decompress(theResourceBytes);
 				break;
+			case JSOND:
+				resourceText = DeflateUtil.decompress(theResourceBytes, theResourceType);
+				break;
+			case BJSON:
+				try {
+					resourceText = BinaryJsonReader.toJson(theResourceBytes);
+				} catch (IOException | IllegalStateException e) {
+					throw new DataFormatException("Failed to decode binary JSON contents", e);
+				}
+				break;
 			case DEL:
 				break;
 		}
@@ -1450,23 +1475,48 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao,
 		byte[] bytes;
 		IParser parser = theEncoding.newParser(theContext);
 		parser.setDontEncodeElements(theExcludeElements);
-		String encoded = parser.encodeResourceToString(theResource);
-
 
-		switch (theEncoding) {
-			case JSON:
-				bytes = encoded.getBytes(Charsets.UTF_8);
-				break;
-			case JSONC:
-				bytes = GZipUtil.compress(encoded);
-				break;
-			default:
-			case DEL:
-				bytes = new byte[0];
-				break;
+		try {
+			switch (theEncoding) {
+				case JSON: {
+					ByteArrayOutputStream os = new ByteArrayOutputStream();
+					parser.encodeResourceToOutputStream(theResource, os);
+					bytes = os.toByteArray();
+					break;
+				}
+				case JSONC: {
+					ByteArrayOutputStream os = new ByteArrayOutputStream();
+					try (GZIPOutputStream gos = new GZIPOutputStream(os)) {
+						parser.encodeResourceToOutputStream(theResource, gos);
+					}
+					bytes = os.toByteArray();
+					break;
+				}
+				case JSOND: {
+					ByteArrayOutputStream os = new ByteArrayOutputStream();
+					String resourceType = theContext.getResourceDefinition(theResource).getName();
+					try (OutputStream dos = DeflateUtil.newCompressingOutputStream(os, resourceType)) {
+						parser.encodeResourceToOutputStream(theResource, dos);
+					}
+					bytes = os.toByteArray();
+					break;
+				}
+				case BJSON: {
+					ByteArrayOutputStream os = new ByteArrayOutputStream();
+					((IJsonLikeParser) parser).encodeResourceToBinary(theResource, os);
+					bytes = os.toByteArray();
+					break;
+				}
+				default:
+				case DEL:
+					bytes = new byte[0];
+					break;
+			}
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to encode resource: " + e.getMessage(), e);
 		}
 
-		ourLog.debug("Encoded {} chars of resource body as {} bytes", encoded.length(), bytes.length);
+		ourLog.debug("Encoded resource body as {} bytes", bytes.length);
 		return bytes;
 	}
 
@@ -8,6 +8,7 @@ import ca.uhn.fhir.jpa.searchparam.SearchParamConstants;
 import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.dstu2.model.Subscription;
@@ -49,6 +50,36 @@ public class DaoConfig {
 	 * @see #setTranslationCachesExpireAfterWriteInMinutes(Long)
 	 */
 	public static final Long DEFAULT_TRANSLATION_CACHES_EXPIRE_AFTER_WRITE_IN_MINUTES = 60L;
+	/**
+	 * Default value for {@link #setForcedIdCacheMaximumSize(int)}: 10000 entries
+	 *
+	 * @see #setForcedIdCacheMaximumSize(int)
+	 */
+	public static final int DEFAULT_FORCED_ID_CACHE_MAXIMUM_SIZE = 10000;
+	/**
+	 * Default value for {@link #setForcedIdCacheExpireAfterWriteInMinutes(Long)}: 10 minutes
+	 *
+	 * @see #setForcedIdCacheExpireAfterWriteInMinutes(Long)
+	 */
+	public static final Long DEFAULT_FORCED_ID_CACHE_EXPIRE_AFTER_WRITE_IN_MINUTES = 10L;
+	/**
+	 * Default value for {@link #setLocalSearchCacheMaximumSize(int)}: 1000 entries
+	 *
+	 * @see #setLocalSearchCacheMaximumSize(int)
+	 */
+	public static final int DEFAULT_LOCAL_SEARCH_CACHE_MAXIMUM_SIZE = 1000;
+	/**
+	 * Default value for {@link #setParallelPidSetQueryMinimumClauses(int)}: 3 clauses
+	 *
+	 * @see #setParallelPidSetQueryMinimumClauses(int)
+	 */
+	public static final int DEFAULT_PARALLEL_PID_SET_QUERY_MINIMUM_CLAUSES = 3;
+	/**
+	 * Default value for {@link #setParallelPidSetQueryMaximumPids(int)}: 1000 PIDs
+	 *
+	 * @see #setParallelPidSetQueryMaximumPids(int)
+	 */
+	public static final int DEFAULT_PARALLEL_PID_SET_QUERY_MAXIMUM_PIDS = 1000;
 	/**
 	 * See {@link #setStatusBasedReindexingDisabled(boolean)}
 	 */
@@ -90,6 +121,48 @@ public class DaoConfig {
 	 * update setter javadoc if default changes
 	 */
 	private Long myTranslationCachesExpireAfterWriteInMinutes = DEFAULT_TRANSLATION_CACHES_EXPIRE_AFTER_WRITE_IN_MINUTES;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myForcedIdCacheMaximumSize = DEFAULT_FORCED_ID_CACHE_MAXIMUM_SIZE;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private Long myForcedIdCacheExpireAfterWriteInMinutes = DEFAULT_FORCED_ID_CACHE_EXPIRE_AFTER_WRITE_IN_MINUTES;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private boolean myLocalSearchCacheEnabled = false;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myLocalSearchCacheMaximumSize = DEFAULT_LOCAL_SEARCH_CACHE_MAXIMUM_SIZE;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private long myLocalSearchCacheExpireAfterWriteMillis = DEFAULT_REUSE_CACHED_SEARCH_RESULTS_FOR_MILLIS;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private boolean myParallelPidSetQueriesEnabled = false;
+	private int myParallelPidSetQueryThreadCount;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myParallelPidSetQueryMinimumClauses = DEFAULT_PARALLEL_PID_SET_QUERY_MINIMUM_CLAUSES;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myParallelPidSetQueryMaximumPids = DEFAULT_PARALLEL_PID_SET_QUERY_MAXIMUM_PIDS;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private boolean myKeysetPagingEnabled = false;
+	private int myAsyncRequestThreadCount;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private boolean myResourceRecompressionEnabled = false;
 	/**
 	 * update setter javadoc if default changes
 	 */
@@ -138,6 +211,10 @@ public class DaoConfig {
 	private boolean myExpungeEnabled;
 	private int myExpungeBatchSize = DEFAULT_EXPUNGE_BATCH_SIZE;
 	private int myReindexThreadCount;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myReindexBatchSize = 1;
 	private int myExpungeThreadCount;
 	private Set<String> myBundleTypesAllowedForStorage;
 	private boolean myValidateSearchParameterExpressionsOnSave = true;
@@ -173,6 +250,21 @@ public class DaoConfig {
 	 * @since 4.1.0
 	 */
 	private int myPreExpandValueSetsMaxCount = 1000;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private long myBulkExportFileMaximumBytes = 500 * FileUtils.ONE_KB;
+	private boolean myBulkExportUseBinaryStorage;
+	private int myBulkExportThreadCount;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myBulkExportChunkSize = 10000;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myDeferredTerminologyStorageThreadCount = 1;
+	private String mySearchResultCacheDirectory;
 
 	/**
 	 * Constructor
@@ -184,6 +276,9 @@ public class DaoConfig {
 		setMarkResourcesForReindexingUponSearchParameterChange(true);
 		setReindexThreadCount(Runtime.getRuntime().availableProcessors());
 		setExpungeThreadCount(Runtime.getRuntime().availableProcessors());
+		setBulkExportThreadCount(Runtime.getRuntime().availableProcessors());
+		setParallelPidSetQueryThreadCount(Runtime.getRuntime().availableProcessors());
+		setAsyncRequestThreadCount(Runtime.getRuntime().availableProcessors());
 		setBundleTypesAllowedForStorage(DEFAULT_BUNDLE_TYPES_ALLOWED_FOR_STORAGE);
 
 		if ("true".equalsIgnoreCase(System.getProperty(DISABLE_STATUS_BASED_REINDEX))) {
@@ -636,6 +731,45 @@ public class DaoConfig {
 		myReindexThreadCount = Math.max(myReindexThreadCount, 1); // Minimum of 1
 	}
 
+	/**
+	 * This setting controls the number of resources that a reindexing thread reindexes
+	 * together in one database transaction. When this is greater than {@code 1}, the
+	 * current versions and existing index rows of a whole chunk of resources are loaded
+	 * with a handful of queries instead of several queries per resource, and the index
+	 * changes for the chunk are written using JDBC batching. If a chunk fails, its
+	 * resources are reindexed one at a time so that only the problem resources are marked
+	 * as failed.
+	 * <p>
+	 * The default value for this setting is {@code 1}, meaning that each resource is
+	 * reindexed in its own transaction.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getReindexBatchSize() {
+		return myReindexBatchSize;
+	}
+
+	/**
+	 * This setting controls the number of resources that a reindexing thread reindexes
+	 * together in one database transaction. When this is greater than {@code 1}, the
+	 * current versions and existing index rows of a whole chunk of resources are loaded
+	 * with a handful of queries instead of several queries per resource, and the index
+	 * changes for the chunk are written using JDBC batching. If a chunk fails, its
+	 * resources are reindexed one at a time so that only the problem resources are marked
+	 * as failed.
+	 * <p>
+	 * The default value for this setting is {@code 1}, meaning that each resource is
+	 * reindexed in its own transaction.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setReindexBatchSize(int theReindexBatchSize) {
+		Validate.isTrue(theReindexBatchSize > 0, "theReindexBatchSize must be positive");
+		myReindexBatchSize = theReindexBatchSize;
+	}
+
 	/**
 	 * This setting controls the number of threads allocated to the expunge operation
 	 * <p>
@@ -809,6 +943,413 @@ public class DaoConfig {
 		myTranslationCachesExpireAfterWriteInMinutes = translationCachesExpireAfterWriteInMinutes;
 	}
 
+	/**
+	 * Specifies the maximum number of entries held in each direction of the forced ID
+	 * resolution cache (resource type and forced ID to resource PID, and resource PID
+	 * to forced ID). Set to <code>0</code> to disable the cache. Defaults to
+	 * {@link #DEFAULT_FORCED_ID_CACHE_MAXIMUM_SIZE 10000}.
+	 *
+	 * @since 4.1.0
+	 */
+	public int getForcedIdCacheMaximumSize() {
+		return myForcedIdCacheMaximumSize;
+	}
+
+	/**
+	 * Specifies the maximum number of entries held in each direction of the forced ID
+	 * resolution cache (resource type and forced ID to resource PID, and resource PID
+	 * to forced ID). Set to <code>0</code> to disable the cache. Defaults to
+	 * {@link #DEFAULT_FORCED_ID_CACHE_MAXIMUM_SIZE 10000}.
+	 * <p>
+	 * Changes to this setting take effect when the cache is next built (i.e. on startup).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setForcedIdCacheMaximumSize(int theForcedIdCacheMaximumSize) {
+		Validate.isTrue(theForcedIdCacheMaximumSize >= 0, "theForcedIdCacheMaximumSize must not be negative");
+		myForcedIdCacheMaximumSize = theForcedIdCacheMaximumSize;
+	}
+
+	/**
+	 * Specifies the duration in minutes for which values will be retained after being
+	 * written to the forced ID resolution cache. Set to <code>null</code> or <code>0</code>
+	 * to disable the cache. Defaults to 10.
+	 * <p>
+	 * The cache is local to each server node. When a resource with a client assigned ID is
+	 * expunged, the entry is only removed on the node that performed the expunge, so other
+	 * nodes may keep resolving the ID to the expunged resource for up to this duration.
+	 * </p>
+	 * <p>
+	 * Changes to this setting take effect when the cache is next built (i.e. on startup).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public Long getForcedIdCacheExpireAfterWriteInMinutes() {
+		return myForcedIdCacheExpireAfterWriteInMinutes;
+	}
+
+	/**
+	 * Specifies the duration in minutes for which values will be retained after being
+	 * written to the forced ID resolution cache. Set to <code>null</code> or <code>0</code>
+	 * to disable the cache. Defaults to 10.
+	 * <p>
+	 * The cache is local to each server node. When a resource with a client assigned ID is
+	 * expunged, the entry is only removed on the node that performed the expunge, so other
+	 * nodes may keep resolving the ID to the expunged resource for up to this duration.
+	 * </p>
+	 * <p>
+	 * Changes to this setting take effect when the cache is next built (i.e. on startup).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setForcedIdCacheExpireAfterWriteInMinutes(Long theForcedIdCacheExpireAfterWriteInMinutes) {
+		myForcedIdCacheExpireAfterWriteInMinutes = theForcedIdCacheExpireAfterWriteInMinutes;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), each server node keeps a local in-memory
+	 * cache of recently reused searches, holding the search and the PIDs of its first page
+	 * of results. A repeated search that hits this cache is answered without querying the
+	 * search tables at all.
+	 * <p>
+	 * Once a write to a resource type is committed on a node, that node no longer reuses
+	 * any search for the type that was created before the write, whether it is found in the
+	 * local cache or in the database. Writes on other nodes are not seen, so entries will never be
+	 * reused for longer than {@link #setReuseCachedSearchResultsForMillis(Long)} or
+	 * {@link #setLocalSearchCacheExpireAfterWriteMillis(long)} (whichever is shorter).
+	 * This setting has no effect if {@link #getReuseCachedSearchResultsForMillis()} is
+	 * <code>null</code>.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public boolean isLocalSearchCacheEnabled() {
+		return myLocalSearchCacheEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), each server node keeps a local in-memory
+	 * cache of recently reused searches, holding the search and the PIDs of its first page
+	 * of results. A repeated search that hits this cache is answered without querying the
+	 * search tables at all.
+	 * <p>
+	 * Once a write to a resource type is committed on a node, that node no longer reuses
+	 * any search for the type that was created before the write, whether it is found in the
+	 * local cache or in the database. Writes on other nodes are not seen, so entries will never be
+	 * reused for longer than {@link #setReuseCachedSearchResultsForMillis(Long)} or
+	 * {@link #setLocalSearchCacheExpireAfterWriteMillis(long)} (whichever is shorter).
+	 * This setting has no effect if {@link #getReuseCachedSearchResultsForMillis()} is
+	 * <code>null</code>.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setLocalSearchCacheEnabled(boolean theLocalSearchCacheEnabled) {
+		myLocalSearchCacheEnabled = theLocalSearchCacheEnabled;
+	}
+
+	/**
+	 * Specifies the maximum number of searches held in the local search cache (see
+	 * {@link #setLocalSearchCacheEnabled(boolean)}). Defaults to
+	 * {@link #DEFAULT_LOCAL_SEARCH_CACHE_MAXIMUM_SIZE 1000}.
+	 *
+	 * @since 4.1.0
+	 */
+	public int getLocalSearchCacheMaximumSize() {
+		return myLocalSearchCacheMaximumSize;
+	}
+
+	/**
+	 * Specifies the maximum number of searches held in the local search cache (see
+	 * {@link #setLocalSearchCacheEnabled(boolean)}). Defaults to
+	 * {@link #DEFAULT_LOCAL_SEARCH_CACHE_MAXIMUM_SIZE 1000}.
+	 * <p>
+	 * Changes to this setting take effect when the cache is next built (i.e. on startup).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setLocalSearchCacheMaximumSize(int theLocalSearchCacheMaximumSize) {
+		Validate.isTrue(theLocalSearchCacheMaximumSize >= 0, "theLocalSearchCacheMaximumSize must not be negative");
+		myLocalSearchCacheMaximumSize = theLocalSearchCacheMaximumSize;
+	}
+
+	/**
+	 * Specifies the duration in milliseconds for which searches will be retained after being
+	 * written to the local search cache (see {@link #setLocalSearchCacheEnabled(boolean)}).
+	 * Defaults to {@link #DEFAULT_REUSE_CACHED_SEARCH_RESULTS_FOR_MILLIS 60000}.
+	 *
+	 * @since 4.1.0
+	 */
+	public long getLocalSearchCacheExpireAfterWriteMillis() {
+		return myLocalSearchCacheExpireAfterWriteMillis;
+	}
+
+	/**
+	 * Specifies the duration in milliseconds for which searches will be retained after being
+	 * written to the local search cache (see {@link #setLocalSearchCacheEnabled(boolean)}).
+	 * Defaults to {@link #DEFAULT_REUSE_CACHED_SEARCH_RESULTS_FOR_MILLIS 60000}.
+	 * <p>
+	 * Changes to this setting take effect when the cache is next built (i.e. on startup).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setLocalSearchCacheExpireAfterWriteMillis(long theLocalSearchCacheExpireAfterWriteMillis) {
+		Validate.isTrue(theLocalSearchCacheExpireAfterWriteMillis > 0, "theLocalSearchCacheExpireAfterWriteMillis must be positive");
+		myLocalSearchCacheExpireAfterWriteMillis = theLocalSearchCacheExpireAfterWriteMillis;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), searches with several AND-ed parameters may be
+	 * executed as a set of independent queries, one per AND-ed clause, which each return the PIDs
+	 * of the resources matching that clause. These queries are run in parallel and their results
+	 * are intersected in memory before the final (sorted and paged) query is executed against the
+	 * resulting PIDs. On some databases this avoids poor query plans for large queries which
+	 * combine many token and date parameters.
+	 * <p>
+	 * This strategy is only used for searches that have at least
+	 * {@link #setParallelPidSetQueryMinimumClauses(int)} eligible clauses, and only for searches
+	 * performed by the search coordinator in their own transaction (never for searches
+	 * which need to see uncommitted data, such as conditional operations within a transaction).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public boolean isParallelPidSetQueriesEnabled() {
+		return myParallelPidSetQueriesEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), searches with several AND-ed parameters may be
+	 * executed as a set of independent queries, one per AND-ed clause, which each return the PIDs
+	 * of the resources matching that clause. These queries are run in parallel and their results
+	 * are intersected in memory before the final (sorted and paged) query is executed against the
+	 * resulting PIDs. On some databases this avoids poor query plans for large queries which
+	 * combine many token and date parameters.
+	 * <p>
+	 * This strategy is only used for searches that have at least
+	 * {@link #setParallelPidSetQueryMinimumClauses(int)} eligible clauses, and only for searches
+	 * performed by the search coordinator in their own transaction (never for searches
+	 * which need to see uncommitted data, such as conditional operations within a transaction).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setParallelPidSetQueriesEnabled(boolean theParallelPidSetQueriesEnabled) {
+		myParallelPidSetQueriesEnabled = theParallelPidSetQueriesEnabled;
+	}
+
+	/**
+	 * This setting controls the number of threads used to run PID set queries (see
+	 * {@link #setParallelPidSetQueriesEnabled(boolean)}). This pool is shared by all searches.
+	 * It also limits the number of searches that wait for the pool at the same time. Other searches
+	 * run their queries themselves. Each pool thread uses its own database connection, so this
+	 * value must be smaller than the size of the database connection pool.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getParallelPidSetQueryThreadCount() {
+		return myParallelPidSetQueryThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads used to run PID set queries (see
+	 * {@link #setParallelPidSetQueriesEnabled(boolean)}). This pool is shared by all searches.
+	 * It also limits the number of searches that wait for the pool at the same time. Other searches
+	 * run their queries themselves. Each pool thread uses its own database connection, so this
+	 * value must be smaller than the size of the database connection pool.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 * <p>
+	 * Changes to this setting take effect when the server is next started.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setParallelPidSetQueryThreadCount(int theParallelPidSetQueryThreadCount) {
+		myParallelPidSetQueryThreadCount = Math.max(theParallelPidSetQueryThreadCount, 1); // Minimum of 1
+	}
+
+	/**
+	 * This is the cost heuristic used to decide whether a search is executed as parallel
+	 * PID set queries (see {@link #setParallelPidSetQueriesEnabled(boolean)}): a search must
+	 * contain at least this many AND-ed clauses on indexed search parameters for the strategy
+	 * to be used. Searches with fewer clauses are executed as a single query.
+	 * <p>
+	 * The default value for this setting is {@link #DEFAULT_PARALLEL_PID_SET_QUERY_MINIMUM_CLAUSES 3}.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getParallelPidSetQueryMinimumClauses() {
+		return myParallelPidSetQueryMinimumClauses;
+	}
+
+	/**
+	 * This is the cost heuristic used to decide whether a search is executed as parallel
+	 * PID set queries (see {@link #setParallelPidSetQueriesEnabled(boolean)}): a search must
+	 * contain at least this many AND-ed clauses on indexed search parameters for the strategy
+	 * to be used. Searches with fewer clauses are executed as a single query.
+	 * <p>
+	 * The default value for this setting is {@link #DEFAULT_PARALLEL_PID_SET_QUERY_MINIMUM_CLAUSES 3}.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setParallelPidSetQueryMinimumClauses(int theParallelPidSetQueryMinimumClauses) {
+		Validate.isTrue(theParallelPidSetQueryMinimumClauses >= 2, "theParallelPidSetQueryMinimumClauses must be at least 2");
+		myParallelPidSetQueryMinimumClauses = theParallelPidSetQueryMinimumClauses;
+	}
+
+	/**
+	 * Specifies the maximum number of PIDs a single PID set query (see
+	 * {@link #setParallelPidSetQueriesEnabled(boolean)}) may return. A clause matching more
+	 * resources than this is not resolved in memory, and is instead applied as part of
+	 * the final query. Since the intersected PIDs are passed to the final query as
+	 * an <code>IN</code> list, this value should not exceed the limits of the database.
+	 * <p>
+	 * The default value for this setting is {@link #DEFAULT_PARALLEL_PID_SET_QUERY_MAXIMUM_PIDS 1000}.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getParallelPidSetQueryMaximumPids() {
+		return myParallelPidSetQueryMaximumPids;
+	}
+
+	/**
+	 * Specifies the maximum number of PIDs a single PID set query (see
+	 * {@link #setParallelPidSetQueriesEnabled(boolean)}) may return. A clause matching more
+	 * resources than this is not resolved in memory, and is instead applied as part of
+	 * the final query. Since the intersected PIDs are passed to the final query as
+	 * an <code>IN</code> list, this value should not exceed the limits of the database.
+	 * <p>
+	 * The default value for this setting is {@link #DEFAULT_PARALLEL_PID_SET_QUERY_MAXIMUM_PIDS 1000}.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setParallelPidSetQueryMaximumPids(int theParallelPidSetQueryMaximumPids) {
+		Validate.isTrue(theParallelPidSetQueryMaximumPids > 0, "theParallelPidSetQueryMaximumPids must be positive");
+		myParallelPidSetQueryMaximumPids = theParallelPidSetQueryMaximumPids;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), searches whose only sort is <code>_lastUpdated</code>
+	 * are paged using keyset (a.k.a. "seek") pagination instead of being loaded into the search
+	 * result cache. Each page is fetched with a fresh query that resumes after the last
+	 * <code>(_lastUpdated, resource ID)</code> returned by the previous page, and the position is
+	 * carried in the paging link. This avoids loading and storing the full result list for
+	 * large result sets, at the cost of not knowing the total number of results and not
+	 * being able to reuse cached results.
+	 * <p>
+	 * Searches requesting an accurate total, a summary count or the <code>$everything</code>
+	 * operation are never paged this way.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public boolean isKeysetPagingEnabled() {
+		return myKeysetPagingEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), searches whose only sort is <code>_lastUpdated</code>
+	 * are paged using keyset (a.k.a. "seek") pagination instead of being loaded into the search
+	 * result cache. Each page is fetched with a fresh query that resumes after the last
+	 * <code>(_lastUpdated, resource ID)</code> returned by the previous page, and the position is
+	 * carried in the paging link. This avoids loading and storing the full result list for
+	 * large result sets, at the cost of not knowing the total number of results and not
+	 * being able to reuse cached results.
+	 * <p>
+	 * Searches requesting an accurate total, a summary count or the <code>$everything</code>
+	 * operation are never paged this way.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setKeysetPagingEnabled(boolean theKeysetPagingEnabled) {
+		myKeysetPagingEnabled = theKeysetPagingEnabled;
+	}
+
+	/**
+	 * This setting controls the number of threads allocated to processing requests which
+	 * the client asked to be handled asynchronously (using the <code>Prefer: respond-async</code>
+	 * header). Requests submitted while all of these threads are busy wait in a queue until
+	 * a thread becomes available.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 * <p>
+	 * Changes to this setting take effect when the async request service is next started.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getAsyncRequestThreadCount() {
+		return myAsyncRequestThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads allocated to processing requests which
+	 * the client asked to be handled asynchronously (using the <code>Prefer: respond-async</code>
+	 * header). Requests submitted while all of these threads are busy wait in a queue until
+	 * a thread becomes available.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 * <p>
+	 * Changes to this setting take effect when the async request service is next started.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setAsyncRequestThreadCount(int theAsyncRequestThreadCount) {
+		myAsyncRequestThreadCount = Math.max(theAsyncRequestThreadCount, 1); // Minimum of 1
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), a background job periodically rewrites stored resource
+	 * bodies (in <code>HFJ_RES_VER.RES_TEXT</code>) whose encoding differs from
+	 * {@link #getResourceEncoding() the configured resource encoding}. This can be used to migrate an existing
+	 * database to a new encoding such as {@link ResourceEncodingEnum#JSOND}. Rows are rewritten in small batches,
+	 * each in its own transaction, and resources are not re-parsed.
+	 *
+	 * @since 4.1.0
+	 */
+	public boolean isResourceRecompressionEnabled() {
+		return myResourceRecompressionEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), a background job periodically rewrites stored resource
+	 * bodies (in <code>HFJ_RES_VER.RES_TEXT</code>) whose encoding differs from
+	 * {@link #getResourceEncoding() the configured resource encoding}. This can be used to migrate an existing
+	 * database to a new encoding such as {@link ResourceEncodingEnum#JSOND}. Rows are rewritten in small batches,
+	 * each in its own transaction, and resources are not re-parsed.
+	 *
+	 * @since 4.1.0
+	 */
+	public void setResourceRecompressionEnabled(boolean theResourceRecompressionEnabled) {
+		myResourceRecompressionEnabled = theResourceRecompressionEnabled;
+	}
+
 	/**
 	 * This setting may be used to advise the server that any references found in
 	 * resources that have any of the base URLs given here will be treated as logical
@@ -1819,6 +2360,212 @@ public class DaoConfig {
 		setPreExpandValueSetsDefaultCount(Math.min(getPreExpandValueSetsDefaultCount(), getPreExpandValueSetsMaxCount()));
 	}
 
+	/**
+	 * Bulk export output is split into multiple NDJSON files, each of which is stored as a separate
+	 * Binary resource. This setting controls the approximate maximum size of each file, in bytes.
+	 * A file is closed as soon as it reaches this size, so individual files may be slightly larger.
+	 * <p>
+	 * Unless {@link #setBulkExportUseBinaryStorage(boolean) binary storage} is used, each file is read
+	 * into memory in order to store it, so this setting also limits the heap used by each export thread.
+	 * </p>
+	 * <p>
+	 * The default value for this setting is 512000 (500 KB).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public long getBulkExportFileMaximumBytes() {
+		return myBulkExportFileMaximumBytes;
+	}
+
+	/**
+	 * Bulk export output is split into multiple NDJSON files, each of which is stored as a separate
+	 * Binary resource. This setting controls the approximate maximum size of each file, in bytes.
+	 * A file is closed as soon as it reaches this size, so individual files may be slightly larger.
+	 * <p>
+	 * Unless {@link #setBulkExportUseBinaryStorage(boolean) binary storage} is used, each file is read
+	 * into memory in order to store it, so this setting also limits the heap used by each export thread.
+	 * </p>
+	 * <p>
+	 * The default value for this setting is 512000 (500 KB).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setBulkExportFileMaximumBytes(long theBulkExportFileMaximumBytes) {
+		Validate.isTrue(theBulkExportFileMaximumBytes > 0, "theBulkExportFileMaximumBytes must be positive");
+		myBulkExportFileMaximumBytes = theBulkExportFileMaximumBytes;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) and an
+	 * {@link ca.uhn.fhir.jpa.binstore.IBinaryStorageSvc binary storage service} is configured, bulk export
+	 * NDJSON files are streamed directly into binary storage instead of being stored inline in the
+	 * body of the generated Binary resources. This keeps large exports out of the heap and out of the
+	 * resource tables. If no binary storage service is configured, files are stored inline as though
+	 * this setting was <code>false</code>.
+	 * <p>
+	 * Note that the {@link ca.uhn.fhir.jpa.binstore.BinaryStorageInterceptor} must be registered in order
+	 * for clients to be able to retrieve the contents of these files.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public boolean isBulkExportUseBinaryStorage() {
+		return myBulkExportUseBinaryStorage;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) and an
+	 * {@link ca.uhn.fhir.jpa.binstore.IBinaryStorageSvc binary storage service} is configured, bulk export
+	 * NDJSON files are streamed directly into binary storage instead of being stored inline in the
+	 * body of the generated Binary resources. This keeps large exports out of the heap and out of the
+	 * resource tables. If no binary storage service is configured, files are stored inline as though
+	 * this setting was <code>false</code>.
+	 * <p>
+	 * Note that the {@link ca.uhn.fhir.jpa.binstore.BinaryStorageInterceptor} must be registered in order
+	 * for clients to be able to retrieve the contents of these files.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setBulkExportUseBinaryStorage(boolean theBulkExportUseBinaryStorage) {
+		myBulkExportUseBinaryStorage = theBulkExportUseBinaryStorage;
+	}
+
+	/**
+	 * This setting controls the number of threads allocated to building bulk export
+	 * files. Each resource type in an export job, and each chunk of resources within
+	 * a large resource type (see {@link #setBulkExportChunkSize(int)}), is processed
+	 * as a separate unit of work so that a single job can make use of several threads.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getBulkExportThreadCount() {
+		return myBulkExportThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads allocated to building bulk export
+	 * files. Each resource type in an export job, and each chunk of resources within
+	 * a large resource type (see {@link #setBulkExportChunkSize(int)}), is processed
+	 * as a separate unit of work so that a single job can make use of several threads.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 * <p>
+	 * Changes to this setting take effect when the bulk export service is next started.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setBulkExportThreadCount(int theBulkExportThreadCount) {
+		myBulkExportThreadCount = Math.max(theBulkExportThreadCount, 1); // Minimum of 1
+	}
+
+	/**
+	 * This setting controls the maximum number of resources that are exported by a
+	 * single unit of work when building bulk export files. Resource types with more
+	 * resources than this are split into several chunks which are exported in parallel.
+	 * <p>
+	 * The default value for this setting is {@code 10000}.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getBulkExportChunkSize() {
+		return myBulkExportChunkSize;
+	}
+
+	/**
+	 * This setting controls the maximum number of resources that are exported by a
+	 * single unit of work when building bulk export files. Resource types with more
+	 * resources than this are split into several chunks which are exported in parallel.
+	 * <p>
+	 * The default value for this setting is {@code 10000}.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setBulkExportChunkSize(int theBulkExportChunkSize) {
+		Validate.isTrue(theBulkExportChunkSize > 0, "theBulkExportChunkSize must be positive");
+		myBulkExportChunkSize = theBulkExportChunkSize;
+	}
+
+	/**
+	 * This setting controls the number of threads on this server that will write queued
+	 * terminology (i.e. the concepts and relationships of large code systems, see
+	 * {@link #setDeferIndexingForCodesystemsOfSize(int)}) to the database. The queue is
+	 * stored in the database and claimed a chunk at a time, so every server in a cluster
+	 * also works on it.
+	 * <p>
+	 * The default value for this setting is {@code 1}.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getDeferredTerminologyStorageThreadCount() {
+		return myDeferredTerminologyStorageThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads on this server that will write queued
+	 * terminology (i.e. the concepts and relationships of large code systems, see
+	 * {@link #setDeferIndexingForCodesystemsOfSize(int)}) to the database. The queue is
+	 * stored in the database and claimed a chunk at a time, so every server in a cluster
+	 * also works on it.
+	 * <p>
+	 * The default value for this setting is {@code 1}.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setDeferredTerminologyStorageThreadCount(int theDeferredTerminologyStorageThreadCount) {
+		Validate.isTrue(theDeferredTerminologyStorageThreadCount > 0, "theDeferredTerminologyStorageThreadCount must be positive");
+		myDeferredTerminologyStorageThreadCount = theDeferredTerminologyStorageThreadCount;
+	}
+
+	/**
+	 * If set, the resource PIDs found by each search are stored in a file in this directory
+	 * instead of as rows in the <code>HFJ_SEARCH_RESULT</code> table, leaving only the search
+	 * itself in the database. In a clustered deployment every server must see the same
+	 * directory (e.g. a shared volume), since any server may be asked for the next page
+	 * of a search started elsewhere.
+	 * <p>
+	 * The default value for this setting is {@code null}, meaning that results are stored
+	 * in the database. This setting is read once when the server starts.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public String getSearchResultCacheDirectory() {
+		return mySearchResultCacheDirectory;
+	}
+
+	/**
+	 * If set, the resource PIDs found by each search are stored in a file in this directory
+	 * instead of as rows in the <code>HFJ_SEARCH_RESULT</code> table, leaving only the search
+	 * itself in the database. In a clustered deployment every server must see the same
+	 * directory (e.g. a shared volume), since any server may be asked for the next page
+	 * of a search started elsewhere.
+	 * <p>
+	 * The default value for this setting is {@code null}, meaning that results are stored
+	 * in the database. This setting is read once when the server starts.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setSearchResultCacheDirectory(String theSearchResultCacheDirectory) {
+		mySearchResultCacheDirectory = theSearchResultCacheDirectory;
+	}
+
 	public enum IndexEnabledEnum {
 		ENABLED,
 		DISABLED
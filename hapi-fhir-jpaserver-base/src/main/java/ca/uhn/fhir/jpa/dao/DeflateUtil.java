@@ -0,0 +1,191 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.parser.DataFormatException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import static org.apache.commons.lang3.StringUtils.defaultString;
+
+/**
+ * Compresses and decompresses resource bodies stored using {@link ResourceEncodingEnum#JSOND}.
+ * <p>
+ * Bodies are compressed using Deflate with a preset dictionary made up of JSON fragments that
+ * appear in most FHIR resources, followed by a few that are specific to the resource type. GZip
+ * starts every stream with an empty window, so a small resource has nothing to refer back to
+ * and compresses poorly. With a preset dictionary even the first occurrence of
+ * <code>"system":"http://loinc.org"</code> is a short back-reference.
+ * </p>
+ * <p>
+ * The Deflate (zlib) header contains the Adler-32 checksum of the dictionary, and inflating checks
+ * it. <b>The dictionary contents must therefore never change</b>, since rows that have already been
+ * written could no longer be read.
+ * </p>
+ */
+public class DeflateUtil {
+
+	/*
+	 * Deflate gives the most weight to the end of the dictionary, so the
+	 * most common fragments come last
+	 */
+	private static final String COMMON_DICTIONARY = "" +
+		"\"text\":{\"status\":\"generated\",\"div\":\"<div xmlns=\\\"http://www.w3.org/1999/xhtml\\\">" +
+		"\"extension\":[{\"url\":\"http://hl7.org/fhir/StructureDefinition/" +
+		"\"valueString\":\"\"valueCode\":\"\"valueBoolean\":true\"valueReference\":{\"reference\":\"" +
+		"\"valueCodeableConcept\":{\"coding\":[{\"system\":\"" +
+		"\"period\":{\"start\":\"\",\"end\":\"" +
+		"\"telecom\":[{\"system\":\"phone\",\"value\":\"\",\"use\":\"" +
+		"\"address\":[{\"line\":[\"\"],\"city\":\"\",\"state\":\"\",\"postalCode\":\"\",\"country\":\"" +
+		"\"name\":[{\"family\":\"\",\"given\":[\"" +
+		"\"subject\":{\"reference\":\"Patient/" +
+		"\"encounter\":{\"reference\":\"Encounter/" +
+		"\"status\":\"active\"\"status\":\"final\"\"status\":\"completed\"" +
+		"http://terminology.hl7.org/CodeSystem/" +
+		"\"system\":\"http://snomed.info/sct\"" +
+		"\"system\":\"http://loinc.org\"" +
+		"\"identifier\":[{\"system\":\"\",\"value\":\"" +
+		"\"meta\":{\"profile\":[\"http://hl7.org/fhir/StructureDefinition/" +
+		"\"security\":[{\"system\":\"\"tag\":[{\"system\":\"" +
+		"\"text\":\"\"display\":\"\"reference\":\"\"}]},{\"system\":\"" +
+		"\"code\":{\"coding\":[{\"system\":\"\",\"code\":\"\",\"display\":\"" +
+		"\"resourceType\":\"";
+
+	private static final Map<String, String> RESOURCE_TYPE_DICTIONARIES;
+	private static final Map<String, byte[]> ourDictionaryCache = new ConcurrentHashMap<>();
+	private static final int BUFFER_SIZE = 4096;
+
+	static {
+		Map<String, String> dictionaries = new HashMap<>();
+		dictionaries.put("Observation", "" +
+			"\"referenceRange\":[{\"low\":{\"value\":\"high\":{\"value\":" +
+			"\"interpretation\":[{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/v3-ObservationInterpretation\"" +
+			"\"component\":[{\"code\":{\"coding\":[{\"system\":\"http://loinc.org\"" +
+			"\"category\":[{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/observation-category\",\"code\":\"" +
+			"\"issued\":\"\"performer\":[{\"reference\":\"Practitioner/" +
+			"\"effectiveDateTime\":\"" +
+			"\"valueQuantity\":{\"value\":,\"unit\":\"\",\"system\":\"http://unitsofmeasure.org\",\"code\":\"");
+		dictionaries.put("Patient", "" +
+			"\"maritalStatus\":{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/v3-MaritalStatus\"" +
+			"\"communication\":[{\"language\":{\"coding\":[{\"system\":\"urn:ietf:bcp:47\"" +
+			"\"generalPractitioner\":[{\"reference\":\"Practitioner/" +
+			"\"managingOrganization\":{\"reference\":\"Organization/" +
+			"\"deceasedBoolean\":false" +
+			"\"gender\":\"male\"\"gender\":\"female\",\"birthDate\":\"" +
+			"\"active\":true");
+		dictionaries.put("Encounter", "" +
+			"\"class\":{\"system\":\"http://terminology.hl7.org/CodeSystem/v3-ActCode\",\"code\":\"" +
+			"\"participant\":[{\"individual\":{\"reference\":\"Practitioner/" +
+			"\"serviceProvider\":{\"reference\":\"Organization/" +
+			"\"reasonCode\":[{\"coding\":[{\"system\":\"http://snomed.info/sct\"" +
+			"\"status\":\"finished\"");
+		dictionaries.put("Condition", "" +
+			"\"verificationStatus\":{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/condition-ver-status\",\"code\":\"confirmed\"" +
+			"\"clinicalStatus\":{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/condition-clinical\",\"code\":\"" +
+			"\"onsetDateTime\":\"\"recordedDate\":\"");
+		RESOURCE_TYPE_DICTIONARIES = dictionaries;
+	}
+
+	/**
+	 * Returns a stream which compresses everything written to it into <code>theOutputStream</code>.
+	 * The returned stream must be closed in order to complete the compressed data.
+	 */
+	public static OutputStream newCompressingOutputStream(OutputStream theOutputStream, String theResourceType) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		deflater.setDictionary(getDictionary(theResourceType));
+		return new DictionaryDeflaterOutputStream(theOutputStream, deflater);
+	}
+
+	public static byte[] compress(String theEncoded, String theResourceType) {
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			try (OutputStream dos = newCompressingOutputStream(os, theResourceType)) {
+				dos.write(theEncoded.getBytes(StandardCharsets.UTF_8));
+			}
+			return os.toByteArray();
+		} catch (IOException e) {
+			throw new DataFormatException("Compress contents", e);
+		}
+	}
+
+	public static String decompress(byte[] theResource, String theResourceType) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(theResource);
+			ByteArrayOutputStream os = new ByteArrayOutputStream(theResource.length * 4);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buffer);
+				if (count > 0) {
+					os.write(buffer, 0, count);
+				} else if (inflater.needsDictionary()) {
+					inflater.setDictionary(getDictionary(theResourceType));
+				} else if (inflater.needsInput()) {
+					throw new DataFormatException("Failed to decompress contents: Unexpected end of compressed data");
+				}
+			}
+			return new String(os.toByteArray(), StandardCharsets.UTF_8);
+		} catch (java.util.zip.DataFormatException | IllegalArgumentException e) {
+			throw new DataFormatException("Failed to decompress contents", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	static byte[] getDictionary(String theResourceType) {
+		String resourceType = defaultString(theResourceType);
+		return ourDictionaryCache.computeIfAbsent(resourceType, t -> {
+			String dictionary = defaultString(RESOURCE_TYPE_DICTIONARIES.get(t)) + COMMON_DICTIONARY + t + "\",\"id\":\"";
+			return dictionary.getBytes(StandardCharsets.UTF_8);
+		});
+	}
+
+	/**
+	 * Releases the native resources held by the deflater once the stream is closed, which
+	 * {@link DeflaterOutputStream} only does for deflaters that it creates itself
+	 */
+	private static class DictionaryDeflaterOutputStream extends DeflaterOutputStream {
+
+		DictionaryDeflaterOutputStream(OutputStream theOutputStream, Deflater theDeflater) {
+			super(theOutputStream, theDeflater, BUFFER_SIZE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				def.end();
+			}
+		}
+	}
+
+}
@@ -22,6 +22,7 @@ package ca.uhn.fhir.jpa.dao;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
+import ca.uhn.fhir.jpa.search.KeysetPageId;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
@@ -41,6 +42,22 @@ public interface ISearchBuilder {
 
 	void setMaxResultsToFetch(Integer theMaxResultsToFetch);
 
+	/**
+	 * Should the builder be allowed to split the search into independent PID set
+	 * queries which are executed in separate transactions (see
+	 * {@link DaoConfig#setParallelPidSetQueriesEnabled(boolean)})? This should only be
+	 * enabled if the search does not need to see data written by the current transaction.
+	 */
+	void setParallelPidSetQueriesAllowed(boolean theParallelPidSetQueriesAllowed);
+
+	/**
+	 * If set, the search is executed as one page of a keyset paged search
+	 * (see {@link DaoConfig#setKeysetPagingEnabled(boolean)}). The search must be sorted by
+	 * <code>_lastUpdated</code> only, and only returns resources which sort after the
+	 * position in the given page ID.
+	 */
+	void setKeysetPageId(KeysetPageId theKeysetPageId);
+
 	Iterator<Long> createCountQuery(SearchParameterMap theParams, String theSearchUuid, RequestDetails theRequest);
 
 	void loadResourcesByPid(Collection<Long> thePids, Collection<Long> theIncludedPids, List<IBaseResource> theResourceListToPopulate, boolean theForHistoryOperation, RequestDetails theDetails);
@@ -25,26 +25,33 @@ import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
-import ca.uhn.fhir.jpa.dao.DaoRegistry;
-import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceIndexedSearchParamTokenDao;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
+import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.util.StopWatch;
+import com.google.common.collect.Lists;
 import org.hl7.fhir.instance.model.api.IBaseResource;
-import org.hl7.fhir.r4.model.Request;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.Set;
+import java.util.*;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
 
 @Service
 public class MatchResourceUrlService {
+	private static final String PRE_RESOLVED_MATCH_URLS_KEY = MatchResourceUrlService.class.getName() + "_PRE_RESOLVED_MATCH_URLS";
+	private static final int MAX_HASHES_PER_QUERY = 800;
+
 	@Autowired
 	private DaoRegistry myDaoRegistry;
 	@Autowired
@@ -53,8 +60,20 @@ public class MatchResourceUrlService {
 	private MatchUrlService myMatchUrlService;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private IResourceIndexedSearchParamTokenDao myResourceIndexedSearchParamTokenDao;
 
 	public <R extends IBaseResource> Set<Long> processMatchUrl(String theMatchUrl, Class<R> theResourceType, RequestDetails theRequest) {
+		Map<String, Set<Long>> preResolved = getPreResolvedMatchUrls(theRequest);
+		if (preResolved != null) {
+			Set<Long> retVal = preResolved.get(toPreResolvedKey(theResourceType, theMatchUrl));
+			if (retVal != null) {
+				return new HashSet<>(retVal);
+			}
+		}
+
 		StopWatch sw = new StopWatch();
 
 		RuntimeResourceDefinition resourceDef = myContext.getResourceDefinition(theResourceType);
@@ -87,5 +106,167 @@ public class MatchResourceUrlService {
 		return retVal;
 	}
 
+	/**
+	 * Processes a group of match URLs for one resource type. URLs that consist of a single token
+	 * parameter with a system and a value (e.g. <code>Patient?identifier=http://foo|123</code>) are
+	 * resolved together with a few lookups against the token index, instead of with one search each.
+	 * All other URLs are processed individually using {@link #processMatchUrl(String, Class, RequestDetails)}.
+	 *
+	 * @return Returns the matching resource PIDs for each distinct URL
+	 */
+	public <R extends IBaseResource> Map<String, Set<Long>> processMatchUrls(Collection<String> theMatchUrls, Class<R> theResourceType, RequestDetails theRequest) {
+		Map<String, Long> tokenHashes = new HashMap<>();
+		Map<String, Set<Long>> retVal = new HashMap<>();
+		for (String next : theMatchUrls) {
+			if (retVal.containsKey(next) || tokenHashes.containsKey(next)) {
+				continue;
+			}
+			Long hash = toHashSystemAndValue(next, theResourceType);
+			if (hash != null) {
+				tokenHashes.put(next, hash);
+			} else {
+				retVal.put(next, processMatchUrl(next, theResourceType, theRequest));
+			}
+		}
+
+		retVal.putAll(resolveTokenMatchUrls(tokenHashes, theRequest));
+		return retVal;
+	}
+
+	/**
+	 * Resolves any of the given match URLs that can be resolved using a lookup against the token
+	 * index (see {@link #processMatchUrls(Collection, Class, RequestDetails)}), and holds the results
+	 * in the request so that subsequent calls to {@link #processMatchUrl(String, Class, RequestDetails)}
+	 * for these URLs do not need to search. The results are held until
+	 * {@link #clearPreResolvedMatchUrls(RequestDetails)} is called, so the caller must clear them before
+	 * making any change that could alter which resources the URLs match.
+	 */
+	public <R extends IBaseResource> void preResolveMatchUrls(Collection<String> theMatchUrls, Class<R> theResourceType, RequestDetails theRequest) {
+		if (theRequest == null) {
+			return;
+		}
+
+		Map<String, Long> tokenHashes = new HashMap<>();
+		for (String next : theMatchUrls) {
+			if (!tokenHashes.containsKey(next)) {
+				Long hash = toHashSystemAndValue(next, theResourceType);
+				if (hash != null) {
+					tokenHashes.put(next, hash);
+				}
+			}
+		}
+		if (tokenHashes.isEmpty()) {
+			return;
+		}
+
+		Map<String, Set<Long>> preResolved = getPreResolvedMatchUrls(theRequest);
+		if (preResolved == null) {
+			preResolved = new HashMap<>();
+			theRequest.getUserData().put(PRE_RESOLVED_MATCH_URLS_KEY, preResolved);
+		}
+		for (Map.Entry<String, Set<Long>> next : resolveTokenMatchUrls(tokenHashes, theRequest).entrySet()) {
+			preResolved.put(toPreResolvedKey(theResourceType, next.getKey()), next.getValue());
+		}
+	}
+
+	public void clearPreResolvedMatchUrls(RequestDetails theRequest) {
+		if (theRequest != null) {
+			theRequest.getUserData().remove(PRE_RESOLVED_MATCH_URLS_KEY);
+		}
+	}
+
+	private Map<String, Set<Long>> resolveTokenMatchUrls(Map<String, Long> theMatchUrlToHash, RequestDetails theRequest) {
+		if (theMatchUrlToHash.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		StopWatch sw = new StopWatch();
+
+		Map<String, Set<Long>> retVal = new HashMap<>();
+		Map<Long, List<String>> hashToMatchUrls = new HashMap<>();
+		for (Map.Entry<String, Long> next : theMatchUrlToHash.entrySet()) {
+			retVal.put(next.getKey(), new HashSet<>());
+			hashToMatchUrls.computeIfAbsent(next.getValue(), t -> new ArrayList<>()).add(next.getKey());
+		}
+
+		int queryCount = 0;
+		for (List<Long> nextHashes : Lists.partition(new ArrayList<>(hashToMatchUrls.keySet()), MAX_HASHES_PER_QUERY)) {
+			queryCount++;
+			for (Object[] nextRow : myResourceIndexedSearchParamTokenDao.findResourcePidsByHashSystemAndValue(nextHashes)) {
+				Long hash = (Long) nextRow[0];
+				Long resourcePid = (Long) nextRow[1];
+				for (String nextMatchUrl : hashToMatchUrls.get(hash)) {
+					retVal.get(nextMatchUrl).add(resourcePid);
+				}
+			}
+		}
+
+		// Interceptor broadcast: JPA_PERFTRACE_INFO
+		if (JpaInterceptorBroadcaster.hasHooks(Pointcut.JPA_PERFTRACE_INFO, myInterceptorBroadcaster, theRequest)) {
+			StorageProcessingMessage message = new StorageProcessingMessage();
+			message.setMessage("Processed " + retVal.size() + " conditional resource URL(s) with " + queryCount + " token index lookup(s) in " + sw.toString());
+			HookParams params = new HookParams()
+				.add(RequestDetails.class, theRequest)
+				.addIfMatchesType(ServletRequestDetails.class, theRequest)
+				.add(StorageProcessingMessage.class, message);
+			JpaInterceptorBroadcaster.doCallHooks(myInterceptorBroadcaster, theRequest, Pointcut.JPA_PERFTRACE_INFO, params);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * If the given match URL consists of nothing but a single <code>system|value</code> token, returns the
+	 * hash that a search for it would use. Otherwise returns <code>null</code>, and the URL needs a regular search.
+	 */
+	private Long toHashSystemAndValue(String theMatchUrl, Class<? extends IBaseResource> theResourceType) {
+		if (myDaoConfig.getDisableHashBasedSearches()) {
+			return null;
+		}
+
+		RuntimeResourceDefinition resourceDef = myContext.getResourceDefinition(theResourceType);
+		SearchParameterMap paramMap;
+		try {
+			paramMap = myMatchUrlService.translateMatchUrl(theMatchUrl, resourceDef);
+		} catch (InvalidRequestException e) {
+			// Let the regular search report the problem
+			return null;
+		}
+
+		if (paramMap.entrySet().size() != 1 || paramMap.getLastUpdated() != null) {
+			return null;
+		}
+		Map.Entry<String, List<List<IQueryParameterType>>> param = paramMap.entrySet().iterator().next();
+		String paramName = param.getKey();
+		if (paramName.startsWith("_") || param.getValue().size() != 1 || param.getValue().get(0).size() != 1) {
+			return null;
+		}
+
+		IQueryParameterType value = param.getValue().get(0).get(0);
+		if (!(value instanceof TokenParam)) {
+			return null;
+		}
+		TokenParam token = (TokenParam) value;
+		if (token.getModifier() != null || token.getMissing() != null || token.getSystem() == null || isBlank(token.getValue())) {
+			return null;
+		}
+		if (token.getSystem().length() > ResourceIndexedSearchParamToken.MAX_LENGTH || token.getValue().length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
+			return null;
+		}
+
+		return ResourceIndexedSearchParamToken.calculateHashSystemAndValue(resourceDef.getName(), paramName, token.getSystem(), token.getValue());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Set<Long>> getPreResolvedMatchUrls(RequestDetails theRequest) {
+		if (theRequest == null) {
+			return null;
+		}
+		return (Map<String, Set<Long>>) theRequest.getUserData().get(PRE_RESOLVED_MATCH_URLS_KEY);
+	}
+
+	private String toPreResolvedKey(Class<? extends IBaseResource> theResourceType, String theMatchUrl) {
+		return myContext.getResourceDefinition(theResourceType).getName() + " " + theMatchUrl;
+	}
 
 }
@@ -34,6 +34,7 @@ import ca.uhn.fhir.jpa.model.entity.*;
 import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.model.util.StringNormalizer;
+import ca.uhn.fhir.jpa.search.KeysetPageId;
 import ca.uhn.fhir.jpa.searchparam.JpaRuntimeSearchParam;
 import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
 import ca.uhn.fhir.jpa.searchparam.ResourceMetaParams;
@@ -138,6 +139,8 @@ public class SearchBuilder implements ISearchBuilder {
 	private ITermReadSvc myTerminologySvc;
 	@Autowired
 	private MatchUrlService myMatchUrlService;
+	@Autowired
+	private SearchPidSetQueryRunner mySearchPidSetQueryRunner;
 	private List<Long> myAlsoIncludePids;
 	private CriteriaBuilder myBuilder;
 	private BaseHapiFhirDao<?> myCallingDao;
@@ -153,6 +156,8 @@ public class SearchBuilder implements ISearchBuilder {
 	private Integer myMaxResultsToFetch;
 	private Set<Long> myPidSet;
 	private boolean myHaveIndexJoins = false;
+	private boolean myParallelPidSetQueriesAllowed;
+	private KeysetPageId myKeysetPageId;
 
 	/**
 	 * Constructor
@@ -168,6 +173,16 @@ public class SearchBuilder implements ISearchBuilder {
 		myMaxResultsToFetch = theMaxResultsToFetch;
 	}
 
+	@Override
+	public void setParallelPidSetQueriesAllowed(boolean theParallelPidSetQueriesAllowed) {
+		myParallelPidSetQueriesAllowed = theParallelPidSetQueriesAllowed;
+	}
+
+	@Override
+	public void setKeysetPageId(KeysetPageId theKeysetPageId) {
+		myKeysetPageId = theKeysetPageId;
+	}
+
 	private void addPredicateComposite(String theResourceName, RuntimeSearchParam theParamDef, List<? extends IQueryParameterType> theNextAnd) {
 		// TODO: fail if missing is set for a composite query
 
@@ -2058,6 +2073,9 @@ public class SearchBuilder implements ISearchBuilder {
 			List<Predicate> predicates = myPredicates; // Lists.newArrayList();
 
 			createSort(myBuilder, myResourceTableRoot, sort, orders, predicates);
+			if (myKeysetPageId != null) {
+				addKeysetPagePredicateAndOrder(sort, orders, predicates);
+			}
 			if (orders.size() > 0) {
 				outerQuery.orderBy(orders);
 			}
@@ -2157,6 +2175,28 @@ public class SearchBuilder implements ISearchBuilder {
 		return query;
 	}
 
+	/**
+	 * Keyset paging requires a unique sort order, so the resource PID is used as a tie breaker
+	 * for resources with the same <code>_lastUpdated</code> value, and the page then resumes
+	 * after the last <code>(_lastUpdated, PID)</code> of the previous page.
+	 */
+	private void addKeysetPagePredicateAndOrder(SortSpec theSort, List<Order> theOrders, List<Predicate> thePredicates) {
+		Validate.isTrue(Constants.PARAM_LASTUPDATED.equals(theSort.getParamName()) && theSort.getChain() == null, "Keyset paging requires a search sorted only by " + Constants.PARAM_LASTUPDATED);
+
+		Expression<Date> updated = myResourceTableRoot.get("myUpdated");
+		Expression<Long> pid = myResourceTableRoot.get("myId");
+		boolean ascending = theSort.getOrder() == null || theSort.getOrder() == SortOrderEnum.ASC;
+		theOrders.add(ascending ? myBuilder.asc(pid) : myBuilder.desc(pid));
+
+		if (myKeysetPageId.hasPosition()) {
+			Date updatedAfter = myKeysetPageId.getLastUpdatedAfter();
+			Long pidAfter = myKeysetPageId.getPidAfter();
+			Predicate updatedBeyond = ascending ? myBuilder.greaterThan(updated, updatedAfter) : myBuilder.lessThan(updated, updatedAfter);
+			Predicate pidBeyond = ascending ? myBuilder.greaterThan(pid, pidAfter) : myBuilder.lessThan(pid, pidAfter);
+			thePredicates.add(myBuilder.or(updatedBeyond, myBuilder.and(myBuilder.equal(updated, updatedAfter), pidBeyond)));
+		}
+	}
+
 	private Predicate createResourceLinkPathPredicate(String theResourceName, String theParamName, From<?, ? extends ResourceLink> from) {
 		return createResourceLinkPathPredicate(myContext, theParamName, from, theResourceName);
 	}
@@ -2445,6 +2485,7 @@ public class SearchBuilder implements ISearchBuilder {
 			return new HashSet<>();
 		}
 		String searchFieldName = theReverseMode ? "myTargetResourcePid" : "mySourceResourcePid";
+		String findFieldName = theReverseMode ? "mySourceResourcePid" : "myTargetResourcePid";
 
 		Collection<Long> nextRoundMatches = theMatches;
 		HashSet<Long> allAdded = new HashSet<>();
@@ -2460,6 +2501,12 @@ public class SearchBuilder implements ISearchBuilder {
 
 			HashSet<Long> pidsToInclude = new HashSet<>();
 
+			/*
+			 * Each include is resolved with a single query per batch of PIDs, selecting only
+			 * the PID on the other end of the link (all paths of the search parameter are
+			 * matched at once)
+			 */
+			List<Collection<Long>> partitions = partition(nextRoundMatches, MAXIMUM_PAGE_SIZE);
 			for (Iterator<Include> iter = includes.iterator(); iter.hasNext(); ) {
 				Include nextInclude = iter.next();
 				if (nextInclude.isRecurse() == false) {
@@ -2469,19 +2516,11 @@ public class SearchBuilder implements ISearchBuilder {
 				boolean matchAll = "*".equals(nextInclude.getValue());
 				if (matchAll) {
 					String sql;
-					sql = "SELECT r FROM ResourceLink r WHERE r." + searchFieldName + " IN (:target_pids) ";
-					List<Collection<Long>> partitions = partition(nextRoundMatches, MAXIMUM_PAGE_SIZE);
+					sql = "SELECT r." + findFieldName + " FROM ResourceLink r WHERE r." + searchFieldName + " IN (:target_pids) ";
 					for (Collection<Long> nextPartition : partitions) {
-						TypedQuery<ResourceLink> q = theEntityManager.createQuery(sql, ResourceLink.class);
+						TypedQuery<Long> q = theEntityManager.createQuery(sql, Long.class);
 						q.setParameter("target_pids", nextPartition);
-						List<ResourceLink> results = q.getResultList();
-						for (ResourceLink resourceLink : results) {
-							if (theReverseMode) {
-								pidsToInclude.add(resourceLink.getSourceResourcePid());
-							} else {
-								pidsToInclude.add(resourceLink.getTargetResourcePid());
-							}
-						}
+						addNonNullPids(pidsToInclude, q.getResultList());
 					}
 				} else {
 
@@ -2511,43 +2550,26 @@ public class SearchBuilder implements ISearchBuilder {
 					paths = param.getPathsSplit();
 
 					String targetResourceType = defaultString(nextInclude.getParamTargetType(), null);
-					for (String nextPath : paths) {
-						String sql;
+					String sql;
+					boolean haveTargetTypesDefinedByParam = param.hasTargets();
+					if (targetResourceType != null) {
+						sql = "SELECT r." + findFieldName + " FROM ResourceLink r WHERE r.mySourcePath IN (:src_paths) AND r." + searchFieldName + " IN (:target_pids) AND r.myTargetResourceType = :target_resource_type";
+					} else if (haveTargetTypesDefinedByParam) {
+						sql = "SELECT r." + findFieldName + " FROM ResourceLink r WHERE r.mySourcePath IN (:src_paths) AND r." + searchFieldName + " IN (:target_pids) AND r.myTargetResourceType in (:target_resource_types)";
+					} else {
+						sql = "SELECT r." + findFieldName + " FROM ResourceLink r WHERE r.mySourcePath IN (:src_paths) AND r." + searchFieldName + " IN (:target_pids)";
+					}
 
-						boolean haveTargetTypesDefinedByParam = param.hasTargets();
+					for (Collection<Long> nextPartition : partitions) {
+						TypedQuery<Long> q = theEntityManager.createQuery(sql, Long.class);
+						q.setParameter("src_paths", paths);
+						q.setParameter("target_pids", nextPartition);
 						if (targetResourceType != null) {
-							sql = "SELECT r FROM ResourceLink r WHERE r.mySourcePath = :src_path AND r." + searchFieldName + " IN (:target_pids) AND r.myTargetResourceType = :target_resource_type";
+							q.setParameter("target_resource_type", targetResourceType);
 						} else if (haveTargetTypesDefinedByParam) {
-							sql = "SELECT r FROM ResourceLink r WHERE r.mySourcePath = :src_path AND r." + searchFieldName + " IN (:target_pids) AND r.myTargetResourceType in (:target_resource_types)";
-						} else {
-							sql = "SELECT r FROM ResourceLink r WHERE r.mySourcePath = :src_path AND r." + searchFieldName + " IN (:target_pids)";
-						}
-
-						List<Collection<Long>> partitions = partition(nextRoundMatches, MAXIMUM_PAGE_SIZE);
-						for (Collection<Long> nextPartition : partitions) {
-							TypedQuery<ResourceLink> q = theEntityManager.createQuery(sql, ResourceLink.class);
-							q.setParameter("src_path", nextPath);
-							q.setParameter("target_pids", nextPartition);
-							if (targetResourceType != null) {
-								q.setParameter("target_resource_type", targetResourceType);
-							} else if (haveTargetTypesDefinedByParam) {
-								q.setParameter("target_resource_types", param.getTargets());
-							}
-							List<ResourceLink> results = q.getResultList();
-							for (ResourceLink resourceLink : results) {
-								if (theReverseMode) {
-									Long pid = resourceLink.getSourceResourcePid();
-									if (pid != null) {
-										pidsToInclude.add(pid);
-									}
-								} else {
-									Long pid = resourceLink.getTargetResourcePid();
-									if (pid != null) {
-										pidsToInclude.add(pid);
-									}
-								}
-							}
+							q.setParameter("target_resource_types", param.getTargets());
 						}
+						addNonNullPids(pidsToInclude, q.getResultList());
 					}
 				}
 			}
@@ -2557,14 +2579,22 @@ public class SearchBuilder implements ISearchBuilder {
 					pidsToInclude = new HashSet<>(filterResourceIdsByLastUpdated(theEntityManager, theLastUpdated, pidsToInclude));
 				}
 			}
+
+			/*
+			 * Only PIDs we haven't seen in a previous round need to be followed
+			 * in the next round, since the remaining (recursive) includes have
+			 * already been applied to all of the others
+			 */
+			List<Long> newPids = new ArrayList<>();
 			for (Long next : pidsToInclude) {
 				if (original.contains(next) == false && allAdded.contains(next) == false) {
 					theMatches.add(next);
+					newPids.add(next);
 				}
 			}
 
-			addedSomeThisRound = allAdded.addAll(pidsToInclude);
-			nextRoundMatches = pidsToInclude;
+			addedSomeThisRound = allAdded.addAll(newPids);
+			nextRoundMatches = newPids;
 		} while (includes.size() > 0 && nextRoundMatches.size() > 0 && addedSomeThisRound);
 
 		ourLog.info("Loaded {} {} in {} rounds and {} ms for search {}", allAdded.size(), theReverseMode ? "_revincludes" : "_includes", roundCounts, w.getMillisAndRestart(), theSearchIdOrDescription);
@@ -2596,6 +2626,14 @@ public class SearchBuilder implements ISearchBuilder {
 		return allAdded;
 	}
 
+	private static void addNonNullPids(Set<Long> theTarget, List<Long> thePids) {
+		for (Long next : thePids) {
+			if (next != null) {
+				theTarget.add(next);
+			}
+		}
+	}
+
 	private List<Collection<Long>> partition(Collection<Long> theNextRoundMatches, int theMaxLoad) {
 		if (theNextRoundMatches.size() <= theMaxLoad) {
 			return Collections.singletonList(theNextRoundMatches);
@@ -2703,15 +2741,171 @@ public class SearchBuilder implements ISearchBuilder {
 			}
 		}
 
+		/*
+		 * If the search has enough AND-ed clauses, resolve them as independent
+		 * PID set queries in parallel instead of as part of one large query
+		 */
+		Set<String> paramsResolvedAsPidSets = Collections.emptySet();
+		if (myParallelPidSetQueriesAllowed && myDaoConfig.isParallelPidSetQueriesEnabled() && myParams.getEverythingMode() == null) {
+			paramsResolvedAsPidSets = addPredicatesUsingParallelPidSetQueries(theRequest);
+		}
+
 		// Handle each parameter
 		for (Entry<String, List<List<IQueryParameterType>>> nextParamEntry : myParams.entrySet()) {
 			String nextParamName = nextParamEntry.getKey();
+			if (paramsResolvedAsPidSets.contains(nextParamName)) {
+				continue;
+			}
 			List<List<IQueryParameterType>> andOrParams = nextParamEntry.getValue();
 			searchForIdsWithAndOr(myResourceName, nextParamName, andOrParams, theRequest);
 		}
 
 	}
 
+	/**
+	 * Runs each AND-ed clause of the eligible parameters in the search as its own
+	 * query returning matching PIDs, and restricts the main query to the
+	 * intersection of these PIDs. Clauses that match too many resources to be
+	 * usefully intersected in memory are added to the main query as usual.
+	 *
+	 * @return The names of the parameters that were handled here, or an empty set if
+	 * the search didn't have enough eligible clauses to make this worthwhile
+	 */
+	private Set<String> addPredicatesUsingParallelPidSetQueries(RequestDetails theRequest) {
+		List<Pair<String, List<IQueryParameterType>>> clauses = new ArrayList<>();
+		Set<String> paramNames = new HashSet<>();
+		for (Entry<String, List<List<IQueryParameterType>>> nextParamEntry : myParams.entrySet()) {
+			String nextParamName = nextParamEntry.getKey();
+			if (isEligibleForPidSetQuery(nextParamName)) {
+				paramNames.add(nextParamName);
+				for (List<IQueryParameterType> nextAnd : nextParamEntry.getValue()) {
+					clauses.add(Pair.of(nextParamName, nextAnd));
+				}
+			}
+		}
+
+		if (clauses.size() < myDaoConfig.getParallelPidSetQueryMinimumClauses()) {
+			return Collections.emptySet();
+		}
+
+		List<CriteriaQuery<Long>> queries = new ArrayList<>(clauses.size());
+		for (Pair<String, List<IQueryParameterType>> nextClause : clauses) {
+			queries.add(createPidSetQuery(nextClause.getLeft(), nextClause.getRight(), theRequest));
+		}
+
+		int maximumPids = myDaoConfig.getParallelPidSetQueryMaximumPids();
+		List<long[]> pidSets = mySearchPidSetQueryRunner.runQueries(queries, maximumPids);
+
+		List<long[]> pidSetsToIntersect = new ArrayList<>();
+		for (int i = 0; i < clauses.size(); i++) {
+			long[] nextPidSet = pidSets.get(i);
+			if (nextPidSet != null) {
+				pidSetsToIntersect.add(nextPidSet);
+			} else {
+				Pair<String, List<IQueryParameterType>> nextClause = clauses.get(i);
+				searchForIdsWithAndOr(myResourceName, nextClause.getLeft(), Collections.singletonList(nextClause.getRight()), theRequest);
+			}
+		}
+
+		if (!pidSetsToIntersect.isEmpty()) {
+			long[] intersection = SearchPidSetQueryRunner.intersect(pidSetsToIntersect);
+			List<Long> pids = new ArrayList<>(Math.max(intersection.length, 1));
+			for (long next : intersection) {
+				pids.add(next);
+			}
+			if (pids.isEmpty()) {
+				// Will never match
+				pids.add(-1L);
+			}
+			myPredicates.add(myResourceTableRoot.get("myId").as(Long.class).in(pids));
+		}
+
+		String message = "Resolved " + pidSetsToIntersect.size() + " of " + clauses.size() + " clauses using parallel PID set queries";
+		ourLog.debug(message);
+
+		// Interceptor broadcast: JPA_PERFTRACE_INFO
+		StorageProcessingMessage msg = new StorageProcessingMessage()
+			.setMessage(message);
+		HookParams params = new HookParams()
+			.add(RequestDetails.class, theRequest)
+			.addIfMatchesType(ServletRequestDetails.class, theRequest)
+			.add(StorageProcessingMessage.class, msg);
+		JpaInterceptorBroadcaster.doCallHooks(myInterceptorBroadcaster, theRequest, Pointcut.JPA_PERFTRACE_INFO, params);
+
+		return paramNames;
+	}
+
+	private boolean isEligibleForPidSetQuery(String theParamName) {
+		if (theParamName.equals(IAnyResource.SP_RES_ID) ||
+			theParamName.equals(IAnyResource.SP_RES_LANGUAGE) ||
+			theParamName.equals(Constants.PARAM_HAS) ||
+			theParamName.equals(Constants.PARAM_TAG) ||
+			theParamName.equals(Constants.PARAM_PROFILE) ||
+			theParamName.equals(Constants.PARAM_SECURITY) ||
+			theParamName.equals(Constants.PARAM_SOURCE)) {
+			return false;
+		}
+
+		RuntimeSearchParam paramDef = mySearchParamRegistry.getActiveSearchParam(myResourceName, theParamName);
+		if (paramDef == null) {
+			return false;
+		}
+
+		switch (paramDef.getParamType()) {
+			case DATE:
+			case NUMBER:
+			case QUANTITY:
+			case REFERENCE:
+			case STRING:
+			case TOKEN:
+			case URI:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Creates a standalone query selecting the PIDs of the resources which
+	 * match a single AND-ed clause of the search
+	 */
+	private CriteriaQuery<Long> createPidSetQuery(String theParamName, List<IQueryParameterType> theOrValues, RequestDetails theRequest) {
+		CriteriaQuery<Long> query = myBuilder.createQuery(Long.class);
+		Root<ResourceTable> root = query.from(ResourceTable.class);
+		query.select(root.get("myId").as(Long.class));
+		query.distinct(true);
+
+		/*
+		 * Push the current query state down while we build the new
+		 * query, the same way we do for chained subqueries
+		 */
+		AbstractQuery<Long> stackQuery = myResourceTableQuery;
+		Root<ResourceTable> stackRoot = myResourceTableRoot;
+		ArrayList<Predicate> stackPredicates = myPredicates;
+		Map<JoinKey, Join<?, ?>> stackIndexJoins = myIndexJoins;
+		boolean stackHaveIndexJoins = myHaveIndexJoins;
+		myResourceTableQuery = query;
+		myResourceTableRoot = root;
+		myPredicates = Lists.newArrayList();
+		myIndexJoins = Maps.newHashMap();
+		myHaveIndexJoins = false;
+
+		searchForIdsWithAndOr(myResourceName, theParamName, Collections.singletonList(theOrValues), theRequest);
+		if (!myHaveIndexJoins) {
+			myPredicates.add(myBuilder.equal(myResourceTableRoot.get("myResourceType"), myResourceName));
+			myPredicates.add(myBuilder.isNull(myResourceTableRoot.get("myDeleted")));
+		}
+		query.where(toArray(myPredicates));
+
+		myResourceTableQuery = stackQuery;
+		myResourceTableRoot = stackRoot;
+		myPredicates = stackPredicates;
+		myIndexJoins = stackIndexJoins;
+		myHaveIndexJoins = stackHaveIndexJoins;
+
+		return query;
+	}
+
 
 	private <T> void ensureSubListsAreWritable(List<List<T>> theListOfLists) {
 		for (int i = 0; i < theListOfLists.size(); i++) {
@@ -3434,18 +3628,22 @@ public class SearchBuilder implements ISearchBuilder {
 		if (thePids.isEmpty()) {
 			return Collections.emptyList();
 		}
-		CriteriaBuilder builder = theEntityManager.getCriteriaBuilder();
-		CriteriaQuery<Long> cq = builder.createQuery(Long.class);
-		Root<ResourceTable> from = cq.from(ResourceTable.class);
-		cq.select(from.get("myId").as(Long.class));
+		List<Long> retVal = new ArrayList<>();
+		for (List<Long> nextPartition : Lists.partition(new ArrayList<>(thePids), MAXIMUM_PAGE_SIZE)) {
+			CriteriaBuilder builder = theEntityManager.getCriteriaBuilder();
+			CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+			Root<ResourceTable> from = cq.from(ResourceTable.class);
+			cq.select(from.get("myId").as(Long.class));
 
-		List<Predicate> lastUpdatedPredicates = createLastUpdatedPredicates(theLastUpdated, builder, from);
-		lastUpdatedPredicates.add(from.get("myId").as(Long.class).in(thePids));
+			List<Predicate> lastUpdatedPredicates = createLastUpdatedPredicates(theLastUpdated, builder, from);
+			lastUpdatedPredicates.add(from.get("myId").as(Long.class).in(nextPartition));
 
-		cq.where(SearchBuilder.toArray(lastUpdatedPredicates));
-		TypedQuery<Long> query = theEntityManager.createQuery(cq);
+			cq.where(SearchBuilder.toArray(lastUpdatedPredicates));
+			TypedQuery<Long> query = theEntityManager.createQuery(cq);
 
-		return query.getResultList();
+			retVal.addAll(query.getResultList());
+		}
+		return retVal;
 	}
 
 
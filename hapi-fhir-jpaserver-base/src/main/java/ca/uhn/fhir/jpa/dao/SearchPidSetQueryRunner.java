@@ -0,0 +1,213 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceContextType;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Executes the independent PID set queries built by {@link SearchBuilder} when a search
+ * is split into one query per AND-ed clause (see {@link DaoConfig#setParallelPidSetQueriesEnabled(boolean)}).
+ * Queries run on a bounded pool shared by all searches, each in its own read-only transaction.
+ * <p>
+ * The calling thread already holds a database connection for its own transaction while it waits
+ * for the pool, so the number of searches that may wait at the same time is limited to the size
+ * of the pool. Other searches, and any queries that the pool has no room for, are run by the
+ * calling thread using its own transaction, so that the calling thread never needs a second
+ * connection. As long as the pool is smaller than the database connection pool, waiting
+ * searches can therefore not starve the pool threads of connections.
+ * </p>
+ */
+@Service
+public class SearchPidSetQueryRunner {
+	private static final Logger ourLog = LoggerFactory.getLogger(SearchPidSetQueryRunner.class);
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
+	private EntityManager myEntityManager;
+	private ExecutorService myExecutor;
+	private Semaphore myWaitingSearchPermits;
+
+	@PostConstruct
+	public void start() {
+		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("search-pidset-%d")
+			.daemon(true)
+			.build();
+		int threadCount = myDaoConfig.getParallelPidSetQueryThreadCount();
+		myExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+			0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(threadCount),
+			threadFactory,
+			new ThreadPoolExecutor.CallerRunsPolicy());
+		myWaitingSearchPermits = new Semaphore(threadCount);
+	}
+
+	@PreDestroy
+	public void stop() {
+		myExecutor.shutdown();
+	}
+
+	/**
+	 * Runs the given queries in parallel and waits for all of them to complete.
+	 *
+	 * @param theQueries      The queries to run. Each one must select a single <code>Long</code> resource PID column.
+	 * @param theMaximumPids  The maximum number of PIDs to load for any single query
+	 * @return A list with one entry per query, in the same order as <code>theQueries</code>. Each entry
+	 * is the sorted, distinct PIDs returned by the query, or <code>null</code> if the query matched more
+	 * than <code>theMaximumPids</code> resources.
+	 */
+	public List<long[]> runQueries(List<CriteriaQuery<Long>> theQueries, int theMaximumPids) {
+		Thread callingThread = Thread.currentThread();
+
+		if (!myWaitingSearchPermits.tryAcquire()) {
+			ourLog.debug("PID set query pool is busy, running {} queries in the calling thread", theQueries.size());
+			List<long[]> retVal = new ArrayList<>(theQueries.size());
+			for (CriteriaQuery<Long> next : theQueries) {
+				retVal.add(runQuery(next, theMaximumPids, true));
+			}
+			return retVal;
+		}
+
+		List<Future<long[]>> futures = new ArrayList<>(theQueries.size());
+		try {
+			/*
+			 * The calling thread runs the first query itself. If the pool's queue is full, the
+			 * calling thread also runs any other queries that don't fit (these are executed by
+			 * the rejection policy, which runs them in the calling thread).
+			 */
+			for (CriteriaQuery<Long> next : theQueries.subList(1, theQueries.size())) {
+				futures.add(myExecutor.submit(() -> runQuery(next, theMaximumPids, Thread.currentThread() == callingThread)));
+			}
+
+			List<long[]> retVal = new ArrayList<>(theQueries.size());
+			retVal.add(runQuery(theQueries.get(0), theMaximumPids, true));
+			for (Future<long[]> next : futures) {
+				retVal.add(next.get());
+			}
+			return retVal;
+		} catch (InterruptedException e) {
+			futures.forEach(t -> t.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException("Interrupted while waiting for PID set queries", e);
+		} catch (ExecutionException e) {
+			futures.forEach(t -> t.cancel(true));
+			ourLog.error("Failure while running PID set query", e.getCause());
+			throw new InternalErrorException("Failure while running PID set query: " + e.getCause().getMessage(), e.getCause());
+		} catch (RuntimeException e) {
+			futures.forEach(t -> t.cancel(true));
+			throw e;
+		} finally {
+			myWaitingSearchPermits.release();
+		}
+	}
+
+	/**
+	 * @param theInCallingThread If <code>true</code>, the query participates in the calling thread's
+	 *                           transaction instead of opening a new one (and needing another connection)
+	 */
+	@Nullable
+	private long[] runQuery(CriteriaQuery<Long> theQuery, int theMaximumPids, boolean theInCallingThread) {
+		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
+		if (theInCallingThread) {
+			txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+		} else {
+			txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+			txTemplate.setReadOnly(true);
+		}
+		return txTemplate.execute(t -> {
+			TypedQuery<Long> query = myEntityManager.createQuery(theQuery);
+			query.setMaxResults(theMaximumPids + 1);
+			List<Long> pids = query.getResultList();
+			if (pids.size() > theMaximumPids) {
+				return null;
+			}
+
+			long[] retVal = new long[pids.size()];
+			for (int i = 0; i < retVal.length; i++) {
+				retVal[i] = pids.get(i);
+			}
+			Arrays.sort(retVal);
+			return retVal;
+		});
+	}
+
+	/**
+	 * Intersects several sorted arrays of distinct PIDs
+	 *
+	 * @param thePidSets The arrays to intersect, which must each be sorted in ascending order and contain no duplicates
+	 * @return The PIDs present in every array, sorted in ascending order
+	 */
+	static long[] intersect(List<long[]> thePidSets) {
+		List<long[]> pidSets = new ArrayList<>(thePidSets);
+		pidSets.sort(Comparator.comparingInt(t -> t.length));
+
+		long[] retVal = pidSets.get(0);
+		for (int setIdx = 1; setIdx < pidSets.size() && retVal.length > 0; setIdx++) {
+			long[] next = pidSets.get(setIdx);
+			long[] intersection = new long[retVal.length];
+			int count = 0;
+			int leftIdx = 0;
+			int rightIdx = 0;
+			while (leftIdx < retVal.length && rightIdx < next.length) {
+				long left = retVal[leftIdx];
+				long right = next[rightIdx];
+				if (left < right) {
+					leftIdx++;
+				} else if (left > right) {
+					rightIdx++;
+				} else {
+					intersection[count++] = left;
+					leftIdx++;
+					rightIdx++;
+				}
+			}
+			retVal = Arrays.copyOf(intersection, count);
+		}
+		return retVal;
+	}
+
+}
@@ -98,6 +98,8 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 	private DeleteConflictService myDeleteConflictService;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	@Autowired
+	private MatchResourceUrlService myMatchResourceUrlService;
 
 	public BUNDLE transaction(RequestDetails theRequestDetails, BUNDLE theRequest) {
 		if (theRequestDetails != null) {
@@ -510,7 +512,7 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 			Set<ResourceTable> nonUpdatedEntities = new HashSet<>();
 			Set<ResourceTable> updatedEntities = new HashSet<>();
 			List<IBaseResource> updatedResources = new ArrayList<>();
-			Map<String, Class<? extends IBaseResource>> conditionalRequestUrls = new HashMap<>();
+			Map<Class<? extends IBaseResource>, Set<String>> conditionalRequestUrls = new HashMap<>();
 
 			/*
 			 * Look for duplicate conditional creates and consolidate them
@@ -575,6 +577,29 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 			}
 
 
+			/*
+			 * Collect the conditional create and conditional update URLs so that the
+			 * ones which are simple token lookups can be resolved together
+			 */
+			Map<Class<? extends IBaseResource>, Set<String>> conditionalMatchUrls = new HashMap<>();
+			for (BUNDLEENTRY nextReqEntry : theEntries) {
+				IBaseResource resource = myVersionAdapter.getResource(nextReqEntry);
+				String verb = myVersionAdapter.getEntryRequestVerb(nextReqEntry);
+				String matchUrl = null;
+				if (resource != null && "POST".equals(verb)) {
+					matchUrl = myVersionAdapter.getEntryRequestIfNoneExist(nextReqEntry);
+				} else if (resource != null && "PUT".equals(verb) && isNotBlank(myVersionAdapter.getEntryRequestUrl(nextReqEntry))) {
+					UrlUtil.UrlParts parts = UrlUtil.parseUrl(myVersionAdapter.getEntryRequestUrl(nextReqEntry));
+					if (isBlank(parts.getResourceId()) && isNotBlank(parts.getParams())) {
+						matchUrl = parts.getResourceType() + '?' + parts.getParams();
+					}
+				}
+				if (isNotBlank(matchUrl)) {
+					conditionalMatchUrls.computeIfAbsent(resource.getClass(), t -> new HashSet<>()).add(matchUrl);
+				}
+			}
+			boolean conditionalMatchUrlsResolved = false;
+
 			/*
 			 * Loop through the request and process any entries of type
 			 * PUT, POST or DELETE
@@ -630,6 +655,22 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 
 				theTransactionStopWatch.startTask("Bundle.entry[" + i + "]: " + verb + " " + defaultString(resourceType));
 
+				/*
+				 * Creates and updates within the transaction are not indexed until all entries have
+				 * been processed, so they do not change which resources a conditional URL matches.
+				 * Deletes and patches do, so the pre-resolved URLs are only used between them.
+				 */
+				if ("POST".equals(verb) || "PUT".equals(verb)) {
+					if (!conditionalMatchUrlsResolved) {
+						conditionalMatchUrlsResolved = true;
+						for (Map.Entry<Class<? extends IBaseResource>, Set<String>> nextEntry : conditionalMatchUrls.entrySet()) {
+							myMatchResourceUrlService.preResolveMatchUrls(nextEntry.getValue(), nextEntry.getKey(), theRequest);
+						}
+					}
+				} else {
+					myMatchResourceUrlService.clearPreResolvedMatchUrls(theRequest);
+				}
+
 				switch (verb) {
 					case "POST": {
 						// CREATE
@@ -649,7 +690,7 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 							nonUpdatedEntities.add(outcome.getEntity());
 						} else {
 							if (isNotBlank(matchUrl)) {
-								conditionalRequestUrls.put(matchUrl, res.getClass());
+								conditionalRequestUrls.computeIfAbsent(res.getClass(), t -> new HashSet<>()).add(matchUrl);
 							}
 						}
 
@@ -717,7 +758,7 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 							matchUrl = performIdSubstitutionsInMatchUrl(theIdSubstitutions, matchUrl);
 							outcome = resourceDao.update(res, matchUrl, false, false, theRequest);
 							if (Boolean.TRUE.equals(outcome.getCreated())) {
-								conditionalRequestUrls.put(matchUrl, res.getClass());
+								conditionalRequestUrls.computeIfAbsent(res.getClass(), t -> new HashSet<>()).add(matchUrl);
 							}
 						}
 
@@ -783,6 +824,7 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 				theTransactionStopWatch.endCurrentTask();
 			}
 
+			myMatchResourceUrlService.clearPreResolvedMatchUrls(theRequest);
 
 			/*
 			 * Make sure that there are no conflicts from deletions. E.g. we can't delete something
@@ -915,15 +957,12 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 			/*
 			 * Double check we didn't allow any duplicates we shouldn't have
 			 */
-			for (Map.Entry<String, Class<? extends IBaseResource>> nextEntry : conditionalRequestUrls.entrySet()) {
-				String matchUrl = nextEntry.getKey();
-				Class<? extends IBaseResource> resType = nextEntry.getValue();
-				if (isNotBlank(matchUrl)) {
-					IFhirResourceDao<?> resourceDao = myDao.getDao(resType);
-					Set<Long> val = resourceDao.processMatchUrl(matchUrl, theRequest);
-					if (val.size() > 1) {
+			for (Map.Entry<Class<? extends IBaseResource>, Set<String>> nextEntry : conditionalRequestUrls.entrySet()) {
+				Map<String, Set<Long>> matches = myMatchResourceUrlService.processMatchUrls(nextEntry.getValue(), nextEntry.getKey(), theRequest);
+				for (Map.Entry<String, Set<Long>> nextMatch : matches.entrySet()) {
+					if (nextMatch.getValue().size() > 1) {
 						throw new InvalidRequestException(
-							"Unable to process " + theActionName + " - Request would cause multiple resources to match URL: \"" + matchUrl + "\". Does transaction request contain duplicates?");
+							"Unable to process " + theActionName + " - Request would cause multiple resources to match URL: \"" + nextMatch.getKey() + "\". Does transaction request contain duplicates?");
 					}
 				}
 			}
@@ -943,6 +982,7 @@ public class TransactionProcessor<BUNDLE extends IBaseBundle, BUNDLEENTRY> {
 			return entriesToProcess;
 
 		} finally {
+			myMatchResourceUrlService.clearPreResolvedMatchUrls(theRequest);
 			if (theRequest != null) {
 				theRequest.stopDeferredRequestOperationCallbackAndRunDeferredItems();
 			}
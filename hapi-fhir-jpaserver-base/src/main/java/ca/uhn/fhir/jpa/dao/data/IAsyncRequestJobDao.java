@@ -0,0 +1,54 @@
+package ca.uhn.fhir.jpa.dao.data;
+
+import ca.uhn.fhir.jpa.async.AsyncRequestStatusEnum;
+import ca.uhn.fhir.jpa.entity.AsyncRequestJobEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Optional;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+public interface IAsyncRequestJobDao extends JpaRepository<AsyncRequestJobEntity, Long> {
+
+	@Query("SELECT j FROM AsyncRequestJobEntity j WHERE j.myJobId = :jobid")
+	Optional<AsyncRequestJobEntity> findByJobId(@Param("jobid") String theUuid);
+
+	@Query("SELECT j.myId FROM AsyncRequestJobEntity j WHERE j.myExpiry < :cutoff")
+	Slice<Long> findIdsByExpiry(Pageable thePage, @Param("cutoff") Date theCutoff);
+
+	@Query("SELECT j.myJobId FROM AsyncRequestJobEntity j WHERE j.myStatus IN (:statuses) AND j.myStatusTime < :cutoff")
+	Slice<String> findJobIdsByStatusAndStatusTimeBefore(Pageable thePage, @Param("statuses") Collection<AsyncRequestStatusEnum> theStatuses, @Param("cutoff") Date theCutoff);
+
+	@Modifying
+	@Query("UPDATE AsyncRequestJobEntity j SET j.myStatusTime = :now WHERE j.myJobId IN (:jobids) AND j.myStatus IN (:statuses)")
+	int updateStatusTimeForJobIds(@Param("jobids") Collection<String> theJobIds, @Param("statuses") Collection<AsyncRequestStatusEnum> theStatuses, @Param("now") Date theNow);
+
+	@Modifying
+	@Query("DELETE FROM AsyncRequestJobEntity t WHERE t.myId = :pid")
+	void deleteByPid(@Param("pid") Long theId);
+}
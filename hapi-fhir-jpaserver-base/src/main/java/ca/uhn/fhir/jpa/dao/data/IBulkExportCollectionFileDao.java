@@ -36,4 +36,8 @@ public interface IBulkExportCollectionFileDao extends JpaRepository<BulkExportCo
 	@Query("DELETE FROM BulkExportCollectionFileEntity t WHERE t.myId = :pid")
 	void deleteByPid(@Param("pid") Long theId);
 
+	@Modifying
+	@Query("DELETE FROM BulkExportCollectionFileEntity t WHERE t.myCollection.myId = :collectionPid AND t.myResourceId = :resourceId")
+	void deleteByCollectionPidAndResource(@Param("collectionPid") Long theCollectionId, @Param("resourceId") String theResourceId);
+
 }
@@ -9,6 +9,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.Optional;
 
@@ -40,6 +41,17 @@ public interface IBulkExportJobDao extends JpaRepository<BulkExportJobEntity, Lo
 	@Query("SELECT j FROM BulkExportJobEntity j WHERE j.myStatus = :status")
 	Slice<BulkExportJobEntity> findByStatus(Pageable thePage, @Param("status") BulkJobStatusEnum theSubmitted);
 
+	@Query("SELECT j FROM BulkExportJobEntity j WHERE j.myStatus = :status AND j.myStatusTime < :cutoff")
+	Slice<BulkExportJobEntity> findByStatusAndStatusTimeBefore(Pageable thePage, @Param("status") BulkJobStatusEnum theStatus, @Param("cutoff") Date theCutoff);
+
+	@Modifying
+	@Query("UPDATE BulkExportJobEntity j SET j.myStatusTime = :time WHERE j.myId = :pid")
+	void updateStatusTime(@Param("pid") Long theId, @Param("time") Date theStatusTime);
+
+	@Modifying
+	@Query("UPDATE BulkExportJobEntity j SET j.myStatusTime = :time WHERE j.myJobId IN (:job_ids) AND j.myStatus = :status")
+	void updateStatusTimeForJobIds(@Param("job_ids") Collection<String> theJobIds, @Param("status") BulkJobStatusEnum theStatus, @Param("time") Date theStatusTime);
+
 	@Query("SELECT j FROM BulkExportJobEntity j WHERE j.myExpiry < :cutoff")
 	Slice<BulkExportJobEntity> findByExpiry(Pageable thePage, @Param("cutoff") Date theCutoff);
 
@@ -26,6 +26,9 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface IResourceIndexedSearchParamTokenDao extends JpaRepository<ResourceIndexedSearchParamToken, Long> {
 
 	@Query("select count(*) from ResourceIndexedSearchParamToken t WHERE t.myResourcePid = :resid")
@@ -34,4 +37,10 @@ public interface IResourceIndexedSearchParamTokenDao extends JpaRepository<Resou
 	@Modifying
 	@Query("delete from ResourceIndexedSearchParamToken t WHERE t.myResourcePid = :resid")
 	void deleteByResourceId(@Param("resid") Long theResourcePid);
+
+	/**
+	 * @return Returns pairs of [hashSystemAndValue, resourcePid] for every non-deleted resource with a token matching one of the given hashes
+	 */
+	@Query("SELECT t.myHashSystemAndValue, t.myResourcePid FROM ResourceIndexedSearchParamToken t INNER JOIN t.myResource r WHERE t.myHashSystemAndValue IN (:hashes) AND r.myDeleted IS NULL")
+	List<Object[]> findResourcePidsByHashSystemAndValue(@Param("hashes") Collection<Long> theHashes);
 }
@@ -22,6 +22,10 @@ package ca.uhn.fhir.jpa.dao.data;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 import ca.uhn.fhir.jpa.model.entity.ResourceLink;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -32,4 +36,10 @@ public interface IResourceLinkDao  extends JpaRepository<ResourceLink, Long> {
 	@Modifying
 	@Query("delete from ResourceLink t WHERE t.mySourceResourcePid = :resid")
 	void deleteByResourceId(@Param("resid") Long theResourcePid);
+
+	@Query("SELECT t.myTargetResourcePid FROM ResourceLink t WHERE t.mySourceResourcePid = :resid AND t.mySourcePath IN (:paths) AND t.myTargetResourceType = :target_type")
+	List<Long> findTargetPidsBySourcePidAndPaths(@Param("resid") Long theSourceResourcePid, @Param("paths") Collection<String> theSourcePaths, @Param("target_type") String theTargetResourceType);
+
+	@Query("SELECT DISTINCT t.mySourceResourcePid FROM ResourceLink t INNER JOIN t.mySourceResource s WHERE t.mySourceResourceType = :source_type AND t.mySourcePath IN (:paths) AND t.myTargetResourcePid IN (:target_pids) AND s.myUpdated >= :since AND s.myDeleted IS NULL")
+	List<Long> findSourcePidsByPathsAndTargetPids(@Param("source_type") String theSourceResourceType, @Param("paths") Collection<String> theSourcePaths, @Param("target_pids") Collection<Long> theTargetResourcePids, @Param("since") Date theSince);
 }
@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +56,12 @@ public interface IResourceTableDao extends JpaRepository<ResourceTable, Long> {
 	@Query("SELECT t.myId FROM ResourceTable t WHERE t.myUpdated >= :low AND t.myUpdated <= :high AND t.myResourceType = :restype ORDER BY t.myUpdated ASC")
 	Slice<Long> findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(Pageable thePage, @Param("restype") String theResourceType, @Param("low") Date theLow, @Param("high") Date theHigh);
 
+	@Query("SELECT t.myId FROM ResourceTable t WHERE t.myResourceType = :restype AND t.myUpdated >= :since AND t.myDeleted IS NULL AND t.myId > :after_pid ORDER BY t.myId ASC")
+	Slice<Long> findIdsOfNonDeletedResourcesOfTypeUpdatedSince(Pageable thePage, @Param("restype") String theResourceType, @Param("since") Date theSince, @Param("after_pid") Long theAfterPid);
+
+	@Query("SELECT t.myId FROM ResourceTable t WHERE t.myId IN (:pids) AND t.myUpdated >= :since AND t.myDeleted IS NULL")
+	List<Long> findIdsOfNonDeletedResourcesUpdatedSince(@Param("pids") Collection<Long> theResourcePids, @Param("since") Date theSince);
+
 	@Modifying
 	@Query("UPDATE ResourceTable t SET t.myIndexStatus = :status WHERE t.myId = :id")
 	void updateIndexStatus(@Param("id") Long theId, @Param("status") Long theIndexStatus);
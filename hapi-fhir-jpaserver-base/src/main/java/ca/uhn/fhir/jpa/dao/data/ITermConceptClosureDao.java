@@ -0,0 +1,62 @@
+package ca.uhn.fhir.jpa.dao.data;
+
+import ca.uhn.fhir.jpa.entity.TermConcept;
+import ca.uhn.fhir.jpa.entity.TermConceptClosure;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+public interface ITermConceptClosureDao extends JpaRepository<TermConceptClosure, Long> {
+
+	/**
+	 * Returns all concepts below the given concept (not including the concept itself)
+	 */
+	@Query("SELECT c FROM TermConcept c WHERE c.myId IN (SELECT cl.myDescendantPid FROM TermConceptClosure cl WHERE cl.myAncestorPid = :ancestor_pid)")
+	List<TermConcept> findDescendants(Pageable thePage, @Param("ancestor_pid") Long theAncestorPid);
+
+	/**
+	 * Returns all concepts above the given concept (not including the concept itself)
+	 */
+	@Query("SELECT c FROM TermConcept c WHERE c.myId IN (SELECT cl.myAncestorPid FROM TermConceptClosure cl WHERE cl.myDescendantPid = :descendant_pid)")
+	List<TermConcept> findAncestors(Pageable thePage, @Param("descendant_pid") Long theDescendantPid);
+
+	@Query("SELECT COUNT(cl) FROM TermConceptClosure cl WHERE cl.myAncestorPid = :ancestor_pid AND cl.myDescendantPid = :descendant_pid")
+	long countByAncestorAndDescendant(@Param("ancestor_pid") Long theAncestorPid, @Param("descendant_pid") Long theDescendantPid);
+
+	@Modifying
+	@Query("DELETE FROM TermConceptClosure cl WHERE cl.myDescendantPid = :descendant_pid")
+	void deleteByDescendantPid(@Param("descendant_pid") Long theDescendantPid);
+
+	@Modifying
+	@Query("DELETE FROM TermConceptClosure cl WHERE cl.myAncestorPid = :concept_pid OR cl.myDescendantPid = :concept_pid")
+	void deleteByConceptPid(@Param("concept_pid") Long theConceptPid);
+
+	@Modifying
+	@Query("DELETE FROM TermConceptClosure cl WHERE cl.myCodeSystemVersionPid = :cs_pid")
+	int deleteByCodeSystemVersion(@Param("cs_pid") Long theCodeSystemVersionPid);
+
+}
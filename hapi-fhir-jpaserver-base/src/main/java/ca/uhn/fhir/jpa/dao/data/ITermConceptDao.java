@@ -50,4 +50,7 @@ public interface ITermConceptDao extends JpaRepository<TermConcept, Long> {
 	@Query("SELECT t FROM TermConcept t WHERE t.myIndexStatus = null")
 	Page<TermConcept> findResourcesRequiringReindexing(Pageable thePageRequest);
 
+	@Query("SELECT t.myId FROM TermConcept t WHERE t.myCodeSystem = :code_system AND t.myIndexStatus = null")
+	Slice<Long> findIdsRequiringReindexingByCodeSystemVersion(Pageable thePage, @Param("code_system") TermCodeSystemVersion theCodeSystem);
+
 }
@@ -0,0 +1,77 @@
+package ca.uhn.fhir.jpa.dao.data;
+
+import ca.uhn.fhir.jpa.entity.TermDeferredStorageItem;
+import ca.uhn.fhir.jpa.entity.TermDeferredStorageItemTypeEnum;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+public interface ITermDeferredStorageItemDao extends JpaRepository<TermDeferredStorageItem, Long> {
+
+	/**
+	 * Items which have been put off (see {@link TermDeferredStorageItem#getAttemptCount()}) are
+	 * returned after everything that has not, so that whatever they are waiting on gets a chance
+	 * to be stored first
+	 */
+	@Query("SELECT i.myId FROM TermDeferredStorageItem i WHERE i.myItemType = :type AND (i.myClaimTime IS NULL OR i.myClaimTime < :stale_cutoff) ORDER BY i.myAttemptCount ASC, i.myId ASC")
+	Slice<Long> findClaimableIds(Pageable thePage, @Param("type") TermDeferredStorageItemTypeEnum theType, @Param("stale_cutoff") Date theStaleCutoff);
+
+	/**
+	 * @return Returns the number of items which were claimed. This can be fewer than the number
+	 * of IDs if another thread or node claimed some of them first.
+	 */
+	@Modifying
+	@Query("UPDATE TermDeferredStorageItem i SET i.myClaimId = :claim_id, i.myClaimTime = :now WHERE i.myId IN (:pids) AND (i.myClaimTime IS NULL OR i.myClaimTime < :stale_cutoff)")
+	int claim(@Param("pids") Collection<Long> thePids, @Param("claim_id") String theClaimId, @Param("now") Date theNow, @Param("stale_cutoff") Date theStaleCutoff);
+
+	@Query("SELECT i FROM TermDeferredStorageItem i WHERE i.myClaimId = :claim_id ORDER BY i.myId ASC")
+	List<TermDeferredStorageItem> findByClaimId(@Param("claim_id") String theClaimId);
+
+	/**
+	 * Returns items to the queue so that they can be tried again later
+	 */
+	@Modifying
+	@Query("UPDATE TermDeferredStorageItem i SET i.myClaimId = NULL, i.myClaimTime = NULL, i.myAttemptCount = i.myAttemptCount + 1 WHERE i.myId IN (:pids)")
+	void release(@Param("pids") Collection<Long> thePids);
+
+	@Modifying
+	@Query("DELETE FROM TermDeferredStorageItem i WHERE i.myId IN (:pids)")
+	void deleteByPids(@Param("pids") Collection<Long> thePids);
+
+	@Query("SELECT COUNT(i) FROM TermDeferredStorageItem i WHERE i.myItemType = :type")
+	long countByItemType(@Param("type") TermDeferredStorageItemTypeEnum theType);
+
+	@Query("SELECT MIN(i.myAttemptCount) FROM TermDeferredStorageItem i WHERE i.myItemType = :type")
+	Integer findMinAttemptCountByItemType(@Param("type") TermDeferredStorageItemTypeEnum theType);
+
+	@Query("SELECT MAX(i.myAttemptCount) FROM TermDeferredStorageItem i WHERE i.myItemType = :type")
+	Integer findMaxAttemptCountByItemType(@Param("type") TermDeferredStorageItemTypeEnum theType);
+
+}
@@ -23,8 +23,11 @@ package ca.uhn.fhir.jpa.dao.expunge;
 import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.dao.index.IdHelperService;
 import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.jpa.model.entity.*;
+import ca.uhn.fhir.jpa.search.ISearchCoordinatorSvc;
+import ca.uhn.fhir.jpa.search.cache.ISearchResultCacheSvc;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
@@ -56,6 +59,12 @@ public class ExpungeEverythingService {
 	private PlatformTransactionManager myPlatformTransactionManager;
 	@Autowired
 	protected IInterceptorBroadcaster myInterceptorBroadcaster;
+	@Autowired
+	private IdHelperService myIdHelperService;
+	@Autowired
+	private ISearchCoordinatorSvc mySearchCoordinatorSvc;
+	@Autowired
+	private ISearchResultCacheSvc mySearchResultCacheSvc;
 
 	private TransactionTemplate myTxTemplate;
 
@@ -85,6 +94,7 @@ public class ExpungeEverythingService {
 		});
 		counter.addAndGet(expungeEverythingByType(SearchParamPresent.class));
 		counter.addAndGet(expungeEverythingByType(ForcedId.class));
+		myIdHelperService.clearCache();
 		counter.addAndGet(expungeEverythingByType(ResourceIndexedSearchParamDate.class));
 		counter.addAndGet(expungeEverythingByType(ResourceIndexedSearchParamNumber.class));
 		counter.addAndGet(expungeEverythingByType(ResourceIndexedSearchParamQuantity.class));
@@ -127,6 +137,8 @@ public class ExpungeEverythingService {
 			counter.addAndGet(doExpungeEverythingQuery("DELETE from " + org.hibernate.search.jpa.Search.class.getSimpleName() + " d"));
 			return null;
 		});
+		mySearchResultCacheSvc.deleteAllResults();
+		mySearchCoordinatorSvc.clearLocalSearchCache();
 
 		ourLog.info("COMPLETED GLOBAL $expunge - Deleted {} rows", counter.get());
 	}
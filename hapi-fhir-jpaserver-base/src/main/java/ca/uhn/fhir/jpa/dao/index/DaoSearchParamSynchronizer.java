@@ -30,9 +30,7 @@ import org.springframework.stereotype.Service;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceContextType;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 @Service
 public class DaoSearchParamSynchronizer {
@@ -67,7 +65,9 @@ public class DaoSearchParamSynchronizer {
 		tryToReuseIndexEntities(quantitiesToRemove, quantitiesToAdd);
 		for (T next : quantitiesToRemove) {
 			myEntityManager.remove(next);
-			theEntity.getParamsQuantity().remove(next);
+			if (next instanceof ResourceIndexedSearchParamQuantity) {
+				theEntity.getParamsQuantity().remove(next);
+			}
 		}
 		for (T next : quantitiesToAdd) {
 			myEntityManager.merge(next);
@@ -109,15 +109,29 @@ public class DaoSearchParamSynchronizer {
 
 
 
+	/**
+	 * Returns the entries of <code>theSubtractFrom</code> that are not in <code>theToSubtract</code>,
+	 * in their original order. The index entities' <code>equals</code> and <code>hashCode</code>
+	 * are built from their values and hashes, so this uses a hash lookup instead of comparing every
+	 * row against every other row (which gets slow for resources with hundreds of index rows).
+	 */
 	<T> List<T> subtract(Collection<T> theSubtractFrom, Collection<T> theToSubtract) {
 		assert theSubtractFrom != theToSubtract;
 
 		if (theSubtractFrom.isEmpty()) {
 			return new ArrayList<>();
 		}
+		if (theToSubtract.isEmpty()) {
+			return new ArrayList<>(theSubtractFrom);
+		}
 
-		ArrayList<T> retVal = new ArrayList<>(theSubtractFrom);
-		retVal.removeAll(theToSubtract);
+		Set<T> toSubtract = new HashSet<>(theToSubtract);
+		ArrayList<T> retVal = new ArrayList<>(theSubtractFrom.size());
+		for (T next : theSubtractFrom) {
+			if (!toSubtract.contains(next)) {
+				retVal.add(next);
+			}
+		}
 		return retVal;
 	}
 }
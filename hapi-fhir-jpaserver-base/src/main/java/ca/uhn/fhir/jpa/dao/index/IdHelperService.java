@@ -21,29 +21,58 @@ package ca.uhn.fhir.jpa.dao.index;
  */
 
 import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
 import ca.uhn.fhir.jpa.model.entity.ForcedId;
-import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
-import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
+import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+/**
+ * This class is used to convert between PIDs (the internal primary key for a particular resource as
+ * stored in the {@link ca.uhn.fhir.jpa.model.entity.ResourceTable HFJ_RESOURCE} table), and the
+ * public ID that a resource has.
+ * <p>
+ * Resolved forced IDs are held in a bounded cache in both directions (resource type and forced ID to
+ * PID, and PID to forced ID). Only positive matches are cached, and entries are only added once the
+ * transaction that resolved them has committed, so that rolled back writes can never leave a stale
+ * mapping behind. Entries are removed when a forced ID is deleted (i.e. when a resource is expunged).
+ * </p>
+ * <p>
+ * Note that the caches are local to each server node, and a forced ID that is expunged on one node
+ * is only removed from the caches of that node. Other nodes may keep resolving the forced ID to the
+ * PID of the expunged resource until their entry expires (see
+ * {@link DaoConfig#setForcedIdCacheExpireAfterWriteInMinutes(Long)}). Servers that expunge resources
+ * with client assigned IDs and then re-create them on a different node should keep the expiry short,
+ * or disable the caches.
+ * </p>
+ */
 @Service
 public class IdHelperService {
 	@Autowired
@@ -53,8 +82,105 @@ public class IdHelperService {
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
 
+	private final Object myCacheLock = new Object();
+	/**
+	 * Incremented (while holding {@link #myCacheLock}) whenever entries are removed from
+	 * the caches, so that lookups which started before the removal don't put back an entry
+	 * read before the removal was committed
+	 */
+	private long myCacheInvalidationCount;
+	private Cache<String, Long> myForcedIdToPidCache;
+	private Cache<Long, String> myPidToForcedIdCache;
+
+	@PostConstruct
+	public void buildCaches() {
+		int maximumSize = myDaoConfig.getForcedIdCacheMaximumSize();
+		Long timeout = myDaoConfig.getForcedIdCacheExpireAfterWriteInMinutes();
+		if (maximumSize == 0 || timeout == null || timeout <= 0) {
+			myForcedIdToPidCache = null;
+			myPidToForcedIdCache = null;
+			return;
+		}
+
+		myForcedIdToPidCache =
+			Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(timeout, TimeUnit.MINUTES)
+				.recordStats()
+				.build();
+
+		myPidToForcedIdCache =
+			Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(timeout, TimeUnit.MINUTES)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Removes all entries from the forced ID caches. This is called when all resources
+	 * are expunged, and may also be used by unit tests.
+	 */
+	public void clearCache() {
+		invalidate(null, null);
+	}
+
+	/**
+	 * Returns hit/miss statistics for the resource type and forced ID to PID cache
+	 */
+	public CacheStats getForcedIdToPidCacheStats() {
+		return myForcedIdToPidCache != null ? myForcedIdToPidCache.stats() : CacheStats.empty();
+	}
+
+	/**
+	 * Returns hit/miss statistics for the PID to forced ID cache
+	 */
+	public CacheStats getPidToForcedIdCacheStats() {
+		return myPidToForcedIdCache != null ? myPidToForcedIdCache.stats() : CacheStats.empty();
+	}
+
 	public void delete(ForcedId forcedId) {
 		myForcedIdDao.deleteByPid(forcedId.getId());
+
+		String key = isNotBlank(forcedId.getResourceType()) ? toCacheKey(forcedId.getResourceType(), forcedId.getForcedId()) : null;
+		Long pid = forcedId.getResourcePid();
+		invalidate(key, pid);
+
+		/*
+		 * Until this transaction commits, other transactions can still read the forced ID
+		 * and try to cache it, so the entries are removed again once it has completed
+		 */
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					invalidate(key, pid);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Removes the given entries from the caches, or all entries if both are <code>null</code>
+	 */
+	private void invalidate(String theForcedIdKey, Long thePid) {
+		if (myForcedIdToPidCache == null) {
+			return;
+		}
+		synchronized (myCacheLock) {
+			myCacheInvalidationCount++;
+			if (theForcedIdKey == null && thePid == null) {
+				myForcedIdToPidCache.invalidateAll();
+				myPidToForcedIdCache.invalidateAll();
+				return;
+			}
+			if (theForcedIdKey != null) {
+				myForcedIdToPidCache.invalidate(theForcedIdKey);
+			}
+			if (thePid != null) {
+				myPidToForcedIdCache.invalidate(thePid);
+			}
+		}
 	}
 
 	/**
@@ -72,7 +198,7 @@ public class IdHelperService {
 	public Long translateForcedIdToPid(String theResourceName, String theResourceId, RequestDetails theRequestDetails) throws ResourceNotFoundException {
 		// We only pass 1 input in so only 0..1 will come back
 		IdDt id = new IdDt(theResourceName, theResourceId);
-		List<Long> matches = translateForcedIdToPids(myDaoConfig, myInterceptorBroadcaster, theRequestDetails, myForcedIdDao, Collections.singletonList(id));
+		List<Long> matches = translateForcedIdToPids(theRequestDetails, Collections.singletonList(id));
 		assert matches.size() <= 1;
 		if (matches.isEmpty()) {
 			throw new ResourceNotFoundException(id);
@@ -81,10 +207,10 @@ public class IdHelperService {
 	}
 
 	public List<Long> translateForcedIdToPids(Collection<IIdType> theId, RequestDetails theRequestDetails) {
-		return IdHelperService.translateForcedIdToPids(myDaoConfig, myInterceptorBroadcaster, theRequestDetails, myForcedIdDao, theId);
+		return translateForcedIdToPids(theRequestDetails, theId);
 	}
 
-	private static List<Long> translateForcedIdToPids(DaoConfig theDaoConfig, IInterceptorBroadcaster theInterceptorBroadcaster, RequestDetails theRequest, IForcedIdDao theForcedIdDao, Collection<IIdType> theId) {
+	private List<Long> translateForcedIdToPids(RequestDetails theRequest, Collection<IIdType> theId) {
 		theId.forEach(id -> Validate.isTrue(id.hasIdPart()));
 
 		if (theId.isEmpty()) {
@@ -92,16 +218,22 @@ public class IdHelperService {
 		}
 
 		List<Long> retVal = new ArrayList<>();
+		long invalidationCount = getCacheInvalidationCount();
 
 		ListMultimap<String, String> typeToIds = MultimapBuilder.hashKeys().arrayListValues().build();
 		for (IIdType nextId : theId) {
-			if (theDaoConfig.getResourceClientIdStrategy() != DaoConfig.ClientIdStrategyEnum.ANY && isValidPid(nextId)) {
+			if (myDaoConfig.getResourceClientIdStrategy() != DaoConfig.ClientIdStrategyEnum.ANY && isValidPid(nextId)) {
 				retVal.add(nextId.getIdPartAsLong());
 			} else {
-				if (nextId.hasResourceType()) {
-					typeToIds.put(nextId.getResourceType(), nextId.getIdPart());
+				if (nextId.hasResourceType() && myForcedIdToPidCache != null) {
+					Long cachedPid = myForcedIdToPidCache.getIfPresent(toCacheKey(nextId.getResourceType(), nextId.getIdPart()));
+					if (cachedPid != null) {
+						retVal.add(cachedPid);
+					} else {
+						typeToIds.put(nextId.getResourceType(), nextId.getIdPart());
+					}
 				} else {
-					typeToIds.put("", nextId.getIdPart());
+					typeToIds.put(defaultString(nextId.getResourceType()), nextId.getIdPart());
 				}
 			}
 		}
@@ -117,27 +249,102 @@ public class IdHelperService {
 					.add(RequestDetails.class, theRequest)
 					.addIfMatchesType(ServletRequestDetails.class, theRequest)
 					.add(StorageProcessingMessage.class, msg);
-				JpaInterceptorBroadcaster.doCallHooks(theInterceptorBroadcaster, theRequest, Pointcut.JPA_PERFTRACE_WARNING, params);
+				JpaInterceptorBroadcaster.doCallHooks(myInterceptorBroadcaster, theRequest, Pointcut.JPA_PERFTRACE_WARNING, params);
 
-				retVal.addAll(theForcedIdDao.findByForcedId(nextIds));
+				retVal.addAll(myForcedIdDao.findByForcedId(nextIds));
 
 			} else {
-				retVal.addAll(theForcedIdDao.findByTypeAndForcedId(nextResourceType, nextIds));
+				Map<String, Long> resolved = new HashMap<>();
+				for (Object[] next : myForcedIdDao.findForcedIdAndPidByTypeAndForcedId(nextResourceType, nextIds)) {
+					String forcedId = (String) next[0];
+					Long pid = (Long) next[1];
+					retVal.add(pid);
+					resolved.put(forcedId, pid);
+				}
+				addToCachesAfterCommit(nextResourceType, resolved, invalidationCount);
 			}
 		}
 
-			return retVal;
+		return retVal;
 	}
 
 	String translatePidIdToForcedId(String theResourceType, Long theId) {
+		if (myPidToForcedIdCache != null) {
+			String cached = myPidToForcedIdCache.getIfPresent(theId);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		long invalidationCount = getCacheInvalidationCount();
 		ForcedId forcedId = myForcedIdDao.findByResourcePid(theId);
 		if (forcedId != null) {
+			if (isNotBlank(forcedId.getResourceType())) {
+				addToCachesAfterCommit(forcedId.getResourceType(), Collections.singletonMap(forcedId.getForcedId(), theId), invalidationCount);
+			}
 			return forcedId.getResourceType() + '/' + forcedId.getForcedId();
 		} else {
 			return theResourceType + '/' + theId.toString();
 		}
 	}
 
+	private long getCacheInvalidationCount() {
+		synchronized (myCacheLock) {
+			return myCacheInvalidationCount;
+		}
+	}
+
+	/**
+	 * Entries are only added once the current transaction (if any) commits, since a
+	 * forced ID that was created by an uncommitted transaction may yet be rolled back.
+	 * They are not added at all if any entries were removed from the caches since the
+	 * given invalidation count was read (i.e. since before the forced IDs were read from
+	 * the database), since the forced IDs may have been deleted in the meantime.
+	 */
+	private void addToCachesAfterCommit(String theResourceType, Map<String, Long> theForcedIdToPid, long theInvalidationCount) {
+		if (theForcedIdToPid.isEmpty() || myForcedIdToPidCache == null) {
+			return;
+		}
+
+		Runnable task = () -> {
+			synchronized (myCacheLock) {
+				if (myCacheInvalidationCount != theInvalidationCount) {
+					return;
+				}
+				for (Map.Entry<String, Long> next : theForcedIdToPid.entrySet()) {
+					String key = toCacheKey(theResourceType, next.getKey());
+					myForcedIdToPidCache.put(key, next.getValue());
+					myPidToForcedIdCache.put(next.getValue(), key);
+				}
+			}
+		};
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					task.run();
+				}
+			});
+		} else {
+			task.run();
+		}
+	}
+
+	@VisibleForTesting
+	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
+		myDaoConfig = theDaoConfig;
+	}
+
+	@VisibleForTesting
+	void setForcedIdDaoForUnitTest(IForcedIdDao theForcedIdDao) {
+		myForcedIdDao = theForcedIdDao;
+	}
+
+	private static String toCacheKey(String theResourceType, String theForcedId) {
+		return theResourceType + '/' + theForcedId;
+	}
+
 	public static boolean isValidPid(IIdType theId) {
 		if (theId == null || theId.getIdPart() == null) {
 			return false;
@@ -0,0 +1,36 @@
+package ca.uhn.fhir.jpa.dao.recompress;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+public interface IResourceRecompressionSvc {
+
+	/**
+	 * Rewrites stored resource bodies whose encoding differs from the configured
+	 * resource encoding. Does nothing unless
+	 * {@link ca.uhn.fhir.jpa.dao.DaoConfig#isResourceRecompressionEnabled()} is set.
+	 * Each batch is committed in its own transaction. Bodies which can not be converted
+	 * are logged and left in their existing encoding.
+	 *
+	 * @return Returns the number of resource bodies that were rewritten
+	 */
+	int runRecompressionPass();
+
+}
@@ -0,0 +1,193 @@
+package ca.uhn.fhir.jpa.dao.recompress;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.DeflateUtil;
+import ca.uhn.fhir.jpa.dao.GZipUtil;
+import ca.uhn.fhir.jpa.dao.data.IResourceHistoryTableDao;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.model.sched.FireAtIntervalJob;
+import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
+import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.json.BinaryJsonWriter;
+import ca.uhn.fhir.util.StopWatch;
+import org.apache.commons.lang3.time.DateUtils;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.JobExecutionContext;
+import org.quartz.PersistJobDataAfterExecution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.transaction.Transactional;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Migrates stored resource bodies to the encoding configured in
+ * {@link DaoConfig#getResourceEncoding()}. Bodies are decoded and re-encoded
+ * as text, so resources are never parsed.
+ */
+public class ResourceRecompressionSvcImpl implements IResourceRecompressionSvc {
+
+	private static final long REFRESH_INTERVAL = DateUtils.MILLIS_PER_MINUTE;
+	private static final int BATCH_SIZE = 500;
+	private static final Logger ourLog = LoggerFactory.getLogger(ResourceRecompressionSvcImpl.class);
+
+	@Autowired
+	private IResourceHistoryTableDao myResourceHistoryTableDao;
+	@Autowired
+	private ISchedulerService mySchedulerService;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	private TransactionTemplate myTxTemplate;
+	private final Set<Long> myFailedIds = ConcurrentHashMap.newKeySet();
+
+	@PostConstruct
+	public void start() {
+		myTxTemplate = new TransactionTemplate(myTxManager);
+
+		ScheduledJobDefinition jobDetail = new ScheduledJobDefinition();
+		jobDetail.setId(ResourceRecompressionSvcImpl.class.getName());
+		jobDetail.setJobClass(ResourceRecompressionSvcImpl.RecompressJob.class);
+		mySchedulerService.scheduleFixedDelay(REFRESH_INTERVAL, true, jobDetail);
+	}
+
+	@Transactional(value = Transactional.TxType.NEVER)
+	@Override
+	public int runRecompressionPass() {
+		if (!myDaoConfig.isResourceRecompressionEnabled()) {
+			return 0;
+		}
+
+		ResourceEncodingEnum targetEncoding = myDaoConfig.getResourceEncoding();
+		Set<ResourceEncodingEnum> sourceEncodings = EnumSet.of(ResourceEncodingEnum.JSON, ResourceEncodingEnum.JSONC, ResourceEncodingEnum.JSOND, ResourceEncodingEnum.BJSON);
+		if (!sourceEncodings.remove(targetEncoding)) {
+			return 0;
+		}
+
+		/*
+		 * Page forward by PID so that rows which can not be converted are passed
+		 * over instead of being returned as the first page forever
+		 */
+		StopWatch sw = new StopWatch();
+		int total = 0;
+		long lastId = -1;
+		while (true) {
+			long afterId = lastId;
+			List<Long> ids = myTxTemplate.execute(t -> myResourceHistoryTableDao.findIdsByEncodingInAfterId(PageRequest.of(0, BATCH_SIZE), sourceEncodings, afterId).getContent());
+			if (ids.isEmpty()) {
+				break;
+			}
+			lastId = ids.get(ids.size() - 1);
+
+			total += myTxTemplate.execute(t -> recompressBatch(ids, sourceEncodings, targetEncoding));
+			ourLog.info("Recompressed {} resource bodies so far ({}/sec)", total, sw.formatThroughput(total, TimeUnit.SECONDS));
+		}
+		return total;
+	}
+
+	/**
+	 * A body which can not be decoded or re-encoded is logged and left as it is, so that
+	 * it does not roll back the rest of the batch. Its PID is remembered so that later
+	 * passes do not keep retrying (and logging) it.
+	 */
+	private int recompressBatch(List<Long> theIds, Set<ResourceEncodingEnum> theSourceEncodings, ResourceEncodingEnum theTargetEncoding) {
+		int count = 0;
+		for (Long nextId : theIds) {
+			if (myFailedIds.contains(nextId)) {
+				continue;
+			}
+
+			ResourceHistoryTable next = myResourceHistoryTableDao.findById(nextId).orElse(null);
+			if (next == null || !theSourceEncodings.contains(next.getEncoding())) {
+				continue;
+			}
+
+			byte[] encoded;
+			try {
+				String text = BaseHapiFhirDao.decodeResource(next.getResource(), next.getEncoding(), next.getResourceType());
+				encoded = encodeText(text, theTargetEncoding, next.getResourceType());
+			} catch (RuntimeException e) {
+				ourLog.error("Failed to recompress resource body with history PID {}, leaving it encoded as {}: {}", nextId, next.getEncoding(), e.toString());
+				myFailedIds.add(nextId);
+				continue;
+			}
+
+			next.setResource(encoded);
+			next.setEncoding(theTargetEncoding);
+			count++;
+		}
+		return count;
+	}
+
+	private static byte[] encodeText(String theText, ResourceEncodingEnum theEncoding, String theResourceType) {
+		switch (theEncoding) {
+			case JSON:
+				return theText.getBytes(StandardCharsets.UTF_8);
+			case JSONC:
+				return GZipUtil.compress(theText);
+			case JSOND:
+				return DeflateUtil.compress(theText, theResourceType);
+			case BJSON:
+				try {
+					return BinaryJsonWriter.fromJson(theText);
+				} catch (IOException e) {
+					throw new DataFormatException("Failed to convert resource to binary JSON", e);
+				}
+			case DEL:
+			default:
+				throw new IllegalArgumentException("Can not recompress into encoding: " + theEncoding);
+		}
+	}
+
+	@DisallowConcurrentExecution
+	@PersistJobDataAfterExecution
+	public static class RecompressJob extends FireAtIntervalJob {
+		@Autowired
+		private IResourceRecompressionSvc myTarget;
+
+		public RecompressJob() {
+			super(REFRESH_INTERVAL);
+		}
+
+		@Override
+		protected void doExecute(JobExecutionContext theContext) {
+			myTarget.runRecompressionPass();
+		}
+	}
+
+}
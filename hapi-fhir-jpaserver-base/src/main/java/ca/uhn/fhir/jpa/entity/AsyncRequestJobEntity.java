@@ -0,0 +1,233 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.async.AsyncRequestStatusEnum;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.hl7.fhir.r5.model.InstantType;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * A request which a client asked to be processed asynchronously using
+ * the <code>Prefer: respond-async</code> header, along with its outcome
+ * once processing has finished
+ */
+@Entity
+@Table(name = "HFJ_ASYNC_REQ_JOB", uniqueConstraints = {
+	@UniqueConstraint(name = "IDX_ASYNCREQ_JOB_ID", columnNames = "JOB_ID")
+}, indexes = {
+	@Index(name = "IDX_ASYNCREQ_EXPTIME", columnList = "EXP_TIME")
+})
+public class AsyncRequestJobEntity implements Serializable {
+
+	public static final int REQUEST_LENGTH = 500;
+	public static final int STATUS_MESSAGE_LEN = 500;
+	public static final int CONTENT_TYPE_LEN = 100;
+	public static final int REQUESTER_HASH_LEN = 64;
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_ASYNCREQJOB_PID")
+	@SequenceGenerator(name = "SEQ_ASYNCREQJOB_PID", sequenceName = "SEQ_ASYNCREQJOB_PID")
+	@Column(name = "PID")
+	private Long myId;
+
+	@Column(name = "JOB_ID", length = Search.UUID_COLUMN_LENGTH, nullable = false)
+	private String myJobId;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "JOB_STATUS", length = 10, nullable = false)
+	private AsyncRequestStatusEnum myStatus;
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "CREATED_TIME", nullable = false)
+	private Date myCreated;
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "STATUS_TIME", nullable = false)
+	private Date myStatusTime;
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "EXP_TIME", nullable = true)
+	private Date myExpiry;
+	@Column(name = "REQUEST", nullable = false, length = REQUEST_LENGTH)
+	private String myRequest;
+	@Column(name = "REQUESTER_HASH", nullable = true, length = REQUESTER_HASH_LEN)
+	private String myRequesterHash;
+	@Column(name = "STATUS_MESSAGE", nullable = true, length = STATUS_MESSAGE_LEN)
+	private String myStatusMessage;
+	@Column(name = "RESPONSE_STATUS", nullable = true)
+	private Integer myResponseStatus;
+	@Column(name = "RESPONSE_CONTENT_TYPE", nullable = true, length = CONTENT_TYPE_LEN)
+	private String myResponseContentType;
+	@Lob
+	@Column(name = "RESPONSE_BODY", nullable = true)
+	private byte[] myResponseBody;
+	@Version
+	@Column(name = "OPTLOCK", nullable = false)
+	private int myVersion;
+
+	public Long getId() {
+		return myId;
+	}
+
+	public String getJobId() {
+		return myJobId;
+	}
+
+	public void setJobId(String theJobId) {
+		myJobId = theJobId;
+	}
+
+	public AsyncRequestStatusEnum getStatus() {
+		return myStatus;
+	}
+
+	public void setStatus(AsyncRequestStatusEnum theStatus) {
+		if (myStatus != theStatus) {
+			myStatusTime = new Date();
+			myStatus = theStatus;
+		}
+	}
+
+	public Date getCreated() {
+		return myCreated;
+	}
+
+	public void setCreated(Date theCreated) {
+		myCreated = theCreated;
+	}
+
+	public Date getStatusTime() {
+		return myStatusTime;
+	}
+
+	public void setStatusTime(Date theStatusTime) {
+		myStatusTime = theStatusTime;
+	}
+
+	/**
+	 * The time after which the job (and its outcome) may be purged, or <code>null</code>
+	 * while the job is still being processed
+	 */
+	public Date getExpiry() {
+		return myExpiry;
+	}
+
+	public void setExpiry(Date theExpiry) {
+		myExpiry = theExpiry;
+	}
+
+	public String getRequest() {
+		return myRequest;
+	}
+
+	public void setRequest(String theRequest) {
+		myRequest = theRequest;
+	}
+
+	/**
+	 * A hash of the credentials the request was submitted with, or <code>null</code> if
+	 * the request carried none. Only a client presenting the same credentials may
+	 * fetch the outcome.
+	 */
+	public String getRequesterHash() {
+		return myRequesterHash;
+	}
+
+	public void setRequesterHash(String theRequesterHash) {
+		myRequesterHash = theRequesterHash;
+	}
+
+	public String getStatusMessage() {
+		return myStatusMessage;
+	}
+
+	public void setStatusMessage(String theStatusMessage) {
+		myStatusMessage = theStatusMessage;
+	}
+
+	/**
+	 * The HTTP status code the request would have responded with had it been processed synchronously
+	 */
+	public Integer getResponseStatus() {
+		return myResponseStatus;
+	}
+
+	public void setResponseStatus(Integer theResponseStatus) {
+		myResponseStatus = theResponseStatus;
+	}
+
+	/**
+	 * The content type of the response body, including the character set
+	 */
+	public String getResponseContentType() {
+		return myResponseContentType;
+	}
+
+	public void setResponseContentType(String theResponseContentType) {
+		myResponseContentType = theResponseContentType;
+	}
+
+	/**
+	 * The encoded response body (or <code>null</code> if the request did not produce one)
+	 */
+	public byte[] getResponseBody() {
+		return myResponseBody;
+	}
+
+	public void setResponseBody(byte[] theResponseBody) {
+		myResponseBody = theResponseBody;
+	}
+
+	public int getVersion() {
+		return myVersion;
+	}
+
+	public void setVersion(int theVersion) {
+		myVersion = theVersion;
+	}
+
+	@Override
+	public String toString() {
+		ToStringBuilder b = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE);
+		b.append("pid", myId);
+		if (isNotBlank(myJobId)) {
+			b.append("jobId", myJobId);
+		}
+		if (myStatus != null) {
+			b.append("status", myStatus + " " + new InstantType(myStatusTime).getValueAsString());
+		}
+		b.append("created", new InstantType(myCreated).getValueAsString());
+		if (myExpiry != null) {
+			b.append("expiry", new InstantType(myExpiry).getValueAsString());
+		}
+		b.append("request", myRequest);
+		if (myResponseStatus != null) {
+			b.append("responseStatus", myResponseStatus);
+		}
+		if (isNotBlank(myStatusMessage)) {
+			b.append("statusMessage", myStatusMessage);
+		}
+		return b.toString();
+	}
+}
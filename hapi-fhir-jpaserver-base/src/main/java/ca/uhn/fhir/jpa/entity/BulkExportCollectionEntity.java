@@ -20,6 +20,7 @@ package ca.uhn.fhir.jpa.entity;
  * #L%
  */
 
+import ca.uhn.fhir.jpa.bulk.BulkJobStatusEnum;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 
 import javax.persistence.*;
@@ -43,6 +44,9 @@ public class BulkExportCollectionEntity implements Serializable {
 	private String myResourceType;
 	@Column(name = "TYPE_FILTER", length = 1000, nullable = true)
 	private String myFilter;
+	@Enumerated(EnumType.STRING)
+	@Column(name = "COLL_STATUS", length = 10, nullable = true)
+	private BulkJobStatusEnum myStatus;
 	@Version
 	@Column(name = "OPTLOCK", nullable = false)
 	private int myVersion;
@@ -69,6 +73,18 @@ public class BulkExportCollectionEntity implements Serializable {
 		myFilter = theFilter;
 	}
 
+	public BulkJobStatusEnum getStatus() {
+		return myStatus;
+	}
+
+	public void setStatus(BulkJobStatusEnum theStatus) {
+		myStatus = theStatus;
+	}
+
+	public BulkExportJobEntity getJob() {
+		return myJob;
+	}
+
 	public int getVersion() {
 		return myVersion;
 	}
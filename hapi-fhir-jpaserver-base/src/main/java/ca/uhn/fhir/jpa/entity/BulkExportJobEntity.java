@@ -20,6 +20,7 @@ package ca.uhn.fhir.jpa.entity;
  * #L%
  */
 
+import ca.uhn.fhir.jpa.bulk.BulkExportStyleEnum;
 import ca.uhn.fhir.jpa.bulk.BulkJobStatusEnum;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
@@ -43,6 +44,7 @@ public class BulkExportJobEntity implements Serializable {
 
 	public static final int REQUEST_LENGTH = 500;
 	public static final int STATUS_MESSAGE_LEN = 500;
+	public static final int GROUP_ID_LENGTH = 200;
 	@Id
 	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_BLKEXJOB_PID")
 	@SequenceGenerator(name = "SEQ_BLKEXJOB_PID", sequenceName = "SEQ_BLKEXJOB_PID")
@@ -76,6 +78,36 @@ public class BulkExportJobEntity implements Serializable {
 	private Date mySince;
 	@Column(name = "STATUS_MESSAGE", nullable = true, length = STATUS_MESSAGE_LEN)
 	private String myStatusMessage;
+	@Enumerated(EnumType.STRING)
+	@Column(name = "EXP_STYLE", length = 10, nullable = true)
+	private BulkExportStyleEnum myStyle;
+	@Column(name = "EXP_GROUP_ID", length = GROUP_ID_LENGTH, nullable = true)
+	private String myGroupId;
+
+	/**
+	 * Jobs created before the export style was recorded are always system level exports
+	 */
+	public BulkExportStyleEnum getStyle() {
+		if (myStyle == null) {
+			return BulkExportStyleEnum.SYSTEM;
+		}
+		return myStyle;
+	}
+
+	public void setStyle(BulkExportStyleEnum theStyle) {
+		myStyle = theStyle;
+	}
+
+	/**
+	 * The unqualified versionless ID of the Group being exported, for a {@link BulkExportStyleEnum#GROUP group level} export
+	 */
+	public String getGroupId() {
+		return myGroupId;
+	}
+
+	public void setGroupId(String theGroupId) {
+		myGroupId = theGroupId;
+	}
 
 	public Date getCreated() {
 		return myCreated;
@@ -134,6 +166,12 @@ public class BulkExportJobEntity implements Serializable {
 		b.append("expiry", new InstantType(myExpiry).getValueAsString());
 		b.append("request", myRequest);
 		b.append("since", mySince);
+		if (myStyle != null) {
+			b.append("style", myStyle);
+		}
+		if (isNotBlank(myGroupId)) {
+			b.append("groupId", myGroupId);
+		}
 		if (isNotBlank(myStatusMessage)) {
 			b.append("statusMessage", myStatusMessage);
 		}
@@ -155,6 +193,10 @@ public class BulkExportJobEntity implements Serializable {
 		return myStatusTime;
 	}
 
+	public void setStatusTime(Date theStatusTime) {
+		myStatusTime = theStatusTime;
+	}
+
 	public int getVersion() {
 		return myVersion;
 	}
@@ -24,6 +24,11 @@ public enum SearchTypeEnum {
 
 	EVERYTHING,
 	SEARCH,
-	HISTORY, 
+	HISTORY,
+	/**
+	 * A search that is paged using keyset pagination. No results are stored
+	 * for searches of this type.
+	 */
+	KEYSET,
 	
 }
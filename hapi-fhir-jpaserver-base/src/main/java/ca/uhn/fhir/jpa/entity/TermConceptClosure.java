@@ -0,0 +1,103 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * One row of the transitive closure of the <code>is-a</code> hierarchy of a code system: the
+ * {@link #getDescendantPid() descendant} concept is somewhere below the
+ * {@link #getAncestorPid() ancestor} concept. A concept has one row for every concept
+ * in its {@link TermConcept#getParentPidsAsString() parent PIDs}.
+ * <p>
+ * This lets hierarchy lookups (subsumption, <code>is-a</code> filters, <code>:below</code>
+ * and <code>:above</code> searches) be answered with an indexed query instead of by walking
+ * the {@link TermConceptParentChildLink parent/child links} one level at a time.
+ * </p>
+ */
+@Entity
+@Table(name = "TRM_CONCEPT_CLOSURE", indexes = {
+	@Index(name = "IDX_TRMCLOSURE_ANC", columnList = "ANCESTOR_PID, DESCENDANT_PID"),
+	@Index(name = "IDX_TRMCLOSURE_DESC", columnList = "DESCENDANT_PID, ANCESTOR_PID"),
+	@Index(name = "IDX_TRMCLOSURE_CSV", columnList = "CS_VER_PID")
+})
+public class TermConceptClosure implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_TRM_CLOSURE_PID")
+	@SequenceGenerator(name = "SEQ_TRM_CLOSURE_PID", sequenceName = "SEQ_TRM_CLOSURE_PID")
+	@Column(name = "PID")
+	private Long myId;
+	@Column(name = "CS_VER_PID", nullable = false)
+	private Long myCodeSystemVersionPid;
+	@Column(name = "ANCESTOR_PID", nullable = false)
+	private Long myAncestorPid;
+	@Column(name = "DESCENDANT_PID", nullable = false)
+	private Long myDescendantPid;
+
+	/**
+	 * Constructor
+	 */
+	public TermConceptClosure() {
+		super();
+	}
+
+	/**
+	 * Constructor
+	 */
+	public TermConceptClosure(Long theCodeSystemVersionPid, Long theAncestorPid, Long theDescendantPid) {
+		myCodeSystemVersionPid = theCodeSystemVersionPid;
+		myAncestorPid = theAncestorPid;
+		myDescendantPid = theDescendantPid;
+	}
+
+	public Long getId() {
+		return myId;
+	}
+
+	public Long getCodeSystemVersionPid() {
+		return myCodeSystemVersionPid;
+	}
+
+	public Long getAncestorPid() {
+		return myAncestorPid;
+	}
+
+	public Long getDescendantPid() {
+		return myDescendantPid;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+			.append("id", myId)
+			.append("codeSystemVersionPid", myCodeSystemVersionPid)
+			.append("ancestorPid", myAncestorPid)
+			.append("descendantPid", myDescendantPid)
+			.toString();
+	}
+}
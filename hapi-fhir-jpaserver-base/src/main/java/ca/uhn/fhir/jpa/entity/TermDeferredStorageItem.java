@@ -0,0 +1,130 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * A unit of terminology storage work (e.g. a concept belonging to a large code system) which
+ * has been queued to be written to the terminology tables in the background.
+ * <p>
+ * Items are claimed in chunks by setting {@link #getClaimId() a claim ID} so that any node in a
+ * cluster can work on the queue. Claims which are older than a timeout are assumed to belong to
+ * a node which has died, and may be claimed again.
+ * </p>
+ */
+@Entity
+@Table(name = "TRM_DEFERRED_STORAGE", indexes = {
+	@Index(name = "IDX_TRMDEFSTOR_TYPE", columnList = "ITEM_TYPE"),
+	@Index(name = "IDX_TRMDEFSTOR_CLAIM", columnList = "CLAIM_ID")
+})
+public class TermDeferredStorageItem implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_TRM_DEFSTOR_PID")
+	@SequenceGenerator(name = "SEQ_TRM_DEFSTOR_PID", sequenceName = "SEQ_TRM_DEFSTOR_PID")
+	@Column(name = "PID")
+	private Long myId;
+	@Enumerated(EnumType.STRING)
+	@Column(name = "ITEM_TYPE", length = 20, nullable = false)
+	private TermDeferredStorageItemTypeEnum myItemType;
+	@Column(name = "CS_VER_PID", nullable = true)
+	private Long myCodeSystemVersionPid;
+	@Lob
+	@Column(name = "ITEM_BODY", nullable = false)
+	private byte[] myBody;
+	@Column(name = "CLAIM_ID", length = Search.UUID_COLUMN_LENGTH, nullable = true)
+	private String myClaimId;
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "CLAIM_TIME", nullable = true)
+	private Date myClaimTime;
+	@Column(name = "ATTEMPT_COUNT", nullable = false)
+	private int myAttemptCount;
+
+	public Long getId() {
+		return myId;
+	}
+
+	public TermDeferredStorageItemTypeEnum getItemType() {
+		return myItemType;
+	}
+
+	public TermDeferredStorageItem setItemType(TermDeferredStorageItemTypeEnum theItemType) {
+		myItemType = theItemType;
+		return this;
+	}
+
+	/**
+	 * The PID of the {@link TermCodeSystemVersion} that this item belongs to, if any
+	 */
+	public Long getCodeSystemVersionPid() {
+		return myCodeSystemVersionPid;
+	}
+
+	public TermDeferredStorageItem setCodeSystemVersionPid(Long theCodeSystemVersionPid) {
+		myCodeSystemVersionPid = theCodeSystemVersionPid;
+		return this;
+	}
+
+	public String getBodyAsString() {
+		return new String(myBody, StandardCharsets.UTF_8);
+	}
+
+	public TermDeferredStorageItem setBody(String theBody) {
+		myBody = theBody.getBytes(StandardCharsets.UTF_8);
+		return this;
+	}
+
+	public String getClaimId() {
+		return myClaimId;
+	}
+
+	public Date getClaimTime() {
+		return myClaimTime;
+	}
+
+	/**
+	 * The number of times that processing this item has been attempted and put off, either
+	 * because it failed or because something it depends on had not been stored yet
+	 */
+	public int getAttemptCount() {
+		return myAttemptCount;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+			.append("id", myId)
+			.append("type", myItemType)
+			.append("codeSystemVersionPid", myCodeSystemVersionPid)
+			.append("claimId", myClaimId)
+			.append("attemptCount", myAttemptCount)
+			.toString();
+	}
+}
@@ -0,0 +1,49 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The kind of work held by a {@link TermDeferredStorageItem}
+ */
+public enum TermDeferredStorageItemTypeEnum {
+
+	/**
+	 * A concept (along with its properties and designations) to be saved
+	 */
+	CONCEPT,
+
+	/**
+	 * A parent/child relationship between two concepts to be saved. These are only
+	 * processed once no concepts remain queued.
+	 */
+	CONCEPT_LINK,
+
+	/**
+	 * A ValueSet resource to be created or updated
+	 */
+	VALUESET,
+
+	/**
+	 * A ConceptMap resource to be created or updated
+	 */
+	CONCEPTMAP
+
+}
@@ -35,6 +35,8 @@ public class DatabaseBackedPagingProvider extends BasePagingProvider implements
 
 	@Autowired
 	private DaoRegistry myDaoRegistry;
+	@Autowired
+	private ISearchCoordinatorSvc mySearchCoordinatorSvc;
 
 	/**
 	 * Constructor
@@ -62,6 +64,14 @@ public class DatabaseBackedPagingProvider extends BasePagingProvider implements
 		return provider;
 	}
 
+	/**
+	 * Named pages are only used by searches using keyset paging
+	 */
+	@Override
+	public IBundleProvider retrieveResultList(RequestDetails theRequestDetails, String theSearchId, String thePageId) {
+		return mySearchCoordinatorSvc.fetchKeysetPage(theSearchId, thePageId, theRequestDetails);
+	}
+
 	@Override
 	public synchronized String storeResultList(RequestDetails theRequestDetails, IBundleProvider theList) {
 		String uuid = theList.getUuid();
@@ -44,4 +44,27 @@ public interface ISearchCoordinatorSvc {
 	 */
 	Optional<Integer> getSearchTotal(String theUuid);
 
+	/**
+	 * Fetches a page of a search which is using keyset paging (see
+	 * {@link ca.uhn.fhir.jpa.dao.DaoConfig#setKeysetPagingEnabled(boolean)})
+	 *
+	 * @param theUuid   The search UUID
+	 * @param thePageId The page ID, as returned by {@link IBundleProvider#getNextPageId()}
+	 * @return Returns the page, or <code>null</code> if no keyset paged search exists with the given UUID or the page ID is invalid
+	 */
+	@Nullable
+	IBundleProvider fetchKeysetPage(String theUuid, String thePageId, @Nullable RequestDetails theRequestDetails);
+
+	/**
+	 * Notifies the coordinator that a resource of the given type is being created, updated or deleted
+	 * in the current transaction, so that any locally cached searches for that type can be discarded
+	 * once the transaction commits
+	 */
+	void notifyResourceTypeModified(String theResourceType);
+
+	/**
+	 * Discards all locally cached searches, e.g. because the searches they refer to have been expunged
+	 */
+	void clearLocalSearchCache();
+
 }
@@ -0,0 +1,107 @@
+package ca.uhn.fhir.jpa.search;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.util.Date;
+
+/**
+ * The position of a page within a search that is paged using keyset pagination
+ * (see {@link ca.uhn.fhir.jpa.dao.DaoConfig#setKeysetPagingEnabled(boolean)}). A page
+ * starts immediately after the <code>_lastUpdated</code> value and resource PID of the
+ * last resource on the previous page.
+ * <p>
+ * Page IDs are encoded as <code>[lastUpdated millis]_[resource PID]</code>, with
+ * the special value <code>first</code> for the first page.
+ * </p>
+ */
+public class KeysetPageId {
+
+	public static final KeysetPageId FIRST = new KeysetPageId(null, null);
+	private static final String FIRST_VALUE = "first";
+	private static final char SEPARATOR = '_';
+
+	private final Date myLastUpdatedAfter;
+	private final Long myPidAfter;
+
+	private KeysetPageId(Date theLastUpdatedAfter, Long thePidAfter) {
+		myLastUpdatedAfter = theLastUpdatedAfter;
+		myPidAfter = thePidAfter;
+	}
+
+	/**
+	 * Constructor for a page which starts after the given resource
+	 */
+	public KeysetPageId(long theLastUpdatedAfterMillis, long thePidAfter) {
+		this(new Date(theLastUpdatedAfterMillis), thePidAfter);
+	}
+
+	/**
+	 * Returns <code>true</code> if this is not the first page
+	 */
+	public boolean hasPosition() {
+		return myPidAfter != null;
+	}
+
+	public Date getLastUpdatedAfter() {
+		return myLastUpdatedAfter;
+	}
+
+	public Long getPidAfter() {
+		return myPidAfter;
+	}
+
+	public String getValue() {
+		if (!hasPosition()) {
+			return FIRST_VALUE;
+		}
+		return Long.toString(myLastUpdatedAfter.getTime()) + SEPARATOR + myPidAfter;
+	}
+
+	@Override
+	public String toString() {
+		return getValue();
+	}
+
+	/**
+	 * Parses a page ID created by {@link #getValue()}
+	 *
+	 * @return Returns the page ID, or <code>null</code> if the value is not a valid keyset page ID
+	 */
+	@Nullable
+	public static KeysetPageId parse(String theValue) {
+		if (FIRST_VALUE.equals(theValue)) {
+			return FIRST;
+		}
+
+		String lastUpdated = StringUtils.substringBeforeLast(theValue, Character.toString(SEPARATOR));
+		String pid = StringUtils.substringAfterLast(theValue, Character.toString(SEPARATOR));
+		try {
+			return new KeysetPageId(Long.parseLong(lastUpdated), Long.parseLong(pid));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+}
@@ -29,6 +29,7 @@ import ca.uhn.fhir.jpa.entity.Search;
 import ca.uhn.fhir.jpa.entity.SearchInclude;
 import ca.uhn.fhir.jpa.entity.SearchTypeEnum;
 import ca.uhn.fhir.jpa.interceptor.JpaPreResourceAccessDetails;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
 import ca.uhn.fhir.jpa.model.search.SearchStatusEnum;
 import ca.uhn.fhir.jpa.search.cache.ISearchCacheSvc;
@@ -40,10 +41,12 @@ import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.rest.api.CacheControlDirective;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.IPreResourceAccessDetails;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.BundleProviderWithNamedPages;
 import ca.uhn.fhir.rest.server.IPagingProvider;
 import ca.uhn.fhir.rest.server.SimpleBundleProvider;
 import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
@@ -55,7 +58,11 @@ import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.rest.server.util.ICachedSearchDetails;
 import ca.uhn.fhir.util.AsyncUtil;
 import ca.uhn.fhir.util.StopWatch;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.lang3.time.DateUtils;
@@ -75,6 +82,8 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.Nonnull;
@@ -120,6 +129,21 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 	private IPagingProvider myPagingProvider;
 
 	private int mySyncSize = DEFAULT_SYNC_SIZE;
+	/**
+	 * Node-local cache of reusable searches, keyed by resource type and normalized query string.
+	 * Only used if {@link DaoConfig#isLocalSearchCacheEnabled()} is set.
+	 */
+	private Cache<String, LocalCachedSearch> myLocalSearchCache;
+	/**
+	 * The same entries as {@link #myLocalSearchCache}, keyed by search UUID
+	 */
+	private Cache<String, LocalCachedSearch> myLocalSearchUuidCache;
+	/**
+	 * The time (in millis) that a write to each resource type was last committed on this node. Searches
+	 * created before this time are not reused, whether they are found in the local cache or in the database.
+	 * Only maintained if {@link DaoConfig#isLocalSearchCacheEnabled()} is set.
+	 */
+	private final ConcurrentHashMap<String, Long> myResourceTypeToLastWriteMillis = new ConcurrentHashMap<>();
 	/**
 	 * Set in {@link #start()}
 	 */
@@ -150,6 +174,73 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		if (myCustomIsolationSupported == false) {
 			ourLog.warn("JPA dialect does not support transaction isolation! This can have an impact on search performance.");
 		}
+
+		myLocalSearchCache = Caffeine
+			.newBuilder()
+			.maximumSize(myDaoConfig.getLocalSearchCacheMaximumSize())
+			.expireAfterWrite(myDaoConfig.getLocalSearchCacheExpireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+			.recordStats()
+			.build();
+		myLocalSearchUuidCache = Caffeine
+			.newBuilder()
+			.maximumSize(myDaoConfig.getLocalSearchCacheMaximumSize())
+			.expireAfterWrite(myDaoConfig.getLocalSearchCacheExpireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+			.build();
+	}
+
+	@Override
+	public void notifyResourceTypeModified(String theResourceType) {
+		if (!myDaoConfig.isLocalSearchCacheEnabled()) {
+			return;
+		}
+
+		/*
+		 * Cached searches aren't removed here, since that would mean scanning the whole cache
+		 * on every write. Instead, searches for the type are rejected when they are looked up.
+		 */
+		Runnable task = () -> myResourceTypeToLastWriteMillis.put(theResourceType, System.currentTimeMillis());
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					task.run();
+				}
+			});
+		} else {
+			task.run();
+		}
+	}
+
+	@VisibleForTesting
+	public CacheStats getLocalSearchCacheStats() {
+		return myLocalSearchCache.stats();
+	}
+
+	@Override
+	public void clearLocalSearchCache() {
+		myLocalSearchCache.invalidateAll();
+		myLocalSearchUuidCache.invalidateAll();
+	}
+
+	/**
+	 * Has a write to the given resource type been committed on this node since the given search was created?
+	 */
+	private boolean isModifiedSinceCreated(String theResourceType, Date theSearchCreated) {
+		Long lastWriteMillis = myResourceTypeToLastWriteMillis.get(theResourceType);
+		return lastWriteMillis != null && theSearchCreated.getTime() <= lastWriteMillis;
+	}
+
+	/**
+	 * Searches are only deleted once they haven't been returned for a while, but returning a
+	 * search from the local cache doesn't update it in the database. So, entries are only used
+	 * while the database row is guaranteed to still exist.
+	 */
+	private boolean isLocalCacheEntryBackedBySearch(LocalCachedSearch theLocalCachedSearch) {
+		if (!myDaoConfig.isExpireSearchResults()) {
+			return true;
+		}
+		return System.currentTimeMillis() < theLocalCachedSearch.getAddedMillis() + myDaoConfig.getExpireSearchResultsAfterMillis();
 	}
 
 	@Override
@@ -186,6 +277,14 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 		ourLog.trace("About to start looking for resources {}-{}", theFrom, theTo);
 
+		if (searchTask == null && myDaoConfig.isLocalSearchCacheEnabled()) {
+			LocalCachedSearch localCachedSearch = myLocalSearchUuidCache.getIfPresent(theUuid);
+			if (localCachedSearch != null && localCachedSearch.canServe(theTo) && isLocalCacheEntryBackedBySearch(localCachedSearch)) {
+				ourLog.trace("Returning resources {}-{} from local search cache", theFrom, theTo);
+				return localCachedSearch.getResourcePids(theFrom, theTo);
+			}
+		}
+
 		Search search;
 		StopWatch sw = new StopWatch();
 		while (true) {
@@ -294,6 +393,12 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 			return executeQuery(theParams, theRequestDetails, searchUuid, sb, loadSynchronousUpTo);
 		}
 
+		final String queryString = theParams.toNormalizedQueryString(myContext);
+		if (isKeysetPagingCandidate(theParams)) {
+			ourLog.debug("Search {} is using keyset paging", searchUuid);
+			return registerKeysetSearch(theParams, theResourceType, theRequestDetails, searchUuid, sb, queryString);
+		}
+
 		/*
 		 * See if there are any cached searches whose results we can return
 		 * instead
@@ -303,7 +408,6 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 			useCache = false;
 		}
 
-		final String queryString = theParams.toNormalizedQueryString(myContext);
 		if (theParams.getEverythingMode() == null) {
 			if (myDaoConfig.getReuseCachedSearchResultsForMillis() != null && useCache) {
 				IBundleProvider foundSearchProvider = findCachedQuery(theCallingDao, theParams, theResourceType, theRequestDetails, queryString);
@@ -317,6 +421,149 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 	}
 
+	private boolean isKeysetPagingCandidate(SearchParameterMap theParams) {
+		if (!myDaoConfig.isKeysetPagingEnabled() || theParams.getEverythingMode() != null) {
+			return false;
+		}
+
+		SortSpec sort = theParams.getSort();
+		if (sort == null || !Constants.PARAM_LASTUPDATED.equals(sort.getParamName()) || sort.getChain() != null) {
+			return false;
+		}
+
+		// Keyset paged searches never know their total
+		if (SummaryEnum.COUNT.equals(theParams.getSummaryMode())) {
+			return false;
+		}
+		SearchTotalModeEnum totalMode = defaultIfNull(theParams.getSearchTotalMode(), myDaoConfig.getDefaultTotalMode());
+		return totalMode != SearchTotalModeEnum.ACCURATE;
+	}
+
+	/**
+	 * Keyset paged searches are persisted so that subsequent pages can find the search
+	 * parameters, but no results are ever stored for them
+	 */
+	private IBundleProvider registerKeysetSearch(SearchParameterMap theParams, String theResourceType, RequestDetails theRequestDetails, String theSearchUuid, ISearchBuilder theSb, String theQueryString) {
+		Search search = new Search();
+		populateSearchEntity(theParams, theResourceType, theSearchUuid, theQueryString, search);
+		search.setSearchType(SearchTypeEnum.KEYSET);
+		search.setStatus(SearchStatusEnum.FINISHED);
+		search.setSearchParameterMap(theParams);
+
+		// Interceptor call: STORAGE_PRESEARCH_REGISTERED
+		HookParams params = new HookParams()
+			.add(ICachedSearchDetails.class, search)
+			.add(RequestDetails.class, theRequestDetails)
+			.addIfMatchesType(ServletRequestDetails.class, theRequestDetails);
+		JpaInterceptorBroadcaster.doCallHooks(myInterceptorBroadcaster, theRequestDetails, Pointcut.STORAGE_PRESEARCH_REGISTERED, params);
+
+		TransactionTemplate txTemplate = new TransactionTemplate(myManagedTxManager);
+		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		txTemplate.execute(t -> mySearchCacheSvc.save(search));
+
+		return executeKeysetPage(theParams, theRequestDetails, theSearchUuid, theSb, KeysetPageId.FIRST);
+	}
+
+	@Nullable
+	@Override
+	public IBundleProvider fetchKeysetPage(String theUuid, String thePageId, @Nullable RequestDetails theRequestDetails) {
+		KeysetPageId pageId = KeysetPageId.parse(thePageId);
+		if (pageId == null) {
+			return null;
+		}
+
+		TransactionTemplate txTemplate = new TransactionTemplate(myManagedTxManager);
+		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+		Search search = txTemplate.execute(t -> mySearchCacheSvc.fetchByUuid(theUuid).orElse(null));
+		if (search == null || search.getSearchType() != SearchTypeEnum.KEYSET) {
+			return null;
+		}
+
+		SearchParameterMap params = search.getSearchParameterMap().orElseThrow(() -> new IllegalStateException("No map in KEYSET search"));
+		mySearchCacheSvc.updateSearchLastReturned(search, new Date());
+
+		IFhirResourceDao<?> resourceDao = myDaoRegistry.getResourceDao(search.getResourceType());
+		ISearchBuilder sb = resourceDao.newSearchBuilder();
+		sb.setType(myContext.getResourceDefinition(search.getResourceType()).getImplementingClass(), search.getResourceType());
+		sb.setFetchSize(mySyncSize);
+
+		return executeKeysetPage(params, theRequestDetails, search.getUuid(), sb, pageId);
+	}
+
+	private IBundleProvider executeKeysetPage(SearchParameterMap theParams, RequestDetails theRequestDetails, String theSearchUuid, ISearchBuilder theSb, KeysetPageId thePageId) {
+		final int pageSize;
+		if (theParams.getCount() != null && theParams.getCount() > 0) {
+			pageSize = Math.min(theParams.getCount(), myPagingProvider.getMaximumPageSize());
+		} else {
+			pageSize = myPagingProvider.getDefaultPageSize();
+		}
+
+		// Fetch one extra row so that we know whether there is a next page
+		theSb.setKeysetPageId(thePageId);
+		theSb.setMaxResultsToFetch(pageSize + 1);
+		SearchRuntimeDetails searchRuntimeDetails = new SearchRuntimeDetails(theRequestDetails, theSearchUuid);
+
+		TransactionTemplate txTemplate = new TransactionTemplate(myManagedTxManager);
+		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+		return txTemplate.execute(t -> {
+
+			final List<Long> pids = new ArrayList<>();
+			boolean haveMore;
+			try (IResultIterator resultIter = theSb.createQuery(theParams, searchRuntimeDetails, theRequestDetails)) {
+				while (resultIter.hasNext()) {
+					pids.add(resultIter.next());
+				}
+
+				/*
+				 * Rows for the same resource are adjacent since they share a sort key, so if
+				 * the query was truncated we drop the last resource in case some of its rows
+				 * were cut off. It will be the first resource on the next page.
+				 */
+				haveMore = pids.size() + resultIter.getSkippedCount() > pageSize;
+				if (haveMore && pids.size() > 1) {
+					pids.remove(pids.size() - 1);
+				}
+			} catch (IOException e) {
+				ourLog.error("IO failure during database access", e);
+				throw new InternalErrorException(e);
+			}
+
+			String nextPageId = null;
+			if (haveMore) {
+				Long lastPid = pids.get(pids.size() - 1);
+				ResourceTable lastResource = myEntityManager.find(ResourceTable.class, lastPid);
+				nextPageId = new KeysetPageId(lastResource.getUpdatedDate().getTime(), lastPid).getValue();
+			}
+
+			JpaPreResourceAccessDetails accessDetails = new JpaPreResourceAccessDetails(pids, () -> theSb);
+			HookParams params = new HookParams()
+				.add(IPreResourceAccessDetails.class, accessDetails)
+				.add(RequestDetails.class, theRequestDetails)
+				.addIfMatchesType(ServletRequestDetails.class, theRequestDetails);
+			JpaInterceptorBroadcaster.doCallHooks(myInterceptorBroadcaster, theRequestDetails, Pointcut.STORAGE_PREACCESS_RESOURCES, params);
+
+			for (int i = pids.size() - 1; i >= 0; i--) {
+				if (accessDetails.isDontReturnResourceAtIndex(i)) {
+					pids.remove(i);
+				}
+			}
+
+			final Set<Long> includedPids = new HashSet<>();
+			includedPids.addAll(theSb.loadIncludes(myContext, myEntityManager, pids, theParams.getRevIncludes(), true, theParams.getLastUpdated(), theSearchUuid, theRequestDetails));
+			includedPids.addAll(theSb.loadIncludes(myContext, myEntityManager, pids, theParams.getIncludes(), false, theParams.getLastUpdated(), theSearchUuid, theRequestDetails));
+			List<Long> includedPidsList = new ArrayList<>(includedPids);
+
+			List<IBaseResource> resources = new ArrayList<>();
+			theSb.loadResourcesByPid(pids, includedPidsList, resources, false, theRequestDetails);
+
+			// Hook: STORAGE_PRESHOW_RESOURCES
+			InterceptorUtil.fireStoragePreshowResource(resources, theRequestDetails, myInterceptorBroadcaster);
+
+			return new BundleProviderWithNamedPages(resources, theSearchUuid, thePageId.getValue(), null)
+				.setNextPageId(nextPageId);
+		});
+	}
+
 	@Override
 	public Optional<Integer> getSearchTotal(String theUuid) {
 		SearchTask task = myIdToSearchTask.get(theUuid);
@@ -375,6 +622,13 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 	@org.jetbrains.annotations.Nullable
 	private IBundleProvider findCachedQuery(IDao theCallingDao, SearchParameterMap theParams, String theResourceType, RequestDetails theRequestDetails, String theQueryString) {
+		if (myDaoConfig.isLocalSearchCacheEnabled()) {
+			IBundleProvider foundSearchProvider = findLocallyCachedQuery(theCallingDao, theParams, theResourceType, theRequestDetails, theQueryString);
+			if (foundSearchProvider != null) {
+				return foundSearchProvider;
+			}
+		}
+
 		TransactionTemplate txTemplate = new TransactionTemplate(myManagedTxManager);
 		PersistedJpaBundleProvider foundSearchProvider = txTemplate.execute(t -> {
 
@@ -404,6 +658,10 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 			mySearchCacheSvc.updateSearchLastReturned(searchToUse, new Date());
 
+			if (myDaoConfig.isLocalSearchCacheEnabled()) {
+				addToLocalSearchCache(theResourceType, theQueryString, searchToUse);
+			}
+
 			PersistedJpaBundleProvider retVal = new PersistedJpaBundleProvider(theRequestDetails, searchToUse.getUuid(), theCallingDao);
 			retVal.setCacheHit(true);
 			populateBundleProvider(retVal);
@@ -417,6 +675,87 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		return null;
 	}
 
+	/**
+	 * Looks for a reusable search in the node-local cache. Unlike {@link #findCachedQuery(IDao, SearchParameterMap, String, RequestDetails, String)}
+	 * this does not touch the database at all.
+	 */
+	@Nullable
+	private IBundleProvider findLocallyCachedQuery(IDao theCallingDao, SearchParameterMap theParams, String theResourceType, RequestDetails theRequestDetails, String theQueryString) {
+		String key = toLocalSearchCacheKey(theResourceType, theQueryString);
+		LocalCachedSearch localCachedSearch = myLocalSearchCache.getIfPresent(key);
+		if (localCachedSearch == null) {
+			return null;
+		}
+
+		// Entries must still fall within the window in which searches may be reused, and must
+		// not predate any writes to the resource type
+		Instant createdCutoff = Instant.now().minus(myDaoConfig.getReuseCachedSearchResultsForMillis(), ChronoUnit.MILLIS);
+		if (!localCachedSearch.getCreated().toInstant().isAfter(createdCutoff) || isModifiedSinceCreated(theResourceType, localCachedSearch.getCreated()) || !isLocalCacheEntryBackedBySearch(localCachedSearch)) {
+			myLocalSearchCache.invalidate(key);
+			myLocalSearchUuidCache.invalidate(localCachedSearch.getUuid());
+			return null;
+		}
+
+		// Interceptor call: STORAGE_PRECHECK_FOR_CACHED_SEARCH
+		HookParams params = new HookParams()
+			.add(SearchParameterMap.class, theParams)
+			.add(RequestDetails.class, theRequestDetails)
+			.addIfMatchesType(ServletRequestDetails.class, theRequestDetails);
+		Object outcome = JpaInterceptorBroadcaster.doCallHooksAndReturnObject(myInterceptorBroadcaster, theRequestDetails, Pointcut.STORAGE_PRECHECK_FOR_CACHED_SEARCH, params);
+		if (Boolean.FALSE.equals(outcome)) {
+			return null;
+		}
+
+		// Each use gets its own copy of the search, since the bundle provider may modify it
+		Search searchToUse = localCachedSearch.newSearch();
+		ourLog.debug("Reusing search {} from local cache", searchToUse.getUuid());
+		// Interceptor call: JPA_PERFTRACE_SEARCH_REUSING_CACHED
+		params = new HookParams()
+			.add(SearchParameterMap.class, theParams)
+			.add(RequestDetails.class, theRequestDetails)
+			.addIfMatchesType(ServletRequestDetails.class, theRequestDetails);
+		JpaInterceptorBroadcaster.doCallHooks(myInterceptorBroadcaster, theRequestDetails, Pointcut.JPA_PERFTRACE_SEARCH_REUSING_CACHED, params);
+
+		PersistedJpaBundleProvider retVal = new PersistedJpaBundleProvider(theRequestDetails, searchToUse.getUuid(), theCallingDao);
+		retVal.setCacheHit(true);
+		populateBundleProvider(retVal);
+		retVal.setSearchEntity(searchToUse);
+		return retVal;
+	}
+
+	/**
+	 * Must be called from within a transaction
+	 */
+	private void addToLocalSearchCache(String theResourceType, String theQueryString, Search theSearch) {
+		// Only finished searches are cached, since nothing about them will change
+		if (theSearch.getStatus() != SearchStatusEnum.FINISHED) {
+			return;
+		}
+
+		// Don't cache a search that might predate a write that has been committed on this node
+		if (isModifiedSinceCreated(theResourceType, theSearch.getCreated())) {
+			return;
+		}
+
+		int firstPageSize = Math.max(myPagingProvider.getDefaultPageSize(), defaultIfNull(theSearch.getPreferredPageSize(), 0));
+		List<Long> firstPagePids = mySearchResultCacheSvc.fetchResultPids(theSearch, 0, firstPageSize);
+		if (firstPagePids == null) {
+			return;
+		}
+
+		// Make sure these are loaded while we're still in a transaction
+		theSearch.getIncludes().size();
+
+		boolean complete = firstPagePids.size() < firstPageSize;
+		LocalCachedSearch localCachedSearch = new LocalCachedSearch(theSearch, firstPagePids, complete);
+		myLocalSearchCache.put(toLocalSearchCacheKey(theResourceType, theQueryString), localCachedSearch);
+		myLocalSearchUuidCache.put(theSearch.getUuid(), localCachedSearch);
+	}
+
+	private static String toLocalSearchCacheKey(String theResourceType, String theQueryString) {
+		return theResourceType + theQueryString;
+	}
+
 	@Nullable
 	private Search findSearchToUseOrNull(String theQueryString, String theResourceType) {
 		Search searchToUse = null;
@@ -428,6 +767,14 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		for (Search nextCandidateSearch : candidates) {
 			// We should only reuse our search if it was created within the permitted window
 			// Date.after() is unreliable.  Instant.isAfter() always works.
+			// Keyset paged searches have no stored results to reuse
+			if (nextCandidateSearch.getSearchType() == SearchTypeEnum.KEYSET) {
+				continue;
+			}
+			// Searches that predate a write to the resource type on this node are stale
+			if (isModifiedSinceCreated(theResourceType, nextCandidateSearch.getCreated())) {
+				continue;
+			}
 			if (theQueryString.equals(nextCandidateSearch.getSearchQueryString()) && nextCandidateSearch.getCreated().toInstant().isAfter(createdCutoff)) {
 				searchToUse = nextCandidateSearch;
 				break;
@@ -660,6 +1007,8 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 			Class<? extends IBaseResource> resourceTypeClass = myContext.getResourceDefinition(myResourceType).getImplementingClass();
 			ISearchBuilder sb = myCallingDao.newSearchBuilder();
 			sb.setType(resourceTypeClass, myResourceType);
+			// Search tasks run in their own transaction, so they never need to see uncommitted writes
+			sb.setParallelPidSetQueriesAllowed(true);
 
 			return sb;
 		}
@@ -1136,6 +1485,55 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 	}
 
 
+	private static class LocalCachedSearch {
+		private final String myUuid;
+		private final Date myCreated;
+		private final byte[] mySerializedSearch;
+		private final List<Long> myFirstPagePids;
+		private final boolean myComplete;
+		private final long myAddedMillis = System.currentTimeMillis();
+
+		LocalCachedSearch(Search theSearch, List<Long> theFirstPagePids, boolean theComplete) {
+			myUuid = theSearch.getUuid();
+			myCreated = new Date(theSearch.getCreated().getTime());
+			mySerializedSearch = SerializationUtils.serialize(theSearch);
+			myFirstPagePids = Collections.unmodifiableList(new ArrayList<>(theFirstPagePids));
+			myComplete = theComplete;
+		}
+
+		String getUuid() {
+			return myUuid;
+		}
+
+		Date getCreated() {
+			return myCreated;
+		}
+
+		long getAddedMillis() {
+			return myAddedMillis;
+		}
+
+		/**
+		 * Returns a new detached copy of the search
+		 */
+		Search newSearch() {
+			return SerializationUtils.deserialize(mySerializedSearch);
+		}
+
+		/**
+		 * Can the given page be served entirely from the cached PIDs?
+		 */
+		boolean canServe(int theTo) {
+			return myComplete || theTo <= myFirstPagePids.size();
+		}
+
+		List<Long> getResourcePids(int theFrom, int theTo) {
+			int from = Math.min(theFrom, myFirstPagePids.size());
+			int to = Math.min(theTo, myFirstPagePids.size());
+			return new ArrayList<>(myFirstPagePids.subList(from, to));
+		}
+	}
+
 	public static void populateSearchEntity(SearchParameterMap theParams, String theResourceType, String theSearchUuid, String theQueryString, Search theSearch) {
 		theSearch.setDeleted(false);
 		theSearch.setUuid(theSearchUuid);
@@ -74,6 +74,8 @@ public class DatabaseSearchCacheSvcImpl extends BaseSearchCacheSvcImpl {
 	@Autowired
 	private ISearchIncludeDao mySearchIncludeDao;
 	@Autowired
+	private ISearchResultCacheSvc mySearchResultCacheSvc;
+	@Autowired
 	private PlatformTransactionManager myTxManager;
 	@Autowired
 	private DaoConfig myDaoConfig;
@@ -225,6 +227,7 @@ public class DatabaseSearchCacheSvcImpl extends BaseSearchCacheSvcImpl {
 			if (resultPids.getNumberOfElements() < max) {
 				ourLog.debug("Deleting search {}/{} - Created[{}] -- Last returned[{}]", searchToDelete.getId(), searchToDelete.getUuid(), new InstantType(searchToDelete.getCreated()), new InstantType(searchToDelete.getSearchLastReturned()));
 				mySearchDao.deleteByPid(searchToDelete.getId());
+				mySearchResultCacheSvc.deleteResults(searchToDelete);
 			} else {
 				ourLog.debug("Purged {} search results for deleted search {}/{}", resultPids.getSize(), searchToDelete.getId(), searchToDelete.getUuid());
 			}
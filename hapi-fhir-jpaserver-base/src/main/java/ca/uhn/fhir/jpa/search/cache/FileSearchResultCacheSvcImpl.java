@@ -0,0 +1,205 @@
+package ca.uhn.fhir.jpa.search.cache;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.context.ConfigurationException;
+import ca.uhn.fhir.jpa.entity.Search;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Search result cache which stores the PIDs of each search as a flat array of
+ * 64-bit longs in a file named for the search UUID, instead of one
+ * <code>HFJ_SEARCH_RESULT</code> row per PID. Page fetches read only the requested
+ * slice of the file, so the database is left holding only the {@link Search}
+ * metadata.
+ * <p>
+ * Each store writes the complete list of PIDs to a temporary file in the same
+ * directory, forces it to disk and then atomically renames it over the previous
+ * file, so a concurrent reader sees either the old list or the new one and never
+ * a partially written file.
+ * </p>
+ * <p>
+ * Files are removed when {@link ca.uhn.fhir.jpa.search.StaleSearchDeletingSvcImpl}
+ * expires the search that owns them, and all of them are removed by
+ * <code>$expunge</code> with <code>expungeEverything</code>. In a clustered deployment,
+ * every node must see the same directory (e.g. a shared volume), since any node may be
+ * asked for the next page of a search started elsewhere.
+ * </p>
+ * <p>
+ * This implementation is used when a directory is configured via
+ * {@link ca.uhn.fhir.jpa.dao.DaoConfig#setSearchResultCacheDirectory(String)}.
+ * </p>
+ */
+public class FileSearchResultCacheSvcImpl implements ISearchResultCacheSvc {
+	private static final Logger ourLog = LoggerFactory.getLogger(FileSearchResultCacheSvcImpl.class);
+	static final String FILE_SUFFIX = ".pids";
+	static final String TEMP_FILE_SUFFIX = ".tmp";
+	private final File myBasePath;
+
+	public FileSearchResultCacheSvcImpl(String theBasePath) {
+		Validate.notBlank(theBasePath);
+		myBasePath = new File(theBasePath);
+	}
+
+	@PostConstruct
+	public void start() {
+		ourLog.info("Starting file search result cache with base path: {}", myBasePath);
+
+		if (!myBasePath.exists() && !myBasePath.mkdirs() && !myBasePath.isDirectory()) {
+			throw new ConfigurationException("Unable to create search result cache directory: " + myBasePath.getAbsolutePath());
+		}
+	}
+
+	@Override
+	public void storeResults(Search theSearch, List<Long> thePreviouslyStoredResourcePids, List<Long> theNewResourcePids) {
+		if (theNewResourcePids.isEmpty()) {
+			return;
+		}
+
+		ourLog.trace("Storing {} results with {} previous for search {}", theNewResourcePids.size(), thePreviouslyStoredResourcePids.size(), theSearch.getUuid());
+
+		int count = thePreviouslyStoredResourcePids.size() + theNewResourcePids.size();
+		ByteBuffer buffer = ByteBuffer.allocate(count * Long.BYTES);
+		for (Long next : thePreviouslyStoredResourcePids) {
+			buffer.putLong(next);
+		}
+		for (Long next : theNewResourcePids) {
+			buffer.putLong(next);
+		}
+		buffer.flip();
+
+		Path tempFile = null;
+		try {
+			tempFile = Files.createTempFile(myBasePath.toPath(), theSearch.getUuid(), TEMP_FILE_SUFFIX);
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(true);
+			}
+			Files.move(tempFile, getFile(theSearch).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			tempFile = null;
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to store results for search " + theSearch.getUuid() + ": " + e.getMessage(), e);
+		} finally {
+			if (tempFile != null) {
+				deleteFile(tempFile.toFile());
+			}
+		}
+	}
+
+	@Override
+	public List<Long> fetchResultPids(Search theSearch, int theFrom, int theTo) {
+		List<Long> retVal = readPids(theSearch, theFrom, theTo);
+		ourLog.debug("fetchResultPids for range {}-{} returned {} pids", theFrom, theTo, retVal.size());
+		return retVal;
+	}
+
+	@Override
+	public List<Long> fetchAllResultPids(Search theSearch) {
+		List<Long> retVal = readPids(theSearch, 0, Integer.MAX_VALUE);
+		ourLog.trace("fetchAllResultPids returned {} pids", retVal.size());
+		return retVal;
+	}
+
+	@Override
+	public void deleteResults(Search theSearch) {
+		deleteFile(getFile(theSearch));
+	}
+
+	@Override
+	public void deleteAllResults() {
+		File[] files = myBasePath.listFiles((theDir, theName) -> theName.endsWith(FILE_SUFFIX));
+		if (files == null) {
+			return;
+		}
+
+		ourLog.info("Deleting {} search result files from {}", files.length, myBasePath);
+		for (File next : files) {
+			deleteFile(next);
+		}
+	}
+
+	private List<Long> readPids(Search theSearch, int theFrom, int theTo) {
+		/*
+		 * A search which found nothing never stores anything, so a missing
+		 * file just means no results
+		 */
+		try (FileChannel channel = FileChannel.open(getFile(theSearch).toPath(), StandardOpenOption.READ)) {
+			long count = channel.size() / Long.BYTES;
+			long to = Math.min(theTo, count);
+			if (theFrom >= to) {
+				return Collections.emptyList();
+			}
+
+			int size = (int) (to - theFrom);
+			ByteBuffer buffer = ByteBuffer.allocate(size * Long.BYTES);
+			long position = (long) theFrom * Long.BYTES;
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, position + buffer.position());
+				if (read == -1) {
+					break;
+				}
+			}
+			buffer.flip();
+
+			List<Long> retVal = new ArrayList<>(size);
+			while (buffer.remaining() >= Long.BYTES) {
+				retVal.add(buffer.getLong());
+			}
+			return retVal;
+		} catch (NoSuchFileException e) {
+			return Collections.emptyList();
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to read results for search " + theSearch.getUuid() + ": " + e.getMessage(), e);
+		}
+	}
+
+	private File getFile(Search theSearch) {
+		Validate.notBlank(theSearch.getUuid(), "Search has no UUID");
+		return new File(myBasePath, theSearch.getUuid() + FILE_SUFFIX);
+	}
+
+	private static void deleteFile(File theFile) {
+		if (theFile.exists() && !theFile.delete()) {
+			ourLog.warn("Failed to delete search result file: {}", theFile.getAbsolutePath());
+		}
+	}
+
+}
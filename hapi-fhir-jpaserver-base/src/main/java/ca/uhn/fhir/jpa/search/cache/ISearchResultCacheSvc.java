@@ -55,4 +55,24 @@ public interface ISearchResultCacheSvc {
 	@Nullable
 	List<Long> fetchAllResultPids(Search theSearch);
 
+	/**
+	 * Called when a search is being expired so that any results stored outside of the
+	 * <code>HFJ_SEARCH_RESULT</code> table can be removed. The default implementation does nothing,
+	 * since results stored in the database are purged along with the search itself.
+	 *
+	 * @param theSearch The search being deleted
+	 */
+	default void deleteResults(Search theSearch) {
+		// nothing
+	}
+
+	/**
+	 * Called when every search is being removed (i.e. by <code>$expunge</code> with
+	 * <code>expungeEverything</code>) so that any results stored outside of the
+	 * <code>HFJ_SEARCH_RESULT</code> table can be removed too. The default implementation
+	 * does nothing.
+	 */
+	default void deleteAllResults() {
+		// nothing
+	}
 }
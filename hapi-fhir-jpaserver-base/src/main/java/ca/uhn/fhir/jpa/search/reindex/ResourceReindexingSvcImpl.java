@@ -29,10 +29,14 @@ import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceHistoryTableDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceReindexJobDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceSearchViewDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceTagDao;
 import ca.uhn.fhir.jpa.entity.ResourceReindexJobEntity;
+import ca.uhn.fhir.jpa.entity.ResourceSearchView;
 import ca.uhn.fhir.jpa.model.entity.ForcedId;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.model.entity.ResourceTag;
 import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
 import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
 import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
@@ -40,9 +44,11 @@ import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
 import ca.uhn.fhir.util.StopWatch;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.time.DateUtils;
+import org.hibernate.Session;
 import org.hibernate.search.util.impl.Executors;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.InstantType;
@@ -64,9 +70,7 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceContextType;
 import javax.persistence.Query;
 import javax.transaction.Transactional;
-import java.util.Collection;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
@@ -80,6 +84,21 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 	private static final Date BEGINNING_OF_TIME = new Date(0);
 	private static final Logger ourLog = LoggerFactory.getLogger(ResourceReindexingSvcImpl.class);
 	private static final int PASS_SIZE = 25000;
+	/**
+	 * The index collections that {@link ResourceReindexingBatchTask} fetches for a whole chunk
+	 * up front, since reindexing a resource compares the new index rows against all of these
+	 */
+	private static final List<String> BATCH_PREFETCHED_COLLECTIONS = Collections.unmodifiableList(Arrays.asList(
+		"myParamsCoords",
+		"myParamsDate",
+		"myParamsNumber",
+		"myParamsQuantity",
+		"myParamsString",
+		"myParamsToken",
+		"myParamsUri",
+		"myParamsCompositeStringUnique",
+		"myResourceLinks"
+	));
 	private final ReentrantLock myIndexingLock = new ReentrantLock();
 	@Autowired
 	private IResourceReindexJobDao myReindexJobDao;
@@ -106,6 +125,10 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 	private ISearchParamRegistry mySearchParamRegistry;
 	@Autowired
 	private ISchedulerService mySchedulerService;
+	@Autowired
+	private IResourceSearchViewDao myResourceSearchViewDao;
+	@Autowired
+	private IResourceTagDao myResourceTagDao;
 
 	@VisibleForTesting
 	void setReindexJobDaoForUnitTest(IResourceReindexJobDao theReindexJobDao) {
@@ -342,11 +365,20 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 			return 0;
 		}
 
-		// Submit each resource requiring reindexing
-		List<Future<Date>> futures = range
-			.stream()
-			.map(t -> myTaskExecutor.submit(new ResourceReindexingTask(t, counter)))
-			.collect(Collectors.toList());
+		// Submit each resource (or each chunk of resources) requiring reindexing
+		int batchSize = myDaoConfig.getReindexBatchSize();
+		List<Future<Date>> futures;
+		if (batchSize > 1) {
+			futures = Lists.partition(range.getContent(), batchSize)
+				.stream()
+				.map(t -> myTaskExecutor.submit(new ResourceReindexingBatchTask(new ArrayList<>(t), counter)))
+				.collect(Collectors.toList());
+		} else {
+			futures = range
+				.stream()
+				.map(t -> myTaskExecutor.submit(new ResourceReindexingTask(t, counter)))
+				.collect(Collectors.toList());
+		}
 
 		Date latestDate = null;
 		for (Future<Date> next : futures) {
@@ -393,7 +425,7 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 			return null;
 		});
 
-		ourLog.info("Completed pass of reindex JOB[{}] - Indexed {} resources in {} ({} / sec) - Have indexed until: {}", theJob.getId(), count, sw.toString(), sw.formatThroughput(count, TimeUnit.SECONDS), new InstantType(newLow));
+		ourLog.info("Completed pass of reindex JOB[{}] - Indexed {} resources (batch size {}) in {} ({} / sec) - Have indexed until: {}", theJob.getId(), count, batchSize, sw.toString(), sw.formatThroughput(count, TimeUnit.SECONDS), new InstantType(newLow));
 		return counter.get();
 	}
 
@@ -460,6 +492,35 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 		});
 	}
 
+	@SuppressWarnings("unchecked")
+	private <T extends IBaseResource> void doReindex(ResourceTable theResourceTable, T theResource) {
+		RuntimeResourceDefinition resourceDefinition = myContext.getResourceDefinition(theResource.getClass());
+		Class<T> resourceClass = (Class<T>) resourceDefinition.getImplementingClass();
+		final IFhirResourceDao<T> dao = myDaoRegistry.getResourceDao(resourceClass);
+		dao.reindex(theResource, theResourceTable);
+	}
+
+	/**
+	 * This part is because from HAPI 1.5 - 1.6 we changed the format of forced ID to be "type/id" instead of just "id"
+	 */
+	private void fixForcedIdResourceType(ResourceTable theResourceTable) {
+		ForcedId forcedId = theResourceTable.getForcedId();
+		if (forcedId != null) {
+			if (isBlank(forcedId.getResourceType())) {
+				ourLog.info("Updating resource {} forcedId type to {}", forcedId.getForcedId(), theResourceTable.getResourceType());
+				forcedId.setResourceType(theResourceTable.getResourceType());
+				myForcedIdDao.save(forcedId);
+			}
+		}
+	}
+
+	private static Date latestOf(Date theFirst, Date theSecond) {
+		if (theFirst == null || (theSecond != null && theSecond.getTime() > theFirst.getTime())) {
+			return theSecond;
+		}
+		return theFirst;
+	}
+
 	private class ResourceReindexingTask implements Callable<Date> {
 		private final Long myNextId;
 		private final AtomicInteger myCounter;
@@ -470,17 +531,6 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 			myCounter = theCounter;
 		}
 
-
-		@SuppressWarnings("unchecked")
-		private <T extends IBaseResource> void doReindex(ResourceTable theResourceTable, T theResource) {
-			RuntimeResourceDefinition resourceDefinition = myContext.getResourceDefinition(theResource.getClass());
-			Class<T> resourceClass = (Class<T>) resourceDefinition.getImplementingClass();
-			final IFhirResourceDao<T> dao = myDaoRegistry.getResourceDao(resourceClass);
-			dao.reindex(theResource, theResourceTable);
-
-			myCounter.incrementAndGet();
-		}
-
 		@Override
 		public Date call() {
 			Throwable reindexFailure;
@@ -490,17 +540,7 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 					myUpdated = resourceTable.getUpdatedDate();
 
 					try {
-						/*
-						 * This part is because from HAPI 1.5 - 1.6 we changed the format of forced ID to be "type/id" instead of just "id"
-						 */
-						ForcedId forcedId = resourceTable.getForcedId();
-						if (forcedId != null) {
-							if (isBlank(forcedId.getResourceType())) {
-								ourLog.info("Updating resource {} forcedId type to {}", forcedId.getForcedId(), resourceTable.getResourceType());
-								forcedId.setResourceType(resourceTable.getResourceType());
-								myForcedIdDao.save(forcedId);
-							}
-						}
+						fixForcedIdResourceType(resourceTable);
 
 						IFhirResourceDao<?> dao = myDaoRegistry.getResourceDao(resourceTable.getResourceType());
 						long expectedVersion = resourceTable.getVersion();
@@ -516,6 +556,7 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 						}
 
 						doReindex(resourceTable, resource);
+						myCounter.incrementAndGet();
 						return null;
 
 					} catch (Exception e) {
@@ -546,6 +587,107 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 		}
 	}
 
+	/**
+	 * Reindexes a chunk of resources in a single transaction (see {@link DaoConfig#setReindexBatchSize(int)}).
+	 * The current resource bodies, tags and existing index rows for the whole chunk are loaded
+	 * with one query each, and the index changes are flushed using JDBC batching. Resources that
+	 * can't be handled this way (deleted resources, resources whose current version is missing),
+	 * and every resource in a chunk that fails, are handed to {@link ResourceReindexingTask}.
+	 */
+	private class ResourceReindexingBatchTask implements Callable<Date> {
+		private final List<Long> myPids;
+		private final AtomicInteger myCounter;
+		private Date myUpdated;
+		private int myReindexedCount;
+
+		ResourceReindexingBatchTask(List<Long> thePids, AtomicInteger theCounter) {
+			myPids = thePids;
+			myCounter = theCounter;
+		}
+
+		@Override
+		public Date call() {
+			StopWatch sw = new StopWatch();
+			List<Long> remaining;
+			try {
+				remaining = myTxTemplate.execute(t -> reindexChunk());
+				assert remaining != null;
+				myCounter.addAndGet(myReindexedCount);
+			} catch (Exception e) {
+				ourLog.warn("Failed to reindex chunk of {} resources in a single transaction, reindexing them individually: {}", myPids.size(), e.toString());
+				remaining = myPids;
+				myReindexedCount = 0;
+			}
+
+			if (myReindexedCount > 0) {
+				ourLog.debug("Reindexed chunk of {} resources in {} ({} / sec)", myReindexedCount, sw.toString(), sw.formatThroughput(myReindexedCount, TimeUnit.SECONDS));
+			}
+
+			for (Long next : remaining) {
+				myUpdated = latestOf(myUpdated, new ResourceReindexingTask(next, myCounter).call());
+			}
+
+			return myUpdated;
+		}
+
+		/**
+		 * @return Returns the PIDs that were not reindexed
+		 */
+		private List<Long> reindexChunk() {
+			myUpdated = null;
+			myReindexedCount = 0;
+			myEntityManager.unwrap(Session.class).setJdbcBatchSize(myPids.size());
+
+			List<ResourceTable> resourceTables = myResourceTableDao.findAllById(myPids);
+			for (String next : BATCH_PREFETCHED_COLLECTIONS) {
+				myEntityManager
+					.createQuery("SELECT DISTINCT r FROM ResourceTable r LEFT JOIN FETCH r." + next + " WHERE r.myId IN (:pids)")
+					.setParameter("pids", myPids)
+					.getResultList();
+			}
+
+			Map<Long, ResourceSearchView> views = new HashMap<>();
+			List<Long> pidsWithTags = new ArrayList<>();
+			for (ResourceSearchView next : myResourceSearchViewDao.findByResourceIds(myPids)) {
+				views.put(next.getId(), next);
+				if (next.isHasTags()) {
+					pidsWithTags.add(next.getId());
+				}
+			}
+			Map<Long, Collection<ResourceTag>> tags = new HashMap<>();
+			if (!pidsWithTags.isEmpty()) {
+				for (ResourceTag next : myResourceTagDao.findByResourceIds(pidsWithTags)) {
+					tags.computeIfAbsent(next.getResourceId(), t -> new ArrayList<>()).add(next);
+				}
+			}
+
+			Set<Long> remaining = new LinkedHashSet<>(myPids);
+			for (ResourceTable resourceTable : resourceTables) {
+				ResourceSearchView view = views.get(resourceTable.getId());
+				if (resourceTable.getDeleted() != null || view == null || view.getVersion() != resourceTable.getVersion()) {
+					continue;
+				}
+
+				IFhirResourceDao<?> dao = myDaoRegistry.getResourceDao(resourceTable.getResourceType());
+				Class<? extends IBaseResource> resourceType = myContext.getResourceDefinition(resourceTable.getResourceType()).getImplementingClass();
+				IBaseResource resource = dao.toResource(resourceType, view, tags.get(resourceTable.getId()), false);
+				if (resource == null) {
+					continue;
+				}
+
+				fixForcedIdResourceType(resourceTable);
+				doReindex(resourceTable, resource);
+
+				remaining.remove(resourceTable.getId());
+				myUpdated = latestOf(myUpdated, resourceTable.getUpdatedDate());
+				myReindexedCount++;
+			}
+
+			myEntityManager.flush();
+			return new ArrayList<>(remaining);
+		}
+	}
+
 	public static class SubmitJob implements Job {
 		@Autowired
 		private IResourceReindexingSvc myTarget;
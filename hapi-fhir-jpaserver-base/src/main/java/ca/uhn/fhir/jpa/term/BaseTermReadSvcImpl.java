@@ -154,6 +154,8 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 	@Autowired
 	private ITermCodeSystemVersionDao myCodeSystemVersionDao;
 	@Autowired
+	private ITermConceptClosureDao myConceptClosureDao;
+	@Autowired
 	private DaoConfig myDaoConfig;
 	private IFhirResourceDaoValueSet<?, ?, ?> myValueSetResourceDao;
 	private Cache<TranslationQuery, List<TermConceptMapGroupElementTarget>> myTranslationCache;
@@ -254,6 +256,14 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 		myTranslationWithReverseCache.invalidateAll();
 	}
 
+	/**
+	 * This method is present only for unit tests, do not call from client code
+	 */
+	@VisibleForTesting
+	public void setFulltextSearchSvcForUnitTest(IFulltextSearchSvc theFulltextSearchSvc) {
+		myFulltextSearchSvc = theFulltextSearchSvc;
+	}
+
 	public void deleteConceptMap(ResourceTable theResourceTable) {
 		// Get existing entity so it can be deleted.
 		Optional<TermConceptMap> optionalExistingTermConceptMapById = myConceptMapDao.findTermConceptMapByResourcePid(theResourceTable.getId());
@@ -1091,9 +1101,12 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 		if (theValueSetCodeAccumulator instanceof ValueSetExpansionComponentWithConceptAccumulator) {
 			Validate.isTrue(((ValueSetExpansionComponentWithConceptAccumulator) theValueSetCodeAccumulator).getParameter().isEmpty(), "Can not expand ValueSet with parameters - Hibernate Search is not enabled on this server.");
 		}
-		Validate.isTrue(theInclude.getFilter().isEmpty(), "Can not expand ValueSet with filters - Hibernate Search is not enabled on this server.");
 		Validate.isTrue(isNotBlank(theSystem), "Can not expand ValueSet without explicit system - Hibernate Search is not enabled on this server.");
 
+		if (!theInclude.getFilter().isEmpty()) {
+			expandIsAFiltersWithoutHibernateSearch(theValueSetCodeAccumulator, theAddedCodes, theInclude, theSystem, theAdd, theCodeCounter);
+			return;
+		}
 
 		if (theInclude.getConcept().isEmpty()) {
 			for (TermConcept next : theVersion.getConcepts()) {
@@ -1111,6 +1124,42 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 
 	}
 
+	/**
+	 * Without Hibernate Search the only filters we can handle are <code>is-a</code> filters on the
+	 * concept itself, which are answered from the concept closure table (see {@link #fetchDescendants(TermConcept, Set)})
+	 */
+	private void expandIsAFiltersWithoutHibernateSearch(IValueSetConceptAccumulator theValueSetCodeAccumulator, Set<String> theAddedCodes, ValueSet.ConceptSetComponent theInclude, String theSystem, boolean theAdd, AtomicInteger theCodeCounter) {
+		Set<TermConcept> matches = null;
+		for (ValueSet.ConceptSetFilterComponent nextFilter : theInclude.getFilter()) {
+			boolean isConceptFilter = "concept".equals(nextFilter.getProperty()) || "code".equals(nextFilter.getProperty());
+			Validate.isTrue(isConceptFilter && nextFilter.getOp() == ValueSet.FilterOperator.ISA, "Can not expand ValueSet with filters other than is-a on concept - Hibernate Search is not enabled on this server.");
+
+			TermConcept code = findCode(theSystem, nextFilter.getValue())
+				.orElseThrow(() -> new InvalidRequestException("Invalid filter criteria - code does not exist: {" + Constants.codeSystemWithDefaultDescription(theSystem) + "}" + nextFilter.getValue()));
+			ourLog.debug(" * Filtering on codes with a parent of {}/{}/{}", code.getId(), code.getCode(), code.getDisplay());
+
+			Set<TermConcept> descendants = new LinkedHashSet<>();
+			fetchDescendants(code, descendants);
+			if (matches == null) {
+				matches = descendants;
+			} else {
+				matches.retainAll(descendants);
+			}
+		}
+
+		Set<String> wantCodes = theInclude
+			.getConcept()
+			.stream()
+			.map(ValueSet.ConceptReferenceComponent::getCode)
+			.filter(StringUtils::isNotBlank)
+			.collect(Collectors.toSet());
+		for (TermConcept next : matches) {
+			if (wantCodes.isEmpty() || wantCodes.contains(next.getCode())) {
+				addCodeIfNotAlreadyAdded(theValueSetCodeAccumulator, theAddedCodes, next, theAdd, theCodeCounter);
+			}
+		}
+	}
+
 	@Override
 	public boolean isValueSetPreExpandedForCodeValidation(ValueSet theValueSet) {
 		Long valueSetResourcePid = myConceptStorageSvc.getValueSetResourcePid(theValueSet.getIdElement());
@@ -1180,6 +1229,31 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 		return retVal;
 	}
 
+	/**
+	 * Concepts which were stored before the closure table existed only get their closure rows
+	 * once the terminology reindexer has processed them. Until it has caught up with a code
+	 * system version, hierarchy lookups in that version walk the parent/child links instead.
+	 */
+	private boolean isClosureComplete(TermCodeSystemVersion theCodeSystemVersion) {
+		return !myConceptDao.findIdsRequiringReindexingByCodeSystemVersion(PageRequest.of(0, 1), theCodeSystemVersion).hasContent();
+	}
+
+	/**
+	 * Adds all concepts below the given concept. Throws {@link ExpansionTooCostlyException} rather
+	 * than returning a partial set if there are more than {@link DaoConfig#getMaximumExpansionSize()}.
+	 */
+	private void fetchDescendants(TermConcept theConcept, Set<TermConcept> theSetToPopulate) {
+		if (!isClosureComplete(theConcept.getCodeSystemVersion())) {
+			fetchChildren(theConcept, theSetToPopulate);
+			return;
+		}
+
+		PageRequest page = PageRequest.of(0, myDaoConfig.getMaximumExpansionSize());
+		for (TermConcept next : myConceptClosureDao.findDescendants(page, theConcept.getId())) {
+			addToSet(theSetToPopulate, next);
+		}
+	}
+
 	private void fetchChildren(TermConcept theConcept, Set<TermConcept> theSetToPopulate) {
 		for (TermConceptParentChildLink nextChildLink : theConcept.getChildren()) {
 			TermConcept nextChild = nextChildLink.getChild();
@@ -1194,6 +1268,18 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 		return myConceptDao.findByCodeSystemAndCode(codeSystem, theCode);
 	}
 
+	private void fetchAncestors(TermConcept theConcept, Set<TermConcept> theSetToPopulate) {
+		if (!isClosureComplete(theConcept.getCodeSystemVersion())) {
+			fetchParents(theConcept, theSetToPopulate);
+			return;
+		}
+
+		PageRequest page = PageRequest.of(0, myDaoConfig.getMaximumExpansionSize());
+		for (TermConcept next : myConceptClosureDao.findAncestors(page, theConcept.getId())) {
+			addToSet(theSetToPopulate, next);
+		}
+	}
+
 	private void fetchParents(TermConcept theConcept, Set<TermConcept> theSetToPopulate) {
 		for (TermConceptParentChildLink nextChildLink : theConcept.getParents()) {
 			TermConcept nextChild = nextChildLink.getParent();
@@ -1248,7 +1334,7 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 		Set<TermConcept> retVal = new HashSet<>();
 		retVal.add(concept.get());
 
-		fetchParents(concept.get(), retVal);
+		fetchAncestors(concept.get(), retVal);
 
 		ourLog.debug("Fetched {} codes above code {} in {}ms", retVal.size(), theCode, stopwatch.getMillis());
 		return retVal;
@@ -1279,7 +1365,7 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 		Set<TermConcept> retVal = new HashSet<>();
 		retVal.add(concept.get());
 
-		fetchChildren(concept.get(), retVal);
+		fetchDescendants(concept.get(), retVal);
 
 		ourLog.debug("Fetched {} codes below code {} in {}ms", retVal.size(), theCode, stopwatch.elapsed(TimeUnit.MILLISECONDS));
 		return retVal;
@@ -1566,12 +1652,10 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 		TermConcept codeB = findCode(conceptB.getSystem(), conceptB.getCode())
 			.orElseThrow(() -> new InvalidRequestException("Unknown code: " + conceptB));
 
-		FullTextEntityManager em = org.hibernate.search.jpa.Search.getFullTextEntityManager(myEntityManager);
-
 		ConceptSubsumptionOutcome subsumes;
-		subsumes = testForSubsumption(em, codeA, codeB, ConceptSubsumptionOutcome.SUBSUMES);
+		subsumes = testForSubsumption(codeA, codeB, ConceptSubsumptionOutcome.SUBSUMES);
 		if (subsumes == null) {
-			subsumes = testForSubsumption(em, codeB, codeA, ConceptSubsumptionOutcome.SUBSUMEDBY);
+			subsumes = testForSubsumption(codeB, codeA, ConceptSubsumptionOutcome.SUBSUMEDBY);
 		}
 		if (subsumes == null) {
 			subsumes = ConceptSubsumptionOutcome.NOTSUBSUMED;
@@ -1628,15 +1712,16 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc, ApplicationCo
 	}
 
 	private @Nullable
-	ConceptSubsumptionOutcome testForSubsumption(FullTextEntityManager theEntityManager, TermConcept theLeft, TermConcept theRight, ConceptSubsumptionOutcome theOutput) {
-		QueryBuilder qb = theEntityManager.getSearchFactory().buildQueryBuilder().forEntity(TermConcept.class).get();
-		BooleanJunction<?> bool = qb.bool();
-		bool.must(qb.keyword().onField("myId").matching(Long.toString(theLeft.getId())).createQuery());
-		bool.must(qb.keyword().onField("myParentPids").matching(Long.toString(theRight.getId())).createQuery());
-		Query luceneQuery = bool.createQuery();
-		FullTextQuery jpaQuery = theEntityManager.createFullTextQuery(luceneQuery, TermConcept.class);
-		jpaQuery.setMaxResults(1);
-		if (jpaQuery.getResultList().size() > 0) {
+	ConceptSubsumptionOutcome testForSubsumption(TermConcept theLeft, TermConcept theRight, ConceptSubsumptionOutcome theOutput) {
+		boolean found;
+		if (isClosureComplete(theLeft.getCodeSystemVersion())) {
+			found = myConceptClosureDao.countByAncestorAndDescendant(theRight.getId(), theLeft.getId()) > 0;
+		} else {
+			Set<TermConcept> ancestors = new HashSet<>();
+			fetchParents(theLeft, ancestors);
+			found = ancestors.contains(theRight);
+		}
+		if (found) {
 			return theOutput;
 		}
 		return null;
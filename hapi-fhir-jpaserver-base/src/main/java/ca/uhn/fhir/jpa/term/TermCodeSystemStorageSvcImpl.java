@@ -54,6 +54,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -77,7 +78,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.apache.commons.lang3.StringUtils.isNumeric;
 
 public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 	private static final Logger ourLog = LoggerFactory.getLogger(TermCodeSystemStorageSvcImpl.class);
@@ -101,6 +104,8 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 	@Autowired
 	private ITermConceptParentChildLinkDao myConceptParentChildLinkDao;
 	@Autowired
+	private ITermConceptClosureDao myConceptClosureDao;
+	@Autowired
 	private ITermVersionAdapterSvc myTerminologyVersionAdapterSvc;
 	@Autowired
 	private ITermDeferredStorageSvc myDeferredStorageSvc;
@@ -284,15 +289,17 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 		 * If the concept has an ID, we're reindexing, so there's no need to
 		 * save parent concepts first (it's way too slow to do that)
 		 */
-		if (theConcept.getId() == null) {
+		boolean isNew = theConcept.getId() == null;
+		if (isNew) {
 			retVal += ensureParentsSaved(theConcept.getParents());
 		}
 
-		if (theConcept.getId() == null || theConcept.getIndexStatus() == null) {
+		if (isNew || theConcept.getIndexStatus() == null) {
 			retVal++;
 			theConcept.setIndexStatus(BaseHapiFhirDao.INDEX_STATUS_INDEXED);
 			theConcept.setUpdated(new Date());
 			myConceptDao.save(theConcept);
+			storeClosure(theConcept, !isNew);
 
 			for (TermConceptProperty next : theConcept.getProperties()) {
 				myConceptPropertyDao.save(next);
@@ -307,6 +314,57 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 		return retVal;
 	}
 
+	/**
+	 * Writes a row to the closure table for every ancestor of the given (already saved)
+	 * concept, optionally replacing any rows that were previously stored for it
+	 */
+	private void storeClosure(TermConcept theConcept, boolean theReplaceExisting) {
+		Long conceptPid = theConcept.getId();
+		if (theReplaceExisting) {
+			myConceptClosureDao.deleteByDescendantPid(conceptPid);
+		}
+
+		if (theConcept.getParentPidsAsString() == null) {
+			theConcept.prePersist();
+		}
+
+		Set<Long> ancestorPids = parseParentPids(theConcept.getParentPidsAsString());
+		ancestorPids.remove(conceptPid);
+		if (ancestorPids.isEmpty()) {
+			return;
+		}
+
+		Long codeSystemVersionPid = theConcept.getCodeSystemVersion().getPid();
+		List<TermConceptClosure> rows = new ArrayList<>(ancestorPids.size());
+		for (Long next : ancestorPids) {
+			rows.add(new TermConceptClosure(codeSystemVersionPid, next, conceptPid));
+		}
+		myConceptClosureDao.saveAll(rows);
+	}
+
+	/**
+	 * Rewrites the closure rows for every concept below the given concept, which is needed
+	 * when the given concept has moved somewhere else in the hierarchy
+	 */
+	private void storeDescendantClosures(TermConcept theConcept) {
+		List<TermConcept> descendants = myConceptClosureDao.findDescendants(Pageable.unpaged(), theConcept.getId());
+		ourLog.info("Recalculating ancestors for {} concepts below {}", descendants.size(), theConcept.getCode());
+		for (TermConcept next : descendants) {
+			next.setParentPids(null);
+			storeClosure(next, true);
+		}
+	}
+
+	private static Set<Long> parseParentPids(String theParentPids) {
+		Set<Long> retVal = new LinkedHashSet<>();
+		for (String next : defaultString(theParentPids).split(" ")) {
+			if (isNumeric(next)) {
+				retVal.add(Long.parseLong(next));
+			}
+		}
+		return retVal;
+	}
+
 	@Override
 	@Transactional(propagation = Propagation.MANDATORY)
 	public void storeNewCodeSystemVersionIfNeeded(CodeSystem theCodeSystem, ResourceTable theResourceEntity) {
@@ -447,6 +505,14 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 
 		PageRequest page1000 = PageRequest.of(0, 1000);
 
+		// Closure
+		{
+			TransactionTemplate txTemplate = new TransactionTemplate(myTransactionManager);
+			txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+			Integer count = txTemplate.execute(t -> myConceptClosureDao.deleteByCodeSystemVersion(theCodeSystemVersionPid));
+			ourLog.info(" * {} concept closure rows deleted", count);
+		}
+
 		// Parent/Child links
 		{
 			String descriptor = "parent/child links";
@@ -517,9 +583,11 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 
 		ourLog.info("Saving concept {} with parent {}", theStatisticsTracker.getUpdatedConceptCount(), parentDescription);
 
+		Set<Long> previousParentPids = null;
 		if (theCodeToConceptPid.containsKey(nextCodeToAdd)) {
 
 			TermConcept existingCode = myConceptDao.getOne(theCodeToConceptPid.get(nextCodeToAdd));
+			previousParentPids = parseParentPids(existingCode.getParentPidsAsString());
 			existingCode.setIndexStatus(null);
 			existingCode.setDisplay(nextConceptToAdd.getDisplay());
 			nextConceptToAdd = existingCode;
@@ -583,6 +651,17 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 			}
 		}
 
+		// Now that the links are in place, work out the ancestors again
+		nextConceptToAdd.setParentPids(null);
+		nextConceptToAdd.prePersist();
+		storeClosure(nextConceptToAdd, true);
+
+		// If an existing concept has moved, everything below it has new ancestors as well. Its
+		// children are visited again below, but by then their ancestors will not have changed.
+		if (previousParentPids != null && !previousParentPids.equals(parseParentPids(nextConceptToAdd.getParentPidsAsString()))) {
+			storeDescendantClosures(nextConceptToAdd);
+		}
+
 		// Save children recursively
 		for (TermConceptParentChildLink nextChildConceptLink : nextConceptToAdd.getChildren()) {
 
@@ -666,6 +745,7 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 				if (nextParent.getId() == null) {
 					nextParent.setUpdated(new Date());
 					myConceptDao.saveAndFlush(nextParent);
+					storeClosure(nextParent, false);
 					retVal++;
 					ourLog.debug("Saved parent code {} and got id {}", nextParent.getCode(), nextParent.getId());
 				}
@@ -710,6 +790,8 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 			myConceptParentChildLinkDao.delete(nextChildLink);
 		}
 
+		myConceptClosureDao.deleteByConceptPid(theConcept.getId());
+
 		myConceptDesignationDao.deleteAll(theConcept.getDesignations());
 		myConceptPropertyDao.deleteAll(theConcept.getProperties());
 		myConceptDao.delete(theConcept);
@@ -0,0 +1,162 @@
+package ca.uhn.fhir.jpa.term;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.entity.*;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The body of a queued {@link TermDeferredStorageItemTypeEnum#CONCEPT concept}. Since the item is
+ * stored in the database instead of being held in memory, the concept's parents are recorded by
+ * code and are looked up again when the concept is saved.
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JsonAutoDetect(creatorVisibility = JsonAutoDetect.Visibility.NONE, fieldVisibility = JsonAutoDetect.Visibility.NONE, getterVisibility = JsonAutoDetect.Visibility.NONE, isGetterVisibility = JsonAutoDetect.Visibility.NONE, setterVisibility = JsonAutoDetect.Visibility.NONE)
+public class TermDeferredConceptJson {
+
+	@JsonProperty("code")
+	private String myCode;
+	@JsonProperty("display")
+	private String myDisplay;
+	@JsonProperty("sequence")
+	private Integer mySequence;
+	@JsonProperty("parentCodes")
+	private List<String> myParentCodes;
+	@JsonProperty("properties")
+	private List<Property> myProperties;
+	@JsonProperty("designations")
+	private List<Designation> myDesignations;
+
+	public String getCode() {
+		return myCode;
+	}
+
+	public List<String> getParentCodes() {
+		if (myParentCodes == null) {
+			myParentCodes = new ArrayList<>();
+		}
+		return myParentCodes;
+	}
+
+	/**
+	 * Creates an unsaved concept with the contents of this object
+	 */
+	public TermConcept toConcept(TermCodeSystemVersion theCodeSystemVersion) {
+		TermConcept retVal = new TermConcept(theCodeSystemVersion, myCode);
+		retVal.setDisplay(myDisplay);
+		retVal.setSequence(mySequence);
+		if (myProperties != null) {
+			for (Property next : myProperties) {
+				if (next.myType == TermConceptPropertyTypeEnum.CODING) {
+					retVal.addPropertyCoding(next.myKey, next.myCodeSystem, next.myValue, next.myDisplay);
+				} else {
+					retVal.addPropertyString(next.myKey, next.myValue);
+				}
+			}
+		}
+		if (myDesignations != null) {
+			for (Designation next : myDesignations) {
+				retVal
+					.addDesignation()
+					.setLanguage(next.myLanguage)
+					.setUseSystem(next.myUseSystem)
+					.setUseCode(next.myUseCode)
+					.setUseDisplay(next.myUseDisplay)
+					.setValue(next.myValue);
+			}
+		}
+		return retVal;
+	}
+
+	public static TermDeferredConceptJson fromConcept(TermConcept theConcept) {
+		TermDeferredConceptJson retVal = new TermDeferredConceptJson();
+		retVal.myCode = theConcept.getCode();
+		retVal.myDisplay = theConcept.getDisplay();
+		retVal.mySequence = theConcept.getSequence();
+		for (TermConceptParentChildLink next : theConcept.getParents()) {
+			retVal.getParentCodes().add(next.getParent().getCode());
+		}
+		if (!theConcept.getProperties().isEmpty()) {
+			retVal.myProperties = new ArrayList<>();
+			for (TermConceptProperty next : theConcept.getProperties()) {
+				Property property = new Property();
+				property.myType = next.getType();
+				property.myKey = next.getKey();
+				property.myValue = next.getValue();
+				property.myCodeSystem = next.getCodeSystem();
+				property.myDisplay = next.getDisplay();
+				retVal.myProperties.add(property);
+			}
+		}
+		if (!theConcept.getDesignations().isEmpty()) {
+			retVal.myDesignations = new ArrayList<>();
+			for (TermConceptDesignation next : theConcept.getDesignations()) {
+				Designation designation = new Designation();
+				designation.myLanguage = next.getLanguage();
+				designation.myUseSystem = next.getUseSystem();
+				designation.myUseCode = next.getUseCode();
+				designation.myUseDisplay = next.getUseDisplay();
+				designation.myValue = next.getValue();
+				retVal.myDesignations.add(designation);
+			}
+		}
+		return retVal;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	@JsonAutoDetect(creatorVisibility = JsonAutoDetect.Visibility.NONE, fieldVisibility = JsonAutoDetect.Visibility.NONE, getterVisibility = JsonAutoDetect.Visibility.NONE, isGetterVisibility = JsonAutoDetect.Visibility.NONE, setterVisibility = JsonAutoDetect.Visibility.NONE)
+	public static class Property {
+
+		@JsonProperty("type")
+		private TermConceptPropertyTypeEnum myType;
+		@JsonProperty("key")
+		private String myKey;
+		@JsonProperty("value")
+		private String myValue;
+		@JsonProperty("system")
+		private String myCodeSystem;
+		@JsonProperty("display")
+		private String myDisplay;
+
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	@JsonAutoDetect(creatorVisibility = JsonAutoDetect.Visibility.NONE, fieldVisibility = JsonAutoDetect.Visibility.NONE, getterVisibility = JsonAutoDetect.Visibility.NONE, isGetterVisibility = JsonAutoDetect.Visibility.NONE, setterVisibility = JsonAutoDetect.Visibility.NONE)
+	public static class Designation {
+
+		@JsonProperty("language")
+		private String myLanguage;
+		@JsonProperty("useSystem")
+		private String myUseSystem;
+		@JsonProperty("useCode")
+		private String myUseCode;
+		@JsonProperty("useDisplay")
+		private String myUseDisplay;
+		@JsonProperty("value")
+		private String myValue;
+
+	}
+}
@@ -0,0 +1,63 @@
+package ca.uhn.fhir.jpa.term;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink;
+import ca.uhn.fhir.jpa.entity.TermDeferredStorageItemTypeEnum;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The body of a queued {@link TermDeferredStorageItemTypeEnum#CONCEPT_LINK concept link}. The
+ * concepts at both ends are recorded by code, and are looked up when the link is saved.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonAutoDetect(creatorVisibility = JsonAutoDetect.Visibility.NONE, fieldVisibility = JsonAutoDetect.Visibility.NONE, getterVisibility = JsonAutoDetect.Visibility.NONE, isGetterVisibility = JsonAutoDetect.Visibility.NONE, setterVisibility = JsonAutoDetect.Visibility.NONE)
+public class TermDeferredConceptLinkJson {
+
+	@JsonProperty("parentCode")
+	private String myParentCode;
+	@JsonProperty("childCode")
+	private String myChildCode;
+	@JsonProperty("relationshipType")
+	private TermConceptParentChildLink.RelationshipTypeEnum myRelationshipType;
+
+	public String getParentCode() {
+		return myParentCode;
+	}
+
+	public String getChildCode() {
+		return myChildCode;
+	}
+
+	public TermConceptParentChildLink.RelationshipTypeEnum getRelationshipType() {
+		return myRelationshipType;
+	}
+
+	public static TermDeferredConceptLinkJson fromLink(TermConceptParentChildLink theLink) {
+		TermDeferredConceptLinkJson retVal = new TermDeferredConceptLinkJson();
+		retVal.myParentCode = theLink.getParent().getCode();
+		retVal.myChildCode = theLink.getChild().getCode();
+		retVal.myRelationshipType = theLink.getRelationshipType();
+		return retVal;
+	}
+}
@@ -20,26 +20,35 @@ package ca.uhn.fhir.jpa.term;
  * #L%
  */
 
+import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.data.ITermCodeSystemVersionDao;
 import ca.uhn.fhir.jpa.dao.data.ITermConceptDao;
 import ca.uhn.fhir.jpa.dao.data.ITermConceptParentChildLinkDao;
-import ca.uhn.fhir.jpa.entity.TermConcept;
-import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink;
+import ca.uhn.fhir.jpa.dao.data.ITermDeferredStorageItemDao;
+import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.jpa.model.sched.FireAtIntervalJob;
 import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
 import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
 import ca.uhn.fhir.jpa.term.api.ITermCodeSystemStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermDeferredStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermVersionAdapterSvc;
+import ca.uhn.fhir.jpa.util.JsonUtil;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.util.StopWatch;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.r4.model.ConceptMap;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.quartz.JobExecutionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Propagation;
@@ -47,28 +56,70 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Stores terminology which was too large to store synchronously (see
+ * {@link DaoConfig#setDeferIndexingForCodesystemsOfSize(int)}).
+ * <p>
+ * The queue is kept in the {@link TermDeferredStorageItem TRM_DEFERRED_STORAGE} table, so
+ * it survives a restart. Every node in a cluster works on it. A node claims a chunk of items
+ * by stamping them with a claim ID in a short transaction, then stores the chunk and deletes
+ * the items in a second one. If a node dies partway through, its claims go stale and are
+ * picked up again by another node.
+ * </p>
+ * <p>
+ * Concepts and relationships are stored using a pool of
+ * {@link DaoConfig#setDeferredTerminologyStorageThreadCount(int) worker threads}. A concept
+ * is only stored once its parents are, because the IDs of all of its ancestors are stored with
+ * it. A concept whose parents have not been stored yet goes back in the queue, behind
+ * everything that has not been put off, for as long as other concepts are still being stored.
+ * If every queued concept has been put off since the last one was stored, their parents are
+ * never going to arrive (e.g. because the hierarchy contains a cycle). Those concepts are
+ * discarded and logged as an error rather than being stored with an incomplete set of
+ * ancestors. Relationships are only stored once no concepts remain queued.
+ * </p>
+ */
 public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 
 	private static final int SCHEDULE_INTERVAL_MILLIS = 5000;
 	private static final Logger ourLog = LoggerFactory.getLogger(TermDeferredStorageSvcImpl.class);
+	/**
+	 * Claimed IDs are passed in an IN clause, so this stays well below the limits some databases have
+	 */
+	private static final int MAX_CONCEPT_CHUNK_SIZE = 500;
+	private static final int RESOURCE_CHUNK_SIZE = 20;
+	private static final long CLAIM_TIMEOUT_MILLIS = 10 * DateUtils.MILLIS_PER_MINUTE;
+	/**
+	 * An item which has been attempted this many times is discarded if storing it fails again
+	 */
+	private static final int MAX_ATTEMPTS = 10;
 	@Autowired
 	protected ITermConceptDao myConceptDao;
 	@Autowired
 	protected PlatformTransactionManager myTransactionMgr;
 	private boolean myProcessDeferred = true;
-	private List<TermConcept> myDeferredConcepts = Collections.synchronizedList(new ArrayList<>());
-	private List<ValueSet> myDeferredValueSets = Collections.synchronizedList(new ArrayList<>());
-	private List<ConceptMap> myDeferredConceptMaps = Collections.synchronizedList(new ArrayList<>());
-	private List<TermConceptParentChildLink> myConceptLinksToSaveLater = Collections.synchronizedList(new ArrayList<>());
+	private final FhirContext myR4Context = FhirContext.forR4();
+	private final ThreadFactory myThreadFactory = new BasicThreadFactory.Builder().namingPattern("TermDeferredStorage-%d").build();
+	private ThreadPoolExecutor myExecutor;
+	/**
+	 * The number of queued concepts, and the highest attempt count among them, when this node
+	 * last saw the concept queue change. See {@link #checkForStalledConcepts()}.
+	 */
+	private long myStallCheckConceptCount = -1;
+	private int myStallCheckMaxAttemptCount;
 	@Autowired
 	private DaoConfig myDaoConfig;
 	@Autowired
 	private ITermConceptParentChildLinkDao myConceptParentChildLinkDao;
 	@Autowired
+	private ITermCodeSystemVersionDao myCodeSystemVersionDao;
+	@Autowired
+	private ITermDeferredStorageItemDao myDeferredStorageItemDao;
+	@Autowired
 	private ISchedulerService mySchedulerService;
 	@Autowired
 	private ITermVersionAdapterSvc myTerminologyVersionAdapterSvc;
@@ -78,25 +129,41 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 	@Override
 	public void addConceptToStorageQueue(TermConcept theConcept) {
 		Validate.notNull(theConcept);
-		myDeferredConcepts.add(theConcept);
+		Long codeSystemVersionPid = getCodeSystemVersionPid(theConcept);
+		String body = serialize(TermDeferredConceptJson.fromConcept(theConcept));
+		enqueue(TermDeferredStorageItemTypeEnum.CONCEPT, codeSystemVersionPid, body);
 	}
 
 	@Override
 	public void addConceptLinkToStorageQueue(TermConceptParentChildLink theConceptLink) {
 		Validate.notNull(theConceptLink);
-		myConceptLinksToSaveLater.add(theConceptLink);
+		Long codeSystemVersionPid = getCodeSystemVersionPid(theConceptLink.getChild());
+		String body = serialize(TermDeferredConceptLinkJson.fromLink(theConceptLink));
+		enqueue(TermDeferredStorageItemTypeEnum.CONCEPT_LINK, codeSystemVersionPid, body);
 	}
 
 	@Override
 	public void addConceptMapsToStorageQueue(List<ConceptMap> theConceptMaps) {
 		Validate.notNull(theConceptMaps);
-		myDeferredConceptMaps.addAll(theConceptMaps);
+		for (ConceptMap next : theConceptMaps) {
+			enqueue(TermDeferredStorageItemTypeEnum.CONCEPTMAP, null, myR4Context.newJsonParser().encodeResourceToString(next));
+		}
 	}
 
 	@Override
 	public void addValueSetsToStorageQueue(List<ValueSet> theValueSets) {
 		Validate.notNull(theValueSets);
-		myDeferredValueSets.addAll(theValueSets);
+		for (ValueSet next : theValueSets) {
+			enqueue(TermDeferredStorageItemTypeEnum.VALUESET, null, myR4Context.newJsonParser().encodeResourceToString(next));
+		}
+	}
+
+	private void enqueue(TermDeferredStorageItemTypeEnum theType, Long theCodeSystemVersionPid, String theBody) {
+		TermDeferredStorageItem item = new TermDeferredStorageItem()
+			.setItemType(theType)
+			.setCodeSystemVersionPid(theCodeSystemVersionPid)
+			.setBody(theBody);
+		myDeferredStorageItemDao.save(item);
 	}
 
 	@Override
@@ -104,171 +171,348 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 		myProcessDeferred = theProcessDeferred;
 	}
 
-	private void processDeferredConceptMaps() {
-		int count = Math.min(myDeferredConceptMaps.size(), 20);
-		for (ConceptMap nextConceptMap : new ArrayList<>(myDeferredConceptMaps.subList(0, count))) {
-			ourLog.info("Creating ConceptMap: {}", nextConceptMap.getId());
-			myTerminologyVersionAdapterSvc.createOrUpdateConceptMap(nextConceptMap);
-			myDeferredConceptMaps.remove(nextConceptMap);
-		}
-		ourLog.info("Saved {} deferred ConceptMap resources, have {} remaining", count, myDeferredConceptMaps.size());
+	/**
+	 * This method is present only for unit tests, do not call from client code
+	 */
+	@VisibleForTesting
+	public synchronized void clearDeferred() {
+		myDeferredStorageItemDao.deleteAllInBatch();
 	}
 
-	private void processDeferredConcepts() {
-		int codeCount = 0, relCount = 0;
-		StopWatch stopwatch = new StopWatch();
-
-		int count = Math.min(myDaoConfig.getDeferIndexingForCodesystemsOfSize(), myDeferredConcepts.size());
-		ourLog.info("Saving {} deferred concepts...", count);
-		while (codeCount < count && myDeferredConcepts.size() > 0) {
-			TermConcept next = myDeferredConcepts.remove(0);
-			codeCount += myCodeSystemStorageSvc.saveConcept(next);
-		}
-
-		if (codeCount > 0) {
-			ourLog.info("Saved {} deferred concepts ({} codes remain and {} relationships remain) in {}ms ({}ms / code)",
-				codeCount, myDeferredConcepts.size(), myConceptLinksToSaveLater.size(), stopwatch.getMillis(), stopwatch.getMillisPerOperation(codeCount));
+	@Transactional(propagation = Propagation.NEVER)
+	@Override
+	public synchronized void saveDeferred() {
+		if (isProcessDeferredPaused()) {
+			return;
 		}
 
-		if (codeCount == 0) {
-			count = Math.min(myDaoConfig.getDeferIndexingForCodesystemsOfSize(), myConceptLinksToSaveLater.size());
-			ourLog.info("Saving {} deferred concept relationships...", count);
-			while (relCount < count && myConceptLinksToSaveLater.size() > 0) {
-				TermConceptParentChildLink next = myConceptLinksToSaveLater.remove(0);
+		for (int i = 0; i < 10; i++) {
 
-				if (!myConceptDao.findById(next.getChild().getId()).isPresent() || !myConceptDao.findById(next.getParent().getId()).isPresent()) {
-					ourLog.warn("Not inserting link from child {} to parent {} because it appears to have been deleted", next.getParent().getCode(), next.getChild().getCode());
-					continue;
-				}
+			int processed = 0;
+			if (count(TermDeferredStorageItemTypeEnum.CONCEPT) > 0) {
+				processed += processQueue(TermDeferredStorageItemTypeEnum.CONCEPT);
+				checkForStalledConcepts();
+			} else if (count(TermDeferredStorageItemTypeEnum.CONCEPT_LINK) > 0) {
+				processed += processQueue(TermDeferredStorageItemTypeEnum.CONCEPT_LINK);
+			}
+			processed += processQueue(TermDeferredStorageItemTypeEnum.VALUESET);
+			processed += processQueue(TermDeferredStorageItemTypeEnum.CONCEPTMAP);
 
-				saveConceptLink(next);
-				relCount++;
+			// Either the queue is empty, or everything left is claimed by someone else
+			if (processed == 0) {
+				return;
 			}
 		}
+	}
 
-		if (relCount > 0) {
-			ourLog.info("Saved {} deferred relationships ({} remain) in {}ms ({}ms / entry)",
-				relCount, myConceptLinksToSaveLater.size(), stopwatch.getMillis(), stopwatch.getMillisPerOperation(relCount));
+	/**
+	 * Put-off concepts only move to the back of the queue, so as long as concepts are being
+	 * stored by any node, the queue shrinks. If it has not changed in size while every concept
+	 * in it was put off at least once, nothing left can be stored, and the remaining concepts
+	 * are discarded.
+	 */
+	private void checkForStalledConcepts() {
+		long remaining = count(TermDeferredStorageItemTypeEnum.CONCEPT);
+		if (remaining == 0) {
+			myStallCheckConceptCount = -1;
+			return;
 		}
 
-		if ((myDeferredConcepts.size() + myConceptLinksToSaveLater.size()) == 0) {
-			ourLog.info("All deferred concepts and relationships have now been synchronized to the database");
+		Integer minAttemptCount = newTxTemplate().execute(t -> myDeferredStorageItemDao.findMinAttemptCountByItemType(TermDeferredStorageItemTypeEnum.CONCEPT));
+		Integer maxAttemptCount = newTxTemplate().execute(t -> myDeferredStorageItemDao.findMaxAttemptCountByItemType(TermDeferredStorageItemTypeEnum.CONCEPT));
+		if (remaining != myStallCheckConceptCount) {
+			myStallCheckConceptCount = remaining;
+			myStallCheckMaxAttemptCount = maxAttemptCount != null ? maxAttemptCount : 0;
+			return;
+		}
+		if (minAttemptCount == null || minAttemptCount <= myStallCheckMaxAttemptCount) {
+			return;
 		}
-	}
 
-	private void processDeferredValueSets() {
-		int count = Math.min(myDeferredValueSets.size(), 20);
-		for (ValueSet nextValueSet : new ArrayList<>(myDeferredValueSets.subList(0, count))) {
-			ourLog.info("Creating ValueSet: {}", nextValueSet.getId());
-			myTerminologyVersionAdapterSvc.createOrUpdateValueSet(nextValueSet);
-			myDeferredValueSets.remove(nextValueSet);
+		ourLog.error("None of the {} deferred concepts which remain queued could be stored, because some of their parents are never going to be stored. They will be discarded.", remaining);
+		Date staleCutoff = new Date(System.currentTimeMillis() - CLAIM_TIMEOUT_MILLIS);
+		while (true) {
+			List<Long> ids = newTxTemplate().execute(t -> myDeferredStorageItemDao.findClaimableIds(PageRequest.of(0, MAX_CONCEPT_CHUNK_SIZE), TermDeferredStorageItemTypeEnum.CONCEPT, staleCutoff).getContent());
+			if (ids == null || ids.isEmpty()) {
+				break;
+			}
+			newTxTemplate().execute(t -> {
+				List<String> codes = new ArrayList<>();
+				for (TermDeferredStorageItem next : myDeferredStorageItemDao.findAllById(ids)) {
+					codes.add(deserialize(next, TermDeferredConceptJson.class).getCode());
+				}
+				ourLog.error("Discarding deferred concepts whose parents could not be stored: {}", codes);
+				myDeferredStorageItemDao.deleteByPids(ids);
+				return null;
+			});
 		}
-		ourLog.info("Saved {} deferred ValueSet resources, have {} remaining", count, myDeferredValueSets.size());
+		myStallCheckConceptCount = -1;
 	}
 
 	/**
-	 * This method is present only for unit tests, do not call from client code
+	 * Claims and stores up to one chunk of items of the given type per worker thread
+	 *
+	 * @return Returns the number of items which were stored or put off
 	 */
-	@VisibleForTesting
-	public synchronized void clearDeferred() {
-		myDeferredValueSets.clear();
-		myDeferredConceptMaps.clear();
-		myDeferredConcepts.clear();
+	private int processQueue(TermDeferredStorageItemTypeEnum theType) {
+		boolean conceptOrLink = theType == TermDeferredStorageItemTypeEnum.CONCEPT || theType == TermDeferredStorageItemTypeEnum.CONCEPT_LINK;
+		int chunkSize = conceptOrLink ? Math.min(myDaoConfig.getDeferIndexingForCodesystemsOfSize(), MAX_CONCEPT_CHUNK_SIZE) : RESOURCE_CHUNK_SIZE;
+		int threadCount = conceptOrLink ? myDaoConfig.getDeferredTerminologyStorageThreadCount() : 1;
+
+		Date staleCutoff = new Date(System.currentTimeMillis() - CLAIM_TIMEOUT_MILLIS);
+		List<Long> ids = newTxTemplate().execute(t -> myDeferredStorageItemDao.findClaimableIds(PageRequest.of(0, chunkSize * threadCount), theType, staleCutoff).getContent());
+		if (ids == null || ids.isEmpty()) {
+			return 0;
+		}
+
+		StopWatch sw = new StopWatch();
+		List<List<Long>> chunks = Lists.partition(ids, chunkSize);
+		int retVal = 0;
+		if (chunks.size() == 1) {
+			retVal = processChunk(theType, chunks.get(0), staleCutoff);
+		} else {
+			List<Future<Integer>> futures = new ArrayList<>();
+			for (List<Long> nextChunk : chunks) {
+				futures.add(getExecutor(threadCount).submit(() -> processChunk(theType, nextChunk, staleCutoff)));
+			}
+			for (Future<Integer> next : futures) {
+				try {
+					retVal += next.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InternalErrorException(e);
+				} catch (ExecutionException e) {
+					throw new InternalErrorException(e.getCause());
+				}
+			}
+		}
+
+		logProgress(theType, retVal, sw);
+		return retVal;
 	}
 
-	@Transactional(propagation = Propagation.NEVER)
-	@Override
-	public synchronized void saveDeferred() {
-		if (isProcessDeferredPaused()) {
-			return;
+	private int processChunk(TermDeferredStorageItemTypeEnum theType, List<Long> theIds, Date theStaleCutoff) {
+		String claimId = UUID.randomUUID().toString();
+		Integer claimed = newTxTemplate().execute(t -> myDeferredStorageItemDao.claim(theIds, claimId, new Date(), theStaleCutoff));
+		if (claimed == null || claimed == 0) {
+			return 0;
 		}
 
-		for (int i = 0; i < 10; i++) {
+		try {
+			Integer retVal = newTxTemplate().execute(t -> {
+				List<TermDeferredStorageItem> items = myDeferredStorageItemDao.findByClaimId(claimId);
+				List<Long> done = new ArrayList<>();
+				List<Long> putOff = new ArrayList<>();
+				switch (theType) {
+					case CONCEPT:
+						processConcepts(items, done, putOff);
+						break;
+					case CONCEPT_LINK:
+						processConceptLinks(items, done);
+						break;
+					case VALUESET:
+						processValueSets(items, done);
+						break;
+					case CONCEPTMAP:
+						processConceptMaps(items, done);
+						break;
+				}
+				if (!done.isEmpty()) {
+					myDeferredStorageItemDao.deleteByPids(done);
+				}
+				if (!putOff.isEmpty()) {
+					myDeferredStorageItemDao.release(putOff);
+				}
+				return done.size() + putOff.size();
+			});
+			return retVal != null ? retVal : 0;
+		} catch (Exception e) {
+			ourLog.error("Failed to store deferred " + theType + " chunk " + claimId + ", it will be retried", e);
+			newTxTemplate().execute(t -> {
+				List<Long> retry = new ArrayList<>();
+				List<Long> discard = new ArrayList<>();
+				for (TermDeferredStorageItem next : myDeferredStorageItemDao.findByClaimId(claimId)) {
+					if (next.getAttemptCount() + 1 >= MAX_ATTEMPTS) {
+						ourLog.error("Discarding deferred terminology item {} after {} attempts", next, next.getAttemptCount() + 1);
+						discard.add(next.getId());
+					} else {
+						retry.add(next.getId());
+					}
+				}
+				if (!retry.isEmpty()) {
+					myDeferredStorageItemDao.release(retry);
+				}
+				if (!discard.isEmpty()) {
+					myDeferredStorageItemDao.deleteByPids(discard);
+				}
+				return null;
+			});
+			return 0;
+		}
+	}
 
-			if (!isDeferredConcepts() &&
-				!isConceptLinksToSaveLater() &&
-				!isDeferredValueSets() &&
-				!isDeferredConceptMaps()) {
-				return;
+	private void processConcepts(List<TermDeferredStorageItem> theItems, List<Long> theDone, List<Long> thePutOff) {
+		ChunkContext context = new ChunkContext();
+		for (TermDeferredStorageItem next : theItems) {
+			TermCodeSystemVersion codeSystemVersion = context.getCodeSystemVersion(next);
+			if (codeSystemVersion == null) {
+				theDone.add(next.getId());
+				continue;
 			}
 
-			TransactionTemplate tt = new TransactionTemplate(myTransactionMgr);
-			tt.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
-			if (isDeferredConceptsOrConceptLinksToSaveLater()) {
-				tt.execute(t -> {
-					processDeferredConcepts();
-					return null;
-				});
+			TermDeferredConceptJson json = deserialize(next, TermDeferredConceptJson.class);
+			Set<String> parentPids = new LinkedHashSet<>();
+			boolean missingParent = false;
+			for (String nextParentCode : json.getParentCodes()) {
+				TermConcept parent = context.getConcept(codeSystemVersion, nextParentCode);
+				if (parent == null) {
+					missingParent = true;
+					continue;
+				}
+				parentPids.add(parent.getId().toString());
+				for (String nextAncestorPid : StringUtils.split(StringUtils.defaultString(parent.getParentPidsAsString()), ' ')) {
+					if (!"NONE".equals(nextAncestorPid)) {
+						parentPids.add(nextAncestorPid);
+					}
+				}
 			}
 
-			if (isDeferredValueSets()) {
-				tt.execute(t -> {
-					processDeferredValueSets();
-					return null;
-				});
-			}
-			if (isDeferredConceptMaps()) {
-				tt.execute(t -> {
-					processDeferredConceptMaps();
-					return null;
-				});
+			if (missingParent) {
+				thePutOff.add(next.getId());
+				continue;
 			}
 
+			TermConcept concept = json.toConcept(codeSystemVersion);
+			if (!json.getParentCodes().isEmpty()) {
+				concept.setParentPids(parentPids.isEmpty() ? "NONE" : String.join(" ", parentPids));
+			}
+			myCodeSystemStorageSvc.saveConcept(concept);
+			context.putConcept(codeSystemVersion, concept);
+			theDone.add(next.getId());
 		}
 	}
 
-	@Override
-	public boolean isStorageQueueEmpty() {
-		boolean retVal = true;
-		retVal &= !isProcessDeferredPaused();
-		retVal &= !isDeferredConcepts();
-		retVal &= !isConceptLinksToSaveLater();
-		retVal &= !isDeferredValueSets();
-		retVal &= !isDeferredConceptMaps();
-		return retVal;
+	private void processConceptLinks(List<TermDeferredStorageItem> theItems, List<Long> theDone) {
+		ChunkContext context = new ChunkContext();
+		for (TermDeferredStorageItem next : theItems) {
+			theDone.add(next.getId());
+			TermCodeSystemVersion codeSystemVersion = context.getCodeSystemVersion(next);
+			if (codeSystemVersion == null) {
+				continue;
+			}
+
+			TermDeferredConceptLinkJson json = deserialize(next, TermDeferredConceptLinkJson.class);
+			TermConcept parent = context.getConcept(codeSystemVersion, json.getParentCode());
+			TermConcept child = context.getConcept(codeSystemVersion, json.getChildCode());
+			if (parent == null || child == null) {
+				ourLog.warn("Not inserting link from child {} to parent {} because it appears to have been deleted", json.getChildCode(), json.getParentCode());
+				continue;
+			}
+
+			TermConceptParentChildLink link = new TermConceptParentChildLink();
+			link.setCodeSystem(codeSystemVersion);
+			link.setParent(parent);
+			link.setChild(child);
+			link.setRelationshipType(json.getRelationshipType());
+			myConceptParentChildLinkDao.save(link);
+		}
 	}
 
+	private void processValueSets(List<TermDeferredStorageItem> theItems, List<Long> theDone) {
+		for (TermDeferredStorageItem next : theItems) {
+			ValueSet valueSet = myR4Context.newJsonParser().parseResource(ValueSet.class, next.getBodyAsString());
+			ourLog.info("Creating ValueSet: {}", valueSet.getId());
+			myTerminologyVersionAdapterSvc.createOrUpdateValueSet(valueSet);
+			theDone.add(next.getId());
+		}
+	}
 
-	private void saveConceptLink(TermConceptParentChildLink next) {
-		if (next.getId() == null) {
-			myConceptParentChildLinkDao.save(next);
+	private void processConceptMaps(List<TermDeferredStorageItem> theItems, List<Long> theDone) {
+		for (TermDeferredStorageItem next : theItems) {
+			ConceptMap conceptMap = myR4Context.newJsonParser().parseResource(ConceptMap.class, next.getBodyAsString());
+			ourLog.info("Creating ConceptMap: {}", conceptMap.getId());
+			myTerminologyVersionAdapterSvc.createOrUpdateConceptMap(conceptMap);
+			theDone.add(next.getId());
 		}
 	}
 
-	private boolean isProcessDeferredPaused() {
-		return !myProcessDeferred;
+	private void logProgress(TermDeferredStorageItemTypeEnum theType, int theCount, StopWatch theStopWatch) {
+		if (theCount == 0) {
+			return;
+		}
+		long concepts = count(TermDeferredStorageItemTypeEnum.CONCEPT);
+		long links = count(TermDeferredStorageItemTypeEnum.CONCEPT_LINK);
+		switch (theType) {
+			case CONCEPT:
+			case CONCEPT_LINK:
+				ourLog.info("Processed {} deferred {} items in {} ({}/sec) - {} concepts and {} relationships remain queued",
+					theCount, theType, theStopWatch, theStopWatch.formatThroughput(theCount, TimeUnit.SECONDS), concepts, links);
+				if (concepts + links == 0) {
+					ourLog.info("All deferred concepts and relationships have now been synchronized to the database");
+				}
+				break;
+			case VALUESET:
+			case CONCEPTMAP:
+				ourLog.info("Processed {} deferred {} resources, have {} remaining", theCount, theType, count(theType));
+				break;
+		}
 	}
 
-	private boolean isDeferredConceptsOrConceptLinksToSaveLater() {
-		return isDeferredConcepts() || isConceptLinksToSaveLater();
+	@Override
+	public boolean isStorageQueueEmpty() {
+		return !isProcessDeferredPaused() && myDeferredStorageItemDao.count() == 0;
 	}
 
-	private boolean isDeferredConcepts() {
-		return !myDeferredConcepts.isEmpty();
+	private long count(TermDeferredStorageItemTypeEnum theType) {
+		Long retVal = newTxTemplate().execute(t -> myDeferredStorageItemDao.countByItemType(theType));
+		return retVal != null ? retVal : 0;
 	}
 
-	private boolean isConceptLinksToSaveLater() {
-		return !myConceptLinksToSaveLater.isEmpty();
+	private boolean isProcessDeferredPaused() {
+		return !myProcessDeferred;
 	}
 
-	private boolean isDeferredValueSets() {
-		return !myDeferredValueSets.isEmpty();
+	private TransactionTemplate newTxTemplate() {
+		TransactionTemplate retVal = new TransactionTemplate(myTransactionMgr);
+		retVal.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		return retVal;
 	}
 
-	private boolean isDeferredConceptMaps() {
-		return !myDeferredConceptMaps.isEmpty();
+	private synchronized ExecutorService getExecutor(int theThreadCount) {
+		if (myExecutor == null) {
+			myExecutor = new ThreadPoolExecutor(theThreadCount, theThreadCount,
+				0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(),
+				myThreadFactory);
+		} else if (myExecutor.getMaximumPoolSize() != theThreadCount) {
+			if (theThreadCount > myExecutor.getMaximumPoolSize()) {
+				myExecutor.setMaximumPoolSize(theThreadCount);
+				myExecutor.setCorePoolSize(theThreadCount);
+			} else {
+				myExecutor.setCorePoolSize(theThreadCount);
+				myExecutor.setMaximumPoolSize(theThreadCount);
+			}
+		}
+		return myExecutor;
 	}
 
 	@PostConstruct
 	public void registerScheduledJob() {
-		// Register scheduled job to save deferred concepts
-		// In the future it would be great to make this a cluster-aware task somehow
+		// Register scheduled job to save deferred concepts. This is not a clustered job, since
+		// every node can work on the queue at the same time.
 		ScheduledJobDefinition jobDefinition = new ScheduledJobDefinition();
 		jobDefinition.setId(BaseTermReadSvcImpl.class.getName() + "_saveDeferred");
 		jobDefinition.setJobClass(SaveDeferredJob.class);
 		mySchedulerService.scheduleFixedDelay(SCHEDULE_INTERVAL_MILLIS, false, jobDefinition);
 	}
 
+	@PreDestroy
+	public synchronized void stop() {
+		if (myExecutor != null) {
+			myExecutor.shutdown();
+		}
+	}
+
 	@VisibleForTesting
 	void setTransactionManagerForUnitTest(PlatformTransactionManager theTxManager) {
 		myTransactionMgr = theTxManager;
@@ -289,6 +533,73 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 		myConceptDao = theConceptDao;
 	}
 
+	@VisibleForTesting
+	void setDeferredStorageItemDaoForUnitTest(ITermDeferredStorageItemDao theDeferredStorageItemDao) {
+		myDeferredStorageItemDao = theDeferredStorageItemDao;
+	}
+
+	@VisibleForTesting
+	void setCodeSystemVersionDaoForUnitTest(ITermCodeSystemVersionDao theCodeSystemVersionDao) {
+		myCodeSystemVersionDao = theCodeSystemVersionDao;
+	}
+
+	private static Long getCodeSystemVersionPid(TermConcept theConcept) {
+		TermCodeSystemVersion codeSystemVersion = theConcept.getCodeSystemVersion();
+		Validate.isTrue(codeSystemVersion != null && codeSystemVersion.getPid() != null, "Concept %s does not belong to a saved code system version", theConcept.getCode());
+		return codeSystemVersion.getPid();
+	}
+
+	private static String serialize(Object theJson) {
+		try {
+			return JsonUtil.serialize(theJson, false);
+		} catch (IOException e) {
+			throw new InternalErrorException(e);
+		}
+	}
+
+	private static <T> T deserialize(TermDeferredStorageItem theItem, Class<T> theType) {
+		try {
+			return JsonUtil.deserialize(theItem.getBodyAsString(), theType);
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to parse deferred terminology item " + theItem.getId(), e);
+		}
+	}
+
+	/**
+	 * Caches the lookups made while storing one chunk, since neighbouring concepts usually
+	 * belong to the same code system version and share parents
+	 */
+	private class ChunkContext {
+		private final Map<Long, Optional<TermCodeSystemVersion>> myCodeSystemVersions = new HashMap<>();
+		private final Map<String, TermConcept> myConcepts = new HashMap<>();
+
+		TermCodeSystemVersion getCodeSystemVersion(TermDeferredStorageItem theItem) {
+			Long pid = theItem.getCodeSystemVersionPid();
+			Optional<TermCodeSystemVersion> retVal = myCodeSystemVersions.computeIfAbsent(pid, t -> myCodeSystemVersionDao.findById(t));
+			if (!retVal.isPresent()) {
+				ourLog.warn("Discarding deferred terminology item {} since code system version {} no longer exists", theItem.getId(), pid);
+				return null;
+			}
+			return retVal.get();
+		}
+
+		TermConcept getConcept(TermCodeSystemVersion theCodeSystemVersion, String theCode) {
+			String key = theCodeSystemVersion.getPid() + " " + theCode;
+			TermConcept retVal = myConcepts.get(key);
+			if (retVal == null) {
+				retVal = myConceptDao.findByCodeSystemAndCode(theCodeSystemVersion, theCode).orElse(null);
+				if (retVal != null) {
+					myConcepts.put(key, retVal);
+				}
+			}
+			return retVal;
+		}
+
+		void putConcept(TermCodeSystemVersion theCodeSystemVersion, TermConcept theConcept) {
+			myConcepts.put(theCodeSystemVersion.getPid() + " " + theConcept.getCode(), theConcept);
+		}
+	}
+
 	public static class SaveDeferredJob extends FireAtIntervalJob {
 
 		@Autowired
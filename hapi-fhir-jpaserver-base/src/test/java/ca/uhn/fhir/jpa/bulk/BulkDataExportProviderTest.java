@@ -21,6 +21,7 @@ import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.InstantType;
 import org.hl7.fhir.r4.model.Parameters;
@@ -66,6 +67,10 @@ public class BulkDataExportProviderTest {
 	private ArgumentCaptor<Date> mySinceCaptor;
 	@Captor
 	private ArgumentCaptor<Set<String>> myFiltersCaptor;
+	@Captor
+	private ArgumentCaptor<BulkExportStyleEnum> myStyleCaptor;
+	@Captor
+	private ArgumentCaptor<IIdType> myGroupIdCaptor;
 
 	@After
 	public void after() throws Exception {
@@ -168,6 +173,55 @@ public class BulkDataExportProviderTest {
 
 	}
 
+	@Test
+	public void testSuccessfulInitiateGroupBulkRequest() throws IOException {
+
+		IBulkDataExportSvc.JobInfo jobInfo = new IBulkDataExportSvc.JobInfo()
+			.setJobId(A_JOB_ID);
+		when(myBulkDataExportSvc.submitJob(any(), any(), any(), any(), any(), any())).thenReturn(jobInfo);
+
+		String url = "http://localhost:" + myPort + "/Group/123/" + JpaConstants.OPERATION_EXPORT
+			+ "?" + JpaConstants.PARAM_EXPORT_TYPE + "=" + UrlUtil.escapeUrlParam("Patient, Observation");
+
+		HttpGet get = new HttpGet(url);
+		get.addHeader(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC);
+		try (CloseableHttpResponse response = myClient.execute(get)) {
+			ourLog.info("Response: {}", response.toString());
+
+			assertEquals(202, response.getStatusLine().getStatusCode());
+			assertEquals("http://localhost:" + myPort + "/$export-poll-status?_jobId=" + A_JOB_ID, response.getFirstHeader(Constants.HEADER_CONTENT_LOCATION).getValue());
+		}
+
+		verify(myBulkDataExportSvc, times(1)).submitJob(any(), myResourceTypesCaptor.capture(), any(), any(), myStyleCaptor.capture(), myGroupIdCaptor.capture());
+		assertThat(myResourceTypesCaptor.getValue(), containsInAnyOrder("Patient", "Observation"));
+		assertEquals(BulkExportStyleEnum.GROUP, myStyleCaptor.getValue());
+		assertEquals("Group/123", myGroupIdCaptor.getValue().toUnqualifiedVersionless().getValue());
+
+	}
+
+	@Test
+	public void testSuccessfulInitiatePatientBulkRequest() throws IOException {
+
+		IBulkDataExportSvc.JobInfo jobInfo = new IBulkDataExportSvc.JobInfo()
+			.setJobId(A_JOB_ID);
+		when(myBulkDataExportSvc.submitJob(any(), any(), any(), any(), any(), any())).thenReturn(jobInfo);
+
+		String url = "http://localhost:" + myPort + "/Patient/" + JpaConstants.OPERATION_EXPORT;
+
+		HttpGet get = new HttpGet(url);
+		get.addHeader(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC);
+		try (CloseableHttpResponse response = myClient.execute(get)) {
+			ourLog.info("Response: {}", response.toString());
+
+			assertEquals(202, response.getStatusLine().getStatusCode());
+			assertEquals("http://localhost:" + myPort + "/$export-poll-status?_jobId=" + A_JOB_ID, response.getFirstHeader(Constants.HEADER_CONTENT_LOCATION).getValue());
+		}
+
+		verify(myBulkDataExportSvc, times(1)).submitJob(any(), any(), any(), any(), myStyleCaptor.capture(), any());
+		assertEquals(BulkExportStyleEnum.PATIENT, myStyleCaptor.getValue());
+
+	}
+
 	@Test
 	public void testPollForStatus_BUILDING() throws IOException {
 
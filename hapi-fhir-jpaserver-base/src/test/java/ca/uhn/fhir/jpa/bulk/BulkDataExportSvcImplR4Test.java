@@ -1,5 +1,7 @@
 package ca.uhn.fhir.jpa.bulk;
 
+import ca.uhn.fhir.jpa.binstore.IBinaryStorageSvc;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportCollectionDao;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportCollectionFileDao;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportJobDao;
@@ -7,6 +9,7 @@ import ca.uhn.fhir.jpa.dao.r4.BaseJpaR4Test;
 import ca.uhn.fhir.jpa.entity.BulkExportCollectionEntity;
 import ca.uhn.fhir.jpa.entity.BulkExportCollectionFileEntity;
 import ca.uhn.fhir.jpa.entity.BulkExportJobEntity;
+import ca.uhn.fhir.jpa.model.util.JpaConstants;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.test.utilities.UnregisterScheduledProcessor;
@@ -16,19 +19,27 @@ import org.apache.commons.lang3.time.DateUtils;
 import org.hamcrest.Matchers;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Group;
 import org.hl7.fhir.r4.model.InstantType;
 import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Organization;
 import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.TestPropertySource;
 
+import java.io.IOException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
+import static org.awaitility.Awaitility.await;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.*;
 
 @TestPropertySource(properties = {
@@ -45,7 +56,15 @@ public class BulkDataExportSvcImplR4Test extends BaseJpaR4Test {
 	private IBulkExportCollectionFileDao myBulkExportCollectionFileDao;
 	@Autowired
 	private IBulkDataExportSvc myBulkDataExportSvc;
+	@Autowired
+	private IBinaryStorageSvc myBinaryStorageSvc;
 
+	@After
+	public void after() {
+		myDaoConfig.setBulkExportFileMaximumBytes(new DaoConfig().getBulkExportFileMaximumBytes());
+		myDaoConfig.setBulkExportUseBinaryStorage(new DaoConfig().isBulkExportUseBinaryStorage());
+		myDaoConfig.setBulkExportChunkSize(new DaoConfig().getBulkExportChunkSize());
+	}
 
 	@Test
 	public void testPurgeExpiredJobs() {
@@ -100,6 +119,46 @@ public class BulkDataExportSvcImplR4Test extends BaseJpaR4Test {
 
 	}
 
+	@Test
+	public void testPurgeExpiredJobs_BinaryAlreadyDeleted() {
+
+		// Create an expired job whose file no longer exists
+		runInTransaction(() -> {
+
+			BulkExportJobEntity job = new BulkExportJobEntity();
+			job.setStatus(BulkJobStatusEnum.COMPLETE);
+			job.setExpiry(DateUtils.addHours(new Date(), -1));
+			job.setJobId(UUID.randomUUID().toString());
+			job.setCreated(new Date());
+			job.setRequest("$export");
+			myBulkExportJobDao.save(job);
+
+			BulkExportCollectionEntity collection = new BulkExportCollectionEntity();
+			job.getCollections().add(collection);
+			collection.setResourceType("Patient");
+			collection.setJob(job);
+			myBulkExportCollectionDao.save(collection);
+
+			BulkExportCollectionFileEntity file = new BulkExportCollectionFileEntity();
+			collection.getFiles().add(file);
+			file.setCollection(collection);
+			file.setResource("Binary/999999");
+			myBulkExportCollectionFileDao.save(file);
+
+		});
+
+		// Run a purge pass
+		myBulkDataExportSvc.purgeExpiredFiles();
+
+		// Check that things were deleted
+		runInTransaction(() -> {
+			assertThat(myBulkExportJobDao.findAll(), Matchers.empty());
+			assertEquals(0, myBulkExportCollectionDao.count());
+			assertEquals(0, myBulkExportCollectionFileDao.count());
+		});
+
+	}
+
 	@Test
 	public void testCreateBulkLoad_InvalidOutputFormat() {
 		try {
@@ -173,6 +232,246 @@ public class BulkDataExportSvcImplR4Test extends BaseJpaR4Test {
 		}
 	}
 
+	@Test
+	public void testStartBuildingExportFiles_MultipleJobs() {
+
+		// Create some resources to load
+		createResources();
+
+		// Create two bulk jobs
+		String jobId0 = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null).getJobId();
+		String jobId1 = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Observation"), null, null).getJobId();
+
+		// Start building in the background until both jobs have been picked up
+		await().until(() -> {
+			myBulkDataExportSvc.startBuildingExportFiles();
+			return myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobId0).getStatus() == BulkJobStatusEnum.COMPLETE
+				&& myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobId1).getStatus() == BulkJobStatusEnum.COMPLETE;
+		});
+
+		assertEquals(1, myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobId0).getFiles().size());
+		assertEquals(1, myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobId1).getFiles().size());
+	}
+
+	@Test
+	public void testSubmitForSpecificResources_SplitFilesBySize() {
+		myDaoConfig.setBulkExportFileMaximumBytes(500);
+
+		// Create some resources to load
+		createResources();
+
+		// Create a bulk job
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null);
+		myBulkDataExportSvc.buildExportFiles();
+
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertThat(status.getFiles().size(), Matchers.greaterThan(1));
+
+		int lineCount = 0;
+		for (IBulkDataExportSvc.FileEntry next : status.getFiles()) {
+			Binary nextBinary = myBinaryDao.read(next.getResourceId());
+			String nextContents = new String(nextBinary.getContent(), Constants.CHARSET_UTF8);
+			lineCount += nextContents.split("\n").length;
+		}
+		assertEquals(10, lineCount);
+	}
+
+	@Test
+	public void testSubmitForSpecificResources_UseBinaryStorage() throws IOException {
+		myDaoConfig.setBulkExportUseBinaryStorage(true);
+
+		// Create some resources to load
+		createResources();
+
+		// Create a bulk job
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient", "Observation"), null, null);
+		myBulkDataExportSvc.buildExportFiles();
+
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(2, status.getFiles().size());
+
+		// The file contents should have been streamed to binary storage
+		for (IBulkDataExportSvc.FileEntry next : status.getFiles()) {
+			Binary nextBinary = myBinaryDao.read(next.getResourceId());
+			assertEquals(Constants.CT_FHIR_NDJSON, nextBinary.getContentType());
+			assertNull(nextBinary.getContent());
+
+			String blobId = nextBinary.getDataElement().getExtensionString(JpaConstants.EXT_EXTERNALIZED_BINARY_ID);
+			assertNotNull(blobId);
+			byte[] blob = myBinaryStorageSvc.fetchBlob(next.getResourceId(), blobId);
+			String nextContents = new String(blob, Constants.CHARSET_UTF8);
+			ourLog.info("Next contents for type {}:\n{}", next.getResourceType(), nextContents);
+			assertEquals(10, nextContents.split("\n").length);
+		}
+	}
+
+	@Test
+	public void testSubmitForSpecificResources_MultipleChunks() {
+		myDaoConfig.setBulkExportChunkSize(3);
+
+		// Create some resources to load
+		createResources();
+
+		// Create a bulk job
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient", "Observation"), null, null);
+		myBulkDataExportSvc.buildExportFiles();
+
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+
+		// Each chunk of 3 resources is written to its own file
+		assertEquals(8, status.getFiles().size());
+		Map<String, Integer> typeToLineCount = new HashMap<>();
+		for (IBulkDataExportSvc.FileEntry next : status.getFiles()) {
+			Binary nextBinary = myBinaryDao.read(next.getResourceId());
+			String nextContents = new String(nextBinary.getContent(), Constants.CHARSET_UTF8);
+			typeToLineCount.merge(next.getResourceType(), nextContents.split("\n").length, Integer::sum);
+		}
+		assertEquals(10, typeToLineCount.get("Patient").intValue());
+		assertEquals(10, typeToLineCount.get("Observation").intValue());
+	}
+
+	@Test
+	public void testResumeStalledJob() {
+
+		// Create some resources to load
+		createResources();
+
+		// Create a bulk job and build it
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient", "Observation"), null, null);
+		myBulkDataExportSvc.buildExportFiles();
+
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(2, status.getFiles().size());
+		Map<String, String> typeToFileId = new HashMap<>();
+		status.getFiles().forEach(t -> typeToFileId.put(t.getResourceType(), t.getResourceId().getIdPart()));
+
+		// Simulate a node that crashed after finishing Patient but before finishing Observation
+		runInTransaction(() -> {
+			BulkExportJobEntity job = myBulkExportJobDao.findByJobId(jobDetails.getJobId()).orElseThrow(IllegalStateException::new);
+			job.setStatus(BulkJobStatusEnum.BUILDING);
+			job.setStatusTime(DateUtils.addHours(new Date(), -1));
+			myBulkExportJobDao.save(job);
+			for (BulkExportCollectionEntity next : job.getCollections()) {
+				if (next.getResourceType().equals("Observation")) {
+					next.setStatus(BulkJobStatusEnum.BUILDING);
+					myBulkExportCollectionDao.save(next);
+				}
+			}
+		});
+
+		// The next pass should pick the job back up and only redo Observation
+		myBulkDataExportSvc.buildExportFiles();
+
+		status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(2, status.getFiles().size());
+		for (IBulkDataExportSvc.FileEntry next : status.getFiles()) {
+			if (next.getResourceType().equals("Patient")) {
+				assertEquals(typeToFileId.get("Patient"), next.getResourceId().getIdPart());
+			} else {
+				assertNotEquals(typeToFileId.get("Observation"), next.getResourceId().getIdPart());
+				Binary nextBinary = myBinaryDao.read(next.getResourceId());
+				String nextContents = new String(nextBinary.getContent(), Constants.CHARSET_UTF8);
+				assertEquals(10, nextContents.split("\n").length);
+			}
+		}
+	}
+
+	@Test
+	public void testSubmitGroupExport() {
+
+		// Create some resources to load
+		createResources();
+
+		Group group = new Group();
+		group.setType(Group.GroupType.PERSON);
+		group.setActual(true);
+		group.addMember().getEntity().setReference("Patient/PAT1");
+		group.addMember().getEntity().setReference("Patient/PAT3");
+		IIdType groupId = myGroupDao.create(group).getId().toUnqualifiedVersionless();
+
+		// Create a bulk job
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, null, null, null, BulkExportStyleEnum.GROUP, groupId);
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals("/" + groupId.getValue() + "/$export?_outputFormat=application%2Ffhir%2Bndjson", status.getRequest());
+
+		// Run a scheduled pass to build the export
+		myBulkDataExportSvc.buildExportFiles();
+
+		status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(3, status.getFiles().size());
+
+		// Only the compartments of the group members should be exported (which includes the group itself)
+		for (IBulkDataExportSvc.FileEntry next : status.getFiles()) {
+			Binary nextBinary = myBinaryDao.read(next.getResourceId());
+			String nextContents = new String(nextBinary.getContent(), Constants.CHARSET_UTF8);
+			ourLog.info("Next contents for type {}:\n{}", next.getResourceType(), nextContents);
+
+			if ("Patient".equals(next.getResourceType())) {
+				assertThat(nextContents, containsString("\"id\":\"PAT1\""));
+				assertThat(nextContents, containsString("\"id\":\"PAT3\""));
+				assertEquals(2, nextContents.split("\n").length);
+			} else if ("Observation".equals(next.getResourceType())) {
+				assertThat(nextContents, containsString("\"id\":\"OBS1\""));
+				assertThat(nextContents, containsString("\"id\":\"OBS3\""));
+				assertEquals(2, nextContents.split("\n").length);
+			} else if ("Group".equals(next.getResourceType())) {
+				assertThat(nextContents, containsString("\"id\":\"" + groupId.getIdPart() + "\""));
+				assertEquals(1, nextContents.split("\n").length);
+			} else {
+				fail(next.getResourceType());
+			}
+		}
+	}
+
+	@Test
+	public void testSubmitPatientExport() {
+		myDaoConfig.setBulkExportChunkSize(3);
+
+		// Create some resources to load
+		createResources();
+
+		// Not in the patient compartment
+		Organization org = new Organization();
+		org.setName("ORG");
+		myOrganizationDao.create(org);
+
+		// Create a bulk job
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, null, null, null, BulkExportStyleEnum.PATIENT, null);
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals("/Patient/$export?_outputFormat=application%2Ffhir%2Bndjson", status.getRequest());
+
+		// Run a scheduled pass to build the export
+		myBulkDataExportSvc.buildExportFiles();
+
+		status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+
+		Map<String, Integer> typeToLineCount = new HashMap<>();
+		for (IBulkDataExportSvc.FileEntry next : status.getFiles()) {
+			Binary nextBinary = myBinaryDao.read(next.getResourceId());
+			String nextContents = new String(nextBinary.getContent(), Constants.CHARSET_UTF8);
+			typeToLineCount.merge(next.getResourceType(), nextContents.split("\n").length, Integer::sum);
+		}
+		assertThat(typeToLineCount.keySet(), containsInAnyOrder("Patient", "Observation"));
+		assertEquals(10, typeToLineCount.get("Patient").intValue());
+		assertEquals(10, typeToLineCount.get("Observation").intValue());
+	}
+
+	@Test
+	public void testSubmitPatientExport_TypeNotInCompartment() {
+		try {
+			myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient", "Organization"), null, null, BulkExportStyleEnum.PATIENT, null);
+			fail();
+		} catch (InvalidRequestException e) {
+			assertEquals("Resource type Organization is not in the patient compartment and can not be included in a patient or group level export", e.getMessage());
+		}
+	}
+
 	@Test
 	public void testSubmitWithoutSpecificResources() {
 
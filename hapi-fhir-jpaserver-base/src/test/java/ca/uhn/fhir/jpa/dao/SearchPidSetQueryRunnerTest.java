@@ -0,0 +1,39 @@
+package ca.uhn.fhir.jpa.dao;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class SearchPidSetQueryRunnerTest {
+
+	@Test
+	public void testIntersect() {
+		long[] outcome = SearchPidSetQueryRunner.intersect(Arrays.asList(
+			new long[]{1, 3, 5, 7, 9, 11},
+			new long[]{3, 4, 5, 9, 11, 12},
+			new long[]{5, 9, 11}
+		));
+		assertArrayEquals(new long[]{5, 9, 11}, outcome);
+	}
+
+	@Test
+	public void testIntersectDisjoint() {
+		long[] outcome = SearchPidSetQueryRunner.intersect(Arrays.asList(
+			new long[]{1, 2, 3},
+			new long[]{4, 5, 6}
+		));
+		assertArrayEquals(new long[0], outcome);
+	}
+
+	@Test
+	public void testIntersectWithEmpty() {
+		long[] outcome = SearchPidSetQueryRunner.intersect(Arrays.asList(
+			new long[]{1, 2, 3},
+			new long[0]
+		));
+		assertArrayEquals(new long[0], outcome);
+	}
+
+}
@@ -0,0 +1,61 @@
+package ca.uhn.fhir.jpa.dao.index;
+
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.util.TestUtil;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+public class DaoSearchParamSynchronizerTest {
+
+	private final DaoSearchParamSynchronizer mySvc = new DaoSearchParamSynchronizer();
+
+	@Test
+	public void testSubtractKeepsOrderAndDuplicates() {
+		ResourceIndexedSearchParamToken a = newToken("a");
+		ResourceIndexedSearchParamToken b = newToken("b");
+		ResourceIndexedSearchParamToken c = newToken("c");
+
+		List<ResourceIndexedSearchParamToken> from = Arrays.asList(c, a, b, c, newToken("a"));
+		List<ResourceIndexedSearchParamToken> toSubtract = new ArrayList<>(Collections.singletonList(newToken("a")));
+
+		assertThat(mySvc.subtract(from, toSubtract), contains(c, b, c));
+		assertThat(mySvc.subtract(from, Collections.emptyList()), contains(c, a, b, c, a));
+		assertThat(mySvc.subtract(Collections.emptyList(), toSubtract), empty());
+	}
+
+	@Test
+	public void testSubtractComparesHashes() {
+		ResourceIndexedSearchParamString existing = new ResourceIndexedSearchParamString(new ModelConfig(), "Patient", "name", "SMITH", "Smith");
+		existing.setHashIdentity(1L);
+		existing.setHashExact(2L);
+		existing.setHashNormalizedPrefix(3L);
+
+		ResourceIndexedSearchParamString updated = new ResourceIndexedSearchParamString(new ModelConfig(), "Patient", "name", "SMITH", "Smith");
+		updated.setHashIdentity(1L);
+		updated.setHashExact(2L);
+		updated.setHashNormalizedPrefix(4L);
+
+		assertThat(mySvc.subtract(Collections.singletonList(existing), Collections.singletonList(updated)), contains(existing));
+	}
+
+	private static ResourceIndexedSearchParamToken newToken(String theValue) {
+		return new ResourceIndexedSearchParamToken("Patient", "identifier", "http://foo", theValue);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
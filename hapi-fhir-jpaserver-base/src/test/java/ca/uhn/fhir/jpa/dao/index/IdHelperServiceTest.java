@@ -0,0 +1,145 @@
+package ca.uhn.fhir.jpa.dao.index;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.TestUtil;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IdHelperServiceTest {
+
+	@Mock
+	private IForcedIdDao myForcedIdDao;
+	private IdHelperService mySvc;
+
+	@Before
+	public void before() {
+		mySvc = new IdHelperService();
+		mySvc.setDaoConfigForUnitTest(new DaoConfig());
+		mySvc.setForcedIdDaoForUnitTest(myForcedIdDao);
+		mySvc.buildCaches();
+	}
+
+	@Test
+	public void testTranslateForcedIdToPidUsesCache() {
+		when(myForcedIdDao.findForcedIdAndPidByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("A"))))
+			.thenReturn(Collections.singletonList(new Object[]{"A", 123L}));
+
+		assertEquals(123L, mySvc.translateForcedIdToPid("Patient", "A", null).longValue());
+		assertEquals(123L, mySvc.translateForcedIdToPid("Patient", "A", null).longValue());
+
+		verify(myForcedIdDao, times(1)).findForcedIdAndPidByTypeAndForcedId(any(), any());
+		assertEquals(1, mySvc.getForcedIdToPidCacheStats().hitCount());
+		assertEquals(1, mySvc.getForcedIdToPidCacheStats().missCount());
+
+		// The reverse direction was populated at the same time
+		assertEquals("Patient/A", mySvc.translatePidIdToForcedId("Patient", 123L));
+		verify(myForcedIdDao, never()).findByResourcePid(any());
+	}
+
+	@Test
+	public void testTranslateForcedIdsToPidsOnlyQueriesCacheMisses() {
+		when(myForcedIdDao.findForcedIdAndPidByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("A"))))
+			.thenReturn(Collections.singletonList(new Object[]{"A", 1L}));
+		mySvc.translateForcedIdToPid("Patient", "A", null);
+
+		when(myForcedIdDao.findForcedIdAndPidByTypeAndForcedId(eq("Patient"), eq(Arrays.asList("B", "C"))))
+			.thenReturn(Arrays.asList(new Object[]{"B", 2L}, new Object[]{"C", 3L}));
+		Collection<IIdType> ids = Arrays.asList(new IdDt("Patient/A"), new IdDt("Patient/B"), new IdDt("Patient/C"));
+		List<Long> pids = mySvc.translateForcedIdToPids(ids, null);
+
+		assertThat(pids, containsInAnyOrder(1L, 2L, 3L));
+		verify(myForcedIdDao, times(1)).findForcedIdAndPidByTypeAndForcedId(eq("Patient"), eq(Arrays.asList("B", "C")));
+	}
+
+	@Test
+	public void testNotFoundIsNotCached() {
+		when(myForcedIdDao.findForcedIdAndPidByTypeAndForcedId(any(), any())).thenReturn(Collections.emptyList());
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				mySvc.translateForcedIdToPid("Patient", "A", null);
+				fail();
+			} catch (ResourceNotFoundException e) {
+				// good
+			}
+		}
+
+		verify(myForcedIdDao, times(2)).findForcedIdAndPidByTypeAndForcedId(any(), any());
+	}
+
+	@Test
+	public void testClearCache() {
+		when(myForcedIdDao.findForcedIdAndPidByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("A"))))
+			.thenReturn(Collections.singletonList(new Object[]{"A", 123L}));
+
+		mySvc.translateForcedIdToPid("Patient", "A", null);
+		mySvc.clearCache();
+		mySvc.translateForcedIdToPid("Patient", "A", null);
+
+		verify(myForcedIdDao, times(2)).findForcedIdAndPidByTypeAndForcedId(any(), any());
+	}
+
+	@Test
+	public void testCacheDisabled() {
+		when(myForcedIdDao.findForcedIdAndPidByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("A"))))
+			.thenReturn(Collections.singletonList(new Object[]{"A", 123L}));
+
+		DaoConfig daoConfig = new DaoConfig();
+		daoConfig.setForcedIdCacheMaximumSize(0);
+		mySvc.setDaoConfigForUnitTest(daoConfig);
+		mySvc.buildCaches();
+		mySvc.translateForcedIdToPid("Patient", "A", null);
+		mySvc.translateForcedIdToPid("Patient", "A", null);
+
+		daoConfig = new DaoConfig();
+		daoConfig.setForcedIdCacheExpireAfterWriteInMinutes(null);
+		mySvc.setDaoConfigForUnitTest(daoConfig);
+		mySvc.buildCaches();
+		assertEquals(123L, mySvc.translateForcedIdToPid("Patient", "A", null).longValue());
+		mySvc.clearCache();
+
+		verify(myForcedIdDao, times(3)).findForcedIdAndPidByTypeAndForcedId(any(), any());
+		assertEquals(0, mySvc.getForcedIdToPidCacheStats().requestCount());
+	}
+
+	@Test
+	public void testEntryReadBeforeInvalidationIsNotCached() {
+		// Simulate an expunge that removes the forced ID while it is being resolved
+		when(myForcedIdDao.findForcedIdAndPidByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("A"))))
+			.thenAnswer(t -> {
+				mySvc.clearCache();
+				return Collections.singletonList(new Object[]{"A", 123L});
+			});
+
+		mySvc.translateForcedIdToPid("Patient", "A", null);
+		mySvc.translateForcedIdToPid("Patient", "A", null);
+
+		verify(myForcedIdDao, times(2)).findForcedIdAndPidByTypeAndForcedId(any(), any());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
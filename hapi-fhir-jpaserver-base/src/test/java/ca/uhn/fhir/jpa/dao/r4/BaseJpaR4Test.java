@@ -158,6 +158,8 @@ public abstract class BaseJpaR4Test extends BaseJpaTest {
 	@Autowired
 	protected ITermConceptDao myTermConceptDao;
 	@Autowired
+	protected ITermConceptClosureDao myTermConceptClosureDao;
+	@Autowired
 	protected ITermConceptDesignationDao myTermConceptDesignationDao;
 	@Autowired
 	@Qualifier("myConditionDaoR4")
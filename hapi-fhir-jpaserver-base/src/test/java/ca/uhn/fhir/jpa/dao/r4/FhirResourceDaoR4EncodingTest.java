@@ -0,0 +1,158 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.recompress.IResourceRecompressionSvc;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.util.TestUtil;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class FhirResourceDaoR4EncodingTest extends BaseJpaR4Test {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoR4EncodingTest.class);
+	@Autowired
+	private IResourceRecompressionSvc myResourceRecompressionSvc;
+
+	@After
+	public void after() {
+		myDaoConfig.setResourceEncoding(new DaoConfig().getResourceEncoding());
+		myDaoConfig.setResourceRecompressionEnabled(new DaoConfig().isResourceRecompressionEnabled());
+	}
+
+	@Test
+	public void testStoreAndReadDictionaryCompressed() {
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSOND);
+
+		Observation obs = createObservation();
+		IIdType id = myObservationDao.create(obs).getId().toUnqualifiedVersionless();
+
+		runInTransaction(() -> {
+			ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(id.getIdPartAsLong(), 1);
+			assertEquals(ResourceEncodingEnum.JSOND, history.getEncoding());
+
+			byte[] gzipped = BaseHapiFhirDao.encodeResource(obs, ResourceEncodingEnum.JSONC, Collections.emptySet(), myFhirCtx);
+			ourLog.info("JSOND: {} bytes - JSONC: {} bytes", history.getResource().length, gzipped.length);
+			assertThat(history.getResource().length, lessThan(gzipped.length));
+		});
+
+		Observation read = myObservationDao.read(id);
+		assertEquals("John Smith", read.getSubject().getDisplay());
+		assertEquals(120.0, read.getValueQuantity().getValue().doubleValue(), 0.0);
+	}
+
+	@Test
+	public void testStoreAndReadBinaryJson() {
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.BJSON);
+
+		Observation obs = createObservation();
+		IIdType id = myObservationDao.create(obs).getId().toUnqualifiedVersionless();
+
+		runInTransaction(() -> {
+			ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(id.getIdPartAsLong(), 1);
+			assertEquals(ResourceEncodingEnum.BJSON, history.getEncoding());
+			String json = BaseHapiFhirDao.decodeResource(history.getResource(), history.getEncoding(), history.getResourceType());
+			assertThat(json, containsString("\"display\":\"John Smith\""));
+		});
+
+		Observation read = myObservationDao.read(id);
+		assertEquals("John Smith", read.getSubject().getDisplay());
+		assertEquals("8480-6", read.getCode().getCodingFirstRep().getCode());
+		assertEquals(120.0, read.getValueQuantity().getValue().doubleValue(), 0.0);
+
+		// Existing rows can be converted to and from binary JSON
+		myDaoConfig.setResourceRecompressionEnabled(true);
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSOND);
+		assertEquals(1, myResourceRecompressionSvc.runRecompressionPass());
+		assertEquals("John Smith", myObservationDao.read(id).getSubject().getDisplay());
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.BJSON);
+		assertEquals(1, myResourceRecompressionSvc.runRecompressionPass());
+		assertEquals("John Smith", myObservationDao.read(id).getSubject().getDisplay());
+	}
+
+	@Test
+	public void testRecompressExistingResources() {
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSONC);
+		IIdType obsId = myObservationDao.create(createObservation()).getId().toUnqualifiedVersionless();
+		Patient patient = new Patient();
+		patient.setActive(true);
+		patient.addName().setFamily("FAMILY");
+		IIdType patientId = myPatientDao.create(patient).getId().toUnqualifiedVersionless();
+
+		// Nothing happens unless recompression has been enabled
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSOND);
+		assertEquals(0, myResourceRecompressionSvc.runRecompressionPass());
+
+		myDaoConfig.setResourceRecompressionEnabled(true);
+		assertEquals(2, myResourceRecompressionSvc.runRecompressionPass());
+		assertEquals(0, myResourceRecompressionSvc.runRecompressionPass());
+
+		runInTransaction(() -> {
+			for (ResourceHistoryTable next : myResourceHistoryTableDao.findAll()) {
+				assertEquals(ResourceEncodingEnum.JSOND, next.getEncoding());
+			}
+		});
+		assertEquals("FAMILY", myPatientDao.read(patientId).getNameFirstRep().getFamily());
+		assertEquals("John Smith", myObservationDao.read(obsId).getSubject().getDisplay());
+
+		// And back again
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSON);
+		assertEquals(2, myResourceRecompressionSvc.runRecompressionPass());
+		assertEquals("FAMILY", myPatientDao.read(patientId).getNameFirstRep().getFamily());
+	}
+
+	@Test
+	public void testRecompressSkipsBodiesWhichCanNotBeDecoded() {
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSONC);
+		IIdType badId = myObservationDao.create(createObservation()).getId().toUnqualifiedVersionless();
+		IIdType goodId = myObservationDao.create(createObservation()).getId().toUnqualifiedVersionless();
+		runInTransaction(() -> {
+			ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(badId.getIdPartAsLong(), 1);
+			history.setResource("not gzip".getBytes(StandardCharsets.UTF_8));
+			myResourceHistoryTableDao.save(history);
+		});
+
+		// The bad row is logged and left alone, and does not stop the good one being converted
+		myDaoConfig.setResourceRecompressionEnabled(true);
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSOND);
+		assertEquals(1, myResourceRecompressionSvc.runRecompressionPass());
+		assertEquals(0, myResourceRecompressionSvc.runRecompressionPass());
+
+		runInTransaction(() -> {
+			assertEquals(ResourceEncodingEnum.JSONC, myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(badId.getIdPartAsLong(), 1).getEncoding());
+			assertEquals(ResourceEncodingEnum.JSOND, myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(goodId.getIdPartAsLong(), 1).getEncoding());
+		});
+		assertEquals("John Smith", myObservationDao.read(goodId).getSubject().getDisplay());
+	}
+
+	private Observation createObservation() {
+		Observation obs = new Observation();
+		obs.setStatus(Observation.ObservationStatus.FINAL);
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("8480-6").setDisplay("Systolic blood pressure");
+		obs.setSubject(new Reference().setDisplay("John Smith"));
+		obs.setValue(new Quantity().setValue(120).setUnit("mmHg").setSystem("http://unitsofmeasure.org").setCode("mm[Hg]"));
+		return obs;
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
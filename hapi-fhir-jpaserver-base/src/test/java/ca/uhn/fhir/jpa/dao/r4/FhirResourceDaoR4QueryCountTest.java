@@ -4,15 +4,18 @@ import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.util.SqlQuery;
 import ca.uhn.fhir.jpa.util.TestUtil;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.*;
@@ -136,6 +139,96 @@ public class FhirResourceDaoR4QueryCountTest extends BaseJpaR4Test {
 		assertEquals(0, myCaptureQueriesListener.getDeleteQueriesForCurrentThread().size());
 	}
 
+	@Test
+	public void testSearchWithRevIncludeIterate() {
+		runInTransaction(() -> {
+			for (int i = 0; i < 4; i++) {
+				Organization org = new Organization();
+				org.setId("ORG" + i);
+				if (i > 0) {
+					org.setPartOf(new Reference("Organization/ORG" + (i - 1)));
+				}
+				myOrganizationDao.update(org);
+			}
+		});
+
+		myCaptureQueriesListener.clear();
+		List<String> ids = runInTransaction(() -> {
+			SearchParameterMap map = new SearchParameterMap();
+			map.setLoadSynchronous(true);
+			map.add(IAnyResource.SP_RES_ID, new TokenParam("ORG0"));
+			map.addRevInclude(Organization.INCLUDE_PARTOF.asRecursive());
+			IBundleProvider outcome = myOrganizationDao.search(map);
+			return toUnqualifiedVersionlessIdValues(outcome);
+		});
+		assertThat(ids, containsInAnyOrder("Organization/ORG0", "Organization/ORG1", "Organization/ORG2", "Organization/ORG3"));
+
+		// One link query per round (the last round finds nothing new), with all
+		// paths of the search parameter and only the linked PID selected
+		myCaptureQueriesListener.logSelectQueriesForCurrentThread();
+		List<String> linkQueries = new ArrayList<>();
+		for (SqlQuery next : myCaptureQueriesListener.getSelectQueriesForCurrentThread()) {
+			String sql = next.getSql(true, false);
+			if (sql.contains("HFJ_RES_LINK")) {
+				linkQueries.add(sql);
+			}
+		}
+		assertEquals(4, linkQueries.size());
+		assertThat(linkQueries.get(0), startsWith("select resourceli0_.SRC_RESOURCE_ID as col_0_0_ from HFJ_RES_LINK"));
+	}
+
+	@Test
+	public void testTransactionWithConditionalCreates() {
+		IIdType existingId = runInTransaction(() -> {
+			Patient p = new Patient();
+			p.addIdentifier().setSystem("urn:system").setValue("0");
+			return myPatientDao.create(p).getId().toUnqualifiedVersionless();
+		});
+
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		for (int i = 0; i < 10; i++) {
+			Patient p = new Patient();
+			p.addIdentifier().setSystem("urn:system").setValue(Integer.toString(i));
+			input.addEntry()
+				.setFullUrl(IdType.newRandomUuid().getValue())
+				.setResource(p)
+				.getRequest()
+				.setMethod(Bundle.HTTPVerb.POST)
+				.setUrl("Patient")
+				.setIfNoneExist("Patient?identifier=urn:system|" + i);
+		}
+
+		myCaptureQueriesListener.clear();
+		Bundle output = mySystemDao.transaction(mySrd, input);
+		assertEquals("200 OK", output.getEntry().get(0).getResponse().getStatus());
+		assertEquals(existingId.getValue(), new IdType(output.getEntry().get(0).getResponse().getLocation()).toUnqualifiedVersionless().getValue());
+		for (int i = 1; i < 10; i++) {
+			assertEquals("201 Created", output.getEntry().get(i).getResponse().getStatus());
+		}
+
+		// One lookup to resolve all of the URLs, and one to check for duplicates after the writes
+		assertEquals(2, countSelectQueriesContaining("HFJ_SPIDX_TOKEN"));
+
+		myCaptureQueriesListener.clear();
+		output = mySystemDao.transaction(mySrd, input);
+		for (int i = 0; i < 10; i++) {
+			assertEquals("200 OK", output.getEntry().get(i).getResponse().getStatus());
+		}
+		assertEquals(1, countSelectQueriesContaining("HFJ_SPIDX_TOKEN"));
+	}
+
+	private int countSelectQueriesContaining(String theText) {
+		myCaptureQueriesListener.logSelectQueriesForCurrentThread();
+		int retVal = 0;
+		for (SqlQuery next : myCaptureQueriesListener.getSelectQueriesForCurrentThread()) {
+			if (next.getSql(true, false).contains(theText)) {
+				retVal++;
+			}
+		}
+		return retVal;
+	}
+
 	@AfterClass
 	public static void afterClassClearContext() {
 		TestUtil.clearAllStaticFieldsForUnitTest();
@@ -9,10 +9,13 @@ import ca.uhn.fhir.jpa.model.search.SearchStatusEnum;
 import ca.uhn.fhir.jpa.search.PersistedJpaBundleProvider;
 import ca.uhn.fhir.jpa.search.SearchCoordinatorSvcImpl;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.api.SortOrderEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.ReferenceOrListParam;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.StringParam;
@@ -21,6 +24,7 @@ import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.util.TestUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.*;
 import org.junit.After;
@@ -34,6 +38,7 @@ import org.springframework.test.context.TestPropertySource;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -71,6 +76,10 @@ public class FhirResourceDaoR4SearchOptimizedTest extends BaseJpaR4Test {
 		mySearchCoordinatorSvcImpl.setLoadingThrottleForUnitTests(null);
 		mySearchCoordinatorSvcImpl.setSyncSizeForUnitTests(SearchCoordinatorSvcImpl.DEFAULT_SYNC_SIZE);
 		myDaoConfig.setSearchPreFetchThresholds(new DaoConfig().getSearchPreFetchThresholds());
+		myDaoConfig.setParallelPidSetQueriesEnabled(new DaoConfig().isParallelPidSetQueriesEnabled());
+		myDaoConfig.setParallelPidSetQueryMinimumClauses(new DaoConfig().getParallelPidSetQueryMinimumClauses());
+		myDaoConfig.setParallelPidSetQueryMaximumPids(new DaoConfig().getParallelPidSetQueryMaximumPids());
+		myDaoConfig.setKeysetPagingEnabled(new DaoConfig().isKeysetPagingEnabled());
 		myCaptureQueriesListener.setCaptureQueryStackTrace(false);
 	}
 
@@ -1117,13 +1126,12 @@ public class FhirResourceDaoR4SearchOptimizedTest extends BaseJpaR4Test {
 			.map(t -> t.getSql(true, false))
 			.collect(Collectors.toList());
 
-		// Forced ID resolution
-		String resultingQueryNotFormatted = queries.get(0);
-		assertThat(resultingQueryNotFormatted, containsString("RESOURCE_TYPE='Organization'"));
-		assertThat(resultingQueryNotFormatted, containsString("FORCED_ID in ('ORG0' , 'ORG1' , 'ORG2' , 'ORG3' , 'ORG4')"));
+		// The forced IDs were cached when the references to them were resolved while
+		// creating the Patients, so the search doesn't need to resolve them again
+		assertThat(queries.stream().filter(t -> t.contains("FORCED_ID in (")).collect(Collectors.toList()), empty());
 
 		// The search itself
-		resultingQueryNotFormatted = queries.get(1);
+		String resultingQueryNotFormatted = queries.get(0);
 		assertEquals(resultingQueryNotFormatted, 1, StringUtils.countMatches(resultingQueryNotFormatted, "Patient.managingOrganization"));
 		assertThat(resultingQueryNotFormatted, matchesPattern(".*TARGET_RESOURCE_ID in \\('[0-9]+' , '[0-9]+' , '[0-9]+' , '[0-9]+' , '[0-9]+'\\).*"));
 
@@ -1132,6 +1140,178 @@ public class FhirResourceDaoR4SearchOptimizedTest extends BaseJpaR4Test {
 
 	}
 
+	@Test
+	public void testSearchUsingParallelPidSetQueries() {
+		List<String> expected = createObservationsForParallelPidSetQueries();
+
+		myDaoConfig.setParallelPidSetQueriesEnabled(true);
+		myDaoConfig.setParallelPidSetQueryMinimumClauses(2);
+
+		assertThat(searchObservationsForParallelPidSetQueries(), contains(expected.toArray()));
+	}
+
+	@Test
+	public void testSearchUsingParallelPidSetQueries_ClausesTooLargeFallBackToMainQuery() {
+		List<String> expected = createObservationsForParallelPidSetQueries();
+
+		myDaoConfig.setParallelPidSetQueriesEnabled(true);
+		myDaoConfig.setParallelPidSetQueryMinimumClauses(2);
+		myDaoConfig.setParallelPidSetQueryMaximumPids(5);
+
+		assertThat(searchObservationsForParallelPidSetQueries(), contains(expected.toArray()));
+	}
+
+	@Test
+	public void testSearchUsingParallelPidSetQueries_ManyConcurrentSearches() throws Throwable {
+		List<String> expected = createObservationsForParallelPidSetQueries();
+
+		myDaoConfig.setParallelPidSetQueriesEnabled(true);
+		myDaoConfig.setParallelPidSetQueryMinimumClauses(2);
+
+		// More searches than PID set query threads, so some of them run their own queries
+		int searchCount = myDaoConfig.getParallelPidSetQueryThreadCount() * 3;
+		ThreadPoolExecutorFactoryBean executorFactory = new ThreadPoolExecutorFactoryBean();
+		executorFactory.setCorePoolSize(searchCount);
+		executorFactory.setMaxPoolSize(searchCount);
+		executorFactory.afterPropertiesSet();
+		ExecutorService executor = executorFactory.getObject();
+
+		List<Future<Throwable>> futures = new ArrayList<>();
+		for (int i = 0; i < searchCount; i++) {
+			futures.add(executor.submit(() -> {
+				try {
+					assertThat(searchObservationsForParallelPidSetQueries(), contains(expected.toArray()));
+				} catch (Throwable t) {
+					return t;
+				}
+				return null;
+			}));
+		}
+
+		for (Future<Throwable> next : futures) {
+			Throwable t = next.get();
+			if (t != null) {
+				throw t;
+			}
+		}
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSearchUsingParallelPidSetQueries_NoMatches() {
+		createObservationsForParallelPidSetQueries();
+
+		myDaoConfig.setParallelPidSetQueriesEnabled(true);
+		myDaoConfig.setParallelPidSetQueryMinimumClauses(2);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add(Observation.SP_CODE, new TokenParam("http://foo", "code0"));
+		params.add(Observation.SP_STATUS, new TokenParam("cancelled"));
+		IBundleProvider results = myObservationDao.search(params);
+		assertEquals(0, results.size().intValue());
+	}
+
+	@Test
+	public void testSearchUsingKeysetPaging() {
+		create200Patients();
+		myDaoConfig.setKeysetPagingEnabled(true);
+
+		List<IBaseResource> resources = fetchAllPagesUsingKeysetPaging(SortOrderEnum.ASC);
+
+		assertEquals(200, resources.size());
+		assertEquals(200, resources.stream().map(t -> t.getIdElement().toUnqualifiedVersionless().getValue()).distinct().count());
+		for (int i = 1; i < resources.size(); i++) {
+			Date previous = resources.get(i - 1).getMeta().getLastUpdated();
+			Date current = resources.get(i).getMeta().getLastUpdated();
+			assertFalse(current.before(previous));
+		}
+
+		// Nothing was stored in the search result cache
+		runInTransaction(() -> assertEquals(0, mySearchResultDao.count()));
+	}
+
+	@Test
+	public void testSearchUsingKeysetPaging_Descending() {
+		create200Patients();
+		myDaoConfig.setKeysetPagingEnabled(true);
+
+		List<IBaseResource> resources = fetchAllPagesUsingKeysetPaging(SortOrderEnum.DESC);
+
+		assertEquals(200, resources.size());
+		assertEquals(200, resources.stream().map(t -> t.getIdElement().toUnqualifiedVersionless().getValue()).distinct().count());
+		for (int i = 1; i < resources.size(); i++) {
+			Date previous = resources.get(i - 1).getMeta().getLastUpdated();
+			Date current = resources.get(i).getMeta().getLastUpdated();
+			assertFalse(current.after(previous));
+		}
+	}
+
+	@Test
+	public void testSearchUsingKeysetPaging_NotUsedForOtherSorts() {
+		create200Patients();
+		myDaoConfig.setKeysetPagingEnabled(true);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.setSort(new SortSpec(Patient.SP_NAME));
+		params.setCount(30);
+		IBundleProvider results = myPatientDao.search(params);
+		assertNull(results.getCurrentPageId());
+		assertEquals(30, results.getResources(0, 30).size());
+	}
+
+	private List<IBaseResource> fetchAllPagesUsingKeysetPaging(SortOrderEnum theOrder) {
+		SearchParameterMap params = new SearchParameterMap();
+		params.add(Patient.SP_ACTIVE, new TokenParam("true"));
+		params.setSort(new SortSpec(Constants.PARAM_LASTUPDATED, theOrder));
+		params.setCount(30);
+		IBundleProvider results = myPatientDao.search(params);
+		assertEquals("first", results.getCurrentPageId());
+		assertNull(results.size());
+
+		String uuid = results.getUuid();
+		List<IBaseResource> retVal = new ArrayList<>(results.getResources(0, 30));
+		int pages = 1;
+		while (results.getNextPageId() != null) {
+			assertThat(results.getResources(0, 30), hasSize(30));
+			results = myDatabaseBackedPagingProvider.retrieveResultList(null, uuid, results.getNextPageId());
+			retVal.addAll(results.getResources(0, 30));
+			pages++;
+		}
+		assertEquals(7, pages);
+		return retVal;
+	}
+
+	/**
+	 * Creates 30 observations and returns the IDs of the ones matching
+	 * {@link #searchObservationsForParallelPidSetQueries()}, sorted by date
+	 */
+	private List<String> createObservationsForParallelPidSetQueries() {
+		List<String> retVal = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			Observation obs = new Observation();
+			obs.setId("OBS" + leftPad(Integer.toString(i), 3, '0'));
+			obs.getCode().addCoding().setSystem("http://foo").setCode("code" + (i % 2));
+			obs.setStatus(i % 3 == 0 ? Observation.ObservationStatus.FINAL : Observation.ObservationStatus.PRELIMINARY);
+			obs.setEffective(new DateTimeType("2019-01-" + leftPad(Integer.toString(i + 1), 2, '0')));
+			myObservationDao.update(obs);
+
+			if (i % 2 == 0 && i % 3 == 0 && i >= 5) {
+				retVal.add("Observation/" + obs.getIdElement().getIdPart());
+			}
+		}
+		return retVal;
+	}
+
+	private List<String> searchObservationsForParallelPidSetQueries() {
+		SearchParameterMap params = new SearchParameterMap();
+		params.add(Observation.SP_CODE, new TokenParam("http://foo", "code0"));
+		params.add(Observation.SP_STATUS, new TokenParam("final"));
+		params.add(Observation.SP_DATE, new DateParam("ge2019-01-06"));
+		params.setSort(new SortSpec(Observation.SP_DATE));
+		IBundleProvider results = myObservationDao.search(params);
+		return toUnqualifiedVersionlessIdValues(results);
+	}
+
 	@AfterClass
 	public static void afterClassClearContext() {
 		TestUtil.clearAllStaticFieldsForUnitTest();
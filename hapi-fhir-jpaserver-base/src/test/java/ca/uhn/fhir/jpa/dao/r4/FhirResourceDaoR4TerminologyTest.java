@@ -7,7 +7,10 @@ import ca.uhn.fhir.jpa.entity.TermConcept;
 import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink.RelationshipTypeEnum;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.term.BaseTermReadSvcImpl;
 import ca.uhn.fhir.jpa.term.TermReindexingSvcImpl;
+import ca.uhn.fhir.jpa.term.VersionIndependentConcept;
+import ca.uhn.fhir.jpa.term.ex.ExpansionTooCostlyException;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.param.TokenParamModifier;
@@ -24,12 +27,11 @@ import org.hl7.fhir.r4.model.AllergyIntolerance.AllergyIntoleranceCategory;
 import org.hl7.fhir.r4.model.CodeSystem.CodeSystemContentMode;
 import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
 import org.hl7.fhir.r4.model.ValueSet.*;
+import org.hl7.fhir.r4.model.codesystems.ConceptSubsumptionOutcome;
 import org.junit.*;
+import org.springframework.test.util.AopTestUtils;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static org.hamcrest.Matchers.*;
@@ -46,8 +48,12 @@ public class FhirResourceDaoR4TerminologyTest extends BaseJpaR4Test {
 	@After
 	public void after() {
 		myDaoConfig.setDeferIndexingForCodesystemsOfSize(new DaoConfig().getDeferIndexingForCodesystemsOfSize());
+		myDaoConfig.setDeferredTerminologyStorageThreadCount(new DaoConfig().getDeferredTerminologyStorageThreadCount());
 
 		TermReindexingSvcImpl.setForceSaveDeferredAlwaysForUnitTest(false);
+
+		BaseTermReadSvcImpl termReadSvc = AopTestUtils.getTargetObject(myTermSvc);
+		termReadSvc.setFulltextSearchSvcForUnitTest(mySearchDao);
 	}
 
 	@Before
@@ -788,6 +794,125 @@ public class FhirResourceDaoR4TerminologyTest extends BaseJpaR4Test {
 		assertThat(encoded, containsStringIgnoringCase("<code value=\"childAAB\"/>"));
 	}
 
+	/**
+	 * The chain is queued child-first and spread over several chunks which are stored in
+	 * parallel, so most concepts are put off many times before their parent is stored
+	 */
+	@Test
+	public void testIndexingIsDeferredForDeepHierarchy() {
+		myDaoConfig.setDeferIndexingForCodesystemsOfSize(5);
+		myDaoConfig.setDeferredTerminologyStorageThreadCount(4);
+		myTerminologyDeferredStorageSvc.setProcessDeferred(false);
+
+		CodeSystem codeSystem = new CodeSystem();
+		codeSystem.setUrl(URL_MY_CODE_SYSTEM);
+		codeSystem.setContent(CodeSystemContentMode.NOTPRESENT);
+		IIdType id = myCodeSystemDao.create(codeSystem, mySrd).getId().toUnqualified();
+		ResourceTable table = myResourceTableDao.findById(id.getIdPartAsLong()).orElseThrow(IllegalStateException::new);
+		TermCodeSystemVersion cs = new TermCodeSystemVersion();
+		cs.setResource(table);
+		cs.getConcepts().add(new TermConcept(cs, "LEVEL0"));
+		myTermCodeSystemStorageSvc.storeNewCodeSystemVersion(table.getId(), URL_MY_CODE_SYSTEM, "SYSTEM NAME", "SYSTEM VERSION", cs, table);
+
+		TermCodeSystemVersion csv = runInTransaction(() -> myTermCodeSystemVersionDao.findByCodeSystemResourcePid(table.getId()).get(0));
+		// Only the parent codes are queued, so the root does not need to be the stored entity
+		TermConcept parent = new TermConcept(csv, "LEVEL0");
+		List<TermConcept> chain = new ArrayList<>();
+		for (int i = 1; i <= 60; i++) {
+			TermConcept child = new TermConcept(csv, "LEVEL" + i);
+			parent.addChild(child, RelationshipTypeEnum.ISA);
+			chain.add(child);
+			parent = child;
+		}
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			myTerminologyDeferredStorageSvc.addConceptToStorageQueue(chain.get(i));
+		}
+
+		myTerminologyDeferredStorageSvc.setProcessDeferred(true);
+		for (int i = 0; i < 100 && !myTerminologyDeferredStorageSvc.isStorageQueueEmpty(); i++) {
+			myTerminologyDeferredStorageSvc.saveDeferred();
+		}
+		assertTrue(myTerminologyDeferredStorageSvc.isStorageQueueEmpty());
+
+		runInTransaction(() -> {
+			Set<String> ancestorPids = new HashSet<>();
+			ancestorPids.add(myTermConceptDao.findByCodeSystemAndCode(csv, "LEVEL0").orElseThrow(IllegalStateException::new).getId().toString());
+			for (int i = 1; i <= 60; i++) {
+				TermConcept concept = myTermConceptDao.findByCodeSystemAndCode(csv, "LEVEL" + i).orElseThrow(IllegalStateException::new);
+				Set<String> parentPids = new HashSet<>(Arrays.asList(concept.getParentPidsAsString().split(" ")));
+				assertEquals("LEVEL" + i, ancestorPids, parentPids);
+				ancestorPids.add(concept.getId().toString());
+			}
+		});
+	}
+
+	@Test
+	public void testExpandWithIsAFilterWithoutHibernateSearch() {
+		createExternalCsAndLocalVs();
+		BaseTermReadSvcImpl termReadSvc = AopTestUtils.getTargetObject(myTermSvc);
+		termReadSvc.setFulltextSearchSvcForUnitTest(null);
+
+		ValueSet vs = new ValueSet();
+		ConceptSetComponent include = vs.getCompose().addInclude();
+		include.setSystem(URL_MY_CODE_SYSTEM);
+		include.addFilter().setProperty("concept").setOp(FilterOperator.ISA).setValue("ParentA");
+
+		ValueSet result = myValueSetDao.expand(vs, null);
+		logAndValidateValueSet(result);
+		assertThat(toCodesContains(result.getExpansion().getContains()), containsInAnyOrder("childAA", "childAAA", "childAAB", "childAB"));
+
+		// Two filters must both match
+		include.addFilter().setProperty("concept").setOp(FilterOperator.ISA).setValue("ParentB");
+		result = myValueSetDao.expand(vs, null);
+		assertThat(toCodesContains(result.getExpansion().getContains()), containsInAnyOrder("childAAB"));
+
+		// Too many matches fails rather than returning a partial expansion
+		myDaoConfig.setMaximumExpansionSize(3);
+		vs = new ValueSet();
+		include = vs.getCompose().addInclude();
+		include.setSystem(URL_MY_CODE_SYSTEM);
+		include.addFilter().setProperty("concept").setOp(FilterOperator.ISA).setValue("ParentA");
+		try {
+			myValueSetDao.expand(vs, null);
+			fail();
+		} catch (ExpansionTooCostlyException e) {
+			assertThat(e.getMessage(), containsString("3"));
+		}
+	}
+
+	@Test
+	public void testSubsumes() {
+		createExternalCs();
+
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMES, myCodeSystemDao.subsumes(new CodeType("childAAB"), new CodeType("ParentA"), new UriType(URL_MY_CODE_SYSTEM), null, null, mySrd).getOutcome());
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMEDBY, myCodeSystemDao.subsumes(new CodeType("ParentB"), new CodeType("childAAB"), new UriType(URL_MY_CODE_SYSTEM), null, null, mySrd).getOutcome());
+		assertEquals(ConceptSubsumptionOutcome.NOTSUBSUMED, myCodeSystemDao.subsumes(new CodeType("childAB"), new CodeType("ParentB"), new UriType(URL_MY_CODE_SYSTEM), null, null, mySrd).getOutcome());
+	}
+
+	/**
+	 * Concepts stored before the closure table existed have no closure rows until the
+	 * terminology reindexer gets to them, so lookups have to walk the links until then
+	 */
+	@Test
+	public void testHierarchyLookupsWhileClosureIsIncomplete() {
+		createExternalCs();
+		runInTransaction(() -> {
+			myTermConceptClosureDao.deleteAllInBatch();
+			myEntityManager.createQuery("UPDATE TermConcept c SET c.myIndexStatus = null").executeUpdate();
+		});
+
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMES, myCodeSystemDao.subsumes(new CodeType("childAAB"), new CodeType("ParentA"), new UriType(URL_MY_CODE_SYSTEM), null, null, mySrd).getOutcome());
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMEDBY, myCodeSystemDao.subsumes(new CodeType("ParentB"), new CodeType("childAAB"), new UriType(URL_MY_CODE_SYSTEM), null, null, mySrd).getOutcome());
+		assertEquals(ConceptSubsumptionOutcome.NOTSUBSUMED, myCodeSystemDao.subsumes(new CodeType("childAB"), new CodeType("ParentB"), new UriType(URL_MY_CODE_SYSTEM), null, null, mySrd).getOutcome());
+
+		runInTransaction(() -> {
+			List<String> below = myTermSvc.findCodesBelow(URL_MY_CODE_SYSTEM, "childAA").stream().map(VersionIndependentConcept::getCode).collect(Collectors.toList());
+			assertThat(below, containsInAnyOrder("childAA", "childAAA", "childAAB"));
+			List<String> above = myTermSvc.findCodesAbove(URL_MY_CODE_SYSTEM, "childAAB").stream().map(VersionIndependentConcept::getCode).collect(Collectors.toList());
+			assertThat(above, containsInAnyOrder("childAAB", "childAA", "childBA", "ParentA", "ParentB"));
+		});
+	}
+
 	@Test
 	public void testLookupSnomed() {
 		CodeSystem codeSystem = new CodeSystem();
@@ -48,6 +48,7 @@ public class FhirSystemDaoR4Test extends BaseJpaR4SystemTest {
 	public void after() {
 		myDaoConfig.setAllowInlineMatchUrlReferences(false);
 		myDaoConfig.setAllowMultipleDelete(new DaoConfig().isAllowMultipleDelete());
+		myDaoConfig.setReindexBatchSize(new DaoConfig().getReindexBatchSize());
 	}
 
 	@Before
@@ -583,6 +584,59 @@ public class FhirSystemDaoR4Test extends BaseJpaR4SystemTest {
 	}
 
 
+	@Test
+	public void testReindexingInBatches() {
+		myDaoConfig.setReindexBatchSize(3);
+
+		List<IIdType> ids = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			Patient p = new Patient();
+			p.addName().setFamily("family" + i);
+			p.getMeta().addTag("http://foo", "bar", null);
+			ids.add(myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless());
+		}
+		Patient p = new Patient();
+		p.setId(ids.get(1));
+		p.addName().setFamily("family1");
+		p.addName().setFamily("familyUpdated");
+		myPatientDao.update(p, mySrd);
+		myPatientDao.delete(ids.get(2), mySrd);
+
+		runInTransaction(() -> {
+			myEntityManager
+				.createQuery("UPDATE ResourceIndexedSearchParamString s SET s.myHashNormalizedPrefix = null")
+				.executeUpdate();
+
+			// Make one resource unparseable, so that its chunk fails
+			ResourceHistoryTable resourceHistoryTable = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(ids.get(5).getIdPartAsLong(), 1L);
+			resourceHistoryTable.setEncoding(ResourceEncodingEnum.JSON);
+			resourceHistoryTable.setResource("{\"resourceType\":\"FOO\"}".getBytes(StandardCharsets.UTF_8));
+			myResourceHistoryTableDao.save(resourceHistoryTable);
+		});
+
+		SearchParameterMap searchParamMap = new SearchParameterMap();
+		searchParamMap.setLoadSynchronous(true);
+		searchParamMap.add(Patient.SP_FAMILY, new StringParam("family"));
+		assertEquals(0, myPatientDao.search(searchParamMap).size().intValue());
+
+		Long jobId = myResourceReindexingSvc.markAllResourcesForReindexing();
+		myResourceReindexingSvc.forceReindexingPass();
+
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(searchParamMap)), containsInAnyOrder(
+			ids.get(0).getValue(), ids.get(1).getValue(), ids.get(3).getValue(), ids.get(4).getValue(), ids.get(6).getValue()));
+
+		searchParamMap = new SearchParameterMap();
+		searchParamMap.setLoadSynchronous(true);
+		searchParamMap.add(Patient.SP_FAMILY, new StringParam("familyUpdated"));
+		assertEquals(1, myPatientDao.search(searchParamMap).size().intValue());
+
+		runInTransaction(() -> {
+			assertEquals(Long.valueOf(BaseHapiFhirDao.INDEX_STATUS_INDEXING_FAILED), myResourceTableDao.findById(ids.get(5).getIdPartAsLong()).orElseThrow(IllegalStateException::new).getIndexStatus());
+			assertEquals(Long.valueOf(BaseHapiFhirDao.INDEX_STATUS_INDEXED), myResourceTableDao.findById(ids.get(6).getIdPartAsLong()).orElseThrow(IllegalStateException::new).getIndexStatus());
+			assertEquals(6, myResourceReindexJobDao.getReindexCount(jobId).orElseThrow(IllegalStateException::new).intValue());
+		});
+	}
+
 	@Test
 	public void testReindexingSingleStringHashValueIsDeleted() {
 		Patient p = new Patient();
@@ -0,0 +1,265 @@
+package ca.uhn.fhir.jpa.provider.r4;
+
+import ca.uhn.fhir.interceptor.api.IAnonymousInterceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.async.AsyncRequestProvider;
+import ca.uhn.fhir.jpa.async.AsyncRequestStatusEnum;
+import ca.uhn.fhir.jpa.async.IAsyncRequestSvc;
+import ca.uhn.fhir.jpa.dao.data.IAsyncRequestJobDao;
+import ca.uhn.fhir.jpa.entity.AsyncRequestJobEntity;
+import ca.uhn.fhir.jpa.model.util.JpaConstants;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.server.servlet.DetachedServletRequestDetails;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import ca.uhn.fhir.util.TestUtil;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.*;
+
+public class AsyncRequestR4Test extends BaseResourceProviderR4Test {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(AsyncRequestR4Test.class);
+	@Autowired
+	private IAsyncRequestSvc myAsyncRequestSvc;
+	@Autowired
+	private AsyncRequestProvider myAsyncRequestProvider;
+	@Autowired
+	private IAsyncRequestJobDao myAsyncRequestJobDao;
+
+	@Override
+	@Before
+	public void before() throws Exception {
+		super.before();
+		ourRestServer.setAsyncRequestHandler(myAsyncRequestSvc);
+		ourRestServer.registerProvider(myAsyncRequestProvider);
+	}
+
+	@Override
+	@After
+	public void after() throws Exception {
+		super.after();
+		ourRestServer.setAsyncRequestHandler(null);
+		ourRestServer.unregisterProvider(myAsyncRequestProvider);
+	}
+
+	@Test
+	public void testSearchWithRespondAsync() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			Patient p = new Patient();
+			p.addName().setFamily("FAM" + i);
+			myPatientDao.create(p);
+		}
+
+		HttpGet get = new HttpGet(ourServerBase + "/Patient?_count=5&_format=json");
+		get.addHeader(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC);
+		String pollLocation;
+		try (CloseableHttpResponse response = ourHttpClient.execute(get)) {
+			assertEquals(202, response.getStatusLine().getStatusCode());
+			pollLocation = response.getFirstHeader(Constants.HEADER_CONTENT_LOCATION).getValue();
+			ourLog.info("Poll location: {}", pollLocation);
+			assertThat(pollLocation, startsWith(ourServerBase + "/" + JpaConstants.OPERATION_ASYNC_POLL_STATUS + "?"));
+		}
+
+		String responseBody = pollUntilDone(pollLocation, 200);
+		Bundle bundle = myFhirCtx.newJsonParser().parseResource(Bundle.class, responseBody);
+		assertEquals(5, bundle.getEntry().size());
+		assertNotNull(bundle.getLink(Constants.LINK_NEXT));
+
+		// The paging link points to the regular (synchronous) paging mechanism
+		Bundle nextPage = ourClient.loadPage().next(bundle).execute();
+		assertEquals(5, nextPage.getEntry().size());
+	}
+
+	@Test
+	public void testPollWithDifferentCredentials() throws IOException {
+		HttpGet get = new HttpGet(ourServerBase + "/Patient?_format=json");
+		get.addHeader(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC);
+		get.addHeader(Constants.HEADER_AUTHORIZATION, "Bearer OWNER");
+		String pollLocation;
+		try (CloseableHttpResponse response = ourHttpClient.execute(get)) {
+			assertEquals(202, response.getStatusLine().getStatusCode());
+			pollLocation = response.getFirstHeader(Constants.HEADER_CONTENT_LOCATION).getValue();
+		}
+
+		// Only the client which submitted the job may see it
+		HttpGet otherPoll = new HttpGet(pollLocation);
+		otherPoll.addHeader(Constants.HEADER_AUTHORIZATION, "Bearer SOMEONE_ELSE");
+		try (CloseableHttpResponse response = ourHttpClient.execute(otherPoll)) {
+			assertEquals(404, response.getStatusLine().getStatusCode());
+		}
+		try (CloseableHttpResponse response = ourHttpClient.execute(new HttpGet(pollLocation))) {
+			assertEquals(404, response.getStatusLine().getStatusCode());
+		}
+
+		String responseBody = pollUntilDone(pollLocation, 200, new AtomicReference<>(), "Bearer OWNER");
+		Bundle bundle = myFhirCtx.newJsonParser().parseResource(Bundle.class, responseBody);
+		assertEquals(Bundle.BundleType.SEARCHSET, bundle.getType());
+	}
+
+	@Test
+	public void testSearchWithRespondAsyncFailure() throws IOException {
+		HttpGet get = new HttpGet(ourServerBase + "/Patient?_format=json&foo=bar");
+		get.addHeader(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC);
+		String pollLocation;
+		try (CloseableHttpResponse response = ourHttpClient.execute(get)) {
+			assertEquals(202, response.getStatusLine().getStatusCode());
+			pollLocation = response.getFirstHeader(Constants.HEADER_CONTENT_LOCATION).getValue();
+		}
+
+		String responseBody = pollUntilDone(pollLocation, 400);
+		OperationOutcome oo = myFhirCtx.newJsonParser().parseResource(OperationOutcome.class, responseBody);
+		assertThat(oo.getIssueFirstRep().getDiagnostics(), containsString("foo"));
+	}
+
+	@Test
+	public void testSearchWithRespondAsyncUsesRequestedEncoding() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			Patient p = new Patient();
+			p.addName().setFamily("FAM" + i);
+			myPatientDao.create(p);
+		}
+
+		List<ServletRequestDetails> completedRequests = new CopyOnWriteArrayList<>();
+		IAnonymousInterceptor interceptor = (thePointcut, theArgs) -> completedRequests.add(theArgs.get(ServletRequestDetails.class));
+		ourRestServer.getInterceptorService().registerAnonymousInterceptor(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY, interceptor);
+		try {
+			HttpGet get = new HttpGet(ourServerBase + "/Patient?_format=xml&_pretty=true&_summary=count");
+			get.addHeader(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC);
+			String pollLocation;
+			try (CloseableHttpResponse response = ourHttpClient.execute(get)) {
+				assertEquals(202, response.getStatusLine().getStatusCode());
+				pollLocation = response.getFirstHeader(Constants.HEADER_CONTENT_LOCATION).getValue();
+			}
+
+			AtomicReference<String> contentType = new AtomicReference<>();
+			String responseBody = pollUntilDone(pollLocation, 200, contentType);
+			assertThat(contentType.get(), startsWith(Constants.CT_FHIR_XML_NEW));
+			assertThat(responseBody, containsString("<Bundle xmlns=\"http://hl7.org/fhir\">\n"));
+			Bundle bundle = myFhirCtx.newXmlParser().parseResource(Bundle.class, responseBody);
+			assertEquals(3, bundle.getTotal());
+			assertEquals(0, bundle.getEntry().size());
+
+			// The hooks fire for the background request too, which still has a servlet request
+			List<ServletRequestDetails> detachedRequests = completedRequests
+				.stream()
+				.filter(t -> t instanceof DetachedServletRequestDetails)
+				.collect(Collectors.toList());
+			assertEquals(1, detachedRequests.size());
+			assertNotNull(detachedRequests.get(0).getServletRequest());
+			assertEquals("/Patient", detachedRequests.get(0).getServletRequest().getPathInfo());
+		} finally {
+			ourRestServer.getInterceptorService().unregisterInterceptor(interceptor);
+		}
+	}
+
+	@Test
+	public void testAbandonedJobIsFailed() throws IOException {
+		AsyncRequestJobEntity job = new AsyncRequestJobEntity();
+		job.setJobId(UUID.randomUUID().toString());
+		job.setStatus(AsyncRequestStatusEnum.RUNNING);
+		job.setCreated(new Date());
+		job.setStatusTime(DateUtils.addHours(new Date(), -1));
+		job.setRequest(ourServerBase + "/Patient");
+		runInTransaction(() -> {
+			myAsyncRequestJobDao.save(job);
+		});
+
+		// Jobs without an outcome are never purged
+		myAsyncRequestSvc.purgeExpiredJobs();
+		myAsyncRequestSvc.failAbandonedJobs();
+		runInTransaction(() -> {
+			AsyncRequestJobEntity failed = myAsyncRequestJobDao.findByJobId(job.getJobId()).orElseThrow(IllegalStateException::new);
+			assertEquals(AsyncRequestStatusEnum.ERROR, failed.getStatus());
+			assertNotNull(failed.getExpiry());
+		});
+
+		String pollLocation = ourServerBase + "/" + JpaConstants.OPERATION_ASYNC_POLL_STATUS + "?" + JpaConstants.PARAM_ASYNC_POLL_STATUS_JOB_ID + "=" + job.getJobId();
+		String responseBody = pollUntilDone(pollLocation, 500);
+		OperationOutcome oo = myFhirCtx.newJsonParser().parseResource(OperationOutcome.class, responseBody);
+		assertThat(oo.getIssueFirstRep().getDiagnostics(), containsString("interrupted"));
+	}
+
+	@Test
+	public void testCreateIsNotProcessedAsync() throws IOException {
+		Patient p = new Patient();
+		p.setActive(true);
+
+		HttpPost post = new HttpPost(ourServerBase + "/Patient");
+		post.addHeader(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC);
+		post.setEntity(new StringEntity(myFhirCtx.newJsonParser().encodeResourceToString(p), ContentType.parse(Constants.CT_FHIR_JSON_NEW + Constants.CHARSET_UTF8_CTSUFFIX)));
+		try (CloseableHttpResponse response = ourHttpClient.execute(post)) {
+			assertEquals(201, response.getStatusLine().getStatusCode());
+		}
+	}
+
+	@Test
+	public void testPollUnknownJob() throws IOException {
+		HttpGet get = new HttpGet(ourServerBase + "/" + JpaConstants.OPERATION_ASYNC_POLL_STATUS + "?" + JpaConstants.PARAM_ASYNC_POLL_STATUS_JOB_ID + "=FOO");
+		try (CloseableHttpResponse response = ourHttpClient.execute(get)) {
+			assertEquals(404, response.getStatusLine().getStatusCode());
+		}
+	}
+
+	private String pollUntilDone(String thePollLocation, int theExpectedStatus) {
+		return pollUntilDone(thePollLocation, theExpectedStatus, new AtomicReference<>());
+	}
+
+	private String pollUntilDone(String thePollLocation, int theExpectedStatus, AtomicReference<String> theContentType) {
+		return pollUntilDone(thePollLocation, theExpectedStatus, theContentType, null);
+	}
+
+	private String pollUntilDone(String thePollLocation, int theExpectedStatus, AtomicReference<String> theContentType, String theAuthorization) {
+		AtomicReference<String> responseBody = new AtomicReference<>();
+		await().until(() -> {
+			HttpGet get = new HttpGet(thePollLocation);
+			if (theAuthorization != null) {
+				get.addHeader(Constants.HEADER_AUTHORIZATION, theAuthorization);
+			}
+			try (CloseableHttpResponse response = ourHttpClient.execute(get)) {
+				int status = response.getStatusLine().getStatusCode();
+				if (status == 202) {
+					assertNotNull(response.getFirstHeader(Constants.HEADER_X_PROGRESS));
+					return false;
+				}
+				assertEquals(theExpectedStatus, status);
+				theContentType.set(response.getEntity().getContentType().getValue());
+				responseBody.set(IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8));
+				return true;
+			}
+		});
+		ourLog.info("Async response: {}", responseBody.get());
+		return responseBody.get();
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -2,6 +2,8 @@ package ca.uhn.fhir.jpa.provider.r4;
 
 import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.data.ISearchDao;
+import ca.uhn.fhir.jpa.search.SearchCoordinatorSvcImpl;
+import ca.uhn.fhir.jpa.util.ExpungeOptions;
 import ca.uhn.fhir.jpa.util.TestUtil;
 import ca.uhn.fhir.parser.StrictErrorHandler;
 import ca.uhn.fhir.rest.api.CacheControlDirective;
@@ -14,6 +16,7 @@ import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.AopTestUtils;
 
 import java.util.Date;
 
@@ -33,6 +36,9 @@ public class ResourceProviderR4CacheTest extends BaseResourceProviderR4Test {
 		super.after();
 		myDaoConfig.setReuseCachedSearchResultsForMillis(new DaoConfig().getReuseCachedSearchResultsForMillis());
 		myDaoConfig.setCacheControlNoStoreMaxResultsUpperLimit(new DaoConfig().getCacheControlNoStoreMaxResultsUpperLimit());
+		myDaoConfig.setLocalSearchCacheEnabled(new DaoConfig().isLocalSearchCacheEnabled());
+		myDaoConfig.setExpungeEnabled(new DaoConfig().isExpungeEnabled());
+		mySearchCoordinatorSvc.clearLocalSearchCache();
 
 		ourClient.unregisterInterceptor(myCapturingInterceptor);
 	}
@@ -184,6 +190,67 @@ public class ResourceProviderR4CacheTest extends BaseResourceProviderR4Test {
 		assertEquals(results1.getId(), results2.getId());
 	}
 
+	@Test
+	public void testLocalCacheUsed() {
+		myDaoConfig.setLocalSearchCacheEnabled(true);
+		SearchCoordinatorSvcImpl searchCoordinatorSvc = AopTestUtils.getTargetObject(mySearchCoordinatorSvc);
+
+		Patient pt1 = new Patient();
+		pt1.addName().setFamily("FAM");
+		ourClient.create().resource(pt1).execute();
+
+		// First search is performed, second is reused from the database and added to the local cache
+		Bundle results1 = ourClient.search().forResource("Patient").where(Patient.FAMILY.matches().value("FAM")).returnBundle(Bundle.class).execute();
+		assertThat(myCapturingInterceptor.getLastResponse().getHeaders(Constants.HEADER_X_CACHE), empty());
+		Bundle results2 = ourClient.search().forResource("Patient").where(Patient.FAMILY.matches().value("FAM")).returnBundle(Bundle.class).execute();
+		assertEquals("HIT from " + ourServerBase, myCapturingInterceptor.getLastResponse().getHeaders(Constants.HEADER_X_CACHE).get(0));
+		assertEquals(results1.getId(), results2.getId());
+		long localHits = searchCoordinatorSvc.getLocalSearchCacheStats().hitCount();
+
+		// Third is served from the local cache
+		Bundle results3 = ourClient.search().forResource("Patient").where(Patient.FAMILY.matches().value("FAM")).returnBundle(Bundle.class).execute();
+		assertEquals("HIT from " + ourServerBase, myCapturingInterceptor.getLastResponse().getHeaders(Constants.HEADER_X_CACHE).get(0));
+		assertEquals(results1.getId(), results3.getId());
+		assertEquals(1, results3.getEntry().size());
+		assertEquals(1, results3.getTotal());
+		assertEquals(localHits + 1, searchCoordinatorSvc.getLocalSearchCacheStats().hitCount());
+
+		// A write to the resource type means that neither the locally cached search nor the
+		// one in the database can be reused
+		Patient pt2 = new Patient();
+		pt2.addName().setFamily("FAM");
+		ourClient.create().resource(pt2).execute();
+
+		Bundle results4 = ourClient.search().forResource("Patient").where(Patient.FAMILY.matches().value("FAM")).returnBundle(Bundle.class).execute();
+		assertThat(myCapturingInterceptor.getLastResponse().getHeaders(Constants.HEADER_X_CACHE), empty());
+		assertNotEquals(results1.getId(), results4.getId());
+		assertEquals(2, results4.getEntry().size());
+	}
+
+	@Test
+	public void testLocalCacheClearedWhenSearchesExpunged() {
+		myDaoConfig.setLocalSearchCacheEnabled(true);
+		myDaoConfig.setExpungeEnabled(true);
+
+		Patient pt1 = new Patient();
+		pt1.addName().setFamily("FAM");
+		ourClient.create().resource(pt1).execute();
+
+		// Second search is added to the local cache, third is served from it
+		Bundle results1 = ourClient.search().forResource("Patient").where(Patient.FAMILY.matches().value("FAM")).returnBundle(Bundle.class).execute();
+		ourClient.search().forResource("Patient").where(Patient.FAMILY.matches().value("FAM")).returnBundle(Bundle.class).execute();
+		Bundle results2 = ourClient.search().forResource("Patient").where(Patient.FAMILY.matches().value("FAM")).returnBundle(Bundle.class).execute();
+		assertEquals(results1.getId(), results2.getId());
+
+		// Expunging everything deletes the search, so it can't be served any more
+		mySystemDao.expunge(new ExpungeOptions().setExpungeEverything(true), null);
+
+		Bundle results3 = ourClient.search().forResource("Patient").where(Patient.FAMILY.matches().value("FAM")).returnBundle(Bundle.class).execute();
+		assertThat(myCapturingInterceptor.getLastResponse().getHeaders(Constants.HEADER_X_CACHE), empty());
+		assertNotEquals(results1.getId(), results3.getId());
+		assertEquals(0, results3.getEntry().size());
+	}
+
 	@AfterClass
 	public static void afterClassClearContext() {
 		TestUtil.clearAllStaticFieldsForUnitTest();
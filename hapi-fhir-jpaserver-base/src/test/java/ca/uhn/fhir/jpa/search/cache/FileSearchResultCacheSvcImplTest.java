@@ -0,0 +1,99 @@
+package ca.uhn.fhir.jpa.search.cache;
+
+import ca.uhn.fhir.jpa.entity.Search;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.*;
+
+public class FileSearchResultCacheSvcImplTest {
+
+	private File myPath;
+	private FileSearchResultCacheSvcImpl mySvc;
+	private Search mySearch;
+
+	@Before
+	public void before() {
+		myPath = new File("./target/filesearchtmp");
+		mySvc = new FileSearchResultCacheSvcImpl(myPath.getAbsolutePath());
+		mySvc.start();
+
+		mySearch = new Search();
+		mySearch.setUuid(UUID.randomUUID().toString());
+	}
+
+	@After
+	public void after() throws IOException {
+		FileUtils.deleteDirectory(myPath);
+	}
+
+	@Test
+	public void testStoreAndFetchPages() {
+		List<Long> first = Arrays.asList(1L, 2L, 3L);
+		List<Long> second = Arrays.asList(4L, 5L, Long.MAX_VALUE);
+		mySvc.storeResults(mySearch, Collections.emptyList(), first);
+		mySvc.storeResults(mySearch, first, second);
+
+		assertThat(mySvc.fetchResultPids(mySearch, 0, 2), contains(1L, 2L));
+		assertThat(mySvc.fetchResultPids(mySearch, 2, 5), contains(3L, 4L, 5L));
+		assertThat(mySvc.fetchResultPids(mySearch, 5, 100), contains(Long.MAX_VALUE));
+		assertThat(mySvc.fetchResultPids(mySearch, 6, 100), empty());
+		assertThat(mySvc.fetchAllResultPids(mySearch), contains(1L, 2L, 3L, 4L, 5L, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testStoreLeavesNoTemporaryFiles() {
+		List<Long> first = Arrays.asList(1L, 2L, 3L);
+		mySvc.storeResults(mySearch, Collections.emptyList(), first);
+		mySvc.storeResults(mySearch, first, Arrays.asList(4L, 5L));
+
+		File[] files = myPath.listFiles();
+		assertEquals(1, files.length);
+		assertEquals(mySearch.getUuid() + FileSearchResultCacheSvcImpl.FILE_SUFFIX, files[0].getName());
+		assertEquals(5 * Long.BYTES, files[0].length());
+	}
+
+	@Test
+	public void testFetchWithNoResultsStored() {
+		assertThat(mySvc.fetchResultPids(mySearch, 0, 10), empty());
+		assertThat(mySvc.fetchAllResultPids(mySearch), empty());
+	}
+
+	@Test
+	public void testDeleteResults() {
+		mySvc.storeResults(mySearch, Collections.emptyList(), Arrays.asList(1L, 2L));
+		assertEquals(1, myPath.listFiles().length);
+
+		mySvc.deleteResults(mySearch);
+
+		assertEquals(0, myPath.listFiles().length);
+		assertThat(mySvc.fetchAllResultPids(mySearch), empty());
+	}
+
+	@Test
+	public void testDeleteAllResults() {
+		Search otherSearch = new Search();
+		otherSearch.setUuid(UUID.randomUUID().toString());
+		mySvc.storeResults(mySearch, Collections.emptyList(), Arrays.asList(1L, 2L));
+		mySvc.storeResults(otherSearch, Collections.emptyList(), Arrays.asList(3L));
+		assertEquals(2, myPath.listFiles().length);
+
+		mySvc.deleteAllResults();
+
+		assertEquals(0, myPath.listFiles().length);
+		assertThat(mySvc.fetchAllResultPids(mySearch), empty());
+		assertThat(mySvc.fetchAllResultPids(otherSearch), empty());
+	}
+
+}
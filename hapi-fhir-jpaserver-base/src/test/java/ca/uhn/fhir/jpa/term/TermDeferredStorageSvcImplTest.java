@@ -1,17 +1,28 @@
 package ca.uhn.fhir.jpa.term;
 
 import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.data.ITermCodeSystemVersionDao;
 import ca.uhn.fhir.jpa.dao.data.ITermConceptDao;
-import ca.uhn.fhir.jpa.entity.TermConcept;
-import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink;
+import ca.uhn.fhir.jpa.dao.data.ITermDeferredStorageItemDao;
+import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.jpa.term.api.ITermCodeSystemStorageSvc;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.transaction.PlatformTransactionManager;
 
-import static org.mockito.ArgumentMatchers.same;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -24,6 +35,27 @@ public class TermDeferredStorageSvcImplTest {
 	private ITermCodeSystemStorageSvc myTermConceptStorageSvc;
 	@Mock
 	private ITermConceptDao myConceptDao;
+	@Mock
+	private ITermDeferredStorageItemDao myDeferredStorageItemDao;
+	@Mock
+	private ITermCodeSystemVersionDao myCodeSystemVersionDao;
+	@Mock
+	private TermCodeSystemVersion myCodeSystemVersion;
+	private TermDeferredStorageSvcImpl mySvc;
+
+	@Before
+	public void before() {
+		when(myCodeSystemVersion.getPid()).thenReturn(1L);
+
+		mySvc = new TermDeferredStorageSvcImpl();
+		mySvc.setTransactionManagerForUnitTest(myTxManager);
+		mySvc.setCodeSystemStorageSvcForUnitTest(myTermConceptStorageSvc);
+		mySvc.setConceptDaoForUnitTest(myConceptDao);
+		mySvc.setDeferredStorageItemDaoForUnitTest(myDeferredStorageItemDao);
+		mySvc.setCodeSystemVersionDaoForUnitTest(myCodeSystemVersionDao);
+		mySvc.setDaoConfigForUnitTest(new DaoConfig());
+		mySvc.setProcessDeferred(true);
+	}
 
 	@Test
 	public void testSaveDeferredWithExecutionSuspended() {
@@ -35,37 +67,102 @@ public class TermDeferredStorageSvcImplTest {
 
 	@Test
 	public void testSaveDeferred_Concept() {
-		TermConcept concept = new TermConcept();
-		concept.setCode("CODE_A");
+		TermConcept parent = new TermConcept(myCodeSystemVersion, "PARENT").setId(222L).setParentPids("333");
+		TermConcept concept = new TermConcept(myCodeSystemVersion, "CODE_A");
+		concept.setDisplay("Code A");
+		concept.addPropertyString("PROP", "VALUE");
+		parent.addChild(concept, TermConceptParentChildLink.RelationshipTypeEnum.ISA);
 
-		TermDeferredStorageSvcImpl svc = new TermDeferredStorageSvcImpl();
-		svc.setTransactionManagerForUnitTest(myTxManager);
-		svc.setCodeSystemStorageSvcForUnitTest(myTermConceptStorageSvc);
-		svc.setDaoConfigForUnitTest(new DaoConfig());
-		svc.setProcessDeferred(true);
-		svc.addConceptToStorageQueue(concept);
-		svc.saveDeferred();
+		mySvc.addConceptToStorageQueue(concept);
+		ArgumentCaptor<TermDeferredStorageItem> itemCaptor = ArgumentCaptor.forClass(TermDeferredStorageItem.class);
+		verify(myDeferredStorageItemDao).save(itemCaptor.capture());
+		assertEquals(TermDeferredStorageItemTypeEnum.CONCEPT, itemCaptor.getValue().getItemType());
+		assertEquals(1L, itemCaptor.getValue().getCodeSystemVersionPid().longValue());
 
-		verify(myTermConceptStorageSvc, times(1)).saveConcept(same(concept));
+		when(myDeferredStorageItemDao.countByItemType(eq(TermDeferredStorageItemTypeEnum.CONCEPT))).thenReturn(1L, 0L);
+		when(myDeferredStorageItemDao.findClaimableIds(any(), any(), any())).thenReturn(new SliceImpl<>(Collections.emptyList()));
+		when(myDeferredStorageItemDao.findClaimableIds(any(), eq(TermDeferredStorageItemTypeEnum.CONCEPT), any())).thenReturn(new SliceImpl<>(Collections.singletonList(1L)), new SliceImpl<>(Collections.emptyList()));
+		when(myDeferredStorageItemDao.claim(any(), anyString(), any(), any())).thenReturn(1);
+		when(myDeferredStorageItemDao.findByClaimId(anyString())).thenReturn(Collections.singletonList(itemCaptor.getValue()));
+		when(myCodeSystemVersionDao.findById(eq(1L))).thenReturn(Optional.of(myCodeSystemVersion));
+		when(myConceptDao.findByCodeSystemAndCode(same(myCodeSystemVersion), eq("PARENT"))).thenReturn(Optional.of(parent));
+
+		mySvc.saveDeferred();
+
+		ArgumentCaptor<TermConcept> conceptCaptor = ArgumentCaptor.forClass(TermConcept.class);
+		verify(myTermConceptStorageSvc, times(1)).saveConcept(conceptCaptor.capture());
+		verifyNoMoreInteractions(myTermConceptStorageSvc);
+		assertEquals("CODE_A", conceptCaptor.getValue().getCode());
+		assertEquals("Code A", conceptCaptor.getValue().getDisplay());
+		assertEquals("VALUE", conceptCaptor.getValue().getStringProperty("PROP"));
+		assertEquals("222 333", conceptCaptor.getValue().getParentPidsAsString());
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Collection<Long>> deletedCaptor = ArgumentCaptor.forClass(Collection.class);
+		verify(myDeferredStorageItemDao).deleteByPids(deletedCaptor.capture());
+		assertEquals(1, deletedCaptor.getValue().size());
+	}
+
+	@Test
+	public void testSaveDeferred_ConceptParentNeverStored() {
+		TermConcept parent = new TermConcept(myCodeSystemVersion, "PARENT").setId(222L);
+		TermConcept concept = new TermConcept(myCodeSystemVersion, "CODE_A");
+		parent.addChild(concept, TermConceptParentChildLink.RelationshipTypeEnum.ISA);
+
+		mySvc.addConceptToStorageQueue(concept);
+		ArgumentCaptor<TermDeferredStorageItem> itemCaptor = ArgumentCaptor.forClass(TermDeferredStorageItem.class);
+		verify(myDeferredStorageItemDao).save(itemCaptor.capture());
+		TermDeferredStorageItem item = itemCaptor.getValue();
+
+		AtomicInteger attempts = new AtomicInteger();
+		AtomicBoolean deleted = new AtomicBoolean();
+		when(myDeferredStorageItemDao.countByItemType(eq(TermDeferredStorageItemTypeEnum.CONCEPT))).thenAnswer(t -> deleted.get() ? 0L : 1L);
+		when(myDeferredStorageItemDao.findMinAttemptCountByItemType(eq(TermDeferredStorageItemTypeEnum.CONCEPT))).thenAnswer(t -> attempts.get());
+		when(myDeferredStorageItemDao.findMaxAttemptCountByItemType(eq(TermDeferredStorageItemTypeEnum.CONCEPT))).thenAnswer(t -> attempts.get());
+		when(myDeferredStorageItemDao.findClaimableIds(any(), any(), any())).thenReturn(new SliceImpl<>(Collections.emptyList()));
+		when(myDeferredStorageItemDao.findClaimableIds(any(), eq(TermDeferredStorageItemTypeEnum.CONCEPT), any())).thenAnswer(t -> new SliceImpl<>(deleted.get() ? Collections.emptyList() : Collections.singletonList(1L)));
+		when(myDeferredStorageItemDao.claim(any(), anyString(), any(), any())).thenReturn(1);
+		when(myDeferredStorageItemDao.findByClaimId(anyString())).thenReturn(Collections.singletonList(item));
+		when(myDeferredStorageItemDao.findAllById(any())).thenReturn(Collections.singletonList(item));
+		when(myCodeSystemVersionDao.findById(eq(1L))).thenReturn(Optional.of(myCodeSystemVersion));
+		when(myConceptDao.findByCodeSystemAndCode(same(myCodeSystemVersion), eq("PARENT"))).thenReturn(Optional.empty());
+		doAnswer(t -> attempts.incrementAndGet()).when(myDeferredStorageItemDao).release(any());
+		doAnswer(t -> {
+			deleted.set(true);
+			return null;
+		}).when(myDeferredStorageItemDao).deleteByPids(any());
+
+		mySvc.saveDeferred();
+
+		// The concept was put off until it was clear that its parent would never be stored,
+		// and then discarded rather than stored without it
+		verify(myDeferredStorageItemDao, times(2)).release(any());
+		verify(myDeferredStorageItemDao, times(1)).deleteByPids(any());
 		verifyNoMoreInteractions(myTermConceptStorageSvc);
 	}
 
 	@Test
 	public void testSaveDeferred_ConceptParentChildLink_ConceptsMissing() {
 		TermConceptParentChildLink conceptLink = new TermConceptParentChildLink();
-		conceptLink.setChild(new TermConcept().setId(111L));
-		conceptLink.setParent(new TermConcept().setId(222L));
+		conceptLink.setChild(new TermConcept(myCodeSystemVersion, "CHILD").setId(111L));
+		conceptLink.setParent(new TermConcept(myCodeSystemVersion, "PARENT").setId(222L));
+		mySvc.addConceptLinkToStorageQueue(conceptLink);
+		ArgumentCaptor<TermDeferredStorageItem> itemCaptor = ArgumentCaptor.forClass(TermDeferredStorageItem.class);
+		verify(myDeferredStorageItemDao).save(itemCaptor.capture());
 
-		TermDeferredStorageSvcImpl svc = new TermDeferredStorageSvcImpl();
-		svc.setTransactionManagerForUnitTest(myTxManager);
-		svc.setCodeSystemStorageSvcForUnitTest(myTermConceptStorageSvc);
-		svc.setConceptDaoForUnitTest(myConceptDao);
-		svc.setDaoConfigForUnitTest(new DaoConfig());
-		svc.setProcessDeferred(true);
-		svc.addConceptLinkToStorageQueue(conceptLink);
-		svc.saveDeferred();
+		when(myDeferredStorageItemDao.countByItemType(eq(TermDeferredStorageItemTypeEnum.CONCEPT))).thenReturn(0L);
+		when(myDeferredStorageItemDao.countByItemType(eq(TermDeferredStorageItemTypeEnum.CONCEPT_LINK))).thenReturn(1L, 0L);
+		when(myDeferredStorageItemDao.findClaimableIds(any(), any(), any())).thenReturn(new SliceImpl<>(Collections.emptyList()));
+		when(myDeferredStorageItemDao.findClaimableIds(any(), eq(TermDeferredStorageItemTypeEnum.CONCEPT_LINK), any())).thenReturn(new SliceImpl<>(Collections.singletonList(1L)), new SliceImpl<>(Collections.emptyList()));
+		when(myDeferredStorageItemDao.claim(any(), anyString(), any(), any())).thenReturn(1);
+		when(myDeferredStorageItemDao.findByClaimId(anyString())).thenReturn(Collections.singletonList(itemCaptor.getValue()));
+		when(myCodeSystemVersionDao.findById(eq(1L))).thenReturn(Optional.of(myCodeSystemVersion));
+		when(myConceptDao.findByCodeSystemAndCode(any(), any())).thenReturn(Optional.empty());
+
+		mySvc.saveDeferred();
 
 		verifyNoMoreInteractions(myTermConceptStorageSvc);
+		verify(myDeferredStorageItemDao).deleteByPids(any());
 	}
 
 }
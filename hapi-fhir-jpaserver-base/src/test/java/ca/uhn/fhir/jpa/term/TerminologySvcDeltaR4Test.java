@@ -27,6 +27,7 @@ import java.util.stream.Collectors;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
 import static org.junit.Assert.*;
 
@@ -158,6 +159,12 @@ public class TerminologySvcDeltaR4Test extends BaseJpaR4Test {
 			" ChildAA seq=1"
 		);
 
+		// The hierarchy closure should follow the move
+		runInTransaction(() -> {
+			assertThat(toCodes(myTermSvc.findCodesBelow("http://foo/cs", "RootA")), containsInAnyOrder("RootA"));
+			assertThat(toCodes(myTermSvc.findCodesBelow("http://foo/cs", "RootB")), containsInAnyOrder("RootB", "ChildAA"));
+			assertThat(toCodes(myTermSvc.findCodesAbove("http://foo/cs", "ChildAA")), containsInAnyOrder("ChildAA", "RootB"));
+		});
 	}
 
 	@Test
@@ -297,6 +304,13 @@ public class TerminologySvcDeltaR4Test extends BaseJpaR4Test {
 			"  CodeAAB seq=2"
 		);
 
+		// The closure of the codes below the one that moved should follow it too
+		runInTransaction(() -> {
+			assertThat(toCodes(myTermSvc.findCodesAbove("http://foo/cs", "CodeAAA")), containsInAnyOrder("CodeAAA", "CodeAA", "CodeB"));
+			assertThat(toCodes(myTermSvc.findCodesBelow("http://foo/cs", "CodeA")), containsInAnyOrder("CodeA"));
+			assertThat(toCodes(myTermSvc.findCodesBelow("http://foo/cs", "CodeB")), containsInAnyOrder("CodeB", "CodeBA", "CodeBAA", "CodeBAB", "CodeAA", "CodeAAA", "CodeAAB"));
+		});
+
 	}
 
 	@Test
@@ -55,6 +55,71 @@ public class HapiFhirJpaMigrationTasks extends BaseMigrationTasks<VersionEnum> {
 		init360();
 		init400();
 		init410();
+		init410Uecdi();
+	}
+
+	protected void init410Uecdi() {
+		Builder version = forVersion(VersionEnum.V4_1_0_UECDI);
+
+		// HFJ_BLK_EXPORT_COLLECTION
+		version.startSectionWithMessage("Processing table: HFJ_BLK_EXPORT_COLLECTION");
+		version.onTable("HFJ_BLK_EXPORT_COLLECTION").addColumn("COLL_STATUS").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 10);
+
+		// HFJ_BLK_EXPORT_JOB
+		version.startSectionWithMessage("Processing table: HFJ_BLK_EXPORT_JOB");
+		version.onTable("HFJ_BLK_EXPORT_JOB").addColumn("EXP_STYLE").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 10);
+		version.onTable("HFJ_BLK_EXPORT_JOB").addColumn("EXP_GROUP_ID").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 200);
+
+		// HFJ_ASYNC_REQ_JOB
+		version.startSectionWithMessage("Processing table: HFJ_ASYNC_REQ_JOB");
+		version.addIdGenerator("SEQ_ASYNCREQJOB_PID");
+		Builder.BuilderAddTableByColumns asyncRequestJob = version.addTableByColumns("HFJ_ASYNC_REQ_JOB", "PID");
+		asyncRequestJob.addColumn("PID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		asyncRequestJob.addColumn("JOB_ID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 36);
+		asyncRequestJob.addColumn("JOB_STATUS").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 10);
+		asyncRequestJob.addColumn("CREATED_TIME").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.DATE_TIMESTAMP);
+		asyncRequestJob.addColumn("STATUS_TIME").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.DATE_TIMESTAMP);
+		asyncRequestJob.addColumn("EXP_TIME").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.DATE_TIMESTAMP);
+		asyncRequestJob.addColumn("REQUEST").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 500);
+		asyncRequestJob.addColumn("REQUESTER_HASH").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 64);
+		asyncRequestJob.addColumn("STATUS_MESSAGE").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 500);
+		asyncRequestJob.addColumn("RESPONSE_STATUS").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.INT);
+		asyncRequestJob.addColumn("RESPONSE_CONTENT_TYPE").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 100);
+		asyncRequestJob.addColumn("RESPONSE_BODY").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.BLOB);
+		asyncRequestJob.addColumn("OPTLOCK").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.INT);
+		asyncRequestJob.addIndex("IDX_ASYNCREQ_EXPTIME").unique(false).withColumns("EXP_TIME");
+		asyncRequestJob.addIndex("IDX_ASYNCREQ_JOB_ID").unique(true).withColumns("JOB_ID");
+
+		// TRM_DEFERRED_STORAGE
+		version.startSectionWithMessage("Processing table: TRM_DEFERRED_STORAGE");
+		version.addIdGenerator("SEQ_TRM_DEFSTOR_PID");
+		Builder.BuilderAddTableByColumns deferredStorage = version.addTableByColumns("TRM_DEFERRED_STORAGE", "PID");
+		deferredStorage.addColumn("PID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		deferredStorage.addColumn("ITEM_TYPE").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 20);
+		deferredStorage.addColumn("CS_VER_PID").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		deferredStorage.addColumn("ITEM_BODY").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.BLOB);
+		deferredStorage.addColumn("CLAIM_ID").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 36);
+		deferredStorage.addColumn("CLAIM_TIME").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.DATE_TIMESTAMP);
+		deferredStorage.addColumn("ATTEMPT_COUNT").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.INT);
+		deferredStorage.addIndex("IDX_TRMDEFSTOR_TYPE").unique(false).withColumns("ITEM_TYPE");
+		deferredStorage.addIndex("IDX_TRMDEFSTOR_CLAIM").unique(false).withColumns("CLAIM_ID");
+
+		// TRM_CONCEPT_CLOSURE
+		version.startSectionWithMessage("Processing table: TRM_CONCEPT_CLOSURE");
+		version.addIdGenerator("SEQ_TRM_CLOSURE_PID");
+		Builder.BuilderAddTableByColumns conceptClosure = version.addTableByColumns("TRM_CONCEPT_CLOSURE", "PID");
+		conceptClosure.addColumn("PID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		conceptClosure.addColumn("CS_VER_PID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		conceptClosure.addColumn("ANCESTOR_PID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		conceptClosure.addColumn("DESCENDANT_PID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		conceptClosure.addIndex("IDX_TRMCLOSURE_ANC").unique(false).withColumns("ANCESTOR_PID", "DESCENDANT_PID");
+		conceptClosure.addIndex("IDX_TRMCLOSURE_DESC").unique(false).withColumns("DESCENDANT_PID", "ANCESTOR_PID");
+		conceptClosure.addIndex("IDX_TRMCLOSURE_CSV").unique(false).withColumns("CS_VER_PID");
+		// Existing concepts are picked up by the terminology reindexer, which fills in the closure.
+		// Until it has finished with a code system version, lookups in it walk TRM_CONCEPT_PC_LINK.
+		// Only concepts with a parent have any closure rows, so flat code systems are not touched,
+		// but on a server with a large hierarchy such as SNOMED CT this is a full reindex of it.
+		version.executeRawSql("UPDATE TRM_CONCEPT SET INDEX_STATUS = NULL WHERE PID IN (SELECT CHILD_PID FROM TRM_CONCEPT_PC_LINK)");
 	}
 
 	protected void init410() {
@@ -60,6 +60,9 @@ public class ModelConfig {
 	private String myEmailFromAddress = "noreply@unknown.com";
 	private boolean mySubscriptionMatchingEnabled = true;
 	private String myWebsocketContextPath = DEFAULT_WEBSOCKET_CONTEXT_PATH;
+	private int myRestHookMaxConcurrentDeliveriesPerEndpoint = 0;
+	private int myRestHookDeliveryMaxRetries = 0;
+	private long myRestHookDeliveryRetryDelayMillis = 1000;
 
 	/**
 	 * If set to {@code true} the default search params (i.e. the search parameters that are
@@ -381,6 +384,105 @@ public class ModelConfig {
 		myWebsocketContextPath = theWebsocketContextPath;
 	}
 
+	/**
+	 * The maximum number of REST Hook deliveries that will be made to a single endpoint
+	 * (i.e. a single scheme, host and port) at the same time, across all subscriptions
+	 * that deliver to it. A delivery thread waits briefly for a slot to become available,
+	 * and if none does, the message is placed back on the subscription delivery queue
+	 * after a short delay instead of overloading a slow endpoint.
+	 * <p>
+	 * The default value is <code>0</code>, meaning that there is no limit.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getRestHookMaxConcurrentDeliveriesPerEndpoint() {
+		return myRestHookMaxConcurrentDeliveriesPerEndpoint;
+	}
+
+	/**
+	 * The maximum number of REST Hook deliveries that will be made to a single endpoint
+	 * (i.e. a single scheme, host and port) at the same time, across all subscriptions
+	 * that deliver to it. A delivery thread waits briefly for a slot to become available,
+	 * and if none does, the message is placed back on the subscription delivery queue
+	 * after a short delay instead of overloading a slow endpoint.
+	 * <p>
+	 * The default value is <code>0</code>, meaning that there is no limit.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setRestHookMaxConcurrentDeliveriesPerEndpoint(int theRestHookMaxConcurrentDeliveriesPerEndpoint) {
+		Validate.isTrue(theRestHookMaxConcurrentDeliveriesPerEndpoint >= 0, "theRestHookMaxConcurrentDeliveriesPerEndpoint must not be negative");
+		myRestHookMaxConcurrentDeliveriesPerEndpoint = theRestHookMaxConcurrentDeliveriesPerEndpoint;
+	}
+
+	/**
+	 * The number of times that a REST Hook delivery which failed because the endpoint could
+	 * not be reached, or responded with a server error (HTTP 5xx) or HTTP 429 Too Many Requests,
+	 * will be retried. Retries are placed back on the subscription delivery queue after a delay
+	 * (see {@link #setRestHookDeliveryRetryDelayMillis(long)}) which doubles with each attempt,
+	 * so the delivery threads are not held while waiting. Later notifications for the same
+	 * endpoint wait until the retry has been delivered (or given up on), so that they are not
+	 * delivered out of order. Pending retries are held in memory and are lost if the server
+	 * is restarted.
+	 * <p>
+	 * The default value is <code>0</code>, meaning that failed deliveries are not retried.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public int getRestHookDeliveryMaxRetries() {
+		return myRestHookDeliveryMaxRetries;
+	}
+
+	/**
+	 * The number of times that a REST Hook delivery which failed because the endpoint could
+	 * not be reached, or responded with a server error (HTTP 5xx) or HTTP 429 Too Many Requests,
+	 * will be retried. Retries are placed back on the subscription delivery queue after a delay
+	 * (see {@link #setRestHookDeliveryRetryDelayMillis(long)}) which doubles with each attempt,
+	 * so the delivery threads are not held while waiting. Later notifications for the same
+	 * endpoint wait until the retry has been delivered (or given up on), so that they are not
+	 * delivered out of order. Pending retries are held in memory and are lost if the server
+	 * is restarted.
+	 * <p>
+	 * The default value is <code>0</code>, meaning that failed deliveries are not retried.
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setRestHookDeliveryMaxRetries(int theRestHookDeliveryMaxRetries) {
+		Validate.isTrue(theRestHookDeliveryMaxRetries >= 0, "theRestHookDeliveryMaxRetries must not be negative");
+		myRestHookDeliveryMaxRetries = theRestHookDeliveryMaxRetries;
+	}
+
+	/**
+	 * The delay before the first retry of a failed REST Hook delivery. The delay doubles with
+	 * each subsequent retry. See {@link #setRestHookDeliveryMaxRetries(int)}.
+	 * <p>
+	 * The default value is <code>1000</code> (1 second).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public long getRestHookDeliveryRetryDelayMillis() {
+		return myRestHookDeliveryRetryDelayMillis;
+	}
+
+	/**
+	 * The delay before the first retry of a failed REST Hook delivery. The delay doubles with
+	 * each subsequent retry. See {@link #setRestHookDeliveryMaxRetries(int)}.
+	 * <p>
+	 * The default value is <code>1000</code> (1 second).
+	 * </p>
+	 *
+	 * @since 4.1.0
+	 */
+	public void setRestHookDeliveryRetryDelayMillis(long theRestHookDeliveryRetryDelayMillis) {
+		Validate.isTrue(theRestHookDeliveryRetryDelayMillis >= 0, "theRestHookDeliveryRetryDelayMillis must not be negative");
+		myRestHookDeliveryRetryDelayMillis = theRestHookDeliveryRetryDelayMillis;
+	}
+
 	private static void validateTreatBaseUrlsAsLocal(String theUrl) {
 		Validate.notBlank(theUrl, "Base URL must not be null or empty");
 
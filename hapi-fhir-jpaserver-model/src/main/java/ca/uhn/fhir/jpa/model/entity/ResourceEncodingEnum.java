@@ -44,6 +44,20 @@ public enum ResourceEncodingEnum {
 	 */
 	JSONC,
 
+	/**
+	 * Json Compressed using Deflate with a preset dictionary of
+	 * content that is common in FHIR resources of the given type. This
+	 * gives much better ratios than {@link #JSONC} for small resources.
+	 */
+	JSOND,
+
+	/**
+	 * Binary Json - The compact token format written by
+	 * {@link ca.uhn.fhir.parser.json.BinaryJsonWriter}, which is
+	 * smaller than {@link #JSON} and much faster to parse
+	 */
+	BJSON,
+
 	/**
 	 * Resource was deleted - No contents expected
 	 */
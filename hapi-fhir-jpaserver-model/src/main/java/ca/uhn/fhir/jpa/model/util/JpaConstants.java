@@ -191,6 +191,11 @@ public class JpaConstants {
 	 */
 	public static final String OPERATION_EXPORT_POLL_STATUS = "$export-poll-status";
 
+	/**
+	 * Operation name for the "$async-poll-status" operation
+	 */
+	public static final String OPERATION_ASYNC_POLL_STATUS = "$async-poll-status";
+
 	/**
 	 * <p>
 	 * This extension should be of type <code>string</code> and should be
@@ -261,6 +266,11 @@ public class JpaConstants {
 	 */
 	public static final String PARAM_EXPORT_POLL_STATUS_JOB_ID = "_jobId";
 
+	/**
+	 * Parameter for the $async-poll-status operation
+	 */
+	public static final String PARAM_ASYNC_POLL_STATUS_JOB_ID = "_jobId";
+
 	/**
 	 * Parameter for the $export operation
 	 */
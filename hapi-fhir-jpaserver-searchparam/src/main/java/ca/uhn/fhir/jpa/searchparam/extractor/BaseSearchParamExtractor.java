@@ -28,6 +28,8 @@ import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
 import ca.uhn.fhir.model.primitive.BoundCodeDt;
 import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.lang3.ObjectUtils;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.*;
@@ -41,6 +43,8 @@ import javax.measure.unit.NonSI;
 import javax.measure.unit.Unit;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -59,6 +63,18 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 	private ISearchParamRegistry mySearchParamRegistry;
 	@Autowired
 	private ModelConfig myModelConfig;
+	/**
+	 * Parsed paths, per search parameter. The keys are held weakly (and compared by identity), so
+	 * when the search parameter registry refreshes and replaces a search parameter, the paths
+	 * parsed for the old instance are discarded along with it.
+	 */
+	private final Cache<RuntimeSearchParam, Map<String, Object>> myParsedPaths = CacheBuilder.newBuilder().weakKeys().build();
+	/**
+	 * Plain element paths of the active search parameters, per parameter type. The keys are the
+	 * active search parameter maps for a resource type (held weakly and compared by identity), so
+	 * these are rebuilt whenever the search parameter registry refreshes.
+	 */
+	private final Cache<Map<String, RuntimeSearchParam>, Map<RestSearchParameterTypeEnum, ResourcePathTrie>> myPathTries = CacheBuilder.newBuilder().weakKeys().build();
 	private Set<String> myIgnoredForSearchDatatypes;
 	private BaseRuntimeChildDefinition myQuantityValueValueChild;
 	private BaseRuntimeChildDefinition myQuantitySystemValueChild;
@@ -374,6 +390,25 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	@Override
 	public List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef) {
+		return extractResourceLinks(theResource, theNextSpDef, Collections.emptyMap());
+	}
+
+	@Override
+	public Map<RuntimeSearchParam, List<PathAndRef>> extractResourceLinks(IBaseResource theResource) {
+		Map<String, RuntimeSearchParam> searchParams = getActiveSearchParams(theResource);
+		Map<String, List<IBase>> simplePathValues = walkSimplePaths(theResource, searchParams, RestSearchParameterTypeEnum.REFERENCE);
+
+		Map<RuntimeSearchParam, List<PathAndRef>> retVal = new LinkedHashMap<>();
+		for (RuntimeSearchParam nextSpDef : searchParams.values()) {
+			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.REFERENCE || isBlank(nextSpDef.getPath())) {
+				continue;
+			}
+			retVal.put(nextSpDef, extractResourceLinks(theResource, nextSpDef, simplePathValues));
+		}
+		return retVal;
+	}
+
+	private List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef, Map<String, List<IBase>> theSimplePathValues) {
 		ArrayList<PathAndRef> retVal = new ArrayList<>();
 
 		String[] nextPathsSplit = split(theNextSpDef.getPath());
@@ -381,7 +416,7 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 			path = path.trim();
 			if (isNotBlank(path)) {
 
-				for (Object next : extractValues(path, theResource)) {
+				for (Object next : extractValues(theNextSpDef, path, theResource, theSimplePathValues)) {
 					retVal.add(new PathAndRef(path, next));
 				}
 			}
@@ -392,8 +427,11 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	/**
 	 * Override parent because we're using FHIRPath here
+	 *
+	 * @param theSimplePathValues The values of the plain element paths, as collected by {@link #walkSimplePaths(IBaseResource, Map, RestSearchParameterTypeEnum)}.
+	 *                            Paths that aren't in here are evaluated individually.
 	 */
-	private List<IBase> extractValues(String thePaths, IBaseResource theResource) {
+	private List<IBase> extractValues(RuntimeSearchParam theSearchParam, String thePaths, IBaseResource theResource, Map<String, List<IBase>> theSimplePathValues) {
 		List<IBase> values = new ArrayList<>();
 		if (isNotBlank(thePaths)) {
 			String[] nextPathsSplit = split(thePaths);
@@ -408,12 +446,15 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 				}
 
 				nextPath = trim(nextPath);
-				IValueExtractor allValuesFunc = getPathValueExtractor(theResource, nextPath);
-				try {
-					allValues = allValuesFunc.get();
-				} catch (Exception e) {
-					String msg = getContext().getLocalizer().getMessage(BaseSearchParamExtractor.class, "failedToExtractPaths", nextPath, e.toString());
-					throw new InternalErrorException(msg, e);
+				allValues = theSimplePathValues.get(nextPath);
+				if (allValues == null) {
+					IValueExtractor allValuesFunc = getPathValueExtractor(theSearchParam, theResource, nextPath);
+					try {
+						allValues = allValuesFunc.get();
+					} catch (Exception e) {
+						String msg = getContext().getLocalizer().getMessage(BaseSearchParamExtractor.class, "failedToExtractPaths", nextPath, e.toString());
+						throw new InternalErrorException(msg, e);
+					}
 				}
 
 				values.addAll(allValues);
@@ -432,7 +473,18 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		return values;
 	}
 
-	protected abstract IValueExtractor getPathValueExtractor(IBaseResource theResource, String theSinglePath);
+	protected abstract IValueExtractor getPathValueExtractor(RuntimeSearchParam theSearchParam, IBaseResource theResource, String theSinglePath);
+
+	/**
+	 * Returns the parsed form of a single path belonging to the given search parameter, using
+	 * the given parser the first time the path is seen. Subclasses use this so that expressions
+	 * are parsed once rather than every time a resource is indexed.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> T getParsedPath(RuntimeSearchParam theSearchParam, String theSinglePath, Function<String, T> theParser) {
+		Map<String, Object> parsedPaths = myParsedPaths.asMap().computeIfAbsent(theSearchParam, t -> new ConcurrentHashMap<>());
+		return (T) parsedPaths.computeIfAbsent(theSinglePath, theParser);
+	}
 
 	protected FhirContext getContext() {
 		return myContext;
@@ -442,11 +494,39 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		return myModelConfig;
 	}
 
-	private Collection<RuntimeSearchParam> getSearchParams(IBaseResource theResource) {
+	private Map<String, RuntimeSearchParam> getActiveSearchParams(IBaseResource theResource) {
 		RuntimeResourceDefinition def = getContext().getResourceDefinition(theResource);
-		Collection<RuntimeSearchParam> retVal = mySearchParamRegistry.getActiveSearchParams(def.getName()).values();
-		List<RuntimeSearchParam> defaultList = Collections.emptyList();
-		retVal = ObjectUtils.defaultIfNull(retVal, defaultList);
+		Map<String, RuntimeSearchParam> retVal = mySearchParamRegistry.getActiveSearchParams(def.getName());
+		Map<String, RuntimeSearchParam> defaultMap = Collections.emptyMap();
+		retVal = ObjectUtils.defaultIfNull(retVal, defaultMap);
+		return retVal;
+	}
+
+	/**
+	 * Collects the values of every plain element path (see {@link ResourcePathTrie}) used by the given
+	 * search parameters of the given type, with a single walk of the resource
+	 */
+	private Map<String, List<IBase>> walkSimplePaths(IBaseResource theResource, Map<String, RuntimeSearchParam> theSearchParams, RestSearchParameterTypeEnum theSearchParamType) {
+		ResourcePathTrie trie = myPathTries
+			.asMap()
+			.computeIfAbsent(theSearchParams, t -> new ConcurrentHashMap<>())
+			.computeIfAbsent(theSearchParamType, t -> newPathTrie(theResource, theSearchParams.values(), theSearchParamType));
+		if (trie.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return trie.walk(theResource);
+	}
+
+	private ResourcePathTrie newPathTrie(IBaseResource theResource, Collection<RuntimeSearchParam> theSearchParams, RestSearchParameterTypeEnum theSearchParamType) {
+		ResourcePathTrie retVal = new ResourcePathTrie(getContext().getResourceDefinition(theResource));
+		for (RuntimeSearchParam nextSpDef : theSearchParams) {
+			if (nextSpDef.getParamType() != theSearchParamType || isBlank(nextSpDef.getPath())) {
+				continue;
+			}
+			for (String nextPath : split(nextSpDef.getPath())) {
+				retVal.addPath(trim(nextPath));
+			}
+		}
 		return retVal;
 	}
 
@@ -704,8 +784,9 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 	private <T extends BaseResourceIndexedSearchParam> SearchParamSet<T> extractSearchParams(IBaseResource theResource, IExtractor<T> theExtractor, RestSearchParameterTypeEnum theSearchParamType) {
 		SearchParamSet<T> retVal = new SearchParamSet<>();
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
+		Map<String, RuntimeSearchParam> searchParams = getActiveSearchParams(theResource);
+		Map<String, List<IBase>> simplePathValues = walkSimplePaths(theResource, searchParams, theSearchParamType);
+		for (RuntimeSearchParam nextSpDef : searchParams.values()) {
 			if (nextSpDef.getParamType() != theSearchParamType) {
 				continue;
 			}
@@ -715,7 +796,7 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 				continue;
 			}
 
-			for (IBase nextObject : extractValues(nextPath, theResource)) {
+			for (IBase nextObject : extractValues(nextSpDef, nextPath, theResource, simplePathValues)) {
 				if (nextObject != null) {
 					String typeName = toRootTypeName(nextObject);
 					if (!myIgnoredForSearchDatatypes.contains(typeName)) {
@@ -44,6 +44,11 @@ public interface ISearchParamExtractor {
 
 	List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef);
 
+	/**
+	 * Extracts the references for all of the active reference search parameters of the resource's type
+	 */
+	Map<RuntimeSearchParam, List<PathAndRef>> extractResourceLinks(IBaseResource theResource);
+
 	String[] split(String theExpression);
 
 
@@ -31,10 +31,8 @@ import ca.uhn.fhir.jpa.model.entity.ModelConfig;
 import ca.uhn.fhir.jpa.model.entity.ResourceLink;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
-import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
 import ca.uhn.fhir.parser.DataFormatException;
-import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
@@ -64,8 +62,6 @@ public class ResourceLinkExtractor {
 	@Autowired
 	private FhirContext myContext;
 	@Autowired
-	private ISearchParamRegistry mySearchParamRegistry;
-	@Autowired
 	private ISearchParamExtractor mySearchParamExtractor;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
@@ -73,32 +69,23 @@ public class ResourceLinkExtractor {
 	public void extractResourceLinks(ResourceIndexedSearchParams theParams, ResourceTable theEntity, IBaseResource theResource, Date theUpdateTime, IResourceLinkResolver theResourceLinkResolver, boolean theFailOnInvalidReference, RequestDetails theRequest) {
 		String resourceType = theEntity.getResourceType();
 
-		Map<String, RuntimeSearchParam> searchParams = mySearchParamRegistry.getActiveSearchParams(toResourceName(theResource.getClass()));
-
-		for (RuntimeSearchParam nextSpDef : searchParams.values()) {
-			extractResourceLinks(theParams, theEntity, theResource, theUpdateTime, theResourceLinkResolver, resourceType, nextSpDef, theFailOnInvalidReference, theRequest);
+		Map<RuntimeSearchParam, List<PathAndRef>> links = mySearchParamExtractor.extractResourceLinks(theResource);
+		for (Map.Entry<RuntimeSearchParam, List<PathAndRef>> next : links.entrySet()) {
+			extractResourceLinks(theParams, theEntity, theUpdateTime, theResourceLinkResolver, resourceType, next.getKey(), next.getValue(), theFailOnInvalidReference, theRequest);
 		}
 
 		theEntity.setHasLinks(theParams.myLinks.size() > 0);
 	}
 
-	private void extractResourceLinks(ResourceIndexedSearchParams theParams, ResourceTable theEntity, IBaseResource theResource, Date theUpdateTime, IResourceLinkResolver theResourceLinkResolver, String theResourceType, RuntimeSearchParam nextSpDef, boolean theFailOnInvalidReference, RequestDetails theRequest) {
-		if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.REFERENCE) {
-			return;
-		}
-
+	private void extractResourceLinks(ResourceIndexedSearchParams theParams, ResourceTable theEntity, Date theUpdateTime, IResourceLinkResolver theResourceLinkResolver, String theResourceType, RuntimeSearchParam nextSpDef, List<PathAndRef> theRefs, boolean theFailOnInvalidReference, RequestDetails theRequest) {
 		String nextPathsUnsplit = nextSpDef.getPath();
-		if (isBlank(nextPathsUnsplit)) {
-			return;
-		}
 
 		boolean multiType = false;
 		if (nextPathsUnsplit.endsWith("[x]")) {
 			multiType = true;
 		}
 
-		List<PathAndRef> refs = mySearchParamExtractor.extractResourceLinks(theResource, nextSpDef);
-		for (PathAndRef nextPathAndRef : refs) {
+		for (PathAndRef nextPathAndRef : theRefs) {
 			extractResourceLinks(theParams, theEntity, theUpdateTime, theResourceLinkResolver, theResourceType, nextSpDef, nextPathsUnsplit, multiType, nextPathAndRef, theFailOnInvalidReference, theRequest);
 		}
 	}
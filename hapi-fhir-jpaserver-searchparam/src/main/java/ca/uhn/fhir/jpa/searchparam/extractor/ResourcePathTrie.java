@@ -0,0 +1,162 @@
+package ca.uhn.fhir.jpa.searchparam.extractor;
+
+/*
+ * #%L
+ * HAPI FHIR Search Parameters
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the search parameter paths for one resource type that are plain element paths (e.g.
+ * <code>Observation.code</code> or <code>Patient.contact.name</code>), arranged as a tree of the
+ * elements that they pass through. The values for all of these paths can then be collected with a
+ * single walk of a resource, instead of evaluating each path separately.
+ * <p>
+ * Paths that do anything other than navigate through elements with a single possible type
+ * (functions, type casts, choice types part way along the path, etc.) are rejected by
+ * {@link #addPath(String)} and are left to the FHIRPath engine.
+ * </p>
+ * <p>
+ * Instances are not modified after they have been populated, so a populated trie may be shared
+ * between threads.
+ * </p>
+ */
+class ResourcePathTrie {
+
+	private static final Pattern SIMPLE_PATH = Pattern.compile("[A-Za-z][A-Za-z0-9]*(\\.[A-Za-z][A-Za-z0-9]*)+");
+	private static final Set<String> BASE_RESOURCE_NAMES = new HashSet<>(Arrays.asList("Resource", "DomainResource"));
+
+	private final RuntimeResourceDefinition myResourceDefinition;
+	private final Node myRoot = new Node(null);
+	private final Set<String> myPaths = new HashSet<>();
+
+	ResourcePathTrie(RuntimeResourceDefinition theResourceDefinition) {
+		myResourceDefinition = theResourceDefinition;
+	}
+
+	/**
+	 * @return Returns <code>true</code> if the path is a plain element path and was added
+	 */
+	boolean addPath(String thePath) {
+		if (myPaths.contains(thePath)) {
+			return true;
+		}
+		if (!SIMPLE_PATH.matcher(thePath).matches()) {
+			return false;
+		}
+
+		String[] parts = thePath.split("\\.");
+		if (!parts[0].equals(myResourceDefinition.getName()) && !BASE_RESOURCE_NAMES.contains(parts[0])) {
+			return false;
+		}
+
+		List<BaseRuntimeChildDefinition> children = new ArrayList<>(parts.length - 1);
+		BaseRuntimeElementCompositeDefinition<?> def = myResourceDefinition;
+		for (int i = 1; i < parts.length; i++) {
+			BaseRuntimeChildDefinition child = def.getChildByName(parts[i]);
+			if (child == null) {
+				child = def.getChildByName(parts[i] + "[x]");
+			}
+
+			// Type specific choice names (e.g. Patient.deceasedDateTime) only match values of that type
+			if (child == null || !(child.getElementName().equals(parts[i]) || child.getElementName().equals(parts[i] + "[x]"))) {
+				return false;
+			}
+			children.add(child);
+
+			if (i < parts.length - 1) {
+				if (child.getValidChildNames().size() != 1) {
+					return false;
+				}
+				BaseRuntimeElementDefinition<?> childDef = child.getChildByName(child.getValidChildNames().iterator().next());
+				if (!(childDef instanceof BaseRuntimeElementCompositeDefinition)) {
+					return false;
+				}
+				def = (BaseRuntimeElementCompositeDefinition<?>) childDef;
+			}
+		}
+
+		Node node = myRoot;
+		for (int i = 0; i < children.size(); i++) {
+			BaseRuntimeChildDefinition child = children.get(i);
+			node = node.myChildren.computeIfAbsent(parts[i + 1], t -> new Node(child));
+		}
+		node.myPaths.add(thePath);
+		myPaths.add(thePath);
+		return true;
+	}
+
+	boolean isEmpty() {
+		return myPaths.isEmpty();
+	}
+
+	/**
+	 * Walks the resource once, collecting the values at every path in this trie
+	 *
+	 * @return Returns a map with an entry (which may be an empty list) for every path in this
+	 * trie, and no entry for any other path
+	 */
+	Map<String, List<IBase>> walk(IBaseResource theResource) {
+		Map<String, List<IBase>> retVal = new HashMap<>();
+		for (String next : myPaths) {
+			retVal.put(next, Collections.emptyList());
+		}
+		walk(myRoot, Collections.singletonList(theResource), retVal);
+		return retVal;
+	}
+
+	private void walk(Node theNode, List<IBase> theFocus, Map<String, List<IBase>> theValues) {
+		for (String next : theNode.myPaths) {
+			theValues.put(next, theFocus);
+		}
+
+		for (Node nextChild : theNode.myChildren.values()) {
+			List<IBase> values = new ArrayList<>();
+			for (IBase nextFocus : theFocus) {
+				for (IBase nextValue : nextChild.myChildDefinition.getAccessor().getValues(nextFocus)) {
+					if (nextValue != null) {
+						values.add(nextValue);
+					}
+				}
+			}
+			if (!values.isEmpty()) {
+				walk(nextChild, values, theValues);
+			}
+		}
+	}
+
+	private static class Node {
+		private final BaseRuntimeChildDefinition myChildDefinition;
+		private final Map<String, Node> myChildren = new LinkedHashMap<>();
+		private final List<String> myPaths = new ArrayList<>(1);
+
+		Node(BaseRuntimeChildDefinition theChildDefinition) {
+			myChildDefinition = theChildDefinition;
+		}
+	}
+
+}
@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.searchparam.extractor;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.jpa.model.entity.ModelConfig;
 import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
 import com.google.common.annotations.VisibleForTesting;
@@ -59,9 +60,10 @@ public class SearchParamExtractorR4 extends BaseSearchParamExtractor implements
 	}
 
 	@Override
-	protected IValueExtractor getPathValueExtractor(IBaseResource theResource, String theSinglePath) {
+	protected IValueExtractor getPathValueExtractor(RuntimeSearchParam theSearchParam, IBaseResource theResource, String theSinglePath) {
 		return () -> {
-			List<Base> allValues = myFhirPathEngine.evaluate((Base) theResource, theSinglePath);
+			ExpressionNode expression = getParsedPath(theSearchParam, theSinglePath, myFhirPathEngine::parse);
+			List<Base> allValues = myFhirPathEngine.evaluate((Base) theResource, expression);
 			return (List<IBase>) new ArrayList<IBase>(allValues);
 		};
 	}
@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.searchparam.extractor;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.exceptions.PathEngineException;
@@ -75,8 +76,11 @@ public class SearchParamExtractorR5 extends BaseSearchParamExtractor implements
 	}
 
 	@Override
-	protected IValueExtractor getPathValueExtractor(IBaseResource theResource, String nextPath) {
-		return () -> myFhirPathEngine.evaluate((Base) theResource, nextPath);
+	protected IValueExtractor getPathValueExtractor(RuntimeSearchParam theSearchParam, IBaseResource theResource, String nextPath) {
+		return () -> {
+			ExpressionNode expression = getParsedPath(theSearchParam, nextPath, myFhirPathEngine::parse);
+			return myFhirPathEngine.evaluate((Base) theResource, expression);
+		};
 	}
 
 
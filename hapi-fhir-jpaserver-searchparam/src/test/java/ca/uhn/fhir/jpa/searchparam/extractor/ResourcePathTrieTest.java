@@ -0,0 +1,85 @@
+package ca.uhn.fhir.jpa.searchparam.extractor;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.util.TestUtil;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.r4.hapi.ctx.DefaultProfileValidationSupport;
+import org.hl7.fhir.r4.hapi.ctx.HapiWorkerContext;
+import org.hl7.fhir.r4.model.*;
+import org.hl7.fhir.r4.utils.FHIRPathEngine;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResourcePathTrieTest {
+
+	private static FhirContext ourCtx = FhirContext.forR4();
+
+	@Test
+	public void testRejectsPathsThatAreNotPlainElementPaths() {
+		ResourcePathTrie trie = new ResourcePathTrie(ourCtx.getResourceDefinition("Observation"));
+
+		assertTrue(trie.addPath("Observation.code"));
+		assertTrue(trie.addPath("Observation.value"));
+		assertTrue(trie.addPath("Observation.component.code"));
+		assertTrue(trie.addPath("Resource.meta.tag"));
+
+		assertFalse(trie.addPath("Observation"));
+		assertFalse(trie.addPath("Patient.name"));
+		assertFalse(trie.addPath("Observation.foo"));
+		assertFalse(trie.addPath("Observation.valueQuantity"));
+		assertFalse(trie.addPath("Observation.value.code"));
+		assertFalse(trie.addPath("Observation.subject.where(resolve() is Patient)"));
+		assertFalse(trie.addPath("(Observation.value as Quantity)"));
+	}
+
+	@Test
+	public void testWalkMatchesFhirPath() {
+		Patient patient = new Patient();
+		patient.setId("Patient/123");
+		patient.getMeta().addTag("http://tags", "tag0", null);
+		patient.addName().setFamily("FAMILY0").addGiven("GIVEN0").addGiven("GIVEN1");
+		patient.addName().addGiven("GIVEN2");
+		patient.addContact().addTelecom().setValue("123");
+		patient.addContact().addTelecom().setValue("456");
+		patient.addContact().setGender(Enumerations.AdministrativeGender.MALE);
+		patient.setDeceased(new DateTimeType("2019-01-01"));
+		patient.getManagingOrganization().setReference("Organization/1");
+
+		RuntimeResourceDefinition def = ourCtx.getResourceDefinition(patient);
+		ResourcePathTrie trie = new ResourcePathTrie(def);
+		for (RuntimeSearchParam next : def.getSearchParams()) {
+			for (String nextPath : next.getPath().split("\\|")) {
+				trie.addPath(nextPath.trim());
+			}
+		}
+		assertTrue(trie.addPath("Patient.name.given"));
+		assertTrue(trie.addPath("Patient.contact.telecom.value"));
+		assertTrue(trie.addPath("Patient.deceased"));
+		assertTrue(trie.addPath("Patient.managingOrganization"));
+		assertTrue(trie.addPath("Patient.photo.data"));
+
+		FHIRPathEngine fhirPath = new FHIRPathEngine(new HapiWorkerContext(ourCtx, new DefaultProfileValidationSupport()));
+		Map<String, List<IBase>> values = trie.walk(patient);
+		assertTrue(values.size() > 5);
+		for (Map.Entry<String, List<IBase>> next : values.entrySet()) {
+			assertEquals(next.getKey(), fhirPath.evaluate(patient, next.getKey()), next.getValue());
+		}
+
+		assertEquals(3, values.get("Patient.name.given").size());
+		assertEquals(0, values.get("Patient.photo.data").size());
+		assertNull(values.get("Patient.foo"));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -140,6 +140,31 @@ public class SearchParamExtractorDstu3Test {
 	}
 
 
+	@Test
+	public void testParsedPathsAreReusedUntilSearchParamIsReplaced() {
+
+		MySearchParamRegistry searchParamRegistry = new MySearchParamRegistry();
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(new ModelConfig(), ourCtx, ourValidationSupport, searchParamRegistry);
+		extractor.start();
+
+		RuntimeSearchParam sp = new RuntimeSearchParam("foo", "foo", "Patient.name.family", RestSearchParameterTypeEnum.STRING, Sets.newHashSet(), Sets.newHashSet(), RuntimeSearchParam.RuntimeSearchParamStatusEnum.ACTIVE);
+		searchParamRegistry.addSearchParam(sp);
+		Patient resource = new Patient();
+		resource.addName().setFamily("FAMILY").addGiven("GIVEN");
+		Set<ResourceIndexedSearchParamString> strings = extractor.extractSearchParamStrings(resource);
+		assertThat(strings.stream().filter(t -> t.getParamName().equals("foo")).map(ResourceIndexedSearchParamString::getValueExact).collect(Collectors.toList()), Matchers.contains("FAMILY"));
+
+		ExpressionNode parsed = extractor.getParsedPath(sp, "Patient.name.family", t -> new ExpressionNode(0));
+		assertSame(parsed, extractor.getParsedPath(sp, "Patient.name.family", t -> new ExpressionNode(0)));
+
+		// A refreshed registry hands out a new instance, so its paths are parsed again
+		sp = new RuntimeSearchParam("foo", "foo", "Patient.name.given", RestSearchParameterTypeEnum.STRING, Sets.newHashSet(), Sets.newHashSet(), RuntimeSearchParam.RuntimeSearchParamStatusEnum.ACTIVE);
+		searchParamRegistry.addSearchParam(sp);
+		strings = extractor.extractSearchParamStrings(resource);
+		assertThat(strings.stream().filter(t -> t.getParamName().equals("foo")).map(ResourceIndexedSearchParamString::getValueExact).collect(Collectors.toList()), Matchers.contains("GIVEN"));
+		assertNotSame(parsed, extractor.getParsedPath(sp, "Patient.name.family", t -> new ExpressionNode(0)));
+	}
+
 	@Test
 	public void testInvalidType() {
 
@@ -0,0 +1,390 @@
+package ca.uhn.fhir.jpa.subscription.module.cache;
+
+/*-
+ * #%L
+ * HAPI FHIR Subscription Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.extractor.PathAndRef;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
+import ca.uhn.fhir.util.UrlUtil;
+import com.google.common.annotations.VisibleForTesting;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Index of the criteria of the active subscriptions, used to find the subscriptions which could
+ * possibly match a resource without evaluating the criteria of every subscription.
+ * <p>
+ * Subscriptions are grouped by the resource type in their criteria. Where the criteria contain a
+ * plain equality test on a reference or token search parameter (e.g. <code>Observation?patient=123</code>
+ * or <code>Observation?code=http://loinc.org|1234-5</code>) the subscription is also indexed on
+ * the ID or code being tested for, and is only returned as a candidate for resources that contain
+ * that value. Candidates still need to be fully matched, this index only rules out subscriptions
+ * that can not possibly match.
+ * </p>
+ * <p>
+ * Keys are compared case-insensitively and references are compared by ID part only, so a lookup
+ * may return a few extra candidates but never misses a subscription that would match.
+ * </p>
+ */
+@Component
+public class SubscriptionCriteriaIndex {
+	private static final Logger ourLog = LoggerFactory.getLogger(SubscriptionCriteriaIndex.class);
+
+	private final Map<String, ResourceTypeIndex> myResourceTypeToIndex = new ConcurrentHashMap<>();
+	private final Map<String, IndexedCriteria> mySubscriptionIdToIndexedCriteria = new HashMap<>();
+	@Autowired
+	private FhirContext myFhirContext;
+	@Autowired
+	private ISearchParamRegistry mySearchParamRegistry;
+	@Autowired
+	private ISearchParamExtractor mySearchParamExtractor;
+
+	/**
+	 * Adds a subscription to the index, replacing any existing entry for the same subscription ID
+	 */
+	public synchronized void add(ActiveSubscription theActiveSubscription) {
+		remove(theActiveSubscription.getId());
+
+		IndexedCriteria indexedCriteria = indexCriteria(theActiveSubscription);
+		if (indexedCriteria == null) {
+			return;
+		}
+
+		ResourceTypeIndex resourceTypeIndex = myResourceTypeToIndex.computeIfAbsent(indexedCriteria.myResourceType, t -> new ResourceTypeIndex());
+		if (indexedCriteria.myParamName == null) {
+			resourceTypeIndex.myUnindexed.add(theActiveSubscription);
+		} else {
+			Map<String, Set<ActiveSubscription>> keyToSubscriptions = resourceTypeIndex.myParamToKeyToSubscriptions.computeIfAbsent(indexedCriteria.myParamName, t -> new ConcurrentHashMap<>());
+			for (String nextKey : indexedCriteria.myKeys) {
+				keyToSubscriptions.computeIfAbsent(nextKey, t -> ConcurrentHashMap.newKeySet()).add(theActiveSubscription);
+			}
+		}
+		mySubscriptionIdToIndexedCriteria.put(theActiveSubscription.getId(), indexedCriteria);
+	}
+
+	public synchronized void remove(String theSubscriptionId) {
+		IndexedCriteria indexedCriteria = mySubscriptionIdToIndexedCriteria.remove(theSubscriptionId);
+		if (indexedCriteria == null) {
+			return;
+		}
+
+		ResourceTypeIndex resourceTypeIndex = myResourceTypeToIndex.get(indexedCriteria.myResourceType);
+		if (resourceTypeIndex == null) {
+			return;
+		}
+		if (indexedCriteria.myParamName == null) {
+			resourceTypeIndex.myUnindexed.remove(indexedCriteria.myActiveSubscription);
+		} else {
+			Map<String, Set<ActiveSubscription>> keyToSubscriptions = resourceTypeIndex.myParamToKeyToSubscriptions.get(indexedCriteria.myParamName);
+			if (keyToSubscriptions != null) {
+				for (String nextKey : indexedCriteria.myKeys) {
+					Set<ActiveSubscription> subscriptions = keyToSubscriptions.get(nextKey);
+					if (subscriptions != null) {
+						subscriptions.remove(indexedCriteria.myActiveSubscription);
+						if (subscriptions.isEmpty()) {
+							keyToSubscriptions.remove(nextKey);
+						}
+					}
+				}
+				if (keyToSubscriptions.isEmpty()) {
+					resourceTypeIndex.myParamToKeyToSubscriptions.remove(indexedCriteria.myParamName);
+				}
+			}
+		}
+		if (resourceTypeIndex.isEmpty()) {
+			myResourceTypeToIndex.remove(indexedCriteria.myResourceType);
+		}
+	}
+
+	/**
+	 * Returns the subscriptions whose criteria could match the given resource. This method does not lock,
+	 * so subscriptions being registered or unregistered concurrently may or may not be included.
+	 *
+	 * @param theResourceType The resource type
+	 * @param theResource     The resource, or <code>null</code> if it is not available (in which case all subscriptions for the resource type are returned)
+	 */
+	public Collection<ActiveSubscription> getCandidates(String theResourceType, IBaseResource theResource) {
+		ResourceTypeIndex resourceTypeIndex = myResourceTypeToIndex.get(theResourceType);
+		if (resourceTypeIndex == null) {
+			return Collections.emptyList();
+		}
+
+		Set<ActiveSubscription> retVal = new HashSet<>(resourceTypeIndex.myUnindexed);
+		for (Map.Entry<String, Map<String, Set<ActiveSubscription>>> nextParamEntry : resourceTypeIndex.myParamToKeyToSubscriptions.entrySet()) {
+			String paramName = nextParamEntry.getKey();
+			Map<String, Set<ActiveSubscription>> keyToSubscriptions = nextParamEntry.getValue();
+
+			Set<String> keys = theResource != null ? extractKeys(theResourceType, paramName, theResource) : null;
+			if (keys == null) {
+				keyToSubscriptions.values().forEach(retVal::addAll);
+				continue;
+			}
+			for (String nextKey : keys) {
+				Set<ActiveSubscription> subscriptions = keyToSubscriptions.get(nextKey);
+				if (subscriptions != null) {
+					retVal.addAll(subscriptions);
+				}
+			}
+		}
+
+		ourLog.trace("Found {} candidate subscriptions for {}", retVal.size(), theResourceType);
+		return retVal;
+	}
+
+	@VisibleForTesting
+	synchronized String getIndexedParamNameForUnitTest(String theSubscriptionId) {
+		IndexedCriteria indexedCriteria = mySubscriptionIdToIndexedCriteria.get(theSubscriptionId);
+		return indexedCriteria != null ? indexedCriteria.myParamName : null;
+	}
+
+	/**
+	 * @return Returns <code>null</code> if the subscription can never match anything (no criteria or no resource type)
+	 */
+	private IndexedCriteria indexCriteria(ActiveSubscription theActiveSubscription) {
+		String criteria = theActiveSubscription.getCriteriaString();
+		if (isBlank(criteria)) {
+			return null;
+		}
+
+		int questionMarkIndex = criteria.indexOf('?');
+		String resourceType = questionMarkIndex != -1 ? criteria.substring(0, questionMarkIndex) : criteria;
+		if (isBlank(resourceType)) {
+			return null;
+		}
+
+		IndexedCriteria retVal = new IndexedCriteria(theActiveSubscription, resourceType);
+		if (questionMarkIndex == -1) {
+			return retVal;
+		}
+
+		int bestRank = Integer.MAX_VALUE;
+		Map<String, String[]> params = UrlUtil.parseQueryString(criteria.substring(questionMarkIndex + 1));
+		for (Map.Entry<String, String[]> nextEntry : params.entrySet()) {
+			String paramName = nextEntry.getKey();
+
+			// Modifiers, chains and special parameters are left to the matcher
+			if (paramName.startsWith("_") || paramName.contains(":") || paramName.contains(".")) {
+				continue;
+			}
+
+			RuntimeSearchParam searchParam = mySearchParamRegistry.getActiveSearchParam(resourceType, paramName);
+			if (searchParam == null || isBlank(searchParam.getPath())) {
+				continue;
+			}
+
+			int rank;
+			switch (searchParam.getParamType()) {
+				case REFERENCE:
+					rank = 0;
+					break;
+				case TOKEN:
+					// A status only has a handful of possible values, so anything else is more selective
+					rank = paramName.equals("status") ? 2 : 1;
+					break;
+				default:
+					continue;
+			}
+			if (rank >= bestRank) {
+				continue;
+			}
+
+			// Parameters repeated with AND semantics must all match, so indexing on the first is enough
+			Set<String> keys = new HashSet<>();
+			for (String nextValue : nextEntry.getValue()[0].split(",")) {
+				String key = toCriteriaKey(searchParam.getParamType(), nextValue);
+				if (key == null) {
+					keys = null;
+					break;
+				}
+				keys.add(key);
+			}
+			if (keys == null || keys.isEmpty()) {
+				continue;
+			}
+
+			bestRank = rank;
+			retVal.myParamName = paramName;
+			retVal.myKeys = keys;
+		}
+
+		ourLog.debug("Indexing subscription {} with criteria {} on parameter: {}", theActiveSubscription.getId(), criteria, retVal.myParamName);
+		return retVal;
+	}
+
+	/**
+	 * @return Returns the keys for all of the values of the given search parameter in the resource,
+	 * or <code>null</code> if any of them could not be converted into a key
+	 */
+	private Set<String> extractKeys(String theResourceType, String theParamName, IBaseResource theResource) {
+		RuntimeSearchParam searchParam = mySearchParamRegistry.getActiveSearchParam(theResourceType, theParamName);
+		if (searchParam == null) {
+			return null;
+		}
+
+		Set<String> retVal = new HashSet<>();
+		try {
+			for (PathAndRef nextPathAndRef : mySearchParamExtractor.extractResourceLinks(theResource, searchParam)) {
+				Object nextValue = nextPathAndRef.getRef();
+				boolean keyable;
+				if (searchParam.getParamType() == RestSearchParameterTypeEnum.REFERENCE) {
+					keyable = addReferenceKeys(nextValue, retVal);
+				} else {
+					keyable = nextValue instanceof IBase && addTokenKeys((IBase) nextValue, retVal);
+				}
+				if (!keyable) {
+					return null;
+				}
+			}
+		} catch (Exception e) {
+			ourLog.debug("Failed to extract values of parameter {} from resource, treating all subscriptions as candidates: {}", theParamName, e.toString());
+			return null;
+		}
+		return retVal;
+	}
+
+	private boolean addReferenceKeys(Object theValue, Set<String> theKeys) {
+		String idPart;
+		if (theValue instanceof IBaseReference) {
+			IBaseReference reference = (IBaseReference) theValue;
+			idPart = reference.getReferenceElement().getIdPart();
+			if (isBlank(idPart) && reference.getResource() != null) {
+				idPart = reference.getResource().getIdElement().getIdPart();
+			}
+		} else if (theValue instanceof IPrimitiveType) {
+			idPart = toReferenceKey(((IPrimitiveType<?>) theValue).getValueAsString());
+		} else {
+			return false;
+		}
+
+		if (isNotBlank(idPart)) {
+			theKeys.add(idPart.toLowerCase());
+		}
+		return true;
+	}
+
+	/**
+	 * Token values are codes (Coding), values (Identifier, ContactPoint) or plain
+	 * primitives, or contain codings (CodeableConcept)
+	 */
+	private boolean addTokenKeys(IBase theValue, Set<String> theKeys) {
+		if (theValue instanceof IPrimitiveType) {
+			String value = ((IPrimitiveType<?>) theValue).getValueAsString();
+			if (isNotBlank(value)) {
+				theKeys.add(value.toLowerCase());
+			}
+			return true;
+		}
+
+		BaseRuntimeElementDefinition<?> def = myFhirContext.getElementDefinition(theValue.getClass());
+		if (!(def instanceof BaseRuntimeElementCompositeDefinition)) {
+			return false;
+		}
+		BaseRuntimeElementCompositeDefinition<?> compositeDef = (BaseRuntimeElementCompositeDefinition<?>) def;
+
+		boolean keyable = false;
+		for (String nextChildName : new String[]{"code", "value"}) {
+			BaseRuntimeChildDefinition child = compositeDef.getChildByName(nextChildName);
+			if (child != null) {
+				keyable = true;
+				for (IBase nextChildValue : child.getAccessor().getValues(theValue)) {
+					if (!addTokenKeys(nextChildValue, theKeys)) {
+						return false;
+					}
+				}
+			}
+		}
+		BaseRuntimeChildDefinition codingChild = compositeDef.getChildByName("coding");
+		if (codingChild != null) {
+			keyable = true;
+			for (IBase nextCoding : codingChild.getAccessor().getValues(theValue)) {
+				if (!addTokenKeys(nextCoding, theKeys)) {
+					return false;
+				}
+			}
+		}
+		return keyable;
+	}
+
+	private static String toCriteriaKey(RestSearchParameterTypeEnum theParamType, String theValue) {
+		if (isBlank(theValue) || theValue.contains("\\")) {
+			return null;
+		}
+
+		String retVal;
+		if (theParamType == RestSearchParameterTypeEnum.REFERENCE) {
+			retVal = toReferenceKey(theValue);
+		} else {
+			// system|code, |code or code - A system on its own can't be indexed
+			int pipeIndex = theValue.indexOf('|');
+			retVal = pipeIndex != -1 ? theValue.substring(pipeIndex + 1) : theValue;
+		}
+
+		return isNotBlank(retVal) ? retVal.toLowerCase() : null;
+	}
+
+	private static String toReferenceKey(String theReference) {
+		if (isBlank(theReference)) {
+			return null;
+		}
+		return new IdDt(theReference).getIdPart();
+	}
+
+	private static class ResourceTypeIndex {
+		private final Set<ActiveSubscription> myUnindexed = ConcurrentHashMap.newKeySet();
+		private final Map<String, Map<String, Set<ActiveSubscription>>> myParamToKeyToSubscriptions = new ConcurrentHashMap<>();
+
+		boolean isEmpty() {
+			return myUnindexed.isEmpty() && myParamToKeyToSubscriptions.isEmpty();
+		}
+	}
+
+	private static class IndexedCriteria {
+		private final ActiveSubscription myActiveSubscription;
+		private final String myResourceType;
+		private String myParamName;
+		private Set<String> myKeys = Collections.emptySet();
+
+		IndexedCriteria(ActiveSubscription theActiveSubscription, String theResourceType) {
+			myActiveSubscription = theActiveSubscription;
+			myResourceType = theResourceType;
+		}
+	}
+
+}
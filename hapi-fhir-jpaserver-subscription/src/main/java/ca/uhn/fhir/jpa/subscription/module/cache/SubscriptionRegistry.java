@@ -60,6 +60,8 @@ public class SubscriptionRegistry {
 	private SubscriptionChannelRegistry mySubscriptionChannelRegistry;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	@Autowired
+	private SubscriptionCriteriaIndex mySubscriptionCriteriaIndex;
 
 	/**
 	 * Constructor
@@ -76,6 +78,16 @@ public class SubscriptionRegistry {
 		return myActiveSubscriptionCache.getAll();
 	}
 
+	/**
+	 * Returns the active subscriptions whose criteria could match the given resource. The
+	 * criteria of the returned subscriptions still need to be tested against the resource.
+	 *
+	 * @see SubscriptionCriteriaIndex#getCandidates(String, IBaseResource)
+	 */
+	public Collection<ActiveSubscription> getCandidates(String theResourceType, IBaseResource theResource) {
+		return mySubscriptionCriteriaIndex.getCandidates(theResourceType, theResource);
+	}
+
 	private Optional<CanonicalSubscription> hasSubscription(IIdType theId) {
 		Validate.notNull(theId);
 		Validate.notBlank(theId.getIdPart());
@@ -98,6 +110,7 @@ public class SubscriptionRegistry {
 		ActiveSubscription activeSubscription = new ActiveSubscription(canonicalized, channelName);
 		mySubscriptionChannelRegistry.add(activeSubscription);
 		myActiveSubscriptionCache.put(subscriptionId, activeSubscription);
+		mySubscriptionCriteriaIndex.add(activeSubscription);
 
 		// Interceptor call: SUBSCRIPTION_AFTER_ACTIVE_SUBSCRIPTION_REGISTERED
 		HookParams params = new HookParams()
@@ -112,6 +125,7 @@ public class SubscriptionRegistry {
 
 		ourLog.info("Unregistering active subscription {}", theSubscriptionId);
 		ActiveSubscription activeSubscription = myActiveSubscriptionCache.remove(theSubscriptionId);
+		mySubscriptionCriteriaIndex.remove(theSubscriptionId);
 		if (activeSubscription != null) {
 			mySubscriptionChannelRegistry.remove(activeSubscription);
 		}
@@ -166,6 +180,7 @@ public class SubscriptionRegistry {
 		Validate.notNull(activeSubscription);
 		CanonicalSubscription canonicalized = mySubscriptionCanonicalizer.canonicalize(theSubscription);
 		activeSubscription.setSubscription(canonicalized);
+		mySubscriptionCriteriaIndex.add(activeSubscription);
 
 		// Interceptor call: SUBSCRIPTION_AFTER_ACTIVE_SUBSCRIPTION_REGISTERED
 		HookParams params = new HookParams()
@@ -0,0 +1,482 @@
+package ca.uhn.fhir.jpa.subscription.module.subscriber;
+
+/*-
+ * #%L
+ * HAPI FHIR Subscription Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
+import ca.uhn.fhir.jpa.subscription.module.cache.ActiveSubscription;
+import ca.uhn.fhir.jpa.subscription.module.cache.SubscriptionRegistry;
+import ca.uhn.fhir.jpa.subscription.module.channel.SubscriptionChannelRegistry;
+import ca.uhn.fhir.jpa.subscription.module.channel.SubscriptionChannelWithHandlers;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.client.interceptor.SimpleRequestHeaderInterceptor;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Holds the state that REST Hook deliveries share across all subscriptions:
+ * <ul>
+ * <li>
+ * One client per endpoint URL and set of headers. Clients are thread safe, and building one (and
+ * registering its header interceptors) for every delivered message is wasted work. The underlying
+ * HTTP connections are pooled by the client factory, so reusing a client also keeps reusing
+ * the connections to its endpoint. The least recently used clients are evicted once too many
+ * are cached, and clients which have not been used for a while expire.
+ * </li>
+ * <li>
+ * A limit on the number of deliveries that may be in progress to one endpoint at the same time
+ * (see {@link ModelConfig#setRestHookMaxConcurrentDeliveriesPerEndpoint(int)}). When an endpoint is
+ * slow, a delivery thread only waits briefly for a slot. If none becomes available the message is
+ * deferred, so that the thread is free to deliver messages for other endpoints in the meantime.
+ * </li>
+ * <li>
+ * Delayed retries of deliveries that failed for a reason which is likely to go away (see
+ * {@link ModelConfig#setRestHookDeliveryMaxRetries(int)}).
+ * </li>
+ * <li>
+ * A backlog per endpoint URL holding the messages which have been deferred or are waiting to be
+ * retried, so that notifications still reach each endpoint in the order they were sent. While an
+ * endpoint has a backlog, any new message for it joins the end of the backlog instead of being
+ * delivered. Only the message at the head of the backlog is placed back on its delivery channel,
+ * and the next one follows once it has been delivered (or given up on). A backlog holds at most
+ * {@value #MAX_BACKLOG_SIZE} messages. Messages arriving while it is full are dropped and logged.
+ * </li>
+ * </ul>
+ * <p>
+ * Backlogs and pending retries are held in memory only, so they are lost if the server is restarted.
+ * </p>
+ */
+@Component
+public class RestHookEndpointManager {
+
+	/**
+	 * Message attribute holding the number of times that delivery of a message has been retried
+	 */
+	public static final String ATTRIBUTE_DELIVERY_RETRY_COUNT = "restHookDeliveryRetryCount";
+	/**
+	 * Message attribute identifying a message which is waiting in an endpoint's backlog
+	 */
+	static final String ATTRIBUTE_BACKLOG_ID = "restHookBacklogId";
+	static final int MAX_BACKLOG_SIZE = 1000;
+	private static final Logger ourLog = LoggerFactory.getLogger(RestHookEndpointManager.class);
+	private static final int MAX_CACHED_CLIENTS = 1000;
+	private static final long CLIENT_EXPIRY_MINUTES = 60;
+	private static final int MAX_BACKOFF_SHIFT = 10;
+	private static final long PERMIT_WAIT_MILLIS = 1000;
+	private static final long DEFER_DELAY_MILLIS = 1000;
+	/**
+	 * If the head of a backlog has not come back from its delivery channel this long after it
+	 * was due, it is assumed to have been lost (e.g. because its subscription was removed)
+	 */
+	private static final long LOST_HEAD_MILLIS = DateUtils.MILLIS_PER_MINUTE;
+
+	private final Cache<String, IGenericClient> myClients = CacheBuilder
+		.newBuilder()
+		.maximumSize(MAX_CACHED_CLIENTS)
+		.expireAfterAccess(CLIENT_EXPIRY_MINUTES, TimeUnit.MINUTES)
+		.build();
+	private final ConcurrentHashMap<String, EndpointPermits> myEndpointPermits = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Backlog> myBacklogs = new ConcurrentHashMap<>();
+	private final ScheduledThreadPoolExecutor myRetryExecutor;
+
+	@Autowired
+	private FhirContext myFhirContext;
+	@Autowired
+	private ModelConfig myModelConfig;
+	@Autowired
+	private SubscriptionRegistry mySubscriptionRegistry;
+	@Autowired
+	private SubscriptionChannelRegistry mySubscriptionChannelRegistry;
+
+	/**
+	 * Constructor
+	 */
+	public RestHookEndpointManager() {
+		ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("rest-hook-retry-%d")
+			.daemon(true)
+			.build();
+		myRetryExecutor = new ScheduledThreadPoolExecutor(1, threadFactory);
+		myRetryExecutor.setRemoveOnCancelPolicy(true);
+	}
+
+	@PreDestroy
+	public void stop() {
+		myRetryExecutor.shutdownNow();
+	}
+
+	/**
+	 * Returns a client for the endpoint of the given subscription, with the subscription's headers
+	 * already registered
+	 */
+	public IGenericClient getClient(CanonicalSubscription theSubscription) {
+		String endpointUrl = theSubscription.getEndpointUrl();
+		List<String> headers = theSubscription.getHeaders();
+		String key = endpointUrl + "\n" + String.join("\n", headers);
+
+		return myClients.asMap().computeIfAbsent(key, t -> newClient(endpointUrl, headers));
+	}
+
+	private IGenericClient newClient(String theEndpointUrl, List<String> theHeaders) {
+		myFhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		IGenericClient retVal = myFhirContext.newRestfulGenericClient(theEndpointUrl);
+
+		// Additional headers specified in the subscription
+		for (String next : theHeaders) {
+			if (isNotBlank(next)) {
+				retVal.registerInterceptor(new SimpleRequestHeaderInterceptor(next));
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Runs a delivery of the given message to the given endpoint, unless earlier messages for the
+	 * endpoint are still waiting in its backlog, in which case the message joins the end of the
+	 * backlog. The delivery is also deferred if no delivery slot for the endpoint becomes available
+	 * within a short wait, instead of holding on to the calling (channel) thread. If the delivery
+	 * fails for a reason that looks transient, it is retried after a delay ahead of anything else
+	 * for the endpoint.
+	 *
+	 * @return Returns <code>true</code> if the delivery was run, or <code>false</code> if the message was deferred
+	 */
+	public boolean deliverOrDefer(ResourceDeliveryMessage theMessage, String theEndpointUrl, Runnable theDelivery) {
+		if (isBlank(theEndpointUrl)) {
+			theDelivery.run();
+			return true;
+		}
+
+		Backlog backlog = myBacklogs.computeIfAbsent(theEndpointUrl, Backlog::new);
+		boolean isHead;
+		synchronized (backlog) {
+			isHead = backlog.isHead(theMessage);
+			if (isHead) {
+				backlog.myHeadDueTime = Long.MAX_VALUE;
+			} else {
+				backlog.removeHeadIfLost();
+				if (!backlog.isEmpty()) {
+					backlog.add(theMessage, 0);
+					return false;
+				}
+			}
+		}
+
+		EndpointPermits permits = null;
+		int limit = myModelConfig.getRestHookMaxConcurrentDeliveriesPerEndpoint();
+		if (limit > 0) {
+			String endpointKey = toEndpointKey(theEndpointUrl);
+			permits = myEndpointPermits.compute(endpointKey, (k, v) -> v != null && v.myLimit == limit ? v : new EndpointPermits(limit));
+			if (!acquire(permits, endpointKey)) {
+				ourLog.debug("No free delivery slot for endpoint {}, deferring delivery for subscription {}", endpointKey, getSubscriptionId(theMessage));
+				synchronized (backlog) {
+					if (isHead) {
+						backlog.scheduleHead(DEFER_DELAY_MILLIS);
+					} else {
+						backlog.add(theMessage, DEFER_DELAY_MILLIS);
+					}
+				}
+				return false;
+			}
+		}
+
+		try {
+			theDelivery.run();
+		} catch (RuntimeException e) {
+			long retryDelay = getRetryDelay(theMessage, e);
+			synchronized (backlog) {
+				if (retryDelay >= 0) {
+					// The message we were given carries the new retry count, so it replaces the head
+					if (isHead) {
+						backlog.myMessages.pollFirst();
+					}
+					backlog.addFirst(theMessage);
+					backlog.scheduleHead(retryDelay);
+				} else if (isHead) {
+					backlog.removeHead();
+				}
+			}
+			throw e;
+		} finally {
+			if (permits != null) {
+				permits.mySemaphore.release();
+			}
+		}
+
+		if (isHead) {
+			synchronized (backlog) {
+				backlog.removeHead();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Waits a short time for a delivery slot. If deferred deliveries can no longer be scheduled
+	 * because we are shutting down, waits until one is available instead.
+	 */
+	private boolean acquire(EndpointPermits thePermits, String theEndpointKey) {
+		try {
+			if (thePermits.mySemaphore.tryAcquire(PERMIT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+			if (myRetryExecutor.isShutdown()) {
+				thePermits.mySemaphore.acquire();
+				return true;
+			}
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException("Interrupted while waiting to deliver to " + theEndpointKey, e);
+		}
+	}
+
+	/**
+	 * If the given delivery failure looks transient and the message has not yet been retried the
+	 * maximum number of times, increments the message's retry count
+	 *
+	 * @return Returns the delay before the retry, or <code>-1</code> if the delivery should not be retried
+	 */
+	private long getRetryDelay(ResourceDeliveryMessage theMessage, Exception theFailure) {
+		int maxRetries = myModelConfig.getRestHookDeliveryMaxRetries();
+		if (maxRetries <= 0 || !isTransientOrCausedByTransient(theFailure) || myRetryExecutor.isShutdown()) {
+			return -1;
+		}
+
+		int retryCount = NumberUtils.toInt(theMessage.getAttribute(ATTRIBUTE_DELIVERY_RETRY_COUNT).orElse(null), 0);
+		String subscriptionId = getSubscriptionId(theMessage);
+		if (retryCount >= maxRetries) {
+			ourLog.warn("Giving up on delivery for subscription {} after {} retries", subscriptionId, retryCount);
+			return -1;
+		}
+
+		long delay = myModelConfig.getRestHookDeliveryRetryDelayMillis() << Math.min(retryCount, MAX_BACKOFF_SHIFT);
+		theMessage.setAttribute(ATTRIBUTE_DELIVERY_RETRY_COUNT, Integer.toString(retryCount + 1));
+		ourLog.info("Retrying delivery for subscription {} in {}ms (retry {} of {})", subscriptionId, delay, retryCount + 1, maxRetries);
+		return delay;
+	}
+
+	private String getSubscriptionId(ResourceDeliveryMessage theMessage) {
+		return theMessage.getSubscription().getIdElement(myFhirContext).getIdPart();
+	}
+
+	/**
+	 * @return Returns <code>false</code> if the message could not be placed back on its channel
+	 */
+	private boolean resend(ResourceDeliveryMessage theMessage) {
+		String subscriptionId = getSubscriptionId(theMessage);
+		ActiveSubscription activeSubscription = mySubscriptionRegistry.get(subscriptionId);
+		if (activeSubscription == null) {
+			ourLog.info("Subscription {} is no longer active, dropping deferred delivery", subscriptionId);
+			return false;
+		}
+		SubscriptionChannelWithHandlers channel = mySubscriptionChannelRegistry.get(activeSubscription.getChannelName());
+		if (channel == null) {
+			ourLog.warn("No delivery channel for subscription {}, dropping deferred delivery", subscriptionId);
+			return false;
+		}
+		try {
+			channel.getChannel().send(new ResourceDeliveryJsonMessage(theMessage));
+			return true;
+		} catch (Exception e) {
+			ourLog.error("Failed to send deferred delivery for subscription " + subscriptionId, e);
+			return false;
+		}
+	}
+
+	@VisibleForTesting
+	void setFhirContextForUnitTest(FhirContext theFhirContext) {
+		myFhirContext = theFhirContext;
+	}
+
+	@VisibleForTesting
+	void setModelConfigForUnitTest(ModelConfig theModelConfig) {
+		myModelConfig = theModelConfig;
+	}
+
+	@VisibleForTesting
+	void setSubscriptionRegistryForUnitTest(SubscriptionRegistry theSubscriptionRegistry) {
+		mySubscriptionRegistry = theSubscriptionRegistry;
+	}
+
+	@VisibleForTesting
+	void setSubscriptionChannelRegistryForUnitTest(SubscriptionChannelRegistry theSubscriptionChannelRegistry) {
+		mySubscriptionChannelRegistry = theSubscriptionChannelRegistry;
+	}
+
+	private static boolean isTransientOrCausedByTransient(Throwable theFailure) {
+		for (Throwable next = theFailure; next != null; next = next.getCause()) {
+			if (next instanceof Exception && isTransient((Exception) next)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Failures where the endpoint could not be reached, or reported a problem on its side
+	 */
+	static boolean isTransient(Exception theFailure) {
+		if (theFailure instanceof FhirClientConnectionException) {
+			return true;
+		}
+		if (theFailure instanceof BaseServerResponseException) {
+			int status = ((BaseServerResponseException) theFailure).getStatusCode();
+			return status >= 500 || status == 429;
+		}
+		return false;
+	}
+
+	/**
+	 * Deliveries are limited per scheme, host and port, since that is what the connections
+	 * (and usually the receiving server) are shared by
+	 */
+	static String toEndpointKey(String theEndpointUrl) {
+		try {
+			URI uri = URI.create(theEndpointUrl);
+			if (uri.getHost() != null) {
+				return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+			}
+		} catch (IllegalArgumentException e) {
+			// fall through
+		}
+		return theEndpointUrl;
+	}
+
+	private static class EndpointPermits {
+		private final int myLimit;
+		private final Semaphore mySemaphore;
+
+		EndpointPermits(int theLimit) {
+			myLimit = theLimit;
+			mySemaphore = new Semaphore(theLimit, true);
+		}
+	}
+
+	/**
+	 * The messages for one endpoint URL which are waiting to be delivered. Callers must
+	 * synchronize on the backlog.
+	 */
+	private class Backlog {
+		private final String myEndpointUrl;
+		private final Deque<ResourceDeliveryMessage> myMessages = new ArrayDeque<>();
+		/**
+		 * The time at which the head is expected back from its delivery channel, or
+		 * {@link Long#MAX_VALUE} while it is being delivered
+		 */
+		private long myHeadDueTime = Long.MAX_VALUE;
+
+		Backlog(String theEndpointUrl) {
+			myEndpointUrl = theEndpointUrl;
+		}
+
+		boolean isEmpty() {
+			return myMessages.isEmpty();
+		}
+
+		boolean isHead(ResourceDeliveryMessage theMessage) {
+			ResourceDeliveryMessage head = myMessages.peekFirst();
+			if (head == null) {
+				return false;
+			}
+			String backlogId = theMessage.getAttribute(ATTRIBUTE_BACKLOG_ID).orElse(null);
+			return backlogId != null && backlogId.equals(head.getAttribute(ATTRIBUTE_BACKLOG_ID).orElse(null));
+		}
+
+		void add(ResourceDeliveryMessage theMessage, long theDelayIfHead) {
+			if (myMessages.size() >= MAX_BACKLOG_SIZE) {
+				ourLog.error("Backlog for endpoint {} is full, dropping delivery for subscription {}", myEndpointUrl, getSubscriptionId(theMessage));
+				return;
+			}
+			theMessage.setAttribute(ATTRIBUTE_BACKLOG_ID, UUID.randomUUID().toString());
+			myMessages.addLast(theMessage);
+			if (myMessages.size() == 1) {
+				scheduleHead(theDelayIfHead);
+			}
+		}
+
+		/**
+		 * A retry goes ahead of the messages which arrived while it was being delivered
+		 */
+		void addFirst(ResourceDeliveryMessage theMessage) {
+			theMessage.setAttribute(ATTRIBUTE_BACKLOG_ID, UUID.randomUUID().toString());
+			myMessages.addFirst(theMessage);
+		}
+
+		void scheduleHead(long theDelay) {
+			ResourceDeliveryMessage head = myMessages.peekFirst();
+			myHeadDueTime = System.currentTimeMillis() + theDelay;
+			try {
+				myRetryExecutor.schedule(() -> {
+					if (!resend(head)) {
+						synchronized (this) {
+							if (isHead(head)) {
+								removeHead();
+							}
+						}
+					}
+				}, theDelay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				ourLog.warn("Shutting down, dropping {} deferred deliveries for endpoint {}", myMessages.size(), myEndpointUrl);
+				myMessages.clear();
+			}
+		}
+
+		void removeHead() {
+			myMessages.pollFirst();
+			myHeadDueTime = Long.MAX_VALUE;
+			if (!myMessages.isEmpty()) {
+				scheduleHead(0);
+			}
+		}
+
+		void removeHeadIfLost() {
+			if (!myMessages.isEmpty() && myHeadDueTime != Long.MAX_VALUE && System.currentTimeMillis() > myHeadDueTime + LOST_HEAD_MILLIS) {
+				ourLog.warn("Deferred delivery for subscription {} to endpoint {} never came back from its channel, skipping it", getSubscriptionId(myMessages.peekFirst()), myEndpointUrl);
+				removeHead();
+			}
+		}
+	}
+
+}
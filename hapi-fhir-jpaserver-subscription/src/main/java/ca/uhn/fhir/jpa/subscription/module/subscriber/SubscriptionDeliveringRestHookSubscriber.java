@@ -27,10 +27,10 @@ import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.client.api.*;
-import ca.uhn.fhir.rest.client.interceptor.SimpleRequestHeaderInterceptor;
 import ca.uhn.fhir.rest.gclient.IClientExecutable;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
@@ -38,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
 import org.springframework.stereotype.Component;
 
@@ -51,6 +52,8 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDeliverySubscriber {
 	@Autowired
 	IResourceRetriever myResourceRetriever;
+	@Autowired
+	private RestHookEndpointManager myRestHookEndpointManager;
 	private Logger ourLog = LoggerFactory.getLogger(SubscriptionDeliveringRestHookSubscriber.class);
 
 	protected void deliverPayload(ResourceDeliveryMessage theMsg, CanonicalSubscription theSubscription, EncodingEnum thePayloadType, IGenericClient theClient) {
@@ -134,6 +137,19 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 		return payloadResource;
 	}
 
+	@Override
+	public void handleMessage(Message theMessage) throws MessagingException {
+		if (theMessage.getPayload() instanceof ResourceDeliveryMessage) {
+			ResourceDeliveryMessage msg = (ResourceDeliveryMessage) theMessage.getPayload();
+			if (msg.getSubscription() != null) {
+				// Waits for a free delivery slot for the endpoint, and queues the message behind any deferred or failed deliveries to it
+				myRestHookEndpointManager.deliverOrDefer(msg, msg.getSubscription().getEndpointUrl(), () -> super.handleMessage(theMessage));
+				return;
+			}
+		}
+		super.handleMessage(theMessage);
+	}
+
 	@Override
 	public void handleMessage(ResourceDeliveryMessage theMessage) throws MessagingException {
 		CanonicalSubscription subscription = theMessage.getSubscription();
@@ -151,25 +167,10 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 
 		// Grab the payload type (encoding mimetype) from the subscription
 		String payloadString = subscription.getPayloadString();
-		EncodingEnum payloadType = null;
-		if (payloadString != null) {
-			payloadType = EncodingEnum.forContentType(payloadString);
-		}
+		EncodingEnum payloadType = payloadString != null ? EncodingEnum.forContentType(payloadString) : null;
 
-		// Create the client request
-		myFhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
-		IGenericClient client = null;
-		if (isNotBlank(endpointUrl)) {
-			client = myFhirContext.newRestfulGenericClient(endpointUrl);
-
-			// Additional headers specified in the subscription
-			List<String> headers = subscription.getHeaders();
-			for (String next : headers) {
-				if (isNotBlank(next)) {
-					client.registerInterceptor(new SimpleRequestHeaderInterceptor(next));
-				}
-			}
-		}
+		// Grab the (shared) client for the endpoint
+		IGenericClient client = isNotBlank(endpointUrl) ? myRestHookEndpointManager.getClient(subscription) : null;
 
 		deliverPayload(theMessage, subscription, payloadType, client);
 
@@ -184,6 +185,11 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 
 	}
 
+	@VisibleForTesting
+	void setRestHookEndpointManagerForUnitTest(RestHookEndpointManager theRestHookEndpointManager) {
+		myRestHookEndpointManager = theRestHookEndpointManager;
+	}
+
 	/**
 	 * Sends a POST notification without a payload
 	 */
@@ -26,6 +26,7 @@ import org.springframework.messaging.MessagingException;
 import org.springframework.stereotype.Service;
 
 import java.util.Collection;
+import java.util.Collections;
 
 import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -111,23 +112,21 @@ public class SubscriptionMatchingSubscriber implements MessageHandler {
 		IIdType resourceId = theMsg.getId(myFhirContext);
 		Boolean isText = false;
 
-		Collection<ActiveSubscription> subscriptions = mySubscriptionRegistry.getAll();
+		Collection<ActiveSubscription> subscriptions;
+		if (isNotBlank(theMsg.getSubscriptionId())) {
+			ActiveSubscription activeSubscription = mySubscriptionRegistry.get(theMsg.getSubscriptionId());
+			subscriptions = activeSubscription != null ? Collections.singletonList(activeSubscription) : Collections.emptyList();
+		} else if (resourceId.getResourceType() != null) {
+			subscriptions = mySubscriptionRegistry.getCandidates(resourceId.getResourceType(), theMsg.getNewPayload(myFhirContext));
+		} else {
+			subscriptions = mySubscriptionRegistry.getAll();
+		}
 
 		ourLog.trace("Testing {} subscriptions for applicability", subscriptions.size());
 		boolean resourceMatched = false;
 
 		for (ActiveSubscription nextActiveSubscription : subscriptions) {
 
-			String nextSubscriptionId = getId(nextActiveSubscription);
-
-			if (isNotBlank(theMsg.getSubscriptionId())) {
-				if (!theMsg.getSubscriptionId().equals(nextSubscriptionId)) {
-					// TODO KHS we should use a hash to look it up instead of this full table scan
-					ourLog.debug("Ignoring subscription {} because it is not {}", nextSubscriptionId, theMsg.getSubscriptionId());
-					continue;
-				}
-			}
-
 			if (!validCriteria(nextActiveSubscription, resourceId)) {
 				continue;
 			}
@@ -0,0 +1,89 @@
+package ca.uhn.fhir.jpa.subscription.module.cache;
+
+import org.hl7.fhir.dstu3.model.*;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.*;
+
+public class SubscriptionCriteriaIndexTest extends BaseSubscriptionRegistryTest {
+
+	@Autowired
+	private SubscriptionCriteriaIndex mySubscriptionCriteriaIndex;
+
+	@Test
+	public void testCandidatesByReferenceAndToken() {
+		register("PAT1", "Observation?patient=Patient/1");
+		register("PAT2", "Observation?subject=2&code=http://loinc.org|1234-5");
+		register("CODE", "Observation?status=final&code=http://loinc.org|1234-5,http://loinc.org|9999-9");
+		register("STATUS", "Observation?status=final");
+		register("ALL", "Observation");
+		register("CHAINED", "Observation?subject.name=SMITH");
+		register("PATIENT", "Patient?gender=male");
+
+		assertEquals("patient", mySubscriptionCriteriaIndex.getIndexedParamNameForUnitTest("PAT1"));
+		assertEquals("subject", mySubscriptionCriteriaIndex.getIndexedParamNameForUnitTest("PAT2"));
+		assertEquals("code", mySubscriptionCriteriaIndex.getIndexedParamNameForUnitTest("CODE"));
+		assertEquals("status", mySubscriptionCriteriaIndex.getIndexedParamNameForUnitTest("STATUS"));
+		assertNull(mySubscriptionCriteriaIndex.getIndexedParamNameForUnitTest("ALL"));
+		assertNull(mySubscriptionCriteriaIndex.getIndexedParamNameForUnitTest("CHAINED"));
+
+		Observation obs = new Observation();
+		obs.setStatus(Observation.ObservationStatus.FINAL);
+		obs.getSubject().setReference("Patient/1");
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("9999-9");
+		assertThat(getCandidateIds("Observation", obs), containsInAnyOrder("PAT1", "CODE", "STATUS", "ALL", "CHAINED"));
+
+		obs = new Observation();
+		obs.setStatus(Observation.ObservationStatus.PRELIMINARY);
+		obs.getSubject().setReference("http://example.com/fhir/Patient/2/_history/3");
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-5");
+		assertThat(getCandidateIds("Observation", obs), containsInAnyOrder("PAT2", "CODE", "ALL", "CHAINED"));
+
+		// Without the resource, every subscription for the type is a candidate
+		assertEquals(6, getCandidateIds("Observation", null).size());
+		assertThat(getCandidateIds("Encounter", new Encounter()), empty());
+
+		Patient patient = new Patient();
+		patient.setGender(Enumerations.AdministrativeGender.MALE);
+		assertThat(getCandidateIds("Patient", patient), containsInAnyOrder("PATIENT"));
+		patient.setGender(Enumerations.AdministrativeGender.FEMALE);
+		assertThat(getCandidateIds("Patient", patient), empty());
+	}
+
+	@Test
+	public void testUpdateAndUnregisterSubscription() {
+		register("A", "Observation?patient=Patient/1");
+
+		Observation obs = new Observation();
+		obs.getSubject().setReference("Patient/2");
+		assertThat(getCandidateIds("Observation", obs), empty());
+
+		register("A", "Observation?patient=Patient/2");
+		assertThat(getCandidateIds("Observation", obs), containsInAnyOrder("A"));
+
+		mySubscriptionRegistry.unregisterSubscription("A");
+		assertThat(getCandidateIds("Observation", obs), empty());
+		assertThat(getCandidateIds("Observation", null), empty());
+	}
+
+	private void register(String theId, String theCriteria) {
+		Subscription subscription = createSubscription();
+		subscription.setId(theId);
+		subscription.setCriteria(theCriteria);
+		mySubscriptionRegistry.registerSubscriptionUnlessAlreadyRegistered(subscription);
+	}
+
+	private List<String> getCandidateIds(String theResourceType, IBaseResource theResource) {
+		Collection<ActiveSubscription> candidates = mySubscriptionRegistry.getCandidates(theResourceType, theResource);
+		return candidates.stream().map(ActiveSubscription::getId).collect(Collectors.toList());
+	}
+
+}
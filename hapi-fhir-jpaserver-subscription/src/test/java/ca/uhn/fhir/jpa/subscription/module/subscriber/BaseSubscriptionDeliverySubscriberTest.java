@@ -1,28 +1,39 @@
 package ca.uhn.fhir.jpa.subscription.module.subscriber;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
 import ca.uhn.fhir.jpa.subscription.module.ResourceModifiedMessage;
+import ca.uhn.fhir.jpa.subscription.module.cache.ActiveSubscription;
 import ca.uhn.fhir.jpa.subscription.module.cache.SubscriptionRegistry;
+import ca.uhn.fhir.jpa.subscription.module.channel.SubscriptionChannelRegistry;
+import ca.uhn.fhir.jpa.subscription.module.channel.SubscriptionChannelWithHandlers;
 import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.gclient.IUpdate;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Patient;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
 import org.springframework.messaging.support.GenericMessage;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -41,6 +52,12 @@ public class BaseSubscriptionDeliverySubscriberTest {
 	private IRestfulClientFactory myRestfulClientFactory;
 	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
 	private IGenericClient myGenericClient;
+	@Mock
+	private SubscriptionChannelRegistry mySubscriptionChannelRegistry;
+	@Mock
+	private SubscribableChannel myDeliveryChannel;
+	private ModelConfig myModelConfig = new ModelConfig();
+	private RestHookEndpointManager myEndpointManager;
 
 	@Before
 	public void before() {
@@ -49,6 +66,13 @@ public class BaseSubscriptionDeliverySubscriberTest {
 		mySubscriber.setInterceptorBroadcasterForUnitTest(myInterceptorBroadcaster);
 		mySubscriber.setSubscriptionRegistryForUnitTest(mySubscriptionRegistry);
 
+		myEndpointManager = new RestHookEndpointManager();
+		myEndpointManager.setFhirContextForUnitTest(myCtx);
+		myEndpointManager.setModelConfigForUnitTest(myModelConfig);
+		myEndpointManager.setSubscriptionRegistryForUnitTest(mySubscriptionRegistry);
+		myEndpointManager.setSubscriptionChannelRegistryForUnitTest(mySubscriptionChannelRegistry);
+		mySubscriber.setRestHookEndpointManagerForUnitTest(myEndpointManager);
+
 		myCtx.setRestfulClientFactory(myRestfulClientFactory);
 		when(myRestfulClientFactory.newGenericClient(any())).thenReturn(myGenericClient);
 	}
@@ -120,6 +144,173 @@ public class BaseSubscriptionDeliverySubscriberTest {
 		verify(myGenericClient, times(1)).update();
 	}
 
+	@Test
+	public void testRestHookClientReusedAcrossDeliveries() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		myModelConfig.setRestHookMaxConcurrentDeliveriesPerEndpoint(1);
+
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdType("Subscription/123"));
+		subscription.setEndpointUrl("http://example.com/fhir");
+		subscription.setPayloadString("application/fhir+json");
+		subscription.setHeaders("Authorization: Bearer 123");
+
+		for (int i = 0; i < 2; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/" + i);
+			patient.setActive(true);
+
+			ResourceDeliveryMessage payload = new ResourceDeliveryMessage();
+			payload.setSubscription(subscription);
+			payload.setPayload(myCtx, patient, EncodingEnum.JSON);
+			payload.setOperationType(ResourceModifiedMessage.OperationTypeEnum.CREATE);
+			mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payload));
+		}
+
+		verify(myRestfulClientFactory, times(1)).newGenericClient(any());
+		verify(myGenericClient, times(1)).registerInterceptor(any());
+		verify(myGenericClient, times(2)).update();
+	}
+
+	@Test
+	public void testRestHookDeliveryDeferredWhileEndpointBusy() throws InterruptedException {
+		myModelConfig.setRestHookMaxConcurrentDeliveriesPerEndpoint(1);
+
+		Patient patient = new Patient();
+		patient.setActive(true);
+
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdType("Subscription/123"));
+		subscription.setEndpointUrl("http://example.com/fhir");
+		subscription.setPayloadString("application/fhir+json");
+
+		ResourceDeliveryMessage payload = new ResourceDeliveryMessage();
+		payload.setSubscription(subscription);
+		payload.setPayload(myCtx, patient, EncodingEnum.JSON);
+		payload.setOperationType(ResourceModifiedMessage.OperationTypeEnum.CREATE);
+
+		when(mySubscriptionRegistry.get("123")).thenReturn(new ActiveSubscription(subscription, "channel"));
+		when(mySubscriptionChannelRegistry.get("channel")).thenReturn(new SubscriptionChannelWithHandlers("channel", myDeliveryChannel));
+
+		// Another delivery to the same endpoint holds the only slot
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread other = new Thread(() -> myEndpointManager.deliverOrDefer(payload, "http://example.com/other", () -> {
+			started.countDown();
+			Uninterruptibles.awaitUninterruptibly(release);
+		}));
+		other.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		// The delivery thread doesn't wait for the slot, and the message goes back on the queue instead
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payload));
+		verify(myGenericClient, never()).update();
+		release.countDown();
+		other.join();
+
+		ArgumentCaptor<ResourceDeliveryJsonMessage> captor = ArgumentCaptor.forClass(ResourceDeliveryJsonMessage.class);
+		verify(myDeliveryChannel, timeout(10000).times(1)).send(captor.capture());
+		assertFalse(captor.getValue().getPayload().getAttribute(RestHookEndpointManager.ATTRIBUTE_DELIVERY_RETRY_COUNT).isPresent());
+	}
+
+	@Test
+	public void testRestHookDeliveryFailsWithServerError_ShouldRetry() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		myModelConfig.setRestHookDeliveryMaxRetries(1);
+		myModelConfig.setRestHookDeliveryRetryDelayMillis(0);
+
+		Patient patient = new Patient();
+		patient.setActive(true);
+
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdType("Subscription/123"));
+		subscription.setEndpointUrl("http://example.com/fhir");
+		subscription.setPayloadString("application/fhir+json");
+
+		ResourceDeliveryMessage payload = new ResourceDeliveryMessage();
+		payload.setSubscription(subscription);
+		payload.setPayload(myCtx, patient, EncodingEnum.JSON);
+		payload.setOperationType(ResourceModifiedMessage.OperationTypeEnum.CREATE);
+
+		when(myGenericClient.update()).thenThrow(new InternalErrorException("FOO"));
+		when(mySubscriptionRegistry.get("123")).thenReturn(new ActiveSubscription(subscription, "channel"));
+		when(mySubscriptionChannelRegistry.get("channel")).thenReturn(new SubscriptionChannelWithHandlers("channel", myDeliveryChannel));
+
+		try {
+			mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payload));
+			fail();
+		} catch (MessagingException e) {
+			// expected
+		}
+
+		ArgumentCaptor<ResourceDeliveryJsonMessage> captor = ArgumentCaptor.forClass(ResourceDeliveryJsonMessage.class);
+		verify(myDeliveryChannel, timeout(10000).times(1)).send(captor.capture());
+		ResourceDeliveryMessage retried = captor.getValue().getPayload();
+		assertEquals("1", retried.getAttribute(RestHookEndpointManager.ATTRIBUTE_DELIVERY_RETRY_COUNT).orElse(null));
+
+		// The retry fails too, but the maximum number of retries has been reached
+		try {
+			mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(retried));
+			fail();
+		} catch (MessagingException e) {
+			// expected
+		}
+		verify(myDeliveryChannel, after(500).times(1)).send(any());
+	}
+
+	@Test
+	public void testRestHookRetryKeepsEndpointOrder() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		myModelConfig.setRestHookDeliveryMaxRetries(1);
+		myModelConfig.setRestHookDeliveryRetryDelayMillis(0);
+
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdType("Subscription/123"));
+		subscription.setEndpointUrl("http://example.com/fhir");
+		subscription.setPayloadString("application/fhir+json");
+
+		ResourceDeliveryMessage[] payloads = new ResourceDeliveryMessage[2];
+		for (int i = 0; i < payloads.length; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/" + i);
+			patient.setActive(true);
+			payloads[i] = new ResourceDeliveryMessage();
+			payloads[i].setSubscription(subscription);
+			payloads[i].setPayload(myCtx, patient, EncodingEnum.JSON);
+			payloads[i].setOperationType(ResourceModifiedMessage.OperationTypeEnum.CREATE);
+		}
+
+		when(myGenericClient.update()).thenThrow(new InternalErrorException("FOO")).thenReturn(mock(IUpdate.class, Answers.RETURNS_DEEP_STUBS));
+		when(mySubscriptionRegistry.get("123")).thenReturn(new ActiveSubscription(subscription, "channel"));
+		when(mySubscriptionChannelRegistry.get("channel")).thenReturn(new SubscriptionChannelWithHandlers("channel", myDeliveryChannel));
+
+		// The first delivery fails and is queued for a retry
+		try {
+			mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payloads[0]));
+			fail();
+		} catch (MessagingException e) {
+			// expected
+		}
+		ArgumentCaptor<ResourceDeliveryJsonMessage> captor = ArgumentCaptor.forClass(ResourceDeliveryJsonMessage.class);
+		verify(myDeliveryChannel, timeout(10000).times(1)).send(captor.capture());
+		ResourceDeliveryMessage retry = captor.getValue().getPayload();
+
+		// The second one waits behind the retry instead of overtaking it
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payloads[1]));
+		verify(myGenericClient, times(1)).update();
+
+		// Once the retry has been delivered, the second one is released
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(retry));
+		verify(myGenericClient, times(2)).update();
+		verify(myDeliveryChannel, timeout(10000).times(2)).send(captor.capture());
+		ResourceDeliveryMessage released = captor.getValue().getPayload();
+		assertEquals("Patient/1", released.getPayloadId(myCtx).toUnqualifiedVersionless().getValue());
+
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(released));
+		verify(myGenericClient, times(3)).update();
+		verify(myDeliveryChannel, after(500).times(2)).send(any());
+	}
+
 	@Test
 	public void testRestHookDeliveryFails_InterceptorDealsWithIt() {
 		when(myInterceptorBroadcaster.callHooks(eq(Pointcut.SUBSCRIPTION_BEFORE_DELIVERY), any())).thenReturn(true);
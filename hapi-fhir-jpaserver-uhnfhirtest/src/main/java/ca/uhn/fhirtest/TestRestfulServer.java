@@ -2,6 +2,8 @@ package ca.uhn.fhirtest;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.jpa.async.AsyncRequestProvider;
+import ca.uhn.fhir.jpa.async.IAsyncRequestSvc;
 import ca.uhn.fhir.jpa.bulk.BulkDataExportProvider;
 import ca.uhn.fhir.jpa.config.WebsocketDispatcherConfig;
 import ca.uhn.fhir.jpa.dao.DaoConfig;
@@ -264,6 +266,12 @@ public class TestRestfulServer extends RestfulServer {
 		 */
 		registerProvider(myAppCtx.getBean(BulkDataExportProvider.class));
 
+		/*
+		 * Asynchronous requests (Prefer: respond-async)
+		 */
+		setAsyncRequestHandler(myAppCtx.getBean(IAsyncRequestSvc.class));
+		registerProvider(myAppCtx.getBean(AsyncRequestProvider.class));
+
 	}
 
 	/**
@@ -0,0 +1,61 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Server Framework
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.servlet.BufferedHttpServletResponse;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Callable;
+
+/**
+ * Handles requests which the client has asked to be processed asynchronously using the
+ * <code>Prefer: respond-async</code> header. If a handler is registered with the server
+ * (see {@link RestfulServer#setAsyncRequestHandler(IAsyncRequestHandler)}) and it accepts a
+ * request, the server immediately responds with <code>202 Accepted</code> and a
+ * <code>Content-Location</code> header pointing to the URL returned by the handler,
+ * which the client polls for the outcome.
+ * <p>
+ * Only requests which return a resource (e.g. searches, reads and operations which
+ * do not manage their own response) are offered to the handler.
+ * </p>
+ *
+ * @see <a href="http://hl7.org/fhir/async.html">Asynchronous Request Patterns</a>
+ */
+public interface IAsyncRequestHandler {
+
+	/**
+	 * Offers a request to the handler for asynchronous processing.
+	 *
+	 * @param theRequestDetails A copy of the request which remains valid after the HTTP exchange has completed
+	 * @param theTask           Processes the request exactly as it would have been processed synchronously
+	 *                          (including interceptor hooks and exception handling) and returns the response,
+	 *                          encoded according to the original request's <code>_format</code>, <code>Accept</code>,
+	 *                          <code>_pretty</code>, <code>_summary</code> and <code>_elements</code>. Failures are
+	 *                          returned as a response with an error status code. This is expected to be invoked
+	 *                          on a different thread.
+	 * @return Returns the absolute URL the client should poll for the outcome, or <code>null</code> if the
+	 * handler does not accept the request, in which case it is processed synchronously as usual
+	 */
+	@Nullable
+	String submitAsyncRequest(RequestDetails theRequestDetails, Callable<BufferedHttpServletResponse> theTask);
+
+}
@@ -44,7 +44,11 @@ import ca.uhn.fhir.rest.server.exceptions.*;
 import ca.uhn.fhir.rest.server.interceptor.ExceptionHandlingInterceptor;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 import ca.uhn.fhir.rest.server.method.BaseMethodBinding;
+import ca.uhn.fhir.rest.server.method.BaseResourceReturningMethodBinding;
 import ca.uhn.fhir.rest.server.method.ConformanceMethodBinding;
+import ca.uhn.fhir.rest.server.method.OperationMethodBinding;
+import ca.uhn.fhir.rest.server.servlet.BufferedHttpServletResponse;
+import ca.uhn.fhir.rest.server.servlet.DetachedServletRequestDetails;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.rest.server.tenant.ITenantIdentificationStrategy;
 import ca.uhn.fhir.util.*;
@@ -133,6 +137,7 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	private ITenantIdentificationStrategy myTenantIdentificationStrategy;
 	private PreferReturnEnum myDefaultPreferReturn = DEFAULT_PREFER_RETURN;
 	private ElementsSupportEnum myElementsSupport = ElementsSupportEnum.EXTENDED;
+	private IAsyncRequestHandler myAsyncRequestHandler;
 
 	/**
 	 * Constructor. Note that if no {@link FhirContext} is passed in to the server (either through the constructor, or
@@ -980,6 +985,14 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 					return;
 				}
 
+			/*
+			 * If the client has asked for asynchronous processing and a handler is
+			 * available to take the request, reply with a polling location instead
+			 */
+			if (handleRespondAsync(requestDetails, resourceMethod, theResponse)) {
+				return;
+			}
+
 			/*
 			 * Actually invoke the server method. This call is to a HAPI method binding, which
 			 * is an object that wraps a specific implementing (user-supplied) method, but
@@ -999,64 +1012,27 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 				ourLog.trace("Done writing to stream: {}", outputStreamOrWriter);
 				}
 
-		} catch (NotModifiedException | AuthenticationException e) {
-
-			HookParams handleExceptionParams = new HookParams();
-			handleExceptionParams.add(RequestDetails.class, requestDetails);
-			handleExceptionParams.add(ServletRequestDetails.class, requestDetails);
-			handleExceptionParams.add(HttpServletRequest.class, theRequest);
-			handleExceptionParams.add(HttpServletResponse.class, theResponse);
-			handleExceptionParams.add(BaseServerResponseException.class, e);
-			if (!myInterceptorService.callHooks(Pointcut.SERVER_HANDLE_EXCEPTION, handleExceptionParams)) {
-					return;
-				}
-
-			writeExceptionToResponse(theResponse, e);
-
 		} catch (Throwable e) {
 
-			/*
-			 * We have caught an exception during request processing. This might be because a handling method threw
-			 * something they wanted to throw (e.g. UnprocessableEntityException because the request
-			 * had business requirement problems) or it could be due to bugs (e.g. NullPointerException).
-			 *
-			 * First we let the interceptors have a crack at converting the exception into something HAPI can use
-			 * (BaseServerResponseException)
-			 */
-			HookParams preProcessParams = new HookParams();
-			preProcessParams.add(RequestDetails.class, requestDetails);
-			preProcessParams.add(ServletRequestDetails.class, requestDetails);
-			preProcessParams.add(HttpServletRequest.class, theRequest);
-			preProcessParams.add(HttpServletResponse.class, theResponse);
-			preProcessParams.add(Throwable.class, e);
-			BaseServerResponseException exception = (BaseServerResponseException) myInterceptorService.callHooksAndReturnObject(Pointcut.SERVER_PRE_PROCESS_OUTGOING_EXCEPTION, preProcessParams);
+			handleRequestException(requestDetails, theRequest, theResponse, e);
 
-			/*
-			 * If none of the interceptors converted the exception, default behaviour is to keep the exception as-is if it
-			 * extends BaseServerResponseException, otherwise wrap it in an
-			 * InternalErrorException.
-			 */
-			if (exception == null) {
-				exception = DEFAULT_EXCEPTION_HANDLER.preProcessOutgoingException(requestDetails, e, theRequest);
-			}
+		} finally {
 
-			/*
-			 * If it's a 410 Gone, we want to include a location header in the response
-			 * if we can, since that can include the resource version which is nice
-			 * for the user.
-			 */
-			if (exception instanceof ResourceGoneException) {
-				IIdType resourceId = ((ResourceGoneException) exception).getResourceId();
-				if (resourceId != null && resourceId.hasResourceType() && resourceId.hasIdPart()) {
-					String baseUrl = myServerAddressStrategy.determineServerBase(theRequest.getServletContext(), theRequest);
-					resourceId = resourceId.withServerBase(baseUrl, resourceId.getResourceType());
-					requestDetails.getResponse().addHeader(Constants.HEADER_LOCATION, resourceId.getValue());
-				}
-			}
+			HookParams params = new HookParams();
+			params.add(RequestDetails.class, requestDetails);
+			params.addIfMatchesType(ServletRequestDetails.class, requestDetails);
+			myInterceptorService.callHooks(Pointcut.SERVER_PROCESSING_COMPLETED, params);
 
-			/*
-			 * Next, interceptors get a shot at handling the exception
-			 */
+		}
+	}
+
+	/**
+	 * Converts an exception thrown while handling a request into the response sent to the client,
+	 * giving interceptors the chance to convert or handle it first
+	 */
+	private void handleRequestException(ServletRequestDetails requestDetails, HttpServletRequest theRequest, HttpServletResponse theResponse, Throwable e) throws ServletException, IOException {
+		if (e instanceof NotModifiedException || e instanceof AuthenticationException) {
+			BaseServerResponseException exception = (BaseServerResponseException) e;
 			HookParams handleExceptionParams = new HookParams();
 			handleExceptionParams.add(RequestDetails.class, requestDetails);
 			handleExceptionParams.add(ServletRequestDetails.class, requestDetails);
@@ -1064,29 +1040,76 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 			handleExceptionParams.add(HttpServletResponse.class, theResponse);
 			handleExceptionParams.add(BaseServerResponseException.class, exception);
 			if (!myInterceptorService.callHooks(Pointcut.SERVER_HANDLE_EXCEPTION, handleExceptionParams)) {
-					return;
-				}
-
-			/*
-			 * If we're handling an exception, no summary mode should be applied
-			 */
-			requestDetails.removeParameter(Constants.PARAM_SUMMARY);
-			requestDetails.removeParameter(Constants.PARAM_ELEMENTS);
-			requestDetails.removeParameter(Constants.PARAM_ELEMENTS + Constants.PARAM_ELEMENTS_EXCLUDE_MODIFIER);
+				return;
+			}
 
-			/*
-			 * If nobody handles it, default behaviour is to stream back the OperationOutcome to the client.
-			 */
-			DEFAULT_EXCEPTION_HANDLER.handleException(requestDetails, exception, theRequest, theResponse);
+			writeExceptionToResponse(theResponse, exception);
+			return;
+		}
 
-		} finally {
+		/*
+		 * We have caught an exception during request processing. This might be because a handling method threw
+		 * something they wanted to throw (e.g. UnprocessableEntityException because the request
+		 * had business requirement problems) or it could be due to bugs (e.g. NullPointerException).
+		 *
+		 * First we let the interceptors have a crack at converting the exception into something HAPI can use
+		 * (BaseServerResponseException)
+		 */
+		HookParams preProcessParams = new HookParams();
+		preProcessParams.add(RequestDetails.class, requestDetails);
+		preProcessParams.add(ServletRequestDetails.class, requestDetails);
+		preProcessParams.add(HttpServletRequest.class, theRequest);
+		preProcessParams.add(HttpServletResponse.class, theResponse);
+		preProcessParams.add(Throwable.class, e);
+		BaseServerResponseException exception = (BaseServerResponseException) myInterceptorService.callHooksAndReturnObject(Pointcut.SERVER_PRE_PROCESS_OUTGOING_EXCEPTION, preProcessParams);
+
+		/*
+		 * If none of the interceptors converted the exception, default behaviour is to keep the exception as-is if it
+		 * extends BaseServerResponseException, otherwise wrap it in an
+		 * InternalErrorException.
+		 */
+		if (exception == null) {
+			exception = DEFAULT_EXCEPTION_HANDLER.preProcessOutgoingException(requestDetails, e, theRequest);
+		}
 
-			HookParams params = new HookParams();
-			params.add(RequestDetails.class, requestDetails);
-			params.addIfMatchesType(ServletRequestDetails.class, requestDetails);
-			myInterceptorService.callHooks(Pointcut.SERVER_PROCESSING_COMPLETED, params);
+		/*
+		 * If it's a 410 Gone, we want to include a location header in the response
+		 * if we can, since that can include the resource version which is nice
+		 * for the user.
+		 */
+		if (exception instanceof ResourceGoneException) {
+			IIdType resourceId = ((ResourceGoneException) exception).getResourceId();
+			if (resourceId != null && resourceId.hasResourceType() && resourceId.hasIdPart()) {
+				String baseUrl = myServerAddressStrategy.determineServerBase(theRequest.getServletContext(), theRequest);
+				resourceId = resourceId.withServerBase(baseUrl, resourceId.getResourceType());
+				requestDetails.getResponse().addHeader(Constants.HEADER_LOCATION, resourceId.getValue());
+			}
+		}
 
+		/*
+		 * Next, interceptors get a shot at handling the exception
+		 */
+		HookParams handleExceptionParams = new HookParams();
+		handleExceptionParams.add(RequestDetails.class, requestDetails);
+		handleExceptionParams.add(ServletRequestDetails.class, requestDetails);
+		handleExceptionParams.add(HttpServletRequest.class, theRequest);
+		handleExceptionParams.add(HttpServletResponse.class, theResponse);
+		handleExceptionParams.add(BaseServerResponseException.class, exception);
+		if (!myInterceptorService.callHooks(Pointcut.SERVER_HANDLE_EXCEPTION, handleExceptionParams)) {
+			return;
 		}
+
+		/*
+		 * If we're handling an exception, no summary mode should be applied
+		 */
+		requestDetails.removeParameter(Constants.PARAM_SUMMARY);
+		requestDetails.removeParameter(Constants.PARAM_ELEMENTS);
+		requestDetails.removeParameter(Constants.PARAM_ELEMENTS + Constants.PARAM_ELEMENTS_EXCLUDE_MODIFIER);
+
+		/*
+		 * If nobody handles it, default behaviour is to stream back the OperationOutcome to the client.
+		 */
+		DEFAULT_EXCEPTION_HANDLER.handleException(requestDetails, exception, theRequest, theResponse);
 	}
 
 	/**
@@ -1815,6 +1838,99 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myDefaultPreferReturn = theDefaultPreferReturn;
 	}
 
+	/**
+	 * Returns the handler which processes requests carrying a <code>Prefer: respond-async</code>
+	 * header, or <code>null</code> (which is the default) if asynchronous processing is not supported
+	 * and all requests are processed synchronously.
+	 *
+	 * @see <a href="http://hl7.org/fhir/async.html">HL7 FHIR Specification</a> section on asynchronous requests
+	 */
+	public IAsyncRequestHandler getAsyncRequestHandler() {
+		return myAsyncRequestHandler;
+	}
+
+	/**
+	 * Sets the handler which processes requests carrying a <code>Prefer: respond-async</code>
+	 * header, or <code>null</code> (which is the default) if asynchronous processing is not supported
+	 * and all requests are processed synchronously.
+	 *
+	 * @see <a href="http://hl7.org/fhir/async.html">HL7 FHIR Specification</a> section on asynchronous requests
+	 */
+	public void setAsyncRequestHandler(IAsyncRequestHandler theAsyncRequestHandler) {
+		myAsyncRequestHandler = theAsyncRequestHandler;
+	}
+
+	/**
+	 * Offers the request to the {@link #setAsyncRequestHandler(IAsyncRequestHandler) async request handler}
+	 * if the client asked for asynchronous processing
+	 *
+	 * @return Returns <code>true</code> if the request was accepted for asynchronous processing and a
+	 * <code>202 Accepted</code> response has been sent
+	 */
+	private boolean handleRespondAsync(ServletRequestDetails theRequestDetails, BaseMethodBinding<?> theResourceMethod, HttpServletResponse theResponse) {
+		IAsyncRequestHandler asyncRequestHandler = myAsyncRequestHandler;
+		if (asyncRequestHandler == null || !(theResourceMethod instanceof BaseResourceReturningMethodBinding)) {
+			return false;
+		}
+		if (theResourceMethod instanceof OperationMethodBinding && ((OperationMethodBinding) theResourceMethod).isManualResponse()) {
+			return false;
+		}
+		String preferHeader = theRequestDetails.getHeader(Constants.HEADER_PREFER);
+		if (!RestfulServerUtils.parsePreferHeader(this, preferHeader).getRespondAsync()) {
+			return false;
+		}
+
+		DetachedServletRequestDetails asyncRequestDetails = new DetachedServletRequestDetails(theRequestDetails);
+		String pollUrl = asyncRequestHandler.submitAsyncRequest(asyncRequestDetails, () -> invokeDetached(asyncRequestDetails, theResourceMethod));
+		if (pollUrl == null) {
+			return false;
+		}
+
+		ourLog.debug("Request {} accepted for asynchronous processing, polling location is {}", theRequestDetails.getRequestId(), pollUrl);
+		addHeadersToResponse(theResponse);
+		theResponse.addHeader(Constants.HEADER_CONTENT_LOCATION, pollUrl);
+		theResponse.setStatus(Constants.STATUS_HTTP_202_ACCEPTED);
+		return true;
+	}
+
+	/**
+	 * Processes a request which has been {@link DetachedServletRequestDetails detached} from the HTTP exchange
+	 * it arrived on in the same way as {@link #handleRequest(RequestTypeEnum, HttpServletRequest, HttpServletResponse)}
+	 * would have, including the interceptor hooks and exception handling
+	 *
+	 * @return Returns the buffered response
+	 */
+	private BufferedHttpServletResponse invokeDetached(DetachedServletRequestDetails theRequestDetails, BaseMethodBinding<?> theResourceMethod) throws ServletException, IOException {
+		HttpServletRequest servletRequest = theRequestDetails.getServletRequest();
+		BufferedHttpServletResponse servletResponse = theRequestDetails.getServletResponse();
+		try {
+
+			try (Closeable outputStreamOrWriter = (Closeable) theResourceMethod.invokeServer(this, theRequestDetails)) {
+
+				HookParams hookParams = new HookParams();
+				hookParams.add(RequestDetails.class, theRequestDetails);
+				hookParams.add(ServletRequestDetails.class, theRequestDetails);
+				myInterceptorService.callHooks(Pointcut.SERVER_PROCESSING_COMPLETED_NORMALLY, hookParams);
+
+				ourLog.trace("Done writing to buffered response: {}", outputStreamOrWriter);
+			}
+
+		} catch (Throwable e) {
+
+			handleRequestException(theRequestDetails, servletRequest, servletResponse, e);
+
+		} finally {
+
+			HookParams params = new HookParams();
+			params.add(RequestDetails.class, theRequestDetails);
+			params.add(ServletRequestDetails.class, theRequestDetails);
+			myInterceptorService.callHooks(Pointcut.SERVER_PROCESSING_COMPLETED, params);
+
+		}
+		servletResponse.flushBuffer();
+		return servletResponse;
+	}
+
 	/**
 	 * Count length of URL string, but treating unescaped sequences (e.g. ' ') as their unescaped equivalent (%20)
 	 */
@@ -355,6 +355,10 @@ public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 		return myManualRequestMode;
 	}
 
+	public boolean isManualResponse() {
+		return myManualResponseMode;
+	}
+
 	public static class ReturnType {
 		private int myMax;
 		private int myMin;
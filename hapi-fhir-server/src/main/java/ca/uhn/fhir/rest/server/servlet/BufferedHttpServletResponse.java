@@ -0,0 +1,300 @@
+package ca.uhn.fhir.rest.server.servlet;
+
+/*
+ * #%L
+ * HAPI FHIR - Server Framework
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.util.DateUtils;
+import org.apache.commons.lang3.Validate;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A {@link HttpServletResponse} which is not attached to any HTTP exchange, and instead
+ * keeps the status, headers and body written to it in memory. This is used to capture
+ * the response to a request which is processed after the HTTP exchange it arrived on
+ * has completed (see {@link DetachedServletRequestDetails}).
+ */
+public class BufferedHttpServletResponse implements HttpServletResponse {
+
+	private final Map<String, List<String>> myHeaders = new LinkedHashMap<>();
+	private final ByteArrayOutputStream myBody = new ByteArrayOutputStream();
+	private int myStatus = SC_OK;
+	private String myContentType;
+	private String myCharacterEncoding;
+	private Locale myLocale = Locale.getDefault();
+	private ServletOutputStream myOutputStream;
+	private PrintWriter myWriter;
+
+	/**
+	 * Returns the body written to this response so far
+	 */
+	public byte[] getBody() {
+		if (myWriter != null) {
+			myWriter.flush();
+		}
+		return myBody.toByteArray();
+	}
+
+	@Override
+	public void addCookie(Cookie theCookie) {
+		// Cookies can't be delivered once the exchange is over
+	}
+
+	@Override
+	public boolean containsHeader(String theName) {
+		return myHeaders.containsKey(theName.toLowerCase());
+	}
+
+	@Override
+	public String encodeURL(String theUrl) {
+		return theUrl;
+	}
+
+	@Override
+	public String encodeRedirectURL(String theUrl) {
+		return theUrl;
+	}
+
+	@Override
+	@Deprecated
+	public String encodeUrl(String theUrl) {
+		return theUrl;
+	}
+
+	@Override
+	@Deprecated
+	public String encodeRedirectUrl(String theUrl) {
+		return theUrl;
+	}
+
+	@Override
+	public void sendError(int theStatus, String theMessage) {
+		resetBuffer();
+		myStatus = theStatus;
+		if (theMessage != null) {
+			setContentType(Constants.CT_TEXT);
+			getWriter().write(theMessage);
+		}
+	}
+
+	@Override
+	public void sendError(int theStatus) {
+		sendError(theStatus, null);
+	}
+
+	@Override
+	public void sendRedirect(String theLocation) {
+		resetBuffer();
+		setHeader(Constants.HEADER_LOCATION, theLocation);
+		myStatus = SC_FOUND;
+	}
+
+	@Override
+	public void setDateHeader(String theName, long theDate) {
+		setHeader(theName, DateUtils.formatDate(new Date(theDate)));
+	}
+
+	@Override
+	public void addDateHeader(String theName, long theDate) {
+		addHeader(theName, DateUtils.formatDate(new Date(theDate)));
+	}
+
+	@Override
+	public void setHeader(String theName, String theValue) {
+		myHeaders.remove(theName.toLowerCase());
+		addHeader(theName, theValue);
+	}
+
+	@Override
+	public void addHeader(String theName, String theValue) {
+		if (theValue != null) {
+			myHeaders.computeIfAbsent(theName.toLowerCase(), t -> new ArrayList<>()).add(theValue);
+		}
+	}
+
+	@Override
+	public void setIntHeader(String theName, int theValue) {
+		setHeader(theName, Integer.toString(theValue));
+	}
+
+	@Override
+	public void addIntHeader(String theName, int theValue) {
+		addHeader(theName, Integer.toString(theValue));
+	}
+
+	@Override
+	public void setStatus(int theStatus) {
+		myStatus = theStatus;
+	}
+
+	@Override
+	@Deprecated
+	public void setStatus(int theStatus, String theMessage) {
+		myStatus = theStatus;
+	}
+
+	@Override
+	public int getStatus() {
+		return myStatus;
+	}
+
+	@Override
+	public String getHeader(String theName) {
+		List<String> values = myHeaders.get(theName.toLowerCase());
+		return values != null ? values.get(0) : null;
+	}
+
+	@Override
+	public Collection<String> getHeaders(String theName) {
+		List<String> values = myHeaders.get(theName.toLowerCase());
+		return values != null ? Collections.unmodifiableList(values) : Collections.emptyList();
+	}
+
+	@Override
+	public Collection<String> getHeaderNames() {
+		return Collections.unmodifiableSet(myHeaders.keySet());
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		return myCharacterEncoding != null ? myCharacterEncoding : Constants.CHARSET_NAME_UTF8;
+	}
+
+	/**
+	 * Returns the content type, including the character set if one has been set
+	 */
+	@Override
+	public String getContentType() {
+		if (myContentType == null || myCharacterEncoding == null || myContentType.contains(";")) {
+			return myContentType;
+		}
+		return myContentType + "; charset=" + myCharacterEncoding;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		Validate.isTrue(myWriter == null, "getWriter() has already been called");
+		if (myOutputStream == null) {
+			myOutputStream = new ServletOutputStream() {
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener theWriteListener) {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void write(int theByte) {
+					myBody.write(theByte);
+				}
+			};
+		}
+		return myOutputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() {
+		Validate.isTrue(myOutputStream == null, "getOutputStream() has already been called");
+		if (myWriter == null) {
+			myWriter = new PrintWriter(new OutputStreamWriter(myBody, Charset.forName(getCharacterEncoding())));
+		}
+		return myWriter;
+	}
+
+	@Override
+	public void setCharacterEncoding(String theCharset) {
+		myCharacterEncoding = theCharset;
+	}
+
+	@Override
+	public void setContentLength(int theLength) {
+		// ignored
+	}
+
+	@Override
+	public void setContentLengthLong(long theLength) {
+		// ignored
+	}
+
+	@Override
+	public void setContentType(String theType) {
+		myContentType = theType;
+	}
+
+	@Override
+	public void setBufferSize(int theSize) {
+		// ignored
+	}
+
+	@Override
+	public int getBufferSize() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void flushBuffer() {
+		if (myWriter != null) {
+			myWriter.flush();
+		}
+	}
+
+	@Override
+	public void resetBuffer() {
+		flushBuffer();
+		myBody.reset();
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return false;
+	}
+
+	@Override
+	public void reset() {
+		resetBuffer();
+		myHeaders.clear();
+		myStatus = SC_OK;
+		myContentType = null;
+		myCharacterEncoding = null;
+	}
+
+	@Override
+	public void setLocale(Locale theLocale) {
+		myLocale = theLocale;
+	}
+
+	@Override
+	public Locale getLocale() {
+		return myLocale;
+	}
+}
@@ -0,0 +1,517 @@
+package ca.uhn.fhir.rest.server.servlet;
+
+/*
+ * #%L
+ * HAPI FHIR - Server Framework
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.util.DateUtils;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.*;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * A snapshot of a {@link HttpServletRequest} which remains usable after the HTTP exchange it
+ * was taken from has completed and the container has recycled the original request object.
+ * The request body is replaced by the (already decoded) contents supplied to the constructor.
+ */
+class DetachedHttpServletRequest implements HttpServletRequest {
+
+	private final String myMethod;
+	private final String myRequestUri;
+	private final String myRequestUrl;
+	private final String myQueryString;
+	private final String myContextPath;
+	private final String myServletPath;
+	private final String myPathInfo;
+	private final String myPathTranslated;
+	private final String myScheme;
+	private final String myServerName;
+	private final int myServerPort;
+	private final boolean mySecure;
+	private final String myProtocol;
+	private final String myRemoteAddr;
+	private final String myRemoteHost;
+	private final int myRemotePort;
+	private final String myRemoteUser;
+	private final String myLocalName;
+	private final String myLocalAddr;
+	private final int myLocalPort;
+	private final Principal myUserPrincipal;
+	private final String myAuthType;
+	private final String myContentType;
+	private final String myRequestedSessionId;
+	private final Cookie[] myCookies;
+	private final Locale myLocale;
+	private final List<Locale> myLocales;
+	private final Map<String, List<String>> myHeaders = new LinkedHashMap<>();
+	private final List<String> myHeaderNames = new ArrayList<>();
+	private final Map<String, Object> myAttributes = new HashMap<>();
+	private final Map<String, String[]> myParameters = new LinkedHashMap<>();
+	private final HttpSession mySession;
+	private final ServletContext myServletContext;
+	private final byte[] myContents;
+	private String myCharacterEncoding;
+
+	DetachedHttpServletRequest(HttpServletRequest theSource, byte[] theContents) {
+		myMethod = theSource.getMethod();
+		myRequestUri = theSource.getRequestURI();
+		myRequestUrl = theSource.getRequestURL() != null ? theSource.getRequestURL().toString() : null;
+		myQueryString = theSource.getQueryString();
+		myContextPath = theSource.getContextPath();
+		myServletPath = theSource.getServletPath();
+		myPathInfo = theSource.getPathInfo();
+		myPathTranslated = theSource.getPathTranslated();
+		myScheme = theSource.getScheme();
+		myServerName = theSource.getServerName();
+		myServerPort = theSource.getServerPort();
+		mySecure = theSource.isSecure();
+		myProtocol = theSource.getProtocol();
+		myRemoteAddr = theSource.getRemoteAddr();
+		myRemoteHost = theSource.getRemoteHost();
+		myRemotePort = theSource.getRemotePort();
+		myRemoteUser = theSource.getRemoteUser();
+		myLocalName = theSource.getLocalName();
+		myLocalAddr = theSource.getLocalAddr();
+		myLocalPort = theSource.getLocalPort();
+		myUserPrincipal = theSource.getUserPrincipal();
+		myAuthType = theSource.getAuthType();
+		myContentType = theSource.getContentType();
+		myCharacterEncoding = theSource.getCharacterEncoding();
+		myRequestedSessionId = theSource.getRequestedSessionId();
+		myCookies = theSource.getCookies() != null ? theSource.getCookies().clone() : null;
+		myLocale = theSource.getLocale();
+		myLocales = theSource.getLocales() != null ? Collections.list(theSource.getLocales()) : Collections.emptyList();
+		mySession = theSource.getSession(false);
+		myServletContext = theSource.getServletContext();
+		myContents = theContents != null ? theContents : new byte[0];
+
+		for (Enumeration<String> names = theSource.getHeaderNames(); names != null && names.hasMoreElements(); ) {
+			String nextName = names.nextElement();
+			myHeaderNames.add(nextName);
+			Enumeration<String> values = theSource.getHeaders(nextName);
+			List<String> valueList = values != null ? Collections.list(values) : new ArrayList<>();
+			myHeaders.computeIfAbsent(nextName.toLowerCase(), t -> new ArrayList<>()).addAll(valueList);
+		}
+		for (Enumeration<String> names = theSource.getAttributeNames(); names != null && names.hasMoreElements(); ) {
+			String nextName = names.nextElement();
+			myAttributes.put(nextName, theSource.getAttribute(nextName));
+		}
+		if (theSource.getParameterMap() != null) {
+			for (Map.Entry<String, String[]> next : theSource.getParameterMap().entrySet()) {
+				myParameters.put(next.getKey(), next.getValue().clone());
+			}
+		}
+	}
+
+	@Override
+	public String getAuthType() {
+		return myAuthType;
+	}
+
+	@Override
+	public Cookie[] getCookies() {
+		return myCookies;
+	}
+
+	@Override
+	public long getDateHeader(String theName) {
+		String value = getHeader(theName);
+		if (value == null) {
+			return -1;
+		}
+		Date date = DateUtils.parseDate(value);
+		if (date == null) {
+			throw new IllegalArgumentException("Invalid date header " + theName + ": " + value);
+		}
+		return date.getTime();
+	}
+
+	@Override
+	public String getHeader(String theName) {
+		List<String> values = myHeaders.get(theName.toLowerCase());
+		return values != null && !values.isEmpty() ? values.get(0) : null;
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(String theName) {
+		List<String> values = myHeaders.get(theName.toLowerCase());
+		return Collections.enumeration(values != null ? values : Collections.emptyList());
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames() {
+		return Collections.enumeration(myHeaderNames);
+	}
+
+	@Override
+	public int getIntHeader(String theName) {
+		String value = getHeader(theName);
+		return value != null ? Integer.parseInt(value) : -1;
+	}
+
+	@Override
+	public String getMethod() {
+		return myMethod;
+	}
+
+	@Override
+	public String getPathInfo() {
+		return myPathInfo;
+	}
+
+	@Override
+	public String getPathTranslated() {
+		return myPathTranslated;
+	}
+
+	@Override
+	public String getContextPath() {
+		return myContextPath;
+	}
+
+	@Override
+	public String getQueryString() {
+		return myQueryString;
+	}
+
+	@Override
+	public String getRemoteUser() {
+		return myRemoteUser;
+	}
+
+	@Override
+	public boolean isUserInRole(String theRole) {
+		return false;
+	}
+
+	@Override
+	public Principal getUserPrincipal() {
+		return myUserPrincipal;
+	}
+
+	@Override
+	public String getRequestedSessionId() {
+		return myRequestedSessionId;
+	}
+
+	@Override
+	public String getRequestURI() {
+		return myRequestUri;
+	}
+
+	@Override
+	public StringBuffer getRequestURL() {
+		return myRequestUrl != null ? new StringBuffer(myRequestUrl) : null;
+	}
+
+	@Override
+	public String getServletPath() {
+		return myServletPath;
+	}
+
+	@Override
+	public HttpSession getSession(boolean theCreate) {
+		if (mySession == null && theCreate) {
+			throw new IllegalStateException("Can not create a session once the request has completed");
+		}
+		return mySession;
+	}
+
+	@Override
+	public HttpSession getSession() {
+		return getSession(true);
+	}
+
+	@Override
+	public String changeSessionId() {
+		throw new IllegalStateException("Can not change the session ID once the request has completed");
+	}
+
+	@Override
+	public boolean isRequestedSessionIdValid() {
+		return mySession != null;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromCookie() {
+		return false;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromURL() {
+		return false;
+	}
+
+	@Override
+	@Deprecated
+	public boolean isRequestedSessionIdFromUrl() {
+		return false;
+	}
+
+	@Override
+	public boolean authenticate(HttpServletResponse theResponse) throws ServletException {
+		throw new ServletException("Can not authenticate once the request has completed");
+	}
+
+	@Override
+	public void login(String theUsername, String thePassword) throws ServletException {
+		throw new ServletException("Can not log in once the request has completed");
+	}
+
+	@Override
+	public void logout() throws ServletException {
+		throw new ServletException("Can not log out once the request has completed");
+	}
+
+	@Override
+	public Collection<Part> getParts() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Part getPart(String theName) {
+		return null;
+	}
+
+	@Override
+	public <T extends HttpUpgradeHandler> T upgrade(Class<T> theHandlerClass) throws ServletException {
+		throw new ServletException("Can not upgrade once the request has completed");
+	}
+
+	@Override
+	public Object getAttribute(String theName) {
+		return myAttributes.get(theName);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		return Collections.enumeration(new ArrayList<>(myAttributes.keySet()));
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		return myCharacterEncoding;
+	}
+
+	@Override
+	public void setCharacterEncoding(String theEncoding) {
+		myCharacterEncoding = theEncoding;
+	}
+
+	@Override
+	public int getContentLength() {
+		return myContents.length;
+	}
+
+	@Override
+	public long getContentLengthLong() {
+		return myContents.length;
+	}
+
+	@Override
+	public String getContentType() {
+		return myContentType;
+	}
+
+	@Override
+	public ServletInputStream getInputStream() {
+		ByteArrayInputStream contents = new ByteArrayInputStream(myContents);
+		return new ServletInputStream() {
+			@Override
+			public boolean isFinished() {
+				return contents.available() == 0;
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setReadListener(ReadListener theReadListener) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int read() {
+				return contents.read();
+			}
+		};
+	}
+
+	@Override
+	public String getParameter(String theName) {
+		String[] values = myParameters.get(theName);
+		return values != null && values.length > 0 ? values[0] : null;
+	}
+
+	@Override
+	public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(myParameters.keySet());
+	}
+
+	@Override
+	public String[] getParameterValues(String theName) {
+		String[] values = myParameters.get(theName);
+		return values != null ? values.clone() : null;
+	}
+
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		return Collections.unmodifiableMap(myParameters);
+	}
+
+	@Override
+	public String getProtocol() {
+		return myProtocol;
+	}
+
+	@Override
+	public String getScheme() {
+		return myScheme;
+	}
+
+	@Override
+	public String getServerName() {
+		return myServerName;
+	}
+
+	@Override
+	public int getServerPort() {
+		return myServerPort;
+	}
+
+	@Override
+	public BufferedReader getReader() {
+		Charset charset = isNotBlank(myCharacterEncoding) ? Charset.forName(myCharacterEncoding) : StandardCharsets.ISO_8859_1;
+		return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+	}
+
+	@Override
+	public String getRemoteAddr() {
+		return myRemoteAddr;
+	}
+
+	@Override
+	public String getRemoteHost() {
+		return myRemoteHost;
+	}
+
+	@Override
+	public void setAttribute(String theName, Object theValue) {
+		if (theValue == null) {
+			myAttributes.remove(theName);
+		} else {
+			myAttributes.put(theName, theValue);
+		}
+	}
+
+	@Override
+	public void removeAttribute(String theName) {
+		myAttributes.remove(theName);
+	}
+
+	@Override
+	public Locale getLocale() {
+		return myLocale;
+	}
+
+	@Override
+	public Enumeration<Locale> getLocales() {
+		return Collections.enumeration(myLocales);
+	}
+
+	@Override
+	public boolean isSecure() {
+		return mySecure;
+	}
+
+	@Override
+	public RequestDispatcher getRequestDispatcher(String thePath) {
+		return null;
+	}
+
+	@Override
+	@Deprecated
+	public String getRealPath(String thePath) {
+		return myServletContext != null ? myServletContext.getRealPath(thePath) : null;
+	}
+
+	@Override
+	public int getRemotePort() {
+		return myRemotePort;
+	}
+
+	@Override
+	public String getLocalName() {
+		return myLocalName;
+	}
+
+	@Override
+	public String getLocalAddr() {
+		return myLocalAddr;
+	}
+
+	@Override
+	public int getLocalPort() {
+		return myLocalPort;
+	}
+
+	@Override
+	public ServletContext getServletContext() {
+		return myServletContext;
+	}
+
+	@Override
+	public AsyncContext startAsync() {
+		throw new IllegalStateException("Can not start async processing once the request has completed");
+	}
+
+	@Override
+	public AsyncContext startAsync(ServletRequest theRequest, ServletResponse theResponse) {
+		throw new IllegalStateException("Can not start async processing once the request has completed");
+	}
+
+	@Override
+	public boolean isAsyncStarted() {
+		return false;
+	}
+
+	@Override
+	public boolean isAsyncSupported() {
+		return false;
+	}
+
+	@Override
+	public AsyncContext getAsyncContext() {
+		throw new IllegalStateException("Async processing has not been started");
+	}
+
+	@Override
+	public DispatcherType getDispatcherType() {
+		return DispatcherType.REQUEST;
+	}
+}
@@ -0,0 +1,113 @@
+package ca.uhn.fhir.rest.server.servlet;
+
+/*
+ * #%L
+ * HAPI FHIR - Server Framework
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.Validate;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A copy of a {@link ServletRequestDetails} which no longer depends on the servlet request
+ * or response of the HTTP exchange it arrived on, so that the request can still be processed
+ * after that exchange has completed (e.g. when it is processed asynchronously because the client
+ * sent a <code>Prefer: respond-async</code> header).
+ * <p>
+ * {@link #getServletRequest()} returns a snapshot of the original servlet request, and
+ * {@link #getServletResponse()} returns a {@link BufferedHttpServletResponse} which collects
+ * the response so that it can be delivered to the client later.
+ * </p>
+ */
+public class DetachedServletRequestDetails extends ServletRequestDetails {
+
+	private final byte[] myRequestContents;
+	private final Charset myCharset;
+	private final String myServerBaseForRequest;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theSource The request to copy. This must be called while the source request is still being handled.
+	 */
+	public DetachedServletRequestDetails(ServletRequestDetails theSource) {
+		super(theSource.getInterceptorBroadcaster());
+		Validate.notNull(theSource.getServletRequest(), "theSource must have a servlet request");
+
+		myRequestContents = theSource.loadRequestContents();
+		myCharset = theSource.getCharset();
+		myServerBaseForRequest = theSource.getServerBaseForRequest();
+
+		setServletRequest(new DetachedHttpServletRequest(theSource.getServletRequest(), myRequestContents));
+		setServletResponse(new BufferedHttpServletResponse());
+		setServer(theSource.getServer());
+		setTenantId(theSource.getTenantId());
+		setCompartmentName(theSource.getCompartmentName());
+		setCompleteUrl(theSource.getCompleteUrl());
+		setFhirServerBase(theSource.getFhirServerBase());
+		setId(theSource.getId());
+		setOperation(theSource.getOperation());
+		setSecondaryOperation(theSource.getSecondaryOperation());
+		setRequestPath(theSource.getRequestPath());
+		setRequestType(theSource.getRequestType());
+		setResourceName(theSource.getResourceName());
+		// The buffered response is stored and replayed as-is, so it is never compressed
+		setRespondGzip(false);
+		setRestOperationType(theSource.getRestOperationType());
+		setRequestId(theSource.getRequestId());
+		setFixedConditionalUrl(theSource.getFixedConditionalUrl());
+		setRequestContents(myRequestContents);
+		getUserData().putAll(theSource.getUserData());
+		for (Map.Entry<String, List<String>> next : theSource.getResponse().getHeaders().entrySet()) {
+			for (String nextValue : next.getValue()) {
+				getResponse().addHeader(next.getKey(), nextValue);
+			}
+		}
+
+		Map<String, String[]> parameters = new HashMap<>();
+		for (Map.Entry<String, String[]> next : theSource.getParameters().entrySet()) {
+			parameters.put(next.getKey(), next.getValue().clone());
+		}
+		setParameters(parameters);
+	}
+
+	@Override
+	protected byte[] getByteStreamRequestContents() {
+		return myRequestContents;
+	}
+
+	@Override
+	public Charset getCharset() {
+		return myCharset;
+	}
+
+	@Override
+	public String getServerBaseForRequest() {
+		return myServerBaseForRequest;
+	}
+
+	@Override
+	public BufferedHttpServletResponse getServletResponse() {
+		return (BufferedHttpServletResponse) super.getServletResponse();
+	}
+
+}
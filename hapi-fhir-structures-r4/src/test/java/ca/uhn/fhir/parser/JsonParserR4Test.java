@@ -1,7 +1,10 @@
 package ca.uhn.fhir.parser;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.json.BinaryJsonReader;
+import ca.uhn.fhir.parser.json.BinaryJsonWriter;
 import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.test.BaseTest;
 import ca.uhn.fhir.util.StopWatch;
 import ca.uhn.fhir.util.TestUtil;
@@ -9,6 +12,7 @@ import com.google.common.collect.Sets;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.NullWriter;
 import org.apache.commons.lang.StringUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.*;
 import org.junit.AfterClass;
 import org.junit.Ignore;
@@ -16,13 +20,21 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.core.IsNot.not;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
@@ -78,6 +90,285 @@ public class JsonParserR4Test extends BaseTest {
 		assertThat(output, containsString("\"Questionnaire/123/_history/456\""));
 	}
 
+	@Test
+	public void testParseStreamingMatchesTreeParse() {
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		for (int i = 0; i < 5; i++) {
+			Organization org = new Organization();
+			org.setId("#org" + i);
+			org.setName("ORG" + i);
+
+			Patient p = new Patient();
+			p.getContained().add(org);
+			p.setManagingOrganization(new Reference("#org" + i));
+			p.addIdentifier().setSystem("http://ids").setValue("ID" + i);
+			HumanName name = p.addName().setFamily("FAM" + i);
+			name.addGiven("GIVEN1");
+			name.addGivenElement().addExtension("http://ext", new StringType("NO_VALUE"));
+			name.addGiven("GIVEN3").getGiven().get(2).setId("given3");
+			p.getBirthDateElement().setValueAsString("2019-01-0" + (i + 1));
+			p.getBirthDateElement().addExtension("http://birth", new BooleanType(true));
+			p.addExtension("http://patient", new Coding("http://sys", "CODE" + i, null));
+			p.setActive(true);
+			input.addEntry()
+				.setFullUrl("Patient/P" + i)
+				.setResource(p)
+				.getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/P" + i);
+		}
+		String encoded = ourCtx.newJsonParser().setPrettyPrint(true).encodeResourceToString(input);
+
+		FhirContext streamingCtx = FhirContext.forR4();
+		streamingCtx.getParserOptions().setStreamingJsonParsing(true);
+		Bundle streamed = streamingCtx.newJsonParser().parseResource(Bundle.class, encoded);
+		Bundle tree = ourCtx.newJsonParser().parseResource(Bundle.class, encoded);
+
+		assertEquals(ourCtx.newJsonParser().encodeResourceToString(tree), ourCtx.newJsonParser().encodeResourceToString(streamed));
+		Patient patient = (Patient) streamed.getEntry().get(2).getResource();
+		assertEquals("Patient/P2", patient.getIdElement().getValue());
+		assertEquals("ORG2", ((Organization) patient.getManagingOrganization().getResource()).getName());
+		assertEquals("NO_VALUE", ((StringType) patient.getName().get(0).getGiven().get(1).getExtensionByUrl("http://ext").getValue()).getValue());
+		assertEquals("given3", patient.getName().get(0).getGiven().get(2).getId());
+		assertTrue(patient.getBirthDateElement().hasExtension("http://birth"));
+	}
+
+	@Test
+	public void testParseStreamingWithUnusualPropertyOrder() {
+		String input = "{" +
+			"\"_birthDate\":{\"extension\":[{\"url\":\"http://before\",\"valueString\":\"B\"}]}," +
+			"\"contained\":[{\"id\":\"org\",\"name\":\"ORG\",\"resourceType\":\"Organization\"}]," +
+			"\"resourceType\":\"Patient\"," +
+			"\"name\":[{\"family\":\"FAM\",\"_given\":[null,{\"extension\":[{\"url\":\"http://after\",\"valueString\":\"A\"}]}],\"given\":[\"G1\",\"G2\"]}]," +
+			"\"birthDate\":\"2019-01-01\"," +
+			"\"_gender\":{\"extension\":[{\"url\":\"http://novalue\",\"valueString\":\"N\"}]}," +
+			"\"managingOrganization\":{\"reference\":\"#org\"}" +
+			"}";
+
+		FhirContext streamingCtx = FhirContext.forR4();
+		streamingCtx.getParserOptions().setStreamingJsonParsing(true);
+		Patient streamed = streamingCtx.newJsonParser().parseResource(Patient.class, input);
+		Patient tree = ourCtx.newJsonParser().parseResource(Patient.class, input);
+
+		assertEquals(ourCtx.newJsonParser().encodeResourceToString(tree), ourCtx.newJsonParser().encodeResourceToString(streamed));
+		assertEquals("2019-01-01", streamed.getBirthDateElement().getValueAsString());
+		assertTrue(streamed.getBirthDateElement().hasExtension("http://before"));
+		assertTrue(streamed.getName().get(0).getGiven().get(1).hasExtension("http://after"));
+		assertTrue(streamed.getGenderElement().hasExtension("http://novalue"));
+		assertEquals("ORG", ((Organization) streamed.getManagingOrganization().getResource()).getName());
+	}
+
+	@Test
+	public void testEncodeResourceToOutputStream() throws IOException {
+		Patient p = new Patient();
+		p.setId("Patient/123");
+		p.addName().setFamily("Ålberg").addGiven("Zoë");
+		p.getText().setDivAsString("<div>Ålberg, Zoë</div>");
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ourCtx.newJsonParser().encodeResourceToOutputStream(p, os);
+		assertArrayEquals(ourCtx.newJsonParser().encodeResourceToString(p).getBytes(StandardCharsets.UTF_8), os.toByteArray());
+
+		os = new ByteArrayOutputStream();
+		ourCtx.newXmlParser().encodeResourceToOutputStream(p, os);
+		assertArrayEquals(ourCtx.newXmlParser().encodeResourceToString(p).getBytes(StandardCharsets.UTF_8), os.toByteArray());
+	}
+
+	@Test
+	public void testEncodeAndParseBinary() throws IOException {
+		Patient p = new Patient();
+		p.setId("Patient/123");
+		p.getMeta().setVersionId("2");
+		p.addName().setFamily("Ålberg").addGiven("Zoë");
+		p.addName().setFamily("Ålberg").addGiven("Zoë");
+		p.addExtension("http://foo", new DecimalType("1.00"));
+		p.setActive(true);
+		p.getText().setDivAsString("<div>Ålberg, Zoë</div>");
+		Organization org = new Organization();
+		org.setId("#org");
+		org.setName("ORG");
+		p.getContained().add(org);
+		p.getManagingOrganization().setReference("#org");
+
+		IJsonLikeParser parser = (IJsonLikeParser) ourCtx.newJsonParser();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		parser.encodeResourceToBinary(p, os);
+		byte[] binary = os.toByteArray();
+		String json = parser.encodeResourceToString(p);
+		ourLog.info("Binary: {} bytes - JSON: {} bytes", binary.length, json.getBytes(StandardCharsets.UTF_8).length);
+		assertThat(binary.length, lessThan(json.getBytes(StandardCharsets.UTF_8).length));
+
+		// Converting either way gives exactly the same content
+		assertEquals(json, BinaryJsonReader.toJson(binary));
+		assertArrayEquals(binary, BinaryJsonWriter.fromJson(json));
+
+		Patient parsed = parser.parseResourceFromBinary(Patient.class, binary);
+		assertEquals(json, parser.encodeResourceToString(parsed));
+		assertEquals("1.00", ((DecimalType) parsed.getExtensionByUrl("http://foo").getValue()).getValueAsString());
+		assertEquals("ORG", ((Organization) parsed.getManagingOrganization().getResource()).getName());
+	}
+
+	@Test
+	public void testParseBinaryInvalid() {
+		IJsonLikeParser parser = (IJsonLikeParser) ourCtx.newJsonParser();
+		try {
+			parser.parseResourceFromBinary(Patient.class, "{\"resourceType\":\"Patient\"}".getBytes(StandardCharsets.UTF_8));
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("binary JSON"));
+		}
+	}
+
+	@Test
+	public void testParseBinaryWithInvalidReference() throws IOException {
+		IJsonLikeParser parser = (IJsonLikeParser) ourCtx.newJsonParser();
+
+		// Header, begin object, then a reference to a name that has not been read
+		byte[] badNameRef = {'H', 'B', 'J', 1, 1, 6, 5};
+		try {
+			parser.parseResourceFromBinary(Patient.class, badNameRef);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("reference to name 5"));
+		}
+
+		// Header, then a reference to a string that has not been read
+		byte[] badStringRef = {'H', 'B', 'J', 1, 8, 0};
+		try {
+			BinaryJsonReader.toJson(badStringRef);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("reference to string 0"));
+		}
+	}
+
+	@Test
+	public void testParseBundleIncrementally() {
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		input.getMeta().setLastUpdatedElement(new InstantType("2019-01-01T00:00:00Z"));
+		for (int i = 0; i < 5; i++) {
+			Patient p = new Patient();
+			p.setActive(true);
+			p.getManagingOrganization().setReference("urn:uuid:org" + i);
+			p.addName().setFamily("FAM" + i);
+			input.addEntry()
+				.setFullUrl("Patient/P" + i)
+				.setResource(p)
+				.getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/P" + i);
+			input.addEntry()
+				.setResource(new Organization().setName("ORG" + i))
+				.getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("urn:uuid:org" + i);
+		}
+		input.getSignature().setWhenElement(new InstantType("2019-01-02T00:00:00Z"));
+		String encoded = ourCtx.newJsonParser().encodeResourceToString(input);
+
+		List<Bundle.BundleEntryComponent> entries = new ArrayList<>();
+		Bundle parsed = ourCtx.newJsonParser().parseBundle(Bundle.class, new StringReader(encoded), t -> entries.add((Bundle.BundleEntryComponent) t));
+
+		assertEquals(Bundle.BundleType.TRANSACTION, parsed.getType());
+		assertEquals("2019-01-01T00:00:00Z", parsed.getMeta().getLastUpdatedElement().getValueAsString());
+		assertEquals("2019-01-02T00:00:00Z", parsed.getSignature().getWhenElement().getValueAsString());
+		assertEquals(0, parsed.getEntry().size());
+
+		assertEquals(10, entries.size());
+		assertEquals("Patient/P3", entries.get(6).getResource().getIdElement().getValue());
+		assertEquals("FAM3", ((Patient) entries.get(6).getResource()).getNameFirstRep().getFamily());
+		assertEquals("urn:uuid:org3", entries.get(7).getResource().getIdElement().getValue());
+		assertEquals("ORG3", ((Organization) entries.get(7).getResource()).getName());
+
+		// References between entries aren't resolved when parsing incrementally
+		assertNull(((Patient) entries.get(6).getResource()).getManagingOrganization().getResource());
+
+		// Entries of nested Bundles are left in place
+		Bundle outer = new Bundle();
+		outer.setType(Bundle.BundleType.COLLECTION);
+		outer.addEntry().setResource(input);
+		entries.clear();
+		ourCtx.newJsonParser().parseBundle(Bundle.class, new StringReader(ourCtx.newJsonParser().encodeResourceToString(outer)), t -> entries.add((Bundle.BundleEntryComponent) t));
+		assertEquals(1, entries.size());
+		assertEquals(10, ((Bundle) entries.get(0).getResource()).getEntry().size());
+	}
+
+	@Test
+	public void testParseBundleIncrementallyWithNonStreamingParser() {
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		for (int i = 0; i < 3; i++) {
+			input.addEntry()
+				.setResource(new Organization().setName("ORG" + i))
+				.getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("urn:uuid:org" + i);
+		}
+		String encoded = ourCtx.newJsonParser().encodeResourceToString(input);
+
+		// A parser which only implements full parsing falls back to handing over the entries afterwards
+		IParser jsonParser = ourCtx.newJsonParser();
+		BaseParser parser = new BaseParser(ourCtx, new LenientErrorHandler()) {
+			@Override
+			protected void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter, EncodeContext theEncodeContext) throws IOException {
+				jsonParser.encodeResourceToWriter(theResource, theWriter);
+			}
+
+			@Override
+			protected <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
+				return jsonParser.parseResource(theResourceType, theReader);
+			}
+
+			@Override
+			public EncodingEnum getEncoding() {
+				return EncodingEnum.JSON;
+			}
+
+			@Override
+			public IParser setPrettyPrint(boolean thePrettyPrint) {
+				return this;
+			}
+		};
+
+		List<Bundle.BundleEntryComponent> entries = new ArrayList<>();
+		Bundle parsed = parser.parseBundle(Bundle.class, new StringReader(encoded), t -> entries.add((Bundle.BundleEntryComponent) t));
+
+		assertEquals(Bundle.BundleType.TRANSACTION, parsed.getType());
+		assertEquals(0, parsed.getEntry().size());
+		assertEquals(3, entries.size());
+		assertEquals("urn:uuid:org2", entries.get(2).getResource().getIdElement().getValue());
+		assertEquals("ORG2", ((Organization) entries.get(2).getResource()).getName());
+	}
+
+	@Test
+	public void testParseStreamingInvalidContent() {
+		FhirContext streamingCtx = FhirContext.forR4();
+		streamingCtx.getParserOptions().setStreamingJsonParsing(true);
+		IParser parser = streamingCtx.newJsonParser();
+
+		try {
+			parser.parseResource("");
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Did not find any content to parse", e.getMessage());
+		}
+
+		try {
+			parser.parseResource("{\"name\":[{\"family\":\"FAM\"}]}");
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Invalid JSON content detected, missing required element: 'resourceType'", e.getMessage());
+		}
+
+		try {
+			parser.parseResource("{\"resourceType\":\"Patient\",\"contained\":[{\"id\":\"org\"}]}");
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Missing required element 'resourceType' from JSON resource object, unable to parse", e.getMessage());
+		}
+
+		try {
+			parser.parseResource("{\"resourceType\":\"Patient\",\"name\":[{\"family\":\"FAM\"}");
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("Failed to parse JSON encoded FHIR content"));
+		}
+	}
+
 	/**
 	 * See #814
 	 */
@@ -1,9 +1,17 @@
 package ca.uhn.fhir.parser;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Composition;
+import org.hl7.fhir.r4.model.InstantType;
 import org.hl7.fhir.r4.model.Narrative;
+import org.hl7.fhir.r4.model.Patient;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,5 +49,29 @@ public class XmlParserR4Test {
 		int idx = encoded.indexOf(sectionText);
 		assertNotEquals(-1, idx);
 	}
-	
+
+	@Test
+	public void testParseBundleIncrementally() {
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.COLLECTION);
+		for (int i = 0; i < 3; i++) {
+			Patient p = new Patient();
+			p.setId("P" + i);
+			p.addName().setFamily("FAM" + i);
+			input.addEntry().setFullUrl("http://foo/Patient/P" + i).setResource(p);
+		}
+		input.getSignature().setWhenElement(new InstantType("2019-01-02T00:00:00Z"));
+		String encoded = ourCtx.newXmlParser().encodeResourceToString(input);
+
+		List<Bundle.BundleEntryComponent> entries = new ArrayList<>();
+		Bundle parsed = ourCtx.newXmlParser().parseBundle(Bundle.class, new StringReader(encoded), t -> entries.add((Bundle.BundleEntryComponent) t));
+
+		assertEquals(Bundle.BundleType.COLLECTION, parsed.getType());
+		assertEquals("2019-01-02T00:00:00Z", parsed.getSignature().getWhenElement().getValueAsString());
+		assertEquals(0, parsed.getEntry().size());
+		assertEquals(3, entries.size());
+		assertEquals("http://foo/Patient/P1", entries.get(1).getResource().getIdElement().getValue());
+		assertEquals("FAM1", ((Patient) entries.get(1).getResource()).getNameFirstRep().getFamily());
+	}
+
 }